@@ -20,10 +20,15 @@
  */
 
 #include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <limits.h>
+#include <pthread.h>
 #include <cyassl/ssl.h>
 #include <cyassl/error-ssl.h>
 #include <cyassl/ctaocrypt/logging.h>
 #include <cyassl/ctaocrypt/hmac.h>
+#include <cyassl/ctaocrypt/memory.h>
 
 #include "com_wolfssl_globals.h"
 #include "com_wolfssl_WolfSSL.h"
@@ -31,17 +36,431 @@
 /* global object refs for logging callbacks */
 static jobject g_loggingCbIfaceObj;
 
+/* cached class, method and field IDs, declared in com_wolfssl_globals.h */
+jclass    g_excClass;
+jclass    g_nullPtrExcClass;
+jclass    g_inetSockAddrClass;
+
+jmethodID g_getCtxMethodId;
+jmethodID g_ioRecvMethodId;
+jmethodID g_ioSendMethodId;
+jmethodID g_ioRecvBufMethodId;
+jmethodID g_ioSendBufMethodId;
+jmethodID g_genCookieMethodId;
+jmethodID g_macEncryptMethodId;
+jmethodID g_decryptVerifyMethodId;
+jmethodID g_eccSignMethodId;
+jmethodID g_eccVerifyMethodId;
+jmethodID g_rsaSignMethodId;
+jmethodID g_rsaVerifyMethodId;
+jmethodID g_rsaEncMethodId;
+jmethodID g_rsaDecMethodId;
+jmethodID g_verifyMethodId;
+jmethodID g_loggingMethodId;
+jmethodID g_missingCRLMethodId;
+
+jmethodID g_getPortMethodId;
+jmethodID g_getAddressMethodId;
+jmethodID g_isAnyLocalMethodId;
+jmethodID g_getHostAddressMethodId;
+jmethodID g_isaStringCtorId;
+jmethodID g_isaPortCtorId;
+
+jfieldID  g_socketImplFid;
+jfieldID  g_datagramImplFid;
+jfieldID  g_socketImplFdFid;
+jfieldID  g_datagramImplFdFid;
+jfieldID  g_fdescFdFid;
+jfieldID  g_bufferAddressFid;
+jfieldID  g_bufferCapacityFid;
+jfieldID  g_bufferLimitFid;
+jfieldID  g_bufferPositionFid;
+jfieldID  g_bufferMarkFid;
+jfieldID  g_sessionMemFid;
+jfieldID  g_contextMemFid;
+
+/* thread-local key whose destructor detaches threads attached by
+ * NativeGetEnv() */
+static pthread_key_t g_detachKey;
+static int g_detachKeyValid = 0;
+
+/* longest log message kept by asynchronous logging, longer ones are cut */
+#define NATIVE_LOG_MSG_SZ 160
+
+/* one asynchronous logging ring slot. seq tells producers and the drain
+ * thread whose turn it is: equal to the slot's position when free, one
+ * past it once a message has been stored */
+typedef struct {
+    volatile unsigned int seq;
+    int  level;
+    char msg[NATIVE_LOG_MSG_SZ];
+} NativeLogSlot;
+
+/* asynchronous logging ring, allocated by the first enableAsyncLogging()
+ * and kept for the life of the process since producers never lock */
+static NativeLogSlot*        g_logRing = NULL;
+static unsigned int          g_logMask;
+static volatile unsigned int g_logHead;     /* next slot producers claim */
+static unsigned int          g_logTail;     /* next slot drained */
+static volatile int          g_logAsync = 0;
+static volatile int          g_logMaxLevel = INT_MAX;
+static volatile unsigned long g_logDropped = 0;
+
+/* native memory counters. refs counts the owning Java object plus every
+ * live block charged here, so a block freed after its session or context
+ * still finds valid counters */
+struct NativeMemStats {
+    volatile long live;     /* bytes currently allocated */
+    volatile long peak;     /* highest value live has reached */
+    volatile long allocs;   /* blocks allocated */
+    volatile long frees;    /* blocks freed */
+    volatile long refs;
+
+    /* optional arena serving blocks charged here, NULL if none. Blocks
+     * are carved from the top and only given back when the most recent
+     * one is freed, or all of them are. */
+    unsigned char*  arena;
+    size_t          arenaSz;
+    size_t          arenaTop;       /* offset of first unused byte */
+    long            arenaBlocks;    /* arena blocks not yet freed */
+    pthread_mutex_t arenaLock;
+};
+
+/* placed in front of every block handed to wolfSSL, padded so the block
+ * itself keeps the alignment malloc() guarantees */
+typedef union {
+    struct {
+        NativeMemStats* owner;  /* NULL if only counted globally */
+        size_t size;
+    } h;
+    long double align;
+} NativeMemHeader;
+
+/* every allocation made by wolfSSL, owned by nothing */
+static NativeMemStats g_memGlobal;
+
+/* counters allocations of the calling thread are charged to, set by
+ * NativeMemEnter() around native calls on a session or context */
+static __thread NativeMemStats* g_memOwner = NULL;
+
 /* custom native fn prototypes */
 void NativeLoggingCallback(const int logLevel, const char *const logMessage);
+static void NativeLogEnqueue(int logLevel, const char* logMessage);
+static void NativeDetachThread(void* unused);
+static int NativeCacheIds(JNIEnv* jenv);
+static jclass NativeFindGlobalClass(JNIEnv* jenv, const char* name);
+static jmethodID NativeFindMethod(JNIEnv* jenv, const char* cls,
+        const char* name, const char* sig);
+static jfieldID NativeFindOptionalField(JNIEnv* jenv, const char* cls,
+        const char* name, const char* sig);
+static void* NativeMalloc(size_t size);
+static void NativeFree(void* ptr);
+static void* NativeRealloc(void* ptr, size_t size);
 
 /* called when native library is loaded */
 jint JNI_OnLoad(JavaVM* vm, void* reserved)
 {
+    JNIEnv* jenv;
+
+    /* count native memory from the first allocation wolfSSL makes, every
+     * block it frees must have come from NativeMalloc() */
+    if (CyaSSL_SetAllocators(NativeMalloc, NativeFree, NativeRealloc) != 0)
+        return JNI_ERR;
+
     /* store JavaVM */
     g_vm = vm;
+
+    if ((*vm)->GetEnv(vm, (void**) &jenv, JNI_VERSION_1_6) != JNI_OK)
+        return JNI_ERR;
+
+    if (pthread_key_create(&g_detachKey, NativeDetachThread) == 0)
+        g_detachKeyValid = 1;
+
+    /* resolve everything the callbacks need up front, failing the load
+     * here is better than failing inside a handshake */
+    if (NativeCacheIds(jenv) != 0)
+        return JNI_ERR;
+
     return JNI_VERSION_1_6;
 }
 
+/* called when the class loader holding the native library is collected */
+void JNI_OnUnload(JavaVM* vm, void* reserved)
+{
+    JNIEnv* jenv;
+
+    if ((*vm)->GetEnv(vm, (void**) &jenv, JNI_VERSION_1_6) != JNI_OK)
+        return;
+
+    if (g_excClass)
+        (*jenv)->DeleteGlobalRef(jenv, g_excClass);
+    if (g_nullPtrExcClass)
+        (*jenv)->DeleteGlobalRef(jenv, g_nullPtrExcClass);
+    if (g_inetSockAddrClass)
+        (*jenv)->DeleteGlobalRef(jenv, g_inetSockAddrClass);
+
+    g_excClass = NULL;
+    g_nullPtrExcClass = NULL;
+    g_inetSockAddrClass = NULL;
+
+    if (g_detachKeyValid) {
+        pthread_key_delete(g_detachKey);
+        g_detachKeyValid = 0;
+    }
+}
+
+JNIEnv* NativeGetEnv(void)
+{
+    JNIEnv* jenv = NULL;
+    jint    vmret;
+
+    if (!g_vm)
+        return NULL;
+
+    vmret = (*g_vm)->GetEnv(g_vm, (void**) &jenv, JNI_VERSION_1_6);
+    if (vmret == JNI_OK)
+        return jenv;
+
+    if (vmret != JNI_EDETACHED)
+        return NULL;
+
+    /* native thread calling back into Java for the first time, attach it
+     * once as a daemon so it never keeps the JVM alive */
+#ifdef __ANDROID__
+    vmret = (*g_vm)->AttachCurrentThreadAsDaemon(g_vm, &jenv, NULL);
+#else
+    vmret = (*g_vm)->AttachCurrentThreadAsDaemon(g_vm, (void**) &jenv, NULL);
+#endif
+    if (vmret != JNI_OK)
+        return NULL;
+
+    /* any non-NULL value makes the key destructor run at thread exit */
+    if (g_detachKeyValid)
+        pthread_setspecific(g_detachKey, (void*) g_vm);
+
+    return jenv;
+}
+
+/* pthread key destructor, runs when a thread attached by NativeGetEnv()
+ * exits */
+static void NativeDetachThread(void* unused)
+{
+    if (g_vm)
+        (*g_vm)->DetachCurrentThread(g_vm);
+}
+
+/* returns a global ref to the named class, or NULL with no exception
+ * pending */
+static jclass NativeFindGlobalClass(JNIEnv* jenv, const char* name)
+{
+    jclass local;
+    jclass global;
+
+    local = (*jenv)->FindClass(jenv, name);
+    if (!local) {
+        if ((*jenv)->ExceptionOccurred(jenv)) {
+            (*jenv)->ExceptionDescribe(jenv);
+            (*jenv)->ExceptionClear(jenv);
+        }
+        return NULL;
+    }
+
+    global = (*jenv)->NewGlobalRef(jenv, local);
+    (*jenv)->DeleteLocalRef(jenv, local);
+
+    return (jclass)global;
+}
+
+/* returns the instance method ID of cls.name, or NULL with no exception
+ * pending */
+static jmethodID NativeFindMethod(JNIEnv* jenv, const char* cls,
+        const char* name, const char* sig)
+{
+    jclass    klass;
+    jmethodID mid = NULL;
+
+    klass = (*jenv)->FindClass(jenv, cls);
+    if (klass) {
+        mid = (*jenv)->GetMethodID(jenv, klass, name, sig);
+        (*jenv)->DeleteLocalRef(jenv, klass);
+    }
+
+    if ((*jenv)->ExceptionOccurred(jenv)) {
+        (*jenv)->ExceptionDescribe(jenv);
+        (*jenv)->ExceptionClear(jenv);
+        return NULL;
+    }
+
+    return mid;
+}
+
+/* returns the field ID of cls.name, or NULL if this JVM does not have
+ * it. Callers fall back to a lookup on the runtime class when NULL. */
+static jfieldID NativeFindOptionalField(JNIEnv* jenv, const char* cls,
+        const char* name, const char* sig)
+{
+    jclass   klass;
+    jfieldID fid = NULL;
+
+    klass = (*jenv)->FindClass(jenv, cls);
+    if (klass) {
+        fid = (*jenv)->GetFieldID(jenv, klass, name, sig);
+        (*jenv)->DeleteLocalRef(jenv, klass);
+    }
+
+    if ((*jenv)->ExceptionOccurred(jenv)) {
+        (*jenv)->ExceptionClear(jenv);
+        return NULL;
+    }
+
+    return fid;
+}
+
+static int NativeCacheIds(JNIEnv* jenv)
+{
+    const char* ctxCls  = "com/wolfssl/WolfSSLContext";
+    const char* sessCls = "com/wolfssl/WolfSSLSession";
+    const char* isaCls  = "java/net/InetSocketAddress";
+    const char* iaCls   = "java/net/InetAddress";
+
+    g_excClass = NativeFindGlobalClass(jenv, "java/lang/Exception");
+    g_nullPtrExcClass = NativeFindGlobalClass(jenv,
+            "java/lang/NullPointerException");
+    g_inetSockAddrClass = NativeFindGlobalClass(jenv, isaCls);
+
+    if (!g_excClass || !g_nullPtrExcClass || !g_inetSockAddrClass)
+        return -1;
+
+    g_getCtxMethodId = NativeFindMethod(jenv, sessCls,
+            "getAssociatedContextPtr", "()Lcom/wolfssl/WolfSSLContext;");
+
+    /* WolfSSLContext internal callbacks */
+    g_ioRecvMethodId = NativeFindMethod(jenv, ctxCls,
+            "internalIORecvCallback",
+            "(Lcom/wolfssl/WolfSSLSession;[BI)I");
+    g_ioSendMethodId = NativeFindMethod(jenv, ctxCls,
+            "internalIOSendCallback",
+            "(Lcom/wolfssl/WolfSSLSession;[BI)I");
+    g_ioRecvBufMethodId = NativeFindMethod(jenv, ctxCls,
+            "internalIORecvBufferCallback",
+            "(Lcom/wolfssl/WolfSSLSession;Ljava/nio/ByteBuffer;I)I");
+    g_ioSendBufMethodId = NativeFindMethod(jenv, ctxCls,
+            "internalIOSendBufferCallback",
+            "(Lcom/wolfssl/WolfSSLSession;Ljava/nio/ByteBuffer;I)I");
+    g_genCookieMethodId = NativeFindMethod(jenv, ctxCls,
+            "internalGenCookieCallback",
+            "(Lcom/wolfssl/WolfSSLSession;[BI)I");
+    g_macEncryptMethodId = NativeFindMethod(jenv, ctxCls,
+            "internalMacEncryptCallback",
+            "(Lcom/wolfssl/WolfSSLSession;Ljava/nio/ByteBuffer;"
+            "[BJIILjava/nio/ByteBuffer;Ljava/nio/ByteBuffer;J)I");
+    g_decryptVerifyMethodId = NativeFindMethod(jenv, ctxCls,
+            "internalDecryptVerifyCallback",
+            "(Lcom/wolfssl/WolfSSLSession;Ljava/nio/ByteBuffer;[BJII[J)I");
+    g_eccSignMethodId = NativeFindMethod(jenv, ctxCls,
+            "internalEccSignCallback",
+            "(Lcom/wolfssl/WolfSSLSession;Ljava/nio/ByteBuffer;"
+            "JLjava/nio/ByteBuffer;[JLjava/nio/ByteBuffer;J)I");
+    g_eccVerifyMethodId = NativeFindMethod(jenv, ctxCls,
+            "internalEccVerifyCallback",
+            "(Lcom/wolfssl/WolfSSLSession;Ljava/nio/ByteBuffer;"
+            "JLjava/nio/ByteBuffer;JLjava/nio/ByteBuffer;J[I)I");
+    g_rsaSignMethodId = NativeFindMethod(jenv, ctxCls,
+            "internalRsaSignCallback",
+            "(Lcom/wolfssl/WolfSSLSession;Ljava/nio/ByteBuffer;"
+            "JLjava/nio/ByteBuffer;[ILjava/nio/ByteBuffer;J)I");
+    g_rsaVerifyMethodId = NativeFindMethod(jenv, ctxCls,
+            "internalRsaVerifyCallback",
+            "(Lcom/wolfssl/WolfSSLSession;Ljava/nio/ByteBuffer;"
+            "JLjava/nio/ByteBuffer;JLjava/nio/ByteBuffer;J)I");
+    g_rsaEncMethodId = NativeFindMethod(jenv, ctxCls,
+            "internalRsaEncCallback",
+            "(Lcom/wolfssl/WolfSSLSession;Ljava/nio/ByteBuffer;"
+            "JLjava/nio/ByteBuffer;[ILjava/nio/ByteBuffer;J)I");
+    g_rsaDecMethodId = NativeFindMethod(jenv, ctxCls,
+            "internalRsaDecCallback",
+            "(Lcom/wolfssl/WolfSSLSession;Ljava/nio/ByteBuffer;"
+            "JLjava/nio/ByteBuffer;JLjava/nio/ByteBuffer;J)I");
+
+    /* user callback interfaces */
+    g_verifyMethodId = NativeFindMethod(jenv,
+            "com/wolfssl/WolfSSLVerifyCallback", "verifyCallback", "(IJ)I");
+    g_loggingMethodId = NativeFindMethod(jenv,
+            "com/wolfssl/WolfSSLLoggingCallback", "loggingCallback",
+            "(ILjava/lang/String;)V");
+    g_missingCRLMethodId = NativeFindMethod(jenv,
+            "com/wolfssl/WolfSSLMissingCRLCallback", "missingCRLCallback",
+            "(Ljava/lang/String;)V");
+
+    /* DTLS peer conversion */
+    g_getPortMethodId = NativeFindMethod(jenv, isaCls, "getPort", "()I");
+    g_getAddressMethodId = NativeFindMethod(jenv, isaCls, "getAddress",
+            "()Ljava/net/InetAddress;");
+    g_isAnyLocalMethodId = NativeFindMethod(jenv, iaCls,
+            "isAnyLocalAddress", "()Z");
+    g_getHostAddressMethodId = NativeFindMethod(jenv, iaCls,
+            "getHostAddress", "()Ljava/lang/String;");
+    g_isaStringCtorId = NativeFindMethod(jenv, isaCls, "<init>",
+            "(Ljava/lang/String;I)V");
+    g_isaPortCtorId = NativeFindMethod(jenv, isaCls, "<init>", "(I)V");
+
+    if (!g_getCtxMethodId || !g_ioRecvMethodId || !g_ioSendMethodId ||
+        !g_ioRecvBufMethodId || !g_ioSendBufMethodId ||
+        !g_genCookieMethodId || !g_macEncryptMethodId ||
+        !g_decryptVerifyMethodId || !g_eccSignMethodId ||
+        !g_eccVerifyMethodId || !g_rsaSignMethodId ||
+        !g_rsaVerifyMethodId || !g_rsaEncMethodId || !g_rsaDecMethodId ||
+        !g_verifyMethodId || !g_loggingMethodId || !g_missingCRLMethodId ||
+        !g_getPortMethodId || !g_getAddressMethodId ||
+        !g_isAnyLocalMethodId || !g_getHostAddressMethodId ||
+        !g_isaStringCtorId || !g_isaPortCtorId) {
+        return -1;
+    }
+
+    /* socket internals used by setFd(), these differ between JVMs so a
+     * missing field only disables the cached path */
+    g_socketImplFid = NativeFindOptionalField(jenv, "java/net/Socket",
+            "impl", "Ljava/net/SocketImpl;");
+    g_datagramImplFid = NativeFindOptionalField(jenv,
+            "java/net/DatagramSocket", "impl",
+            "Ljava/net/DatagramSocketImpl;");
+    g_socketImplFdFid = NativeFindOptionalField(jenv, "java/net/SocketImpl",
+            "fd", "Ljava/io/FileDescriptor;");
+    g_datagramImplFdFid = NativeFindOptionalField(jenv,
+            "java/net/DatagramSocketImpl", "fd", "Ljava/io/FileDescriptor;");
+#ifdef __ANDROID__
+    g_fdescFdFid = NativeFindOptionalField(jenv, "java/io/FileDescriptor",
+            "descriptor", "I");
+#else
+    g_fdescFdFid = NativeFindOptionalField(jenv, "java/io/FileDescriptor",
+            "fd", "I");
+#endif
+
+    /* lets ByteBuffer I/O and PK callbacks re-point their direct
+     * ByteBuffers instead of creating new ones for every call */
+    g_bufferAddressFid = NativeFindOptionalField(jenv, "java/nio/Buffer",
+            "address", "J");
+    g_bufferCapacityFid = NativeFindOptionalField(jenv, "java/nio/Buffer",
+            "capacity", "I");
+    g_bufferLimitFid = NativeFindOptionalField(jenv, "java/nio/Buffer",
+            "limit", "I");
+    g_bufferPositionFid = NativeFindOptionalField(jenv, "java/nio/Buffer",
+            "position", "I");
+    g_bufferMarkFid = NativeFindOptionalField(jenv, "java/nio/Buffer",
+            "mark", "I");
+
+    /* our own fields, missing only if the jar and library do not match */
+    g_sessionMemFid = NativeFindOptionalField(jenv, sessCls,
+            "memStatsPtr", "J");
+    g_contextMemFid = NativeFindOptionalField(jenv, ctxCls,
+            "memStatsPtr", "J");
+
+    if (!g_sessionMemFid || !g_contextMemFid)
+        return -1;
+
+    return 0;
+}
+
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSL_init
   (JNIEnv* jenv, jobject jcl)
 {
@@ -52,8 +471,239 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSL_init
 JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSL_nativeFree
   (JNIEnv* jenv, jobject jcl, jlong ptr)
 {
+    /* memory from wolfSSL carries a NativeMalloc() header */
     if((void*)ptr)
-        free((void*)ptr);
+        CyaSSL_Free((void*)ptr);
+}
+
+/* adds delta bytes and the given block counts to st, raising its peak */
+static void NativeMemCount(NativeMemStats* st, long delta, long allocs,
+        long frees)
+{
+    long live;
+    long peak;
+
+    live = __sync_add_and_fetch(&st->live, delta);
+    if (allocs)
+        __sync_fetch_and_add(&st->allocs, allocs);
+    if (frees)
+        __sync_fetch_and_add(&st->frees, frees);
+
+    peak = st->peak;
+    while (live > peak) {
+        if (__sync_bool_compare_and_swap(&st->peak, peak, live))
+            break;
+        peak = st->peak;
+    }
+}
+
+static void NativeMemUnref(NativeMemStats* st)
+{
+    if (__sync_sub_and_fetch(&st->refs, 1) != 0)
+        return;
+
+    if (st->arena) {
+        pthread_mutex_destroy(&st->arenaLock);
+        free(st->arena);
+    }
+    free(st);
+}
+
+/* arena space taken by a block of sz bytes including its header */
+static size_t NativeArenaSpan(size_t sz)
+{
+    return (sizeof(NativeMemHeader) + sz + sizeof(NativeMemHeader) - 1) &
+           ~(sizeof(NativeMemHeader) - 1);
+}
+
+static int NativeArenaOwns(NativeMemStats* st, NativeMemHeader* hdr)
+{
+    return st->arena && (unsigned char*)hdr >= st->arena &&
+           (unsigned char*)hdr < st->arena + st->arenaSz;
+}
+
+/* returns arena space for a block of sz bytes, or NULL if full */
+static NativeMemHeader* NativeArenaAlloc(NativeMemStats* st, size_t sz)
+{
+    NativeMemHeader* hdr = NULL;
+    size_t span = NativeArenaSpan(sz);
+
+    pthread_mutex_lock(&st->arenaLock);
+    if (span <= st->arenaSz - st->arenaTop) {
+        hdr = (NativeMemHeader*)(st->arena + st->arenaTop);
+        st->arenaTop += span;
+        st->arenaBlocks++;
+    }
+    pthread_mutex_unlock(&st->arenaLock);
+
+    return hdr;
+}
+
+static void NativeArenaFree(NativeMemStats* st, NativeMemHeader* hdr)
+{
+    size_t span = NativeArenaSpan(hdr->h.size);
+
+    pthread_mutex_lock(&st->arenaLock);
+    if ((unsigned char*)hdr + span == st->arena + st->arenaTop)
+        st->arenaTop -= span;
+    if (--st->arenaBlocks == 0)
+        st->arenaTop = 0;
+    pthread_mutex_unlock(&st->arenaLock);
+}
+
+/* allocates a block charged to owner, from its arena when it has room */
+static void* NativeAlloc(NativeMemStats* owner, size_t size)
+{
+    NativeMemHeader* hdr = NULL;
+
+    if (owner && owner->arena)
+        hdr = NativeArenaAlloc(owner, size);
+    if (!hdr)
+        hdr = (NativeMemHeader*)malloc(sizeof(NativeMemHeader) + size);
+    if (!hdr)
+        return NULL;
+
+    hdr->h.owner = owner;
+    hdr->h.size = size;
+
+    NativeMemCount(&g_memGlobal, (long)size, 1, 0);
+    if (owner) {
+        __sync_fetch_and_add(&owner->refs, 1);
+        NativeMemCount(owner, (long)size, 1, 0);
+    }
+
+    return hdr + 1;
+}
+
+static void* NativeMalloc(size_t size)
+{
+    return NativeAlloc(g_memOwner, size);
+}
+
+static void NativeFree(void* ptr)
+{
+    NativeMemHeader* hdr;
+    NativeMemStats*  owner;
+
+    if (!ptr)
+        return;
+
+    hdr = (NativeMemHeader*)ptr - 1;
+    owner = hdr->h.owner;
+
+    NativeMemCount(&g_memGlobal, -(long)hdr->h.size, 0, 1);
+    if (!owner) {
+        free(hdr);
+        return;
+    }
+
+    NativeMemCount(owner, -(long)hdr->h.size, 0, 1);
+    if (NativeArenaOwns(owner, hdr))
+        NativeArenaFree(owner, hdr);
+    else
+        free(hdr);
+
+    /* last, this may free the arena */
+    NativeMemUnref(owner);
+}
+
+/* a resized block stays charged to its original owner */
+static void* NativeRealloc(void* ptr, size_t size)
+{
+    NativeMemHeader* hdr;
+    size_t old;
+    void*  moved;
+
+    if (!ptr)
+        return NativeMalloc(size);
+
+    hdr = (NativeMemHeader*)ptr - 1;
+    old = hdr->h.size;
+
+    /* arena blocks can't grow in place, move them */
+    if (hdr->h.owner && NativeArenaOwns(hdr->h.owner, hdr)) {
+        moved = NativeAlloc(hdr->h.owner, size);
+        if (!moved)
+            return NULL;
+        memcpy(moved, ptr, old < size ? old : size);
+        NativeFree(ptr);
+        return moved;
+    }
+
+    hdr = (NativeMemHeader*)realloc(hdr, sizeof(NativeMemHeader) + size);
+    if (!hdr)
+        return NULL;
+
+    hdr->h.size = size;
+
+    NativeMemCount(&g_memGlobal, (long)size - (long)old, 0, 0);
+    if (hdr->h.owner)
+        NativeMemCount(hdr->h.owner, (long)size - (long)old, 0, 0);
+
+    return hdr + 1;
+}
+
+NativeMemStats* NativeMemEnter(JNIEnv* jenv, jobject obj, jfieldID fid)
+{
+    NativeMemStats* prev = g_memOwner;
+
+    g_memOwner = (NativeMemStats*)
+        (*jenv)->GetLongField(jenv, obj, fid);
+
+    return prev;
+}
+
+void NativeMemLeave(NativeMemStats* prev)
+{
+    g_memOwner = prev;
+}
+
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSL_newMemStats
+  (JNIEnv* jenv, jclass jcl, jint arenaSz)
+{
+    NativeMemStats* st;
+
+    st = (NativeMemStats*)calloc(1, sizeof(NativeMemStats));
+    if (!st)
+        return 0;
+
+    /* without an arena, blocks simply come from malloc() */
+    if (arenaSz > 0 && pthread_mutex_init(&st->arenaLock, NULL) == 0) {
+        st->arena = (unsigned char*)malloc((size_t)arenaSz);
+        if (st->arena)
+            st->arenaSz = (size_t)arenaSz;
+        else
+            pthread_mutex_destroy(&st->arenaLock);
+    }
+
+    /* reference held by the Java object, dropped by freeMemStats() */
+    st->refs = 1;
+
+    return (jlong)st;
+}
+
+JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSL_freeMemStats
+  (JNIEnv* jenv, jclass jcl, jlong stats)
+{
+    if ((void*)stats)
+        NativeMemUnref((NativeMemStats*)stats);
+}
+
+JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSL_getMemStats
+  (JNIEnv* jenv, jclass jcl, jlong stats, jlongArray out)
+{
+    NativeMemStats* st = (NativeMemStats*)stats;
+    jlong values[4];
+
+    if (!st)
+        st = &g_memGlobal;
+
+    values[0] = st->live;
+    values[1] = st->peak;
+    values[2] = st->allocs;
+    values[3] = st->frees;
+
+    (*jenv)->SetLongArrayRegion(jenv, out, 0, 4, values);
 }
 
 JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSL_SSLv3_1ServerMethod
@@ -191,71 +841,39 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSL_setLoggingCb
     return ret;
 }
 
+int NativeLoggingCbRegistered(void)
+{
+    /* asynchronous logging never upcalls on the logging thread */
+    return (g_loggingCbIfaceObj != NULL && !g_logAsync);
+}
+
 void NativeLoggingCallback(const int logLevel, const char *const logMessage)
 {
     JNIEnv*   jenv;
-    jint      vmret  = 0;
     jclass    excClass;
-    jmethodID logMethod;
-    jobjectRefType refcheck;
-    
-    /* get JNIEnv from JavaVM */
-    vmret = (int)((*g_vm)->GetEnv(g_vm, (void**) &jenv, JNI_VERSION_1_6));
-    if (vmret == JNI_EDETACHED) {
-#ifdef __ANDROID__
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, &jenv, NULL);
-#else
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, (void**) &jenv, NULL);
-#endif
-        if (vmret) {
-            printf("Failed to attach JNIEnv to thread\n");
-        }
-    } else if (vmret != JNI_OK) {
-        printf("Unable to get JNIEnv from JavaVM\n");
-    }
 
-    /* find exception class */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
+    /* filter before doing any work for the message */
+    if (logLevel > g_logMaxLevel)
         return;
-    }
 
-    /* check if our stored object reference is valid */
-    refcheck = (*jenv)->GetObjectRefType(jenv, g_loggingCbIfaceObj);
-    if (refcheck == 2) {
-
-        /* lookup WolfSSLLoggingCallback class from global object ref */
-        jclass logClass = (*jenv)->GetObjectClass(jenv, g_loggingCbIfaceObj);
-        if (!logClass) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
+    if (g_logAsync) {
+        NativeLogEnqueue(logLevel, logMessage);
+        return;
+    }
+    
+    /* get JNIEnv, attaching this thread on first use */
+    jenv = NativeGetEnv();
+    if (!jenv)
+        return;
 
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLLoggingCallback class reference");
-            return;
-        } 
+    excClass = g_excClass;
 
-        logMethod = (*jenv)->GetMethodID(jenv, logClass, 
-                                            "loggingCallback",
-                                            "(ILjava/lang/String;)V");
-        if (logMethod == 0) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Error getting loggingCallback method from JNI");
-            return;
-        }
-    
+    /* check if a callback object has been registered */
+    if (g_loggingCbIfaceObj) {
         /* create jstring from char* */ 
         jstring logMsg = (*jenv)->NewStringUTF(jenv, logMessage);
     
-        (*jenv)->CallVoidMethod(jenv, g_loggingCbIfaceObj, logMethod,
+        (*jenv)->CallVoidMethod(jenv, g_loggingCbIfaceObj, g_loggingMethodId,
                 logLevel, logMsg);
     
         if ((*jenv)->ExceptionOccurred(jenv)) {
@@ -267,6 +885,8 @@ void NativeLoggingCallback(const int logLevel, const char *const logMessage)
             return;
         }
 
+        (*jenv)->DeleteLocalRef(jenv, logMsg);
+
     } else {
         if ((*jenv)->ExceptionOccurred(jenv)) {
             (*jenv)->ExceptionDescribe(jenv);
@@ -278,6 +898,137 @@ void NativeLoggingCallback(const int logLevel, const char *const logMessage)
     }
 }
 
+/* Copies a log message into the asynchronous logging ring without taking a
+ * lock. Producers claim a slot by advancing g_logHead with a CAS, and the
+ * slot's seq is only published once the message is in place. If the ring
+ * is full the message is counted as dropped instead. */
+static void NativeLogEnqueue(int logLevel, const char* logMessage)
+{
+    unsigned int   pos;
+    unsigned int   seq;
+    int            diff;
+    NativeLogSlot* slot;
+
+    pos = g_logHead;
+    for (;;) {
+        slot = &g_logRing[pos & g_logMask];
+        seq = slot->seq;
+        __sync_synchronize();
+        diff = (int)(seq - pos);
+
+        if (diff == 0) {
+            if (__sync_bool_compare_and_swap(&g_logHead, pos, pos + 1))
+                break;
+        } else if (diff < 0) {
+            /* ring full, drain thread is behind */
+            __sync_fetch_and_add(&g_logDropped, 1);
+            return;
+        }
+        pos = g_logHead;
+    }
+
+    slot->level = logLevel;
+    strncpy(slot->msg, logMessage ? logMessage : "", NATIVE_LOG_MSG_SZ - 1);
+    slot->msg[NATIVE_LOG_MSG_SZ - 1] = '\0';
+
+    /* publish the slot to the drain thread */
+    __sync_synchronize();
+    slot->seq = pos + 1;
+}
+
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSL_startAsyncLogging
+  (JNIEnv* jenv, jclass jcl, jint capacity)
+{
+    unsigned int i;
+    unsigned int sz = 1;
+
+    if (capacity <= 0)
+        return BAD_FUNC_ARG;
+
+    if (!g_logRing) {
+        /* round up to a power of two so positions wrap with a mask */
+        while (sz < (unsigned int)capacity && sz < (1U << 20))
+            sz <<= 1;
+
+        g_logRing = malloc(sz * sizeof(NativeLogSlot));
+        if (!g_logRing)
+            return MEMORY_E;
+
+        for (i = 0; i < sz; i++)
+            g_logRing[i].seq = i;
+
+        g_logMask = sz - 1;
+        g_logHead = 0;
+        g_logTail = 0;
+    }
+
+    __sync_synchronize();
+    g_logAsync = 1;
+
+    return SSL_SUCCESS;
+}
+
+JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSL_stopAsyncLogging
+  (JNIEnv* jenv, jclass jcl)
+{
+    g_logAsync = 0;
+    __sync_synchronize();
+}
+
+/* Delivers up to max queued log messages to the Java logging callback on
+ * the calling thread, which is the Java drain thread. Returns the number
+ * of messages delivered. */
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSL_drainLog
+  (JNIEnv* jenv, jclass jcl, jint max)
+{
+    int            count = 0;
+    jstring        logMsg;
+    NativeLogSlot* slot;
+
+    if (!g_logRing)
+        return 0;
+
+    while (count < max) {
+        slot = &g_logRing[g_logTail & g_logMask];
+        if ((int)(slot->seq - (g_logTail + 1)) < 0)
+            break;
+        __sync_synchronize();
+
+        if (g_loggingCbIfaceObj) {
+            logMsg = (*jenv)->NewStringUTF(jenv, slot->msg);
+            if (logMsg) {
+                (*jenv)->CallVoidMethod(jenv, g_loggingCbIfaceObj,
+                        g_loggingMethodId, slot->level, logMsg);
+                (*jenv)->DeleteLocalRef(jenv, logMsg);
+            }
+            if ((*jenv)->ExceptionOccurred(jenv)) {
+                (*jenv)->ExceptionDescribe(jenv);
+                (*jenv)->ExceptionClear(jenv);
+            }
+        }
+
+        /* hand the slot back to producers for the next lap */
+        __sync_synchronize();
+        slot->seq = g_logTail + g_logMask + 1;
+        g_logTail++;
+        count++;
+    }
+
+    return count;
+}
+
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSL_getDroppedLogCount
+  (JNIEnv* jenv, jclass jcl)
+{
+    return (jlong)g_logDropped;
+}
+
+JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSL_setLoggingLevel
+  (JNIEnv* jenv, jclass jcl, jint level)
+{
+    g_logMaxLevel = level;
+}
+
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSL_memsaveSessionCache
   (JNIEnv* jenv, jclass jcl, jbyteArray mem, jint sz)
 {
@@ -335,28 +1086,32 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSL_getSessionCacheMemsize
 JNIEXPORT jbyteArray JNICALL Java_com_wolfssl_WolfSSL_x509_1getDer
   (JNIEnv* jenv, jclass jcl, jlong x509)
 {
-    int* outSz = NULL;
+    int outSz = 0;
     const unsigned char* derCert;
-    jbyteArray out = NULL;
+    jbyteArray out;
 
     if (!jenv || !x509)
         return NULL;
 
-    derCert = CyaSSL_X509_get_der((CYASSL_X509*)x509, outSz);
-
-    if (outSz >= 0) {
+    derCert = CyaSSL_X509_get_der((CYASSL_X509*)x509, &outSz);
+    if (!derCert || outSz <= 0)
+        return NULL;
 
-        (*jenv)->SetByteArrayRegion(jenv, out, 0, *outSz, (jbyte*)derCert);
-        if ((*jenv)->ExceptionOccurred(jenv)) {
-            (*jenv)->ExceptionDescribe(jenv);
-            (*jenv)->ExceptionClear(jenv);
-            return NULL;
-        }
-        return out;
+    out = (*jenv)->NewByteArray(jenv, outSz);
+    if (!out) {
+        (*jenv)->ExceptionClear(jenv);
+        return NULL;
+    }
 
-    } else {
+    (*jenv)->SetByteArrayRegion(jenv, out, 0, outSz, (jbyte*)derCert);
+    if ((*jenv)->ExceptionOccurred(jenv)) {
+        (*jenv)->ExceptionDescribe(jenv);
+        (*jenv)->ExceptionClear(jenv);
+        (*jenv)->DeleteLocalRef(jenv, out);
         return NULL;
     }
+
+    return out;
 }
 
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSL_getHmacMaxSize
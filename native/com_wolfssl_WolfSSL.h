@@ -79,6 +79,14 @@ extern "C" {
 #define com_wolfssl_WolfSSL_CYASSL_OCSP_URL_OVERRIDE 1L
 #undef com_wolfssl_WolfSSL_CYASSL_OCSP_NO_NONCE
 #define com_wolfssl_WolfSSL_CYASSL_OCSP_NO_NONCE 2L
+#undef com_wolfssl_WolfSSL_CYASSL_SSLV3
+#define com_wolfssl_WolfSSL_CYASSL_SSLV3 0L
+#undef com_wolfssl_WolfSSL_CYASSL_TLSV1
+#define com_wolfssl_WolfSSL_CYASSL_TLSV1 1L
+#undef com_wolfssl_WolfSSL_CYASSL_TLSV1_1
+#define com_wolfssl_WolfSSL_CYASSL_TLSV1_1 2L
+#undef com_wolfssl_WolfSSL_CYASSL_TLSV1_2
+#define com_wolfssl_WolfSSL_CYASSL_TLSV1_2 3L
 #undef com_wolfssl_WolfSSL_CYASSL_CBIO_ERR_GENERAL
 #define com_wolfssl_WolfSSL_CYASSL_CBIO_ERR_GENERAL -1L
 #undef com_wolfssl_WolfSSL_CYASSL_CBIO_ERR_WANT_READ
@@ -183,6 +191,20 @@ extern "C" {
 #define com_wolfssl_WolfSSL_SHA512 4L
 #undef com_wolfssl_WolfSSL_SHA384
 #define com_wolfssl_WolfSSL_SHA384 5L
+#undef com_wolfssl_WolfSSL_ERROR_LOG
+#define com_wolfssl_WolfSSL_ERROR_LOG 0L
+#undef com_wolfssl_WolfSSL_INFO_LOG
+#define com_wolfssl_WolfSSL_INFO_LOG 1L
+#undef com_wolfssl_WolfSSL_ENTER_LOG
+#define com_wolfssl_WolfSSL_ENTER_LOG 2L
+#undef com_wolfssl_WolfSSL_LEAVE_LOG
+#define com_wolfssl_WolfSSL_LEAVE_LOG 3L
+#undef com_wolfssl_WolfSSL_OTHER_LOG
+#define com_wolfssl_WolfSSL_OTHER_LOG 4L
+#undef com_wolfssl_WolfSSL_LOG_DRAIN_BATCH
+#define com_wolfssl_WolfSSL_LOG_DRAIN_BATCH 256L
+#undef com_wolfssl_WolfSSL_LOG_DRAIN_INTERVAL
+#define com_wolfssl_WolfSSL_LOG_DRAIN_INTERVAL 20L
 /*
  * Class:     com_wolfssl_WolfSSL
  * Method:    init
@@ -199,6 +221,54 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSL_init
 JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSL_nativeFree
   (JNIEnv *, jclass, jlong);
 
+/*
+ * Class:     com_wolfssl_WolfSSL
+ * Method:    startAsyncLogging
+ * Signature: (I)I
+ */
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSL_startAsyncLogging
+  (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     com_wolfssl_WolfSSL
+ * Method:    stopAsyncLogging
+ * Signature: ()V
+ */
+JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSL_stopAsyncLogging
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     com_wolfssl_WolfSSL
+ * Method:    drainLog
+ * Signature: (I)I
+ */
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSL_drainLog
+  (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     com_wolfssl_WolfSSL
+ * Method:    newMemStats
+ * Signature: (I)J
+ */
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSL_newMemStats
+  (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     com_wolfssl_WolfSSL
+ * Method:    freeMemStats
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSL_freeMemStats
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     com_wolfssl_WolfSSL
+ * Method:    getMemStats
+ * Signature: (J[J)V
+ */
+JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSL_getMemStats
+  (JNIEnv *, jclass, jlong, jlongArray);
+
 /*
  * Class:     com_wolfssl_WolfSSL
  * Method:    SSLv3_ServerMethod
@@ -351,6 +421,22 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSL_debuggingOFF
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSL_setLoggingCb
   (JNIEnv *, jclass, jobject);
 
+/*
+ * Class:     com_wolfssl_WolfSSL
+ * Method:    setLoggingLevel
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSL_setLoggingLevel
+  (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     com_wolfssl_WolfSSL
+ * Method:    getDroppedLogCount
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSL_getDroppedLogCount
+  (JNIEnv *, jclass);
+
 /*
  * Class:     com_wolfssl_WolfSSL
  * Method:    memsaveSessionCache
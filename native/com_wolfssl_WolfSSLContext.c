@@ -20,21 +20,72 @@
  */
 
 #include <stdio.h>
+#include <stdint.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <pthread.h>
+#include <sched.h>
 #include <cyassl/ssl.h>
 #include <cyassl/error-ssl.h>
+#include <cyassl/ctaocrypt/sha256.h>
 
 #include "com_wolfssl_globals.h"
 #include "com_wolfssl_WolfSSLContext.h"
 
-/* global object refs for verify, CRL callbacks */
-static jobject g_verifyCbIfaceObj;
+/* global object ref for CRL callback */
 static jobject g_crlCtxCbIfaceObj;
 
+/* slots probed per verify cache lookup */
+#define NATIVE_VERIFY_PROBES 8
+
+/* one cached verify callback result */
+typedef struct {
+    unsigned char fp[SHA256_DIGEST_SIZE]; /* SHA-256 of certificate DER */
+    int    preverify;   /* preverify_ok passed to the callback */
+    int    error;       /* CyaSSL verify error passed to the callback */
+    int    result;      /* value the callback returned */
+    time_t stamp;       /* time stored, 0 if the slot is empty */
+} NativeVerifyEntry;
+
+/* verify callback state of one WolfSSLContext, shared with the sessions
+ * created from it through their cert callback ctx */
+typedef struct {
+    pthread_mutex_t    lock;
+    int                refs;         /* WolfSSLContext plus sessions */
+    jobject            cbObj;        /* WolfSSLVerifyCallback */
+    NativeVerifyEntry* entries;      /* result cache, NULL if disabled */
+    int                cacheSz;      /* number of entries */
+    int                cacheTimeout; /* seconds results stay valid, 0 for
+                                        no limit */
+} NativeVerifyCtx;
+
 /* custom I/O native fn prototypes */
 int  NativeIORecvCb(CYASSL *ssl, char *buf, int sz, void *ctx);
 int  NativeIOSendCb(CYASSL *ssl, char *buf, int sz, void *ctx);
+int  NativeIORecvBufferCb(CYASSL *ssl, char *buf, int sz, void *ctx);
+int  NativeIOSendBufferCb(CYASSL *ssl, char *buf, int sz, void *ctx);
+static int NativeIOBufferUpcall(CYASSL *ssl, char *buf, int sz, void *ctx,
+        jmethodID mid);
+static int NativeIORecvUpcall(CYASSL *ssl, char *buf, int sz, void *ctx);
+static int NativeIORecvBufferUpcall(CYASSL *ssl, char *buf, int sz,
+        void *ctx);
+static int NativeIOReadAhead(CYASSL *ssl, char *buf, int sz, void *ctx,
+        int (*recvFn)(CYASSL*, char*, int, void*));
+static jobject NativeCtxView(JNIEnv* jenv, internCtx* myCtx, int idx,
+        void* ptr, int sz);
+static void NativeCtxViewDone(JNIEnv* jenv, internCtx* myCtx, jobject view);
+static jobject NativeCtxOutArray(JNIEnv* jenv, internCtx* myCtx, int isLong);
 int  NativeGenCookieCb(CYASSL *ssl, unsigned char *buf, int sz, void *ctx);
 int  NativeVerifyCallback(int preverify_ok, CYASSL_X509_STORE_CTX* store);
+static NativeVerifyCtx* NativeVerifyCtxNew(JNIEnv* jenv, jobject cb,
+        int cacheSz, int cacheTimeout);
+static void NativeVerifyCtxRelease(NativeVerifyCtx* vctx);
+static int  NativeVerifyCacheGet(NativeVerifyCtx* vctx,
+        const unsigned char* fp, int preverify_ok, int error, int* result);
+static void NativeVerifyCachePut(NativeVerifyCtx* vctx,
+        const unsigned char* fp, int preverify_ok, int error, int result);
+static unsigned int NativeFpHash(const unsigned char* fp);
 void NativeCtxMissingCRLCallback(const char* url);
 int  NativeMacEncryptCb(CYASSL* ssl, unsigned char* macOut,
         const unsigned char* macIn, unsigned int macInSz, int macContent,
@@ -64,21 +115,29 @@ int  NativeRsaDecCb(CYASSL* ssl, unsigned char* in, unsigned int inSz,
         void* ctx);
 
 JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLContext_newContext(JNIEnv* jenv,
-        jclass jcl, jlong method)
+        jobject jcl, jlong method)
 {
-    return (jlong)CyaSSL_CTX_new((CYASSL_METHOD*)method);
+    NativeMemStats* prev;
+    CYASSL_CTX* ctx;
+
+    prev = NativeMemEnter(jenv, jcl, g_contextMemFid);
+    ctx = CyaSSL_CTX_new((CYASSL_METHOD*)method);
+    NativeMemLeave(prev);
+
+    return (jlong)ctx;
 }
 
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_useCertificateFile
   (JNIEnv* jenv, jobject jcl, jlong ctx, jstring file, jint format)
 {
+    NativeMemStats* prev;
     jint ret = 0;
     jclass excClass;
     const char* certFile;
     
     if (!file)
     { 
-        excClass = (*jenv)->FindClass(jenv, "java/lang/NullPointerException");
+        excClass = g_nullPtrExcClass;
         if ((*jenv)->ExceptionOccurred(jenv)) {
             (*jenv)->ExceptionDescribe(jenv);
             (*jenv)->ExceptionClear(jenv);
@@ -93,8 +152,10 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_useCertificateFile
     
     certFile = (*jenv)->GetStringUTFChars(jenv, file, 0);
 
+    prev = NativeMemEnter(jenv, jcl, g_contextMemFid);
     ret = (jint) CyaSSL_CTX_use_certificate_file((CYASSL_CTX*)ctx, certFile,
             (int)format);
+    NativeMemLeave(prev);
 
     (*jenv)->ReleaseStringUTFChars(jenv, file, certFile);
 
@@ -104,13 +165,14 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_useCertificateFile
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_usePrivateKeyFile
   (JNIEnv* jenv, jobject jcl, jlong ctx, jstring file, jint format)
 {
+    NativeMemStats* prev;
     jint ret = 0;
     jclass excClass;
     const char* keyFile;
     
     if (!file)
     { 
-        excClass = (*jenv)->FindClass(jenv, "java/lang/NullPointerException");
+        excClass = g_nullPtrExcClass;
         
         /* clear out previous exception */
         if ((*jenv)->ExceptionOccurred(jenv)) {
@@ -127,8 +189,10 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_usePrivateKeyFile
     
     keyFile = (*jenv)->GetStringUTFChars(jenv, file, 0);
 
+    prev = NativeMemEnter(jenv, jcl, g_contextMemFid);
     ret = (jint) CyaSSL_CTX_use_PrivateKey_file((CYASSL_CTX*)ctx, keyFile,
             (int)format);
+    NativeMemLeave(prev);
 
     (*jenv)->ReleaseStringUTFChars(jenv, file, keyFile);
 
@@ -138,6 +202,7 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_usePrivateKeyFile
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_loadVerifyLocations
   (JNIEnv* jenv, jobject jcl, jlong ctx, jstring file, jstring path)
 {
+    NativeMemStats* prev;
     jint ret = 0;
     jclass excClass;
     const char* caFile;
@@ -145,7 +210,7 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_loadVerifyLocations
    
     if (!file && !path)
     { 
-        excClass = (*jenv)->FindClass(jenv, "java/lang/NullPointerException");
+        excClass = g_nullPtrExcClass;
         
         /* clear out previous exception */
         if ((*jenv)->ExceptionOccurred(jenv)) {
@@ -172,8 +237,10 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_loadVerifyLocations
         caPath = NULL;
     }
 
+    prev = NativeMemEnter(jenv, jcl, g_contextMemFid);
     ret = (jint) CyaSSL_CTX_load_verify_locations((CYASSL_CTX*)ctx, caFile,
             caPath);
+    NativeMemLeave(prev);
 
     if (caFile)
         (*jenv)->ReleaseStringUTFChars(jenv, file, caFile);
@@ -186,6 +253,7 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_loadVerifyLocations
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_useCertificateChainFile
   (JNIEnv* jenv, jobject jcl, jlong ctx, jstring file)
 {
+    NativeMemStats* prev;
     jint ret = 0;
     jclass excClass;
     const char* chainFile;
@@ -193,7 +261,7 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_useCertificateChainFile
     /* throw exception if no input file */
     if (!file)
     { 
-        excClass = (*jenv)->FindClass(jenv, "java/lang/NullPointerException");
+        excClass = g_nullPtrExcClass;
 
         /* clear out previous exception */
         if ((*jenv)->ExceptionOccurred(jenv)) {
@@ -210,8 +278,10 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_useCertificateChainFile
 
     chainFile = (*jenv)->GetStringUTFChars(jenv, file, 0);
     
+    prev = NativeMemEnter(jenv, jcl, g_contextMemFid);
     ret = (jint) CyaSSL_CTX_use_certificate_chain_file((CYASSL_CTX*)ctx,
             chainFile);
+    NativeMemLeave(prev);
     
     (*jenv)->ReleaseStringUTFChars(jenv, file, chainFile);
     
@@ -219,99 +289,283 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_useCertificateChainFile
 }
 
 JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_freeContext
-  (JNIEnv* jenv, jobject jcl, jlong ctx)
+  (JNIEnv* jenv, jclass jcl, jlong ctx)
 {
     /* CyaSSL checks for null pointer */
     CyaSSL_CTX_free((CYASSL_CTX*)ctx);
 }
 
-JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_setVerify(JNIEnv* jenv,
-    jobject jcl, jlong ctx, jint mode, jobject callbackIface)
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLContext_setVerify(JNIEnv* jenv,
+    jobject jcl, jlong ctx, jint mode, jobject callbackIface, jlong oldVctx,
+    jint cacheSz, jint cacheTimeout)
 {
+    NativeVerifyCtx* vctx = NULL;
+
     if (!callbackIface) {
         CyaSSL_CTX_set_verify((CYASSL_CTX*)ctx, mode, NULL);
     } else {
 
-        /* store Java verify Interface object */
-        g_verifyCbIfaceObj = (*jenv)->NewGlobalRef(jenv, callbackIface);
-        if (!g_verifyCbIfaceObj) {
-            printf("error storing global callback interface\n");
+        /* new sessions use vctx, existing ones keep the old one */
+        vctx = NativeVerifyCtxNew(jenv, callbackIface, cacheSz,
+                cacheTimeout);
+        if (!vctx) {
+            (*jenv)->ThrowNew(jenv, g_excClass,
+                    "Unable to allocate memory for verify context");
+            return oldVctx;
         }
 
         /* set verify mode, register Java callback with CyaSSL */ 
         CyaSSL_CTX_set_verify((CYASSL_CTX*)ctx, mode, NativeVerifyCallback);
     }
+
+    NativeVerifyCtxRelease((NativeVerifyCtx*)(intptr_t)oldVctx);
+
+    return (jlong)(intptr_t)vctx;
+}
+
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_setVerifyCache
+  (JNIEnv* jenv, jobject jcl, jlong vctx, jint cacheSz, jint cacheTimeout)
+{
+    NativeVerifyCtx* myVctx = (NativeVerifyCtx*)(intptr_t)vctx;
+    NativeVerifyEntry* entries = NULL;
+
+    if (!myVctx || cacheSz < 0 || cacheTimeout < 0)
+        return BAD_FUNC_ARG;
+
+    if (cacheSz > 0) {
+        entries = calloc(cacheSz, sizeof(NativeVerifyEntry));
+        if (!entries)
+            return MEMORY_E;
+    }
+
+    /* cached results are dropped, the new cache starts out empty */
+    pthread_mutex_lock(&myVctx->lock);
+    free(myVctx->entries);
+    myVctx->entries = entries;
+    myVctx->cacheSz = cacheSz;
+    myVctx->cacheTimeout = cacheTimeout;
+    pthread_mutex_unlock(&myVctx->lock);
+
+    return SSL_SUCCESS;
+}
+
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLContext_attachVerifyCtx
+  (JNIEnv* jenv, jobject jcl, jlong ssl, jlong vctx)
+{
+    NativeVerifyCtx* myVctx = (NativeVerifyCtx*)(intptr_t)vctx;
+
+    if (!ssl || !myVctx)
+        return 0;
+
+    pthread_mutex_lock(&myVctx->lock);
+    myVctx->refs++;
+    pthread_mutex_unlock(&myVctx->lock);
+
+    CyaSSL_SetCertCbCtx((CYASSL*)ssl, myVctx);
+
+    return vctx;
+}
+
+JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_freeVerifyCtx
+  (JNIEnv* jenv, jclass jcl, jlong vctx)
+{
+    NativeVerifyCtxRelease((NativeVerifyCtx*)(intptr_t)vctx);
+}
+
+/* Creates a verify context holding a global ref to the Java verify callback
+ * and, if cacheSz is non-zero, a cache of up to cacheSz results. The
+ * caller owns the one reference it starts with. */
+static NativeVerifyCtx* NativeVerifyCtxNew(JNIEnv* jenv, jobject cb,
+        int cacheSz, int cacheTimeout)
+{
+    NativeVerifyCtx* vctx;
+
+    if (cacheSz < 0 || cacheTimeout < 0)
+        return NULL;
+
+    vctx = calloc(1, sizeof(NativeVerifyCtx));
+    if (!vctx)
+        return NULL;
+
+    if (cacheSz > 0) {
+        vctx->entries = calloc(cacheSz, sizeof(NativeVerifyEntry));
+        if (!vctx->entries) {
+            free(vctx);
+            return NULL;
+        }
+    }
+
+    vctx->cbObj = (*jenv)->NewGlobalRef(jenv, cb);
+    if (!vctx->cbObj) {
+        free(vctx->entries);
+        free(vctx);
+        return NULL;
+    }
+
+    pthread_mutex_init(&vctx->lock, NULL);
+    vctx->refs = 1;
+    vctx->cacheSz = cacheSz;
+    vctx->cacheTimeout = cacheTimeout;
+
+    return vctx;
+}
+
+/* Drops one reference to vctx, freeing it once neither the WolfSSLContext
+ * nor any session created from it uses it any more */
+static void NativeVerifyCtxRelease(NativeVerifyCtx* vctx)
+{
+    int     refs;
+    JNIEnv* jenv;
+
+    if (!vctx)
+        return;
+
+    pthread_mutex_lock(&vctx->lock);
+    refs = --vctx->refs;
+    pthread_mutex_unlock(&vctx->lock);
+
+    if (refs > 0)
+        return;
+
+    jenv = NativeGetEnv();
+    if (jenv)
+        (*jenv)->DeleteGlobalRef(jenv, vctx->cbObj);
+
+    pthread_mutex_destroy(&vctx->lock);
+    free(vctx->entries);
+    free(vctx);
+}
+
+/* Looks up or stores the verify result for one certificate in the cache of
+ * vctx. The cache is an open-addressed table probed from the slot chosen by
+ * the fingerprint; stores reuse an empty or expired slot or else the oldest
+ * slot probed. Returns 1 and sets *result on a lookup hit, 0 otherwise. */
+static int NativeVerifyCacheGet(NativeVerifyCtx* vctx,
+        const unsigned char* fp, int preverify_ok, int error, int* result)
+{
+    int    i, slot, hit = 0;
+    time_t now = time(NULL);
+    NativeVerifyEntry* e;
+
+    pthread_mutex_lock(&vctx->lock);
+
+    for (i = 0; i < NATIVE_VERIFY_PROBES && vctx->cacheSz > 0; i++) {
+        slot = (int)((NativeFpHash(fp) + i) % (unsigned int)vctx->cacheSz);
+        e = &vctx->entries[slot];
+
+        if (e->stamp != 0 && e->preverify == preverify_ok &&
+            e->error == error &&
+            memcmp(e->fp, fp, SHA256_DIGEST_SIZE) == 0) {
+
+            if (vctx->cacheTimeout == 0 ||
+                now - e->stamp < vctx->cacheTimeout) {
+                *result = e->result;
+                hit = 1;
+            }
+            break;
+        }
+    }
+
+    pthread_mutex_unlock(&vctx->lock);
+
+    return hit;
+}
+
+static void NativeVerifyCachePut(NativeVerifyCtx* vctx,
+        const unsigned char* fp, int preverify_ok, int error, int result)
+{
+    int    i, slot;
+    time_t now = time(NULL);
+    NativeVerifyEntry* e;
+    NativeVerifyEntry* victim = NULL;
+
+    pthread_mutex_lock(&vctx->lock);
+
+    for (i = 0; i < NATIVE_VERIFY_PROBES && vctx->cacheSz > 0; i++) {
+        slot = (int)((NativeFpHash(fp) + i) % (unsigned int)vctx->cacheSz);
+        e = &vctx->entries[slot];
+
+        if (e->stamp == 0 ||
+            (e->preverify == preverify_ok && e->error == error &&
+             memcmp(e->fp, fp, SHA256_DIGEST_SIZE) == 0) ||
+            (vctx->cacheTimeout != 0 &&
+             now - e->stamp >= vctx->cacheTimeout)) {
+            victim = e;
+            break;
+        }
+        if (!victim || e->stamp < victim->stamp)
+            victim = e;
+    }
+
+    if (victim) {
+        memcpy(victim->fp, fp, SHA256_DIGEST_SIZE);
+        victim->preverify = preverify_ok;
+        victim->error = error;
+        victim->result = result;
+        victim->stamp = (now != 0) ? now : 1;
+    }
+
+    pthread_mutex_unlock(&vctx->lock);
+}
+
+/* first four fingerprint bytes are as good a hash as any */
+static unsigned int NativeFpHash(const unsigned char* fp)
+{
+    return ((unsigned int)fp[0] << 24) | ((unsigned int)fp[1] << 16) |
+           ((unsigned int)fp[2] << 8) | (unsigned int)fp[3];
 }
 
 int NativeVerifyCallback(int preverify_ok, CYASSL_X509_STORE_CTX* store)
 {
     JNIEnv*   jenv;
-    jint      vmret  = 0;
     jint      retval = -1;
     jclass    excClass;
-    jmethodID verifyMethod;
-    jobjectRefType refcheck;
+    int       derSz = 0;
+    int       cached = 0;
+    int       cacheSz;
+    int       result;
+    const unsigned char* der = NULL;
+    unsigned char        fp[SHA256_DIGEST_SIZE];
+    Sha256               sha;
+    NativeVerifyCtx*     vctx;
     
-    if (!g_vm) {
-        /* we can't throw an exception yet, so just return 0 (failure) */
+    /* get JNIEnv, attaching this thread on first use */
+    jenv = NativeGetEnv();
+    if (!jenv) {
+        /* we can't throw an exception, so just return 0 (failure) */
         return 0;
     }
 
-    /* get JNIEnv from JavaVM */
-    vmret = (int)((*g_vm)->GetEnv(g_vm, (void**) &jenv, JNI_VERSION_1_6));
-    if (vmret == JNI_EDETACHED) {
-#ifdef __ANDROID__
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, &jenv, NULL);
-#else
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, (void**) &jenv, NULL);
-#endif
-        if (vmret) {
-            return -101;    /* failed to attach JNIEnv to thread */
-        }
-    } else if (vmret != JNI_OK) {
-        return -102;        /* unable to get JNIEnv from JavaVM */
-    }
+    excClass = g_excClass;
 
-    /* find exception class */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if( (*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return -103;
-    }
+    /* verify context set by WolfSSLContext.attachVerifyCtx() */
+    vctx = store ? (NativeVerifyCtx*)store->userCtx : NULL;
 
-    /* check if our stored object reference is valid */
-    refcheck = (*jenv)->GetObjectRefType(jenv, g_verifyCbIfaceObj);
-    if (refcheck == 2) {
+    /* check if a callback object has been registered */
+    if (vctx && vctx->cbObj) {
 
-        /* lookup WolfSSLVerifyCallback class from global object ref */
-        jclass verifyClass = (*jenv)->GetObjectClass(jenv, g_verifyCbIfaceObj);
-        if (!verifyClass) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
+        /* fingerprint the certificate if results are cached, the cache
+         * may be resized by setVerifyCache() at any time */
+        pthread_mutex_lock(&vctx->lock);
+        cacheSz = vctx->cacheSz;
+        pthread_mutex_unlock(&vctx->lock);
 
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLVerifyCallback class reference");
-            return -104;
-        } 
+        if (cacheSz > 0 && store->current_cert)
+            der = CyaSSL_X509_get_der(store->current_cert, &derSz);
 
-        verifyMethod = (*jenv)->GetMethodID(jenv, verifyClass, 
-                                            "verifyCallback", "(IJ)I");
-        if (verifyMethod == 0) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
+        if (der && derSz > 0) {
+            InitSha256(&sha);
+            Sha256Update(&sha, der, derSz);
+            Sha256Final(&sha, fp);
+            cached = 1;
 
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Error getting verifyCallback method from JNI");
-            return -105;
+            if (NativeVerifyCacheGet(vctx, fp, preverify_ok, store->error,
+                        &result))
+                return result;
         }
-    
-        retval = (*jenv)->CallIntMethod(jenv, g_verifyCbIfaceObj,
-                verifyMethod, preverify_ok, (jlong) store);
+
+        retval = (*jenv)->CallIntMethod(jenv, vctx->cbObj,
+                g_verifyMethodId, preverify_ok, (jlong) store);
     
         if ((*jenv)->ExceptionOccurred(jenv)) {
             /* exception occurred on the Java side during method call */
@@ -320,6 +574,10 @@ int NativeVerifyCallback(int preverify_ok, CYASSL_X509_STORE_CTX* store)
             return -106;
         }
 
+        if (cached)
+            NativeVerifyCachePut(vctx, fp, preverify_ok, store->error,
+                    retval);
+
     } else {
         if ((*jenv)->ExceptionOccurred(jenv)) {
             (*jenv)->ExceptionDescribe(jenv);
@@ -345,13 +603,7 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_memsaveCertCache
     if (!jenv || !ctx || !mem || (sz <= 0))
         return BAD_FUNC_ARG;
     
-    /* find exception class */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return SSL_FAILURE;
-    }
+    jclass excClass = g_excClass;
 
     ret = CyaSSL_CTX_memsave_cert_cache((CYASSL_CTX*)ctx, memBuf, sz, &usedTmp);
 
@@ -384,19 +636,14 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_memsaveCertCache
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_memrestoreCertCache
   (JNIEnv* jenv, jobject jcl, jlong ctx, jbyteArray mem, jint sz)
 {
+    NativeMemStats* prev;
     int ret;
     char memBuf[sz];
 
     if (!jenv || !ctx || !mem || (sz <= 0))
         return BAD_FUNC_ARG;
     
-    /* find exception class */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return SSL_FAILURE;
-    }
+    jclass excClass = g_excClass;
 
     (*jenv)->GetByteArrayRegion(jenv, mem, 0, sz, (jbyte*)memBuf);
     if ((*jenv)->ExceptionOccurred(jenv)) {
@@ -408,7 +655,9 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_memrestoreCertCache
         return SSL_FAILURE;
     }
 
+    prev = NativeMemEnter(jenv, jcl, g_contextMemFid);
     ret = CyaSSL_CTX_memrestore_cert_cache((CYASSL_CTX*)ctx, memBuf, sz);
+    NativeMemLeave(prev);
 
     return ret;
 }
@@ -429,7 +678,7 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_setCipherList
     
     if (!list)
     { 
-        excClass = (*jenv)->FindClass(jenv, "java/lang/NullPointerException");
+        excClass = g_nullPtrExcClass;
         /* clear out previous exception */
         if ((*jenv)->ExceptionOccurred(jenv)) {
             (*jenv)->ExceptionDescribe(jenv);
@@ -456,18 +705,14 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_setCipherList
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_loadVerifyBuffer
   (JNIEnv* jenv, jobject jcl, jlong ctx, jbyteArray in, jlong sz, jint format)
 {
+    NativeMemStats* prev;
+    int ret;
     unsigned char buff[sz];
     
     if (!jenv || !ctx || !in || (sz < 0))
         return BAD_FUNC_ARG;
     
-    /* find exception class */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return SSL_FAILURE;
-    }
+    jclass excClass = g_excClass;
     
     (*jenv)->GetByteArrayRegion(jenv, in, 0, sz, (jbyte*)buff);
     if ((*jenv)->ExceptionOccurred(jenv)) {
@@ -479,24 +724,24 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_loadVerifyBuffer
         return SSL_FAILURE;
     }
 
-    return CyaSSL_CTX_load_verify_buffer((CYASSL_CTX*)ctx, buff, sz, format);
+    prev = NativeMemEnter(jenv, jcl, g_contextMemFid);
+    ret = CyaSSL_CTX_load_verify_buffer((CYASSL_CTX*)ctx, buff, sz, format);
+    NativeMemLeave(prev);
+
+    return ret;
 }
 
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_useCertificateBuffer
   (JNIEnv* jenv, jobject jcl, jlong ctx, jbyteArray in, jlong sz, jint format)
 {
+    NativeMemStats* prev;
+    int ret;
     unsigned char buff[sz];
     
     if (!jenv || !ctx || !in || (sz < 0))
         return BAD_FUNC_ARG;
     
-    /* find exception class */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return SSL_FAILURE;
-    }
+    jclass excClass = g_excClass;
 
     (*jenv)->GetByteArrayRegion(jenv, in, 0, sz, (jbyte*)buff);
     if ((*jenv)->ExceptionOccurred(jenv)) {
@@ -508,25 +753,25 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_useCertificateBuffer
         return SSL_FAILURE;
     }
 
-    return CyaSSL_CTX_use_certificate_buffer((CYASSL_CTX*)ctx, buff, sz,
+    prev = NativeMemEnter(jenv, jcl, g_contextMemFid);
+    ret = CyaSSL_CTX_use_certificate_buffer((CYASSL_CTX*)ctx, buff, sz,
             format);
+    NativeMemLeave(prev);
+
+    return ret;
 }
 
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_usePrivateKeyBuffer
   (JNIEnv* jenv, jobject jcl, jlong ctx, jbyteArray in, jlong sz, jint format)
 {
+    NativeMemStats* prev;
+    int ret;
     unsigned char buff[sz];
     
     if (!jenv || !ctx || !in || (sz < 0))
         return BAD_FUNC_ARG;
     
-    /* find exception class */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return SSL_FAILURE;
-    }
+    jclass excClass = g_excClass;
 
     (*jenv)->GetByteArrayRegion(jenv, in, 0, sz, (jbyte*)buff);
     if ((*jenv)->ExceptionOccurred(jenv)) {
@@ -538,25 +783,25 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_usePrivateKeyBuffer
         return SSL_FAILURE;
     }
 
-    return CyaSSL_CTX_use_PrivateKey_buffer((CYASSL_CTX*)ctx, buff, sz,
+    prev = NativeMemEnter(jenv, jcl, g_contextMemFid);
+    ret = CyaSSL_CTX_use_PrivateKey_buffer((CYASSL_CTX*)ctx, buff, sz,
             format);
+    NativeMemLeave(prev);
+
+    return ret;
 }
 
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_useCertificateChainBuffer
   (JNIEnv* jenv, jobject jcl, jlong ctx, jbyteArray in, jlong sz)
 {
+    NativeMemStats* prev;
+    int ret;
     unsigned char buff[sz];
     
     if (!jenv || !ctx || !in || (sz < 0))
         return BAD_FUNC_ARG;
     
-    /* find exception class */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return SSL_FAILURE;
-    }
+    jclass excClass = g_excClass;
 
     (*jenv)->GetByteArrayRegion(jenv, in, 0, sz, (jbyte*)buff);
     if ((*jenv)->ExceptionOccurred(jenv)) {
@@ -569,7 +814,11 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_useCertificateChainBuffer
         return SSL_FAILURE;
     }
 
-    return CyaSSL_CTX_use_certificate_chain_buffer((CYASSL_CTX*)ctx, buff, sz);
+    prev = NativeMemEnter(jenv, jcl, g_contextMemFid);
+    ret = CyaSSL_CTX_use_certificate_chain_buffer((CYASSL_CTX*)ctx, buff, sz);
+    NativeMemLeave(prev);
+
+    return ret;
 }
 
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_setGroupMessages
@@ -584,13 +833,7 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_setGroupMessages
 JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_setIORecv(JNIEnv* jenv,
         jobject jcl, jlong ctx)
 {
-    /* find exception class */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return;
-    }
+    jclass excClass = g_excClass;
 
     if(ctx) {
         /* set I/O recv callback */
@@ -603,166 +846,60 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_setIORecv(JNIEnv* jenv,
 }
 
 int NativeIORecvCb(CYASSL *ssl, char *buf, int sz, void *ctx)
+{
+    return NativeIOReadAhead(ssl, buf, sz, ctx, NativeIORecvUpcall);
+}
+
+static int NativeIORecvUpcall(CYASSL *ssl, char *buf, int sz, void *ctx)
 {
     JNIEnv*    jenv;
     jint       retval = 0;
-    jint       vmret  = 0;
-    jmethodID  recvCbMethodId;
     jbyteArray inData;
     jclass     excClass;
-    jobjectRefType refcheck;
     internCtx*   myCtx = ctx;
 
-    if (!g_vm) {
-        printf("Global JavaVM reference is null!\n");
+    /* get JNIEnv, attaching this thread on first use */
+    jenv = NativeGetEnv();
+    if (!jenv)
         return CYASSL_CBIO_ERR_GENERAL;
-    }
-
-    /* get JavaEnv from JavaVM */
-    vmret = (int)((*g_vm)->GetEnv(g_vm, (void**) &jenv, JNI_VERSION_1_6));
-    if (vmret == JNI_EDETACHED) {
-#ifdef __ANDROID__
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, &jenv, NULL);
-#else
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, (void**) &jenv, NULL);
-#endif
-        if (vmret) {
-            printf("Failed to attach JNIEnv to thread\n");
-        } else {
-            printf("Attached JNIEnv to thread\n");
-        }
-    } else if (vmret != JNI_OK) {
-        printf("Error getting JNIEnv from JavaVM, ret = %d\n", vmret);
-    }
     
-    /* find exception class in case we need it */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return CYASSL_CBIO_ERR_GENERAL;
-    }
-
-    /* check if our stored object reference is valid */
-    refcheck = (*jenv)->GetObjectRefType(jenv, myCtx->obj);
-    if (refcheck == 2) {
-        
-        /* lookup WolfSSLSession class from global object ref */
-        jclass sessClass = (*jenv)->GetObjectClass(jenv, myCtx->obj);
-        if (!sessClass) {
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLSession class reference in "
-                "NativeIORecvCb");
-            return CYASSL_CBIO_ERR_GENERAL;
-        } 
-
-        /* lookup WolfSSLContext private member fieldID */
-        jfieldID ctxFid = (*jenv)->GetFieldID(jenv, sessClass, "ctx",
-                "Lcom/wolfssl/WolfSSLContext;");
-                //"Lcom/wolfssl/WolfSSLSession$WolfSSLContext;");
-        if (!ctxFid) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLContext field ID in NativeIORecvCb");
-            return CYASSL_CBIO_ERR_GENERAL;
-        }
-
-        /* find getContextPtr() method */
-        jmethodID getCtxMethodId = (*jenv)->GetMethodID(jenv, sessClass,
-            "getAssociatedContextPtr",
-            "()Lcom/wolfssl/WolfSSLContext;");
-        if (!getCtxMethodId) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get getAssociatedContextPtr() method ID in "
-                "NativeIORecvCb");
-            return CYASSL_CBIO_ERR_GENERAL;
-        }
+    excClass = g_excClass;
 
-        /* get WolfSSLContext ctx object from Java land */
-        jobject ctxref = (*jenv)->CallObjectMethod(jenv, myCtx->obj,
-                getCtxMethodId);
-        if (!ctxref) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
+    /* WolfSSLSession and WolfSSLContext refs are stored at registration */
+    if (myCtx->obj && myCtx->ctxObj) {
 
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get WolfSSLContext object in NativeIORecvCb");
-            return CYASSL_CBIO_ERR_GENERAL;
-        }
-        
-        /* get WolfSSLContext class reference from Java land */
-        jclass innerCtxClass = (*jenv)->GetObjectClass(jenv, ctxref);
-        if (!innerCtxClass) {
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLContext class reference in "
-                "NativeIORecvCb");
+        /* create jbyteArray to hold received data */
+        inData = (*jenv)->NewByteArray(jenv, sz);
+        if (!inData) {
             return CYASSL_CBIO_ERR_GENERAL;
         }
 
-        /* call internal I/O recv callback */
-        recvCbMethodId = (*jenv)->GetMethodID(jenv, innerCtxClass,
-                "internalIORecvCallback",
-                "(Lcom/wolfssl/WolfSSLSession;[BI)I");
-
-        if (!recvCbMethodId) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
+        /* call Java send callback, ignore native ctx since Java
+         * handles it */
+        retval = (*jenv)->CallIntMethod(jenv, myCtx->ctxObj,
+                g_ioRecvMethodId, myCtx->obj, inData, (jint)sz);
 
-            printf("Error getting internalIORecvCallback method from JNI\n");
+        if ((*jenv)->ExceptionOccurred(jenv)) {
+            /* an exception occurred on the Java side, how to
+             * handle it? */
+            (*jenv)->ExceptionDescribe(jenv);
+            (*jenv)->ExceptionClear(jenv);
             retval = CYASSL_CBIO_ERR_GENERAL;
         }
 
-        if (!retval)
-        {
-            /* create jbyteArray to hold received data */
-            inData = (*jenv)->NewByteArray(jenv, sz);
-            if (!inData) {
-                return CYASSL_CBIO_ERR_GENERAL;
-            }
-
-            /* call Java send callback, ignore native ctx since Java
-             * handles it */
-            retval = (*jenv)->CallIntMethod(jenv, ctxref, recvCbMethodId,
-                                        myCtx->obj, inData, (jint)sz);
-
+        /* copy jbyteArray into char array */
+        if (retval >= 0) {
+            (*jenv)->GetByteArrayRegion(jenv, inData, 0, retval,
+                    (jbyte*)buf);
             if ((*jenv)->ExceptionOccurred(jenv)) {
-                /* an exception occurred on the Java side, how to
-                 * handle it? */
                 (*jenv)->ExceptionDescribe(jenv);
                 (*jenv)->ExceptionClear(jenv);
                 retval = CYASSL_CBIO_ERR_GENERAL;
             }
-
-            /* copy jbyteArray into char array */
-            if (retval >= 0) {
-                (*jenv)->GetByteArrayRegion(jenv, inData, 0, retval,
-                        (jbyte*)buf);
-                if ((*jenv)->ExceptionOccurred(jenv)) {
-                    (*jenv)->ExceptionDescribe(jenv);
-                    (*jenv)->ExceptionClear(jenv);
-                    retval = CYASSL_CBIO_ERR_GENERAL;
-                }
-            }
-
-            /* delete local refs */
-            (*jenv)->DeleteLocalRef(jenv, inData);
         }
 
-        /* detach JNIEnv from thread */
-        (*g_vm)->DetachCurrentThread(g_vm);
+        /* delete local refs */
+        (*jenv)->DeleteLocalRef(jenv, inData);
 
     } else {
         /* clear any existing exception before we throw another */
@@ -780,15 +917,64 @@ int NativeIORecvCb(CYASSL *ssl, char *buf, int sz, void *ctx)
     return retval;
 }
 
+/* Serves CyaSSL reads from the session's read-ahead buffer when one has
+ * been set with WolfSSLSession.setIOReadAhead(). An empty buffer is refilled
+ * with a single recvFn() upcall of up to raSz bytes, so the record header
+ * and body, and often several records, cost one trip into Java. Reads at
+ * least as large as the buffer skip it and go to recvFn() directly. A
+ * buffer released by WolfSSLSession.releaseIOBuffers() is allocated again
+ * by the next refill. */
+static int NativeIOReadAhead(CYASSL *ssl, char *buf, int sz, void *ctx,
+        int (*recvFn)(CYASSL*, char*, int, void*))
+{
+    int        avail;
+    int        direct = 0;
+    internCtx* myCtx = ctx;
+
+    if (!myCtx || myCtx->raSz == 0 || sz <= 0)
+        return recvFn(ssl, buf, sz, ctx);
+
+    /* releaseIOBuffers() only holds raBusy for a moment */
+    while (!__sync_bool_compare_and_swap(&myCtx->raBusy, 0, 1))
+        sched_yield();
+    myCtx->raUsed = 1;
+
+    avail = myCtx->raLen - myCtx->raOff;
+    if (avail == 0) {
+        myCtx->raOff = 0;
+        myCtx->raLen = 0;
+
+        if (sz < myCtx->raSz && !myCtx->raBuf)
+            myCtx->raBuf = (unsigned char*)malloc(myCtx->raSz);
+
+        if (sz >= myCtx->raSz || !myCtx->raBuf) {
+            direct = 1;
+            avail = recvFn(ssl, buf, sz, ctx);
+        } else {
+            /* errors and WANT_READ are passed through as is */
+            avail = recvFn(ssl, (char*)myCtx->raBuf, myCtx->raSz, ctx);
+            if (avail > 0)
+                myCtx->raLen = avail;
+        }
+    }
+
+    if (!direct && avail > 0) {
+        if (avail > sz)
+            avail = sz;
+
+        memcpy(buf, myCtx->raBuf + myCtx->raOff, avail);
+        myCtx->raOff += avail;
+    }
+
+    __sync_lock_release(&myCtx->raBusy);
+
+    return avail;
+}
+
 JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_setIOSend
   (JNIEnv* jenv, jobject jcl, jlong ctx)
 {
-    /* find exception class in case we need it */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-    }
+    jclass excClass = g_excClass;
 
     if (ctx) {
         /* set I/O send callback */
@@ -804,142 +990,39 @@ int NativeIOSendCb(CYASSL *ssl, char *buf, int sz, void *ctx)
 {
     JNIEnv*    jenv;
     jint       retval = 0;
-    jint       vmret  = 0;
-    jmethodID  sendCbMethodId;
     jbyteArray outData;
     jclass     excClass;
-    jobjectRefType refcheck;
     internCtx*     myCtx = ctx;
 
-    if (!g_vm) {
-        printf("Global JavaVM reference is null!\n");
+    /* get JNIEnv, attaching this thread on first use */
+    jenv = NativeGetEnv();
+    if (!jenv)
         return CYASSL_CBIO_ERR_GENERAL;
-    }
 
-    /* get JavaEnv from JavaVM */
-    vmret = (int)((*g_vm)->GetEnv(g_vm, (void**) &jenv, JNI_VERSION_1_6));
-    if (vmret == JNI_EDETACHED) {
-#ifdef __ANDROID__
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, &jenv, NULL);
-#else
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, (void**) &jenv, NULL);
-#endif
-        if (vmret) {
-            printf("Failed to attach JNIEnv to thread\n");
-        } else {
-            printf("Attached JNIEnv to thread\n");
-        }
-    } else if (vmret != JNI_OK) {
-        printf("Error getting JNIEnv from JavaVM, ret = %d\n", vmret);
-    }
+    excClass = g_excClass;
 
-    /* find exception class in case we need it */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return CYASSL_CBIO_ERR_GENERAL;
-    }
+    /* WolfSSLSession and WolfSSLContext refs are stored at registration */
+    if (myCtx->obj && myCtx->ctxObj) {
 
-    /* check if our stored object reference is valid */
-    refcheck = (*jenv)->GetObjectRefType(jenv, myCtx->obj);
-    if (refcheck == 2) {
-        
-        /* lookup WolfSSLSession class from global object ref */
-        jclass sessClass = (*jenv)->GetObjectClass(jenv, myCtx->obj);
-        if (!sessClass) {
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLSession class reference");
-            return CYASSL_CBIO_ERR_GENERAL;
-        } 
+        if (sz >= 0)
+        {
+            /* create jbyteArray to hold received data */
+            outData = (*jenv)->NewByteArray(jenv, sz);
+            if (!outData) {
+                return CYASSL_CBIO_ERR_GENERAL;
+            }
 
-        /* lookup WolfSSLContext private member fieldID */
-        jfieldID ctxFid = (*jenv)->GetFieldID(jenv, sessClass, "ctx",
-                "Lcom/wolfssl/WolfSSLContext;");
-        if (!ctxFid) {
+            (*jenv)->SetByteArrayRegion(jenv, outData, 0, sz, (jbyte*)buf);
             if ((*jenv)->ExceptionOccurred(jenv)) {
                 (*jenv)->ExceptionDescribe(jenv);
                 (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLContext field ID in NativeIOSendCb");
-            return CYASSL_CBIO_ERR_GENERAL;
-        }
-
-        /* find getContextPtr() method */
-        jmethodID getCtxMethodId = (*jenv)->GetMethodID(jenv, sessClass,
-            "getAssociatedContextPtr",
-            "()Lcom/wolfssl/WolfSSLContext;");
-        if (!getCtxMethodId) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get getAssociatedContextPtr() method ID in "
-                "NativeIOSendCb");
-            return CYASSL_CBIO_ERR_GENERAL;
-        }
-
-        /* get WolfSSLContext ctx object from Java land */
-        jobject ctxref = (*jenv)->CallObjectMethod(jenv, myCtx->obj,
-                getCtxMethodId);
-        if (!ctxref) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get WolfSSLContext object in NativeIOSendCb");
-            return CYASSL_CBIO_ERR_GENERAL;
-        }
-        
-        /* get WolfSSLContext class reference from Java land */
-        jclass innerCtxClass = (*jenv)->GetObjectClass(jenv, ctxref);
-        if (!innerCtxClass) {
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLContext class reference in "
-                "NativeIOSendCb");
-            return CYASSL_CBIO_ERR_GENERAL;
-        }
-
-        /* call internal I/O recv callback */
-        sendCbMethodId = (*jenv)->GetMethodID(jenv, innerCtxClass,
-                "internalIOSendCallback",
-                "(Lcom/wolfssl/WolfSSLSession;[BI)I");
-
-        if (!sendCbMethodId) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            printf("Error getting internalIOSendCallback method from JNI\n");
-            retval = CYASSL_CBIO_ERR_GENERAL;
-        }
-
-        if (!retval && sz >= 0)
-        {
-            /* create jbyteArray to hold received data */
-            outData = (*jenv)->NewByteArray(jenv, sz);
-            if (!outData) {
-                return CYASSL_CBIO_ERR_GENERAL;
-            }
-
-            (*jenv)->SetByteArrayRegion(jenv, outData, 0, sz, (jbyte*)buf);
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-                return CYASSL_CBIO_ERR_GENERAL;
+                return CYASSL_CBIO_ERR_GENERAL;
             }
 
             /* call Java send callback, ignore native ctx since Java
              * handles it */
-            retval = (*jenv)->CallIntMethod(jenv, ctxref, sendCbMethodId,
-                                        myCtx->obj, outData, (jint)sz);
+            retval = (*jenv)->CallIntMethod(jenv, myCtx->ctxObj,
+                    g_ioSendMethodId, myCtx->obj, outData, (jint)sz);
 
             if ((*jenv)->ExceptionOccurred(jenv)) {
                 /* an exception occurred on the Java side, how to
@@ -953,9 +1036,6 @@ int NativeIOSendCb(CYASSL *ssl, char *buf, int sz, void *ctx)
             (*jenv)->DeleteLocalRef(jenv, outData);
         }
 
-        /* detach JNIEnv from thread */
-        (*g_vm)->DetachCurrentThread(g_vm);
-
     } else {
         if ((*jenv)->ExceptionOccurred(jenv)) {
             (*jenv)->ExceptionDescribe(jenv);
@@ -971,150 +1051,231 @@ int NativeIOSendCb(CYASSL *ssl, char *buf, int sz, void *ctx)
     return retval;
 }
 
-JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_setGenCookie
+JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_setIORecvBuffer
   (JNIEnv* jenv, jobject jcl, jlong ctx)
 {
-    /* find exception class in case we need it */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
+    if (ctx) {
+        /* set ByteBuffer I/O recv callback */
+        CyaSSL_SetIORecv((CYASSL_CTX*)ctx, NativeIORecvBufferCb);
+
+    } else {
+        (*jenv)->ThrowNew(jenv, g_excClass,
+                "Input WolfSSLContext object was null when setting IORecv");
     }
+}
 
+JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_setIOSendBuffer
+  (JNIEnv* jenv, jobject jcl, jlong ctx)
+{
     if (ctx) {
-        /* set gen cookie callback */
-        CyaSSL_CTX_SetGenCookie((CYASSL_CTX*)ctx, NativeGenCookieCb);
+        /* set ByteBuffer I/O send callback */
+        CyaSSL_SetIOSend((CYASSL_CTX*)ctx, NativeIOSendBufferCb);
 
     } else {
-        (*jenv)->ThrowNew(jenv, excClass,
-                "Input WolfSSLContext object was null when setting "
-                "genCookieCb");
+        (*jenv)->ThrowNew(jenv, g_excClass,
+                "Input WolfSSLContext object was null when setting IOSend");
     }
 }
 
-int NativeGenCookieCb(CYASSL *ssl, unsigned char *buf, int sz, void *ctx)
+int NativeIORecvBufferCb(CYASSL *ssl, char *buf, int sz, void *ctx)
+{
+    return NativeIOReadAhead(ssl, buf, sz, ctx, NativeIORecvBufferUpcall);
+}
+
+static int NativeIORecvBufferUpcall(CYASSL *ssl, char *buf, int sz,
+        void *ctx)
+{
+    return NativeIOBufferUpcall(ssl, buf, sz, ctx, g_ioRecvBufMethodId);
+}
+
+int NativeIOSendBufferCb(CYASSL *ssl, char *buf, int sz, void *ctx)
+{
+    return NativeIOBufferUpcall(ssl, buf, sz, ctx, g_ioSendBufMethodId);
+}
+
+/* Hands CyaSSL's own I/O buffer to Java as a direct ByteBuffer, so nothing
+ * is allocated or copied per record. */
+static int NativeIOBufferUpcall(CYASSL *ssl, char *buf, int sz, void *ctx,
+        jmethodID mid)
 {
     JNIEnv*    jenv;
-    jint       retval = 0;
-    jint       vmret  = 0;
-    jmethodID  cookieCbMethodId;
-    jbyteArray inData;
-    jclass     excClass;
-    jobjectRefType refcheck;
-    internCtx*   myCtx = ctx;
+    jint       retval;
+    jobject    view;
+    internCtx* myCtx = ctx;
 
-    if (!g_vm) {
-        printf("Global JavaVM reference is null!\n");
-        return GEN_COOKIE_E;
-    }
+    if (sz < 0)
+        return CYASSL_CBIO_ERR_GENERAL;
 
-    /* get JavaEnv from JavaVM */
-    vmret = (int)((*g_vm)->GetEnv(g_vm, (void**) &jenv, JNI_VERSION_1_6));
-    if (vmret == JNI_EDETACHED) {
-#ifdef __ANDROID__
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, &jenv, NULL);
-#else
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, (void**) &jenv, NULL);
-#endif
-        if (vmret) {
-            printf("Failed to attach JNIEnv to thread\n");
-        } else {
-            printf("Attached JNIEnv to thread\n");
+    /* get JNIEnv, attaching this thread on first use */
+    jenv = NativeGetEnv();
+    if (!jenv)
+        return CYASSL_CBIO_ERR_GENERAL;
+
+    if (!myCtx || !myCtx->obj || !myCtx->ctxObj) {
+        if ((*jenv)->ExceptionOccurred(jenv)) {
+            (*jenv)->ExceptionDescribe(jenv);
+            (*jenv)->ExceptionClear(jenv);
         }
-    } else if (vmret != JNI_OK) {
-        printf("Error getting JNIEnv from JavaVM, ret = %d\n", vmret);
+
+        (*jenv)->ThrowNew(jenv, g_excClass,
+                "Object reference invalid in NativeIOBufferUpcall");
+
+        return CYASSL_CBIO_ERR_GENERAL;
     }
 
-    /* find exception class in case we need it */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
+    view = NativeCtxView(jenv, myCtx, 0, buf, sz);
+    if (!view)
+        return CYASSL_CBIO_ERR_GENERAL;
+
+    /* call Java callback, ignore native ctx since Java handles it */
+    retval = (*jenv)->CallIntMethod(jenv, myCtx->ctxObj, mid,
+            myCtx->obj, view, (jint)sz);
+
     if ((*jenv)->ExceptionOccurred(jenv)) {
         (*jenv)->ExceptionDescribe(jenv);
         (*jenv)->ExceptionClear(jenv);
-        return GEN_COOKIE_E;
+        retval = CYASSL_CBIO_ERR_GENERAL;
     }
 
-    /* check if our stored object reference is valid */
-    refcheck = (*jenv)->GetObjectRefType(jenv, myCtx->obj);
-    if (refcheck == 2) {
-        
-        /* lookup WolfSSLSession class from global object ref */
-        jclass sessClass = (*jenv)->GetObjectClass(jenv, myCtx->obj);
-        if (!sessClass) {
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLSession class reference");
-            return GEN_COOKIE_E;
-        } 
-
-        /* lookup WolfSSLContext private member fieldID */
-        jfieldID ctxFid = (*jenv)->GetFieldID(jenv, sessClass, "ctx",
-                "Lcom/wolfssl/WolfSSLContext;");
-        if (!ctxFid) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
+    NativeCtxViewDone(jenv, myCtx, view);
 
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLContext field ID in "
-                "NativeGenCookieCb");
-            return GEN_COOKIE_E;
-        }
+    if (retval > sz)
+        retval = CYASSL_CBIO_ERR_GENERAL;
 
-        /* find getContextPtr() method */
-        jmethodID getCtxMethodId = (*jenv)->GetMethodID(jenv, sessClass,
-            "getAssociatedContextPtr",
-            "()Lcom/wolfssl/WolfSSLContext;");
-        if (!getCtxMethodId) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
+    return retval;
+}
 
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get getAssociatedContextPtr() method ID in "
-                "NativeGenCookieCb");
-            return GEN_COOKIE_E;
+/* Returns a direct ByteBuffer over sz bytes at ptr, with position 0 and
+ * limit sz. Slot idx of myCtx keeps one ByteBuffer which is re-pointed at
+ * ptr on each call, so callbacks allocate nothing once every slot has been
+ * used. JVMs that do not expose the java.nio.Buffer fields get a new local
+ * view per call instead. Views must be handed back to NativeCtxViewDone()
+ * before the callback returns. Returns NULL on failure. */
+static jobject NativeCtxView(JNIEnv* jenv, internCtx* myCtx, int idx,
+        void* ptr, int sz)
+{
+    jobject view;
+    int     reuse = (g_bufferAddressFid && g_bufferCapacityFid &&
+                     g_bufferLimitFid && g_bufferPositionFid &&
+                     g_bufferMarkFid);
+
+    if (reuse && myCtx->views[idx]) {
+        view = myCtx->views[idx];
+        (*jenv)->SetLongField(jenv, view, g_bufferAddressFid,
+                (jlong)(intptr_t)ptr);
+        (*jenv)->SetIntField(jenv, view, g_bufferCapacityFid, sz);
+        (*jenv)->SetIntField(jenv, view, g_bufferLimitFid, sz);
+        (*jenv)->SetIntField(jenv, view, g_bufferPositionFid, 0);
+        (*jenv)->SetIntField(jenv, view, g_bufferMarkFid, -1);
+        return view;
+    }
+
+    view = (*jenv)->NewDirectByteBuffer(jenv, ptr, sz);
+    if (!view) {
+        if ((*jenv)->ExceptionOccurred(jenv)) {
+            (*jenv)->ExceptionDescribe(jenv);
+            (*jenv)->ExceptionClear(jenv);
         }
+        return NULL;
+    }
 
-        /* get WolfSSLContext ctx object from Java land */
-        jobject ctxref = (*jenv)->CallObjectMethod(jenv, myCtx->obj,
-                getCtxMethodId);
-        if (!ctxref) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
+    if (reuse) {
+        /* first use of this slot, keep the view for later calls */
+        myCtx->views[idx] = (*jenv)->NewGlobalRef(jenv, view);
+        (*jenv)->DeleteLocalRef(jenv, view);
+        view = myCtx->views[idx];
+    }
 
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get WolfSSLContext object in NativeGenCookieCb");
-            return GEN_COOKIE_E;
-        }
-        
-        /* get WolfSSLContext class reference from Java land */
-        jclass innerCtxClass = (*jenv)->GetObjectClass(jenv, ctxref);
-        if (!innerCtxClass) {
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLContext class reference in "
-                "NativeGenCookieCb");
-            return GEN_COOKIE_E;
-        }
+    return view;
+}
 
-        /* call internal gen cookie callback */
-        cookieCbMethodId = (*jenv)->GetMethodID(jenv, innerCtxClass,
-                "internalGenCookieCallback",
-                "(Lcom/wolfssl/WolfSSLSession;[BI)I");
+/* Releases a view returned by NativeCtxView(). Cached views are emptied so
+ * a reference kept by the application can't reach native memory after the
+ * callback returns, per-call views are deleted. */
+static void NativeCtxViewDone(JNIEnv* jenv, internCtx* myCtx, jobject view)
+{
+    int i;
 
-        if (!cookieCbMethodId) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
+    if (!view)
+        return;
 
-            printf("Error getting internalGenCookieCallback method from JNI\n");
-            retval = GEN_COOKIE_E;
+    for (i = 0; i < INTERN_CTX_VIEWS; i++) {
+        if (view == myCtx->views[i]) {
+            (*jenv)->SetIntField(jenv, view, g_bufferPositionFid, 0);
+            (*jenv)->SetIntField(jenv, view, g_bufferLimitFid, 0);
+            (*jenv)->SetIntField(jenv, view, g_bufferCapacityFid, 0);
+            return;
         }
+    }
+
+    (*jenv)->DeleteLocalRef(jenv, view);
+}
+
+/* Returns the one-element long[] (isLong) or int[] used as the output
+ * parameter of a PK callback, created on first use and reset to zero on
+ * every call after that. Returns NULL on failure. */
+static jobject NativeCtxOutArray(JNIEnv* jenv, internCtx* myCtx, int isLong)
+{
+    jobject arr;
+    jlong   zeroLong = 0;
+    jint    zeroInt = 0;
+
+    if (myCtx->outArr) {
+        if (isLong)
+            (*jenv)->SetLongArrayRegion(jenv, myCtx->outArr, 0, 1, &zeroLong);
+        else
+            (*jenv)->SetIntArrayRegion(jenv, myCtx->outArr, 0, 1, &zeroInt);
+        return myCtx->outArr;
+    }
+
+    if (isLong)
+        arr = (*jenv)->NewLongArray(jenv, 1);
+    else
+        arr = (*jenv)->NewIntArray(jenv, 1);
+    if (!arr)
+        return NULL;
+
+    myCtx->outArr = (*jenv)->NewGlobalRef(jenv, arr);
+    (*jenv)->DeleteLocalRef(jenv, arr);
+
+    return myCtx->outArr;
+}
+
+JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_setGenCookie
+  (JNIEnv* jenv, jobject jcl, jlong ctx)
+{
+    jclass excClass = g_excClass;
+
+    if (ctx) {
+        /* set gen cookie callback */
+        CyaSSL_CTX_SetGenCookie((CYASSL_CTX*)ctx, NativeGenCookieCb);
+
+    } else {
+        (*jenv)->ThrowNew(jenv, excClass,
+                "Input WolfSSLContext object was null when setting "
+                "genCookieCb");
+    }
+}
+
+int NativeGenCookieCb(CYASSL *ssl, unsigned char *buf, int sz, void *ctx)
+{
+    JNIEnv*    jenv;
+    jint       retval = 0;
+    jbyteArray inData;
+    jclass     excClass;
+    internCtx*   myCtx = ctx;
+
+    /* get JNIEnv, attaching this thread on first use */
+    jenv = NativeGetEnv();
+    if (!jenv)
+        return GEN_COOKIE_E;
+
+    excClass = g_excClass;
 
-        if (!retval && sz >= 0)
+    /* WolfSSLSession and WolfSSLContext refs are stored at registration */
+    if (myCtx->obj && myCtx->ctxObj) {
+
+        if (sz >= 0)
         {
             /* create jbyteArray to hold cookie data */
             inData = (*jenv)->NewByteArray(jenv, sz);
@@ -1123,8 +1284,8 @@ int NativeGenCookieCb(CYASSL *ssl, unsigned char *buf, int sz, void *ctx)
             }
 
             /* call Java cookie callback */
-            retval = (*jenv)->CallIntMethod(jenv, ctxref, cookieCbMethodId,
-                                        myCtx->obj, inData, (jint)sz);
+            retval = (*jenv)->CallIntMethod(jenv, myCtx->ctxObj,
+                    g_genCookieMethodId, myCtx->obj, inData, (jint)sz);
 
             if ((*jenv)->ExceptionOccurred(jenv)) {
                 /* an exception occurred on the Java side, how to handle it? */
@@ -1148,9 +1309,6 @@ int NativeGenCookieCb(CYASSL *ssl, unsigned char *buf, int sz, void *ctx)
             (*jenv)->DeleteLocalRef(jenv, inData);
         }
 
-        /* detach JNIEnv from thread */
-        (*g_vm)->DetachCurrentThread(g_vm);
-
     } else {
         if ((*jenv)->ExceptionOccurred(jenv)) {
             (*jenv)->ExceptionDescribe(jenv);
@@ -1169,10 +1327,16 @@ int NativeGenCookieCb(CYASSL *ssl, unsigned char *buf, int sz, void *ctx)
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_enableCRL
   (JNIEnv* jenv, jobject jcl, jlong ctx, jint options)
 {
+    NativeMemStats* prev;
+    int ret;
     if (!jenv || !ctx)
         return BAD_FUNC_ARG;
 
-    return CyaSSL_CTX_EnableCRL((CYASSL_CTX*)ctx, options);
+    prev = NativeMemEnter(jenv, jcl, g_contextMemFid);
+    ret = CyaSSL_CTX_EnableCRL((CYASSL_CTX*)ctx, options);
+    NativeMemLeave(prev);
+
+    return ret;
 }
 
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_disableCRL
@@ -1187,6 +1351,7 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_disableCRL
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_loadCRL
   (JNIEnv* jenv, jobject jcl, jlong ctx, jstring path, jint type, jint monitor)
 {
+    NativeMemStats* prev;
     int ret;
     const char* crlPath;
 
@@ -1195,7 +1360,9 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_loadCRL
 
     crlPath = (*jenv)->GetStringUTFChars(jenv, path, 0);
 
+    prev = NativeMemEnter(jenv, jcl, g_contextMemFid);
     ret = CyaSSL_CTX_LoadCRL((CYASSL_CTX*)ctx, crlPath, type, monitor);
+    NativeMemLeave(prev);
 
     (*jenv)->ReleaseStringUTFChars(jenv, path, crlPath);
 
@@ -1225,64 +1392,21 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_setCRLCb
 void NativeCtxMissingCRLCallback(const char* url)
 {
     JNIEnv*   jenv;
-    jint      vmret  = 0;
     jclass    excClass;
-    jmethodID crlMethod;
-    jobjectRefType refcheck;
     
-    /* get JNIEnv from JavaVM */
-    vmret = (int)((*g_vm)->GetEnv(g_vm, (void**) &jenv, JNI_VERSION_1_6));
-    if (vmret == JNI_EDETACHED) {
-#ifdef __ANDROID__
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, &jenv, NULL);
-#else
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, (void**) &jenv, NULL);
-#endif
-        if (vmret) {
-            printf("Failed to attach JNIEnv to thread\n");
-        }
-    } else if (vmret != JNI_OK) {
-        printf("Unable to get JNIEnv from JavaVM\n");
-    }
-
-    /* find exception class */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
+    /* get JNIEnv, attaching this thread on first use */
+    jenv = NativeGetEnv();
+    if (!jenv)
         return;
-    }
-
-    /* check if our stored object reference is valid */
-    refcheck = (*jenv)->GetObjectRefType(jenv, g_crlCtxCbIfaceObj);
-    if (refcheck == 2) {
 
-        /* lookup WolfSSLMissingCRLCallback class from global object ref */
-        jclass crlClass = (*jenv)->GetObjectClass(jenv, g_crlCtxCbIfaceObj);
-        if (!crlClass) {
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLMissingCRLCallback class reference");
-            return;
-        } 
-
-        crlMethod = (*jenv)->GetMethodID(jenv, crlClass, 
-                                            "missingCRLCallback",
-                                            "(Ljava/lang/String;)V");
-        if (crlMethod == 0) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
+    excClass = g_excClass;
 
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Error getting missingCRLCallback method from JNI");
-            return;
-        }
-    
+    /* check if a callback object has been registered */
+    if (g_crlCtxCbIfaceObj) {
         /* create jstring from char* */ 
         jstring missingUrl = (*jenv)->NewStringUTF(jenv, url);
     
-        (*jenv)->CallVoidMethod(jenv, g_crlCtxCbIfaceObj, crlMethod,
+        (*jenv)->CallVoidMethod(jenv, g_crlCtxCbIfaceObj, g_missingCRLMethodId,
                 missingUrl);
     
         if ((*jenv)->ExceptionOccurred(jenv)) {
@@ -1305,7 +1429,14 @@ void NativeCtxMissingCRLCallback(const char* url)
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_enableOCSP
   (JNIEnv* jenv, jobject jcl, jlong ctx, jlong options)
 {
-    return CyaSSL_CTX_EnableOCSP((CYASSL_CTX*)ctx, options);
+    NativeMemStats* prev;
+    int ret;
+
+    prev = NativeMemEnter(jenv, jcl, g_contextMemFid);
+    ret = CyaSSL_CTX_EnableOCSP((CYASSL_CTX*)ctx, options);
+    NativeMemLeave(prev);
+
+    return ret;
 }
 
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_disableOCSP
@@ -1323,7 +1454,7 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_setOCSPOverrideUrl
     
     if (urlString == NULL)
     { 
-        excClass = (*jenv)->FindClass(jenv, "java/lang/NullPointerException");
+        excClass = g_nullPtrExcClass;
         if ((*jenv)->ExceptionOccurred(jenv)) {
             (*jenv)->ExceptionDescribe(jenv);
             (*jenv)->ExceptionClear(jenv);
@@ -1348,13 +1479,7 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_setOCSPOverrideUrl
 JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_setMacEncryptCb
   (JNIEnv* jenv, jobject jcl, jlong ctx)
 {
-    /* find exception class */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return;
-    }
+    jclass excClass = g_excClass;
 
     if(ctx) {
         /* set MAC encrypt callback */
@@ -1374,191 +1499,97 @@ int NativeMacEncryptCb(CYASSL* ssl, unsigned char* macOut,
     JNIEnv*    jenv;
     int        hmacSize;
     jint       retval = 0;
-    jint       vmret  = 0;
-    jmethodID  macEncryptMethodId;
     jclass     excClass;
-    jbyteArray j_macIn;
+    jbyteArray j_macIn = NULL;
+    int        cbFailed = 0;
 
-    jobjectRefType refcheck;
     internCtx*     myCtx = ctx;
+    jobject        macOutBB = NULL;
+    jobject        encOutBB = NULL;
+    jobject        encInBB = NULL;
 
-    if (!g_vm) {
-        printf("Global JavaVM reference is null!\n");
+    /* get JNIEnv, attaching this thread on first use */
+    jenv = NativeGetEnv();
+    if (!jenv)
         return -1;
-    }
-
-    /* get JavaEnv from JavaVM */
-    vmret = (int)((*g_vm)->GetEnv(g_vm, (void**) &jenv, JNI_VERSION_1_6));
-    if (vmret == JNI_EDETACHED) {
-#ifdef __ANDROID__
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, &jenv, NULL);
-#else
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, (void**) &jenv, NULL);
-#endif
-        if (vmret) {
-            printf("Failed to attach JNIEnv to thread\n");
-        } else {
-            printf("Attached JNIEnv to thread\n");
-        }
-    } else if (vmret != JNI_OK) {
-        printf("Error getting JNIEnv from JavaVM, ret = %d\n", vmret);
-    }
     
-    /* find exception class in case we need it */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return -1;
-    }
-
-    /* check if our stored object reference is valid */
-    refcheck = (*jenv)->GetObjectRefType(jenv, myCtx->obj);
-    if (refcheck == 2) {
-        
-        /* lookup WolfSSLSession class from global object ref */
-        jclass sessClass = (*jenv)->GetObjectClass(jenv, myCtx->obj);
-        if (!sessClass) {
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLSession class reference "
-                "in NativeMacEncryptCb");
-            return -1;
-        } 
-
-        /* lookup WolfSSLContext private member fieldID */
-        jfieldID ctxFid = (*jenv)->GetFieldID(jenv, sessClass, "ctx",
-                "Lcom/wolfssl/WolfSSLContext;");
-        if (!ctxFid) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
+    excClass = g_excClass;
 
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLContext field ID in "
-                "NativeMacEncryptCb");
-            return -1;
-        }
+    /* WolfSSLSession and WolfSSLContext refs are stored at registration */
+    if (myCtx->obj && myCtx->ctxObj) {
 
-        /* find getContextPtr() method */
-        jmethodID getCtxMethodId = (*jenv)->GetMethodID(jenv, sessClass,
-            "getAssociatedContextPtr",
-            "()Lcom/wolfssl/WolfSSLContext;");
-        if (!getCtxMethodId) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
+        hmacSize = CyaSSL_GetHmacSize((CYASSL*)ssl);
 
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get getAssociatedContextPtr() method ID in "
-                "NativeMacEncryptCb");
+        /* create ByteBuffer to wrap macOut */
+        macOutBB = NativeCtxView(jenv, myCtx, 0, macOut,
+                hmacSize);
+        if (!macOutBB) {
+            printf("failed to create macOut ByteBuffer\n");
             return -1;
         }
 
-        /* get WolfSSLContext ctx object from Java land */
-        jobject ctxref = (*jenv)->CallObjectMethod(jenv, myCtx->obj,
-                getCtxMethodId);
-        if (!ctxref) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get WolfSSLContext object in NativeMacEncryptCb");
-            return -1;
+        /* create jbyteArray to hold macIn, since macIn is read-only */
+        j_macIn = (*jenv)->NewByteArray(jenv, macInSz);
+        if (!j_macIn) {
+            retval = -1;
+            goto cleanup;
         }
         
-        /* get WolfSSLContext class reference from Java land */
-        jclass innerCtxClass = (*jenv)->GetObjectClass(jenv, ctxref);
-        if (!innerCtxClass) {
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLContext class reference in "
-                "NativeMacEncryptCb");
-            return -1;
+        (*jenv)->SetByteArrayRegion(jenv, j_macIn, 0, macInSz,
+                (jbyte*)macIn);
+        if ((*jenv)->ExceptionOccurred(jenv)) {
+            (*jenv)->ExceptionDescribe(jenv);
+            (*jenv)->ExceptionClear(jenv);
+            retval = -1;
+            goto cleanup;
         }
 
-        /* get ref to internal MAC encrypt callback */
-        macEncryptMethodId = (*jenv)->GetMethodID(jenv, innerCtxClass,
-                "internalMacEncryptCallback",
-                "(Lcom/wolfssl/WolfSSLSession;Ljava/nio/ByteBuffer;"
-                "[BJIILjava/nio/ByteBuffer;Ljava/nio/ByteBuffer;J)I");
+        /* create ByteBuffer to wrap encOut */
+        encOutBB = NativeCtxView(jenv, myCtx, 1, encOut,
+                encSz);
+        if (!encOutBB) {
+            printf("failed to create encOut ByteBuffer\n");
+            retval = -1;
+            goto cleanup;
+        }
 
-        if (!macEncryptMethodId) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
+        /* create ByteBuffer to wrap encIn - use encOut b/c it's not a
+         * const, but points to same memory. This will be important
+         * in Java-land in order to have an updated encIn array after
+         * doing the MAC operation. */
+        encInBB = NativeCtxView(jenv, myCtx, 2, encOut,
+                encSz);
+        if (!encInBB) {
+            printf("failed to create encIn ByteBuffer\n");
+            retval = -1;
+            goto cleanup;
+        }
+        
+        /* call Java MAC/encrypt callback */
+        retval = (*jenv)->CallIntMethod(jenv, myCtx->ctxObj,
+                g_macEncryptMethodId,
+                myCtx->obj, macOutBB, j_macIn, (jlong)macInSz, macContent,
+                macVerify, encOutBB, encInBB, (jlong)encSz);
 
-            printf("Error getting internalMacEncryptCallback method "
-                    "from JNI\n");
+        if ((*jenv)->ExceptionOccurred(jenv) || retval != 0) {
+            (*jenv)->ExceptionDescribe(jenv);
+            (*jenv)->ExceptionClear(jenv);
+            cbFailed = 1;
             retval = -1;
         }
 
-        if (retval == 0)
-        {
-            hmacSize = CyaSSL_GetHmacSize((CYASSL*)ssl);
-
-            /* create ByteBuffer to wrap macOut */
-            jobject macOutBB = (*jenv)->NewDirectByteBuffer(jenv, macOut,
-                    hmacSize);
-            if (!macOutBB) {
-                printf("failed to create macOut ByteBuffer\n");
-                return -1;
-            }
-
-            /* create jbyteArray to hold macIn, since macIn is read-only */
-            j_macIn = (*jenv)->NewByteArray(jenv, macInSz);
-            if (!j_macIn)
-                return -1;
-            
-            (*jenv)->SetByteArrayRegion(jenv, j_macIn, 0, macInSz,
-                    (jbyte*)macIn);
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-                return -1;
-            }
-
-            /* create ByteBuffer to wrap encOut */
-            jobject encOutBB = (*jenv)->NewDirectByteBuffer(jenv, encOut,
-                    encSz);
-            if (!encOutBB) {
-                printf("failed to create encOut ByteBuffer\n");
-                return -1;
-            }
-
-            /* create ByteBuffer to wrap encIn - use encOut b/c it's not a
-             * const, but points to same memory. This will be important
-             * in Java-land in order to have an updated encIn array after
-             * doing the MAC operation. */
-            jobject encInBB = (*jenv)->NewDirectByteBuffer(jenv, encOut,
-                    encSz);
-            if (!encInBB) {
-                printf("failed to create encIn ByteBuffer\n");
-                return -1;
-            }
-            
-            /* call Java MAC/encrypt callback */
-            retval = (*jenv)->CallIntMethod(jenv, ctxref, macEncryptMethodId,
-                    myCtx->obj, macOutBB, j_macIn, (jlong)macInSz, macContent,
-                    macVerify, encOutBB, encInBB, (jlong)encSz);
-
-            if ((*jenv)->ExceptionOccurred(jenv) || retval != 0) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-                (*jenv)->ThrowNew(jenv, excClass,
-                    "Call to Java callback failed in NativeMacEncryptCb");
-                return -1;
-            }
-
-            /* delete local refs */
+    cleanup:
+        /* delete local refs, views are released before throwing */
+        if (j_macIn)
             (*jenv)->DeleteLocalRef(jenv, j_macIn);
-        }
+        NativeCtxViewDone(jenv, myCtx, macOutBB);
+        NativeCtxViewDone(jenv, myCtx, encOutBB);
+        NativeCtxViewDone(jenv, myCtx, encInBB);
 
-        /* detach JNIEnv from thread */
-        (*g_vm)->DetachCurrentThread(g_vm);
+        if (cbFailed) {
+            (*jenv)->ThrowNew(jenv, excClass,
+                "Call to Java callback failed in NativeMacEncryptCb");
+        }
 
     } else {
         /* clear any existing exception before we throw another */
@@ -1579,13 +1610,7 @@ int NativeMacEncryptCb(CYASSL* ssl, unsigned char* macOut,
 JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_setDecryptVerifyCb
   (JNIEnv* jenv, jobject jcl, jlong ctx)
 {
-    /* find exception class */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return;
-    }
+    jclass excClass = g_excClass;
 
     if(ctx) {
         /* set decrypt/verify callback */
@@ -1603,189 +1628,86 @@ int  NativeDecryptVerifyCb(CYASSL* ssl, unsigned char* decOut,
 {
     JNIEnv*    jenv;
     jint       retval = 0;
-    jint       vmret  = 0;
-    jmethodID  decryptVerifyMethodId;
     jclass     excClass;
 
-    jobjectRefType refcheck;
     internCtx*     myCtx = ctx;
+    jobject        decOutBB = NULL;
     
-    jbyteArray j_decIn;
+    jbyteArray j_decIn = NULL;
     jlongArray j_padSz;
 
-    if (!g_vm) {
-        printf("Global JavaVM reference is null!\n");
+    /* get JNIEnv, attaching this thread on first use */
+    jenv = NativeGetEnv();
+    if (!jenv)
         return -1;
-    }
-
-    /* get JavaEnv from JavaVM */
-    vmret = (int)((*g_vm)->GetEnv(g_vm, (void**) &jenv, JNI_VERSION_1_6));
-    if (vmret == JNI_EDETACHED) {
-#ifdef __ANDROID__
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, &jenv, NULL);
-#else
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, (void**) &jenv, NULL);
-#endif
-        if (vmret) {
-            printf("Failed to attach JNIEnv to thread\n");
-        } else {
-            printf("Attached JNIEnv to thread\n");
-        }
-    } else if (vmret != JNI_OK) {
-        printf("Error getting JNIEnv from JavaVM, ret = %d\n", vmret);
-    }
     
-    /* find exception class in case we need it */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return -1;
-    }
-
-    /* check if our stored object reference is valid */
-    refcheck = (*jenv)->GetObjectRefType(jenv, myCtx->obj);
-    if (refcheck == 2) {
-        
-        /* lookup WolfSSLSession class from global object ref */
-        jclass sessClass = (*jenv)->GetObjectClass(jenv, myCtx->obj);
-        if (!sessClass) {
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLSession class reference "
-                "in NativeDecryptVerifyCb");
-            return -1;
-        } 
+    excClass = g_excClass;
 
-        /* lookup WolfSSLContext private member fieldID */
-        jfieldID ctxFid = (*jenv)->GetFieldID(jenv, sessClass, "ctx",
-                "Lcom/wolfssl/WolfSSLContext;");
-        if (!ctxFid) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
+    /* WolfSSLSession and WolfSSLContext refs are stored at registration */
+    if (myCtx->obj && myCtx->ctxObj) {
 
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLContext field ID "
-                "in NativeDecryptVerifyCb");
+        /* create ByteBuffer to wrap decOut */
+        decOutBB = NativeCtxView(jenv, myCtx, 0, decOut,
+                decSz);
+        if (!decOutBB) {
+            printf("failed to create decOut ByteBuffer\n");
             return -1;
         }
 
-        /* find getContextPtr() method */
-        jmethodID getCtxMethodId = (*jenv)->GetMethodID(jenv, sessClass,
-            "getAssociatedContextPtr",
-            "()Lcom/wolfssl/WolfSSLContext;");
-        if (!getCtxMethodId) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get getAssociatedContextPtr() method ID "
-                "in NativeDecryptVerifyCb");
-            return -1;
-        }
-
-        /* get WolfSSLContext ctx object from Java land */
-        jobject ctxref = (*jenv)->CallObjectMethod(jenv, myCtx->obj,
-                getCtxMethodId);
-        if (!ctxref) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get WolfSSLContext object in NativeDecryptVerifyCb");
-            return -1;
+        /* create jbyteArray to hold decIn */
+        j_decIn = (*jenv)->NewByteArray(jenv, decSz);
+        if (!j_decIn) {
+            retval = -1;
+            goto cleanup;
         }
         
-        /* get WolfSSLContext class reference from Java land */
-        jclass innerCtxClass = (*jenv)->GetObjectClass(jenv, ctxref);
-        if (!innerCtxClass) {
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLContext class reference "
-                "in NativeDecryptVerifyCb");
-            return -1;
+        (*jenv)->SetByteArrayRegion(jenv, j_decIn, 0, decSz, (jbyte*)decIn);
+        if ((*jenv)->ExceptionOccurred(jenv)) {
+            (*jenv)->ExceptionDescribe(jenv);
+            (*jenv)->ExceptionClear(jenv);
+            retval = -1;
+            goto cleanup;
         }
 
-        /* call internal decrypt/verify callback */
-        decryptVerifyMethodId = (*jenv)->GetMethodID(jenv, innerCtxClass,
-                "internalDecryptVerifyCallback",
-                "(Lcom/wolfssl/WolfSSLSession;Ljava/nio/ByteBuffer;[BJII[J)I");
-
-        if (!decryptVerifyMethodId) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            printf("Error getting internalDecryptVerifyCallback method "
-                    "from JNI\n");
+        /* get reusable jlongArray to hold padSz, since we need to use it as
+         * an OUTPUT parameter from Java. Only needs to have 1 element */
+        j_padSz = NativeCtxOutArray(jenv, myCtx, 1);
+        if (!j_padSz) {
+            printf("failed to create padSz longArray\n");
             retval = -1;
+            goto cleanup;
         }
 
-        if (retval == 0)
-        {
-            /* create ByteBuffer to wrap decOut */
-            jobject decOutBB = (*jenv)->NewDirectByteBuffer(jenv, decOut,
-                    decSz);
-            if (!decOutBB) {
-                printf("failed to create decOut ByteBuffer\n");
-                return -1;
-            }
-
-            /* create jbyteArray to hold decIn */
-            j_decIn = (*jenv)->NewByteArray(jenv, decSz);
-            if (!j_decIn)
-                return -1;
-            
-            (*jenv)->SetByteArrayRegion(jenv, j_decIn, 0, decSz, (jbyte*)decIn);
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-                return -1;
-            }
-
-            /* create jlongArray to hold padSz, since we need to use it as
-             * an OUTPUT parameter from Java. Only needs to have 1 element */
-            j_padSz = (*jenv)->NewLongArray(jenv, 1);
-            if (!j_padSz) {
-                printf("failed to create padSz longArray\n");
-                return -1;
-            }
+        /* call Java decrypt/verify callback, java layer handles
+         * adding decrypt/verify CTX reference */
+        retval = (*jenv)->CallIntMethod(jenv, myCtx->ctxObj,
+                g_decryptVerifyMethodId,
+                myCtx->obj, decOutBB, j_decIn, (jlong)decSz, content,
+                verify, j_padSz);
 
-            /* call Java decrypt/verify callback, java layer handles
-             * adding decrypt/verify CTX reference */
-            retval = (*jenv)->CallIntMethod(jenv, ctxref, decryptVerifyMethodId,
-                    myCtx->obj, decOutBB, j_decIn, (jlong)decSz, content,
-                    verify, j_padSz);
+        if ((*jenv)->ExceptionOccurred(jenv)) {
+            (*jenv)->ExceptionDescribe(jenv);
+            (*jenv)->ExceptionClear(jenv);
+            retval = -1;
+        }
 
+        if (retval == 0) {
+            /* copy j_padSz into padSz */
+            jlong tmpVal;
+            (*jenv)->GetLongArrayRegion(jenv, j_padSz, 0, 1, &tmpVal);
             if ((*jenv)->ExceptionOccurred(jenv)) {
                 (*jenv)->ExceptionDescribe(jenv);
                 (*jenv)->ExceptionClear(jenv);
                 retval = -1;
             }
-
-            if (retval == 0) {
-                /* copy j_padSz into padSz */
-                jlong tmpVal;
-                (*jenv)->GetLongArrayRegion(jenv, j_padSz, 0, 1, &tmpVal);
-                if ((*jenv)->ExceptionOccurred(jenv)) {
-                    (*jenv)->ExceptionDescribe(jenv);
-                    (*jenv)->ExceptionClear(jenv);
-                    retval = -1;
-                }
-                *padSz = (unsigned int)tmpVal;
-            }
-
-            /* delete local refs */
-            (*jenv)->DeleteLocalRef(jenv, j_decIn);
+            *padSz = (unsigned int)tmpVal;
         }
 
-        /* detach JNIEnv from thread */
-        (*g_vm)->DetachCurrentThread(g_vm);
+    cleanup:
+        /* delete local refs */
+        if (j_decIn)
+            (*jenv)->DeleteLocalRef(jenv, j_decIn);
+        NativeCtxViewDone(jenv, myCtx, decOutBB);
 
     } else {
         /* clear any existing exception before we throw another */
@@ -1806,13 +1728,7 @@ int  NativeDecryptVerifyCb(CYASSL* ssl, unsigned char* decOut,
 JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_setEccSignCb
   (JNIEnv* jenv, jobject jcl, jlong ctx)
 {
-    /* find exception class */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return;
-    }
+    jclass excClass = g_excClass;
 
     if(ctx) {
         /* set ECC sign callback */
@@ -1831,190 +1747,88 @@ int  NativeEccSignCb(CYASSL* ssl, const unsigned char* in, unsigned int inSz,
 {
     JNIEnv*    jenv;
     jint       retval = 0;
-    jint       vmret  = 0;
-    jmethodID  eccSignMethodId;
     jclass     excClass;
 
-    jobjectRefType refcheck;
     internCtx*     myCtx = ctx;
+    jobject        outBB = NULL;
+    jobject        inBB = NULL;
+    jobject        keyDerBB = NULL;
     
     jlongArray j_outSz;
 
-    if (!g_vm) {
-        printf("Global JavaVM reference is null!\n");
+    /* get JNIEnv, attaching this thread on first use */
+    jenv = NativeGetEnv();
+    if (!jenv)
         return -1;
-    }
     
-    printf("Entered NativeEccSignCb\n");
-
-    /* get JavaEnv from JavaVM */
-    vmret = (int)((*g_vm)->GetEnv(g_vm, (void**) &jenv, JNI_VERSION_1_6));
-    if (vmret == JNI_EDETACHED) {
-#ifdef __ANDROID__
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, &jenv, NULL);
-#else
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, (void**) &jenv, NULL);
-#endif
-        if (vmret) {
-            printf("Failed to attach JNIEnv to thread\n");
-        } else {
-            printf("Attached JNIEnv to thread\n");
-        }
-    } else if (vmret != JNI_OK) {
-        printf("Error getting JNIEnv from JavaVM, ret = %d\n", vmret);
-    }
-    
-    /* find exception class in case we need it */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return -1;
-    }
+    excClass = g_excClass;
 
-    /* check if our stored object reference is valid */
-    refcheck = (*jenv)->GetObjectRefType(jenv, myCtx->obj);
-    if (refcheck == 2) {
-        
-        /* lookup WolfSSLSession class from global object ref */
-        jclass sessClass = (*jenv)->GetObjectClass(jenv, myCtx->obj);
-        if (!sessClass) {
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLSession class reference "
-                "in NativeEccSignCb");
-            return -1;
-        } 
+    /* WolfSSLSession and WolfSSLContext refs are stored at registration */
+    if (myCtx->obj && myCtx->ctxObj) {
 
-        /* lookup WolfSSLContext private member fieldID */
-        jfieldID ctxFid = (*jenv)->GetFieldID(jenv, sessClass, "ctx",
-                "Lcom/wolfssl/WolfSSLContext;");
-        if (!ctxFid) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLContext field ID "
-                "in NativeEccSignCb");
+        /* create ByteBuffer to wrap out */
+        outBB = NativeCtxView(jenv, myCtx, 0, out, *outSz);
+        if (!outBB) {
+            printf("failed to create eccSign out ByteBuffer\n");
             return -1;
         }
 
-        /* find getContextPtr() method */
-        jmethodID getCtxMethodId = (*jenv)->GetMethodID(jenv, sessClass,
-            "getAssociatedContextPtr",
-            "()Lcom/wolfssl/WolfSSLContext;");
-        if (!getCtxMethodId) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get getAssociatedContextPtr() method ID "
-                "in NativeEccSignCb");
-            return -1;
-        }
-
-        /* get WolfSSLContext ctx object from Java land */
-        jobject ctxref = (*jenv)->CallObjectMethod(jenv, myCtx->obj,
-                getCtxMethodId);
-        if (!ctxref) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get WolfSSLContext object in NativeEccSignCb");
-            return -1;
+        /* create ByteBuffer to wrap in */
+        inBB = NativeCtxView(jenv, myCtx, 1, (void*)in, inSz);
+        if (!inBB) {
+            printf("failed to create eccSign in ByteBuffer\n");
+            retval = -1;
+            goto cleanup;
         }
         
-        /* get WolfSSLContext class reference from Java land */
-        jclass innerCtxClass = (*jenv)->GetObjectClass(jenv, ctxref);
-        if (!innerCtxClass) {
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLContext class reference "
-                "in NativeEccSignCb");
-            return -1;
+        /* create ByteBuffer to wrap keyDer */
+        keyDerBB = NativeCtxView(jenv, myCtx, 2, (void*)keyDer,
+                keySz);
+        if (!keyDerBB) {
+            printf("failed to create eccSign keyDer ByteBuffer\n");
+            retval = -1;
+            goto cleanup;
         }
 
-        /* call internal decrypt/verify callback */
-        eccSignMethodId = (*jenv)->GetMethodID(jenv, innerCtxClass,
-                "internalEccSignCallback",
-                "(Lcom/wolfssl/WolfSSLSession;Ljava/nio/ByteBuffer;"
-                "JLjava/nio/ByteBuffer;[JLjava/nio/ByteBuffer;J)I");
-
-        if (!eccSignMethodId) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            printf("Error getting internalEccSignCallback method "
-                    "from JNI\n");
+        /* get reusable jlongArray to hold outSz, since we need to use it as
+         * an OUTPUT parameter from Java. Only needs to have 1 element */
+        j_outSz = NativeCtxOutArray(jenv, myCtx, 1);
+        if (!j_outSz) {
+            printf("failed to create outSz longArray\n");
             retval = -1;
+            goto cleanup;
         }
 
-        if (retval == 0)
-        {
-            /* create ByteBuffer to wrap out */
-            jobject outBB = (*jenv)->NewDirectByteBuffer(jenv, out, *outSz);
-            if (!outBB) {
-                printf("failed to create eccSign out ByteBuffer\n");
-                return -1;
-            }
-
-            /* create ByteBuffer to wrap in */
-            jobject inBB = (*jenv)->NewDirectByteBuffer(jenv, (void*)in, inSz);
-            if (!inBB) {
-                printf("failed to create eccSign in ByteBuffer\n");
-                return -1;
-            }
-            
-            /* create ByteBuffer to wrap keyDer */
-            jobject keyDerBB = (*jenv)->NewDirectByteBuffer(jenv, (void*)keyDer,
-                    keySz);
-            if (!keyDerBB) {
-                printf("failed to create eccSign keyDer ByteBuffer\n");
-                return -1;
-            }
-
-            /* create jlongArray to hold outSz, since we need to use it as
-             * an OUTPUT parameter from Java. Only needs to have 1 element */
-            j_outSz = (*jenv)->NewLongArray(jenv, 1);
-            if (!j_outSz) {
-                printf("failed to create outSz longArray\n");
-                return -1;
-            }
+        /* call Java ECC sign callback, java layer handles
+         * adding decrypt/verify CTX reference */
+        retval = (*jenv)->CallIntMethod(jenv, myCtx->ctxObj,
+                g_eccSignMethodId,
+                myCtx->obj, inBB, (jlong)inSz, outBB, j_outSz, keyDerBB,
+                (jlong)keySz);
 
-            /* call Java ECC sign callback, java layer handles
-             * adding decrypt/verify CTX reference */
-            retval = (*jenv)->CallIntMethod(jenv, ctxref, eccSignMethodId,
-                    myCtx->obj, inBB, (jlong)inSz, outBB, j_outSz, keyDerBB,
-                    (jlong)keySz);
+        if ((*jenv)->ExceptionOccurred(jenv)) {
+            (*jenv)->ExceptionDescribe(jenv);
+            (*jenv)->ExceptionClear(jenv);
+            retval = -1;
+        }
 
+        if (retval == 0) {
+            /* copy j_outSz into outSz */
+            jlong tmpVal;
+            (*jenv)->GetLongArrayRegion(jenv, j_outSz, 0, 1, &tmpVal);
             if ((*jenv)->ExceptionOccurred(jenv)) {
                 (*jenv)->ExceptionDescribe(jenv);
                 (*jenv)->ExceptionClear(jenv);
                 retval = -1;
             }
-
-            if (retval == 0) {
-                /* copy j_outSz into outSz */
-                jlong tmpVal;
-                (*jenv)->GetLongArrayRegion(jenv, j_outSz, 0, 1, &tmpVal);
-                if ((*jenv)->ExceptionOccurred(jenv)) {
-                    (*jenv)->ExceptionDescribe(jenv);
-                    (*jenv)->ExceptionClear(jenv);
-                    retval = -1;
-                }
-                *outSz = (unsigned int)tmpVal;
-            }
+            *outSz = (unsigned int)tmpVal;
         }
 
-        /* detach JNIEnv from thread */
-        (*g_vm)->DetachCurrentThread(g_vm);
+    cleanup:
+        /* release ByteBuffer views */
+        NativeCtxViewDone(jenv, myCtx, outBB);
+        NativeCtxViewDone(jenv, myCtx, inBB);
+        NativeCtxViewDone(jenv, myCtx, keyDerBB);
 
     } else {
         /* clear any existing exception before we throw another */
@@ -2035,13 +1849,7 @@ int  NativeEccSignCb(CYASSL* ssl, const unsigned char* in, unsigned int inSz,
 JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_setEccVerifyCb
   (JNIEnv* jenv, jobject jcl, jlong ctx)
 {
-    /* find exception class */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return;
-    }
+    jclass excClass = g_excClass;
 
     if(ctx) {
         /* set ECC verify callback */
@@ -2061,192 +1869,91 @@ int  NativeEccVerifyCb(CYASSL* ssl, const unsigned char* sig,
 {
     JNIEnv*    jenv;
     jint       retval = 0;
-    jint       vmret  = 0;
-    jmethodID  eccVerifyMethodId;
     jclass     excClass;
 
-    jobjectRefType refcheck;
     internCtx*     myCtx = ctx;
+    jobject        sigBB = NULL;
+    jobject        hashBB = NULL;
+    jobject        keyDerBB = NULL;
     jintArray      j_result;
 
-    if (!g_vm) {
-        printf("Global JavaVM reference is null!\n");
+    /* get JNIEnv, attaching this thread on first use */
+    jenv = NativeGetEnv();
+    if (!jenv)
         return -1;
-    }
-
-    /* get JavaEnv from JavaVM */
-    vmret = (int)((*g_vm)->GetEnv(g_vm, (void**) &jenv, JNI_VERSION_1_6));
-    if (vmret == JNI_EDETACHED) {
-#ifdef __ANDROID__
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, &jenv, NULL);
-#else
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, (void**) &jenv, NULL);
-#endif
-        if (vmret) {
-            printf("Failed to attach JNIEnv to thread\n");
-        } else {
-            printf("Attached JNIEnv to thread\n");
-        }
-    } else if (vmret != JNI_OK) {
-        printf("Error getting JNIEnv from JavaVM, ret = %d\n", vmret);
-    }
     
-    /* find exception class in case we need it */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        printf("can't find Exception class, NativeEccVerifyCb\n");
-        return -1;
-    }
+    excClass = g_excClass;
 
-    /* check if our stored object reference is valid */
-    refcheck = (*jenv)->GetObjectRefType(jenv, myCtx->obj);
-    if (refcheck == 2) {
-       
-        /* lookup WolfSSLSession class from global object ref */
-        jclass sessClass = (*jenv)->GetObjectClass(jenv, myCtx->obj);
-        if (!sessClass) {
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLSession class reference "
-                "in NativeEccVerifyCb");
-            return -1;
-        } 
+    /* WolfSSLSession and WolfSSLContext refs are stored at registration */
+    if (myCtx->obj && myCtx->ctxObj) {
 
-        /* lookup WolfSSLContext private member fieldID */
-        jfieldID ctxFid = (*jenv)->GetFieldID(jenv, sessClass, "ctx",
-                "Lcom/wolfssl/WolfSSLContext;");
-        if (!ctxFid) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLContext field ID "
-                "in NativeEccVerifyCb");
+        /* create ByteBuffer to wrap 'sig' */
+        sigBB = NativeCtxView(jenv, myCtx, 0, (void*)sig,
+                sigSz);
+        if (!sigBB) {
+            printf("failed to create eccVerify out ByteBuffer\n");
             return -1;
         }
 
-        /* find getContextPtr() method */
-        jmethodID getCtxMethodId = (*jenv)->GetMethodID(jenv, sessClass,
-            "getAssociatedContextPtr",
-            "()Lcom/wolfssl/WolfSSLContext;");
-        if (!getCtxMethodId) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get getAssociatedContextPtr() method ID "
-                "in NativeEccVerifyCb");
-            return -1;
-        }
-
-        /* get WolfSSLContext ctx object from Java land */
-        jobject ctxref = (*jenv)->CallObjectMethod(jenv, myCtx->obj,
-                getCtxMethodId);
-        if (!ctxref) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get WolfSSLContext object in NativeEccVerifyCb");
-            return -1;
+        /* create ByteBuffer to wrap 'hash' */
+        hashBB = NativeCtxView(jenv, myCtx, 1, (void*)hash,
+                hashSz);
+        if (!hashBB) {
+            printf("failed to create eccVerify hash ByteBuffer\n");
+            retval = -1;
+            goto cleanup;
         }
-       
-        /* get WolfSSLContext class reference from Java land */
-        jclass innerCtxClass = (*jenv)->GetObjectClass(jenv, ctxref);
-        if (!innerCtxClass) {
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLContext class reference "
-                "in NativeEccVerifyCb");
-            return -1;
+        
+        /* create ByteBuffer to wrap 'keyDer' */
+        keyDerBB = NativeCtxView(jenv, myCtx, 2, (void*)keyDer,
+                keySz);
+        if (!keyDerBB) {
+            printf("failed to create eccVerify keyDer ByteBuffer\n");
+            retval = -1;
+            goto cleanup;
         }
 
-        /* call internal ECC verify callback */
-        eccVerifyMethodId = (*jenv)->GetMethodID(jenv, innerCtxClass,
-                "internalEccVerifyCallback",
-                "(Lcom/wolfssl/WolfSSLSession;Ljava/nio/ByteBuffer;"
-                "JLjava/nio/ByteBuffer;JLjava/nio/ByteBuffer;J[I)I");
-
-        if (!eccVerifyMethodId) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            printf("Error getting internalEccVerifyCallback method "
-                    "from JNI\n");
+        /* get reusable jintArray to hold result, since we need to use it as
+         * an OUTPUT parameter from Java. Only needs to have 1 element */
+        j_result = NativeCtxOutArray(jenv, myCtx, 0);
+        if (!j_result) {
+            printf("failed to create result intArray\n");
             retval = -1;
+            goto cleanup;
         }
 
-        if (retval == 0)
-        {
-            /* create ByteBuffer to wrap 'sig' */
-            jobject sigBB = (*jenv)->NewDirectByteBuffer(jenv, (void*)sig,
-                    sigSz);
-            if (!sigBB) {
-                printf("failed to create eccVerify out ByteBuffer\n");
-                return -1;
-            }
-
-            /* create ByteBuffer to wrap 'hash' */
-            jobject hashBB = (*jenv)->NewDirectByteBuffer(jenv, (void*)hash,
-                    hashSz);
-            if (!hashBB) {
-                printf("failed to create eccVerify hash ByteBuffer\n");
-                return -1;
-            }
-            
-            /* create ByteBuffer to wrap 'keyDer' */
-            jobject keyDerBB = (*jenv)->NewDirectByteBuffer(jenv, (void*)keyDer,
-                    keySz);
-            if (!keyDerBB) {
-                printf("failed to create eccVerify keyDer ByteBuffer\n");
-                return -1;
-            }
-
-            /* create jintArray to hold result, since we need to use it as
-             * an OUTPUT parameter from Java. Only needs to have 1 element */
-            j_result = (*jenv)->NewIntArray(jenv, 1);
-            if (!j_result) {
-                printf("failed to create result intArray\n");
-                return -1;
-            }
+        /* call Java ECC verify callback, java layer handles
+         * adding CTX reference */
+        retval = (*jenv)->CallIntMethod(jenv, myCtx->ctxObj,
+                g_eccVerifyMethodId,
+                myCtx->obj, sigBB, (jlong)sigSz, hashBB, (jlong)hashSz,
+                keyDerBB, (jlong)keySz, j_result);
 
-            /* call Java ECC verify callback, java layer handles
-             * adding CTX reference */
-            retval = (*jenv)->CallIntMethod(jenv, ctxref, eccVerifyMethodId,
-                    myCtx->obj, sigBB, (jlong)sigSz, hashBB, (jlong)hashSz,
-                    keyDerBB, (jlong)keySz, j_result);
+        if ((*jenv)->ExceptionOccurred(jenv)) {
+            (*jenv)->ExceptionDescribe(jenv);
+            (*jenv)->ExceptionClear(jenv);
+            printf("exception occurred in EccVerifyCb\n");
+            retval = -1;
+        }
 
+        if (retval == 0) {
+            /* copy j_result into result */
+            jint tmpVal;
+            (*jenv)->GetIntArrayRegion(jenv, j_result, 0, 1, &tmpVal);
             if ((*jenv)->ExceptionOccurred(jenv)) {
                 (*jenv)->ExceptionDescribe(jenv);
                 (*jenv)->ExceptionClear(jenv);
-                printf("exception occurred in EccVerifyCb\n");
+                printf("failed during j_result copy, NativeEccVerifyCb\n");
                 retval = -1;
             }
-
-            if (retval == 0) {
-                /* copy j_result into result */
-                jint tmpVal;
-                (*jenv)->GetIntArrayRegion(jenv, j_result, 0, 1, &tmpVal);
-                if ((*jenv)->ExceptionOccurred(jenv)) {
-                    (*jenv)->ExceptionDescribe(jenv);
-                    (*jenv)->ExceptionClear(jenv);
-                    printf("failed during j_result copy, NativeEccVerifyCb\n");
-                    retval = -1;
-                }
-                *result = tmpVal;
-            }
+            *result = tmpVal;
         }
 
-        /* detach JNIEnv from thread */
-        (*g_vm)->DetachCurrentThread(g_vm);
+    cleanup:
+        /* release ByteBuffer views */
+        NativeCtxViewDone(jenv, myCtx, sigBB);
+        NativeCtxViewDone(jenv, myCtx, hashBB);
+        NativeCtxViewDone(jenv, myCtx, keyDerBB);
 
     } else {
         /* clear any existing exception before we throw another */
@@ -2267,13 +1974,7 @@ int  NativeEccVerifyCb(CYASSL* ssl, const unsigned char* sig,
 JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_setRsaSignCb
   (JNIEnv* jenv, jobject jcl, jlong ctx)
 {
-    /* find exception class */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return;
-    }
+    jclass excClass = g_excClass;
 
     if(ctx) {
         /* set RSA sign callback */
@@ -2292,191 +1993,91 @@ int  NativeRsaSignCb(CYASSL* ssl, const unsigned char* in, unsigned int inSz,
 {
     JNIEnv*    jenv;
     jint       retval = 0;
-    jint       vmret  = 0;
-    jmethodID  rsaSignMethodId;
     jclass     excClass;
 
-    jobjectRefType refcheck;
     internCtx*     myCtx = ctx;
+    jobject        inBB = NULL;
+    jobject        outBB = NULL;
+    jobject        keyDerBB = NULL;
     
     jintArray j_outSz;
 
-    if (!g_vm) {
-        printf("Global JavaVM reference is null!\n");
+    /* get JNIEnv, attaching this thread on first use */
+    jenv = NativeGetEnv();
+    if (!jenv)
         return -1;
-    }
-
-    /* get JavaEnv from JavaVM */
-    vmret = (int)((*g_vm)->GetEnv(g_vm, (void**) &jenv, JNI_VERSION_1_6));
-    if (vmret == JNI_EDETACHED) {
-#ifdef __ANDROID__
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, &jenv, NULL);
-#else
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, (void**) &jenv, NULL);
-#endif
-        if (vmret) {
-            printf("Failed to attach JNIEnv to thread\n");
-        } else {
-            printf("Attached JNIEnv to thread\n");
-        }
-    } else if (vmret != JNI_OK) {
-        printf("Error getting JNIEnv from JavaVM, ret = %d\n", vmret);
-    }
     
-    /* find exception class in case we need it */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return -1;
-    }
+    excClass = g_excClass;
 
-    /* check if our stored object reference is valid */
-    refcheck = (*jenv)->GetObjectRefType(jenv, myCtx->obj);
-    if (refcheck == 2) {
-       
-        /* lookup WolfSSLSession class from global object ref */
-        jclass sessClass = (*jenv)->GetObjectClass(jenv, myCtx->obj);
-        if (!sessClass) {
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLSession class reference "
-                "in NativeRsaSignCb");
-            return -1;
-        } 
+    /* WolfSSLSession and WolfSSLContext refs are stored at registration */
+    if (myCtx->obj && myCtx->ctxObj) {
 
-        /* lookup WolfSSLContext private member fieldID */
-        jfieldID ctxFid = (*jenv)->GetFieldID(jenv, sessClass, "ctx",
-                "Lcom/wolfssl/WolfSSLContext;");
-        if (!ctxFid) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLContext field ID "
-                "in NativeRsaSignCb");
-            return -1;
-        }
-
-        /* find getContextPtr() method */
-        jmethodID getCtxMethodId = (*jenv)->GetMethodID(jenv, sessClass,
-            "getAssociatedContextPtr",
-            "()Lcom/wolfssl/WolfSSLContext;");
-        if (!getCtxMethodId) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get getAssociatedContextPtr() method ID "
-                "in NativeRsaSignCb");
+        /* create ByteBuffer to wrap 'in' */
+        inBB = NativeCtxView(jenv, myCtx, 0, (void*)in,
+                inSz);
+        if (!inBB) {
+            printf("failed to create rsaSign in ByteBuffer\n");
             return -1;
         }
 
-        /* get WolfSSLContext ctx object from Java land */
-        jobject ctxref = (*jenv)->CallObjectMethod(jenv, myCtx->obj,
-                getCtxMethodId);
-        if (!ctxref) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get WolfSSLContext object in NativeRsaSignCb");
-            return -1;
+        /* create ByteBuffer to wrap 'out' */
+        outBB = NativeCtxView(jenv, myCtx, 1, (void*)out,
+                *outSz);
+        if (!outBB) {
+            printf("failed to create rsaSign out ByteBuffer\n");
+            retval = -1;
+            goto cleanup;
         }
-       
-        /* get WolfSSLContext class reference from Java land */
-        jclass innerCtxClass = (*jenv)->GetObjectClass(jenv, ctxref);
-        if (!innerCtxClass) {
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLContext class reference "
-                "in NativeRsaSignCb");
-            return -1;
+        
+        /* create ByteBuffer to wrap 'keyDer' */
+        keyDerBB = NativeCtxView(jenv, myCtx, 2, (void*)keyDer,
+                keySz);
+        if (!keyDerBB) {
+            printf("failed to create rsaSign keyDer ByteBuffer\n");
+            retval = -1;
+            goto cleanup;
         }
 
-        /* call internal RSA sign callback */
-        rsaSignMethodId = (*jenv)->GetMethodID(jenv, innerCtxClass,
-                "internalRsaSignCallback",
-                "(Lcom/wolfssl/WolfSSLSession;Ljava/nio/ByteBuffer;"
-                "JLjava/nio/ByteBuffer;[ILjava/nio/ByteBuffer;J)I");
-
-        if (!rsaSignMethodId) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            printf("Error getting internalRsaSignCallback method "
-                    "from JNI\n");
+        /* get reusable jintArray to hold outSz, since we need to use it as
+         * an OUTPUT parameter from Java. Only needs to have 1 element */
+        j_outSz = NativeCtxOutArray(jenv, myCtx, 0);
+        if (!j_outSz) {
+            printf("failed to create result intArray\n");
             retval = -1;
+            goto cleanup;
         }
+        (*jenv)->SetIntArrayRegion(jenv, j_outSz, 0, 1, (jint*)outSz);
 
-        if (retval == 0)
-        {
-            /* create ByteBuffer to wrap 'in' */
-            jobject inBB = (*jenv)->NewDirectByteBuffer(jenv, (void*)in,
-                    inSz);
-            if (!inBB) {
-                printf("failed to create rsaSign in ByteBuffer\n");
-                return -1;
-            }
-
-            /* create ByteBuffer to wrap 'out' */
-            jobject outBB = (*jenv)->NewDirectByteBuffer(jenv, (void*)out,
-                    *outSz);
-            if (!outBB) {
-                printf("failed to create rsaSign out ByteBuffer\n");
-                return -1;
-            }
-            
-            /* create ByteBuffer to wrap 'keyDer' */
-            jobject keyDerBB = (*jenv)->NewDirectByteBuffer(jenv, (void*)keyDer,
-                    keySz);
-            if (!keyDerBB) {
-                printf("failed to create rsaSign keyDer ByteBuffer\n");
-                return -1;
-            }
-
-            /* create jintArray to hold outSz, since we need to use it as
-             * an OUTPUT parameter from Java. Only needs to have 1 element */
-            j_outSz = (*jenv)->NewIntArray(jenv, 1);
-            if (!j_outSz) {
-                printf("failed to create result intArray\n");
-                return -1;
-            }
-            (*jenv)->SetIntArrayRegion(jenv, j_outSz, 0, 1, (jint*)outSz);
+        /* call Java RSA sign callback, java layer handles
+         * adding CTX reference */
+        retval = (*jenv)->CallIntMethod(jenv, myCtx->ctxObj,
+                g_rsaSignMethodId,
+                myCtx->obj, inBB, (jlong)inSz, outBB, j_outSz, keyDerBB,
+                (jlong)keySz);
 
-            /* call Java RSA sign callback, java layer handles
-             * adding CTX reference */
-            retval = (*jenv)->CallIntMethod(jenv, ctxref, rsaSignMethodId,
-                    myCtx->obj, inBB, (jlong)inSz, outBB, j_outSz, keyDerBB,
-                    (jlong)keySz);
+        if ((*jenv)->ExceptionOccurred(jenv)) {
+            (*jenv)->ExceptionDescribe(jenv);
+            (*jenv)->ExceptionClear(jenv);
+            retval = -1;
+        }
 
+        if (retval == 0) {
+            /* copy j_outSz into outSz */
+            jint tmpVal;
+            (*jenv)->GetIntArrayRegion(jenv, j_outSz, 0, 1, &tmpVal);
             if ((*jenv)->ExceptionOccurred(jenv)) {
                 (*jenv)->ExceptionDescribe(jenv);
                 (*jenv)->ExceptionClear(jenv);
                 retval = -1;
             }
-
-            if (retval == 0) {
-                /* copy j_outSz into outSz */
-                jint tmpVal;
-                (*jenv)->GetIntArrayRegion(jenv, j_outSz, 0, 1, &tmpVal);
-                if ((*jenv)->ExceptionOccurred(jenv)) {
-                    (*jenv)->ExceptionDescribe(jenv);
-                    (*jenv)->ExceptionClear(jenv);
-                    retval = -1;
-                }
-                *outSz = tmpVal;
-            }
+            *outSz = tmpVal;
         }
 
-        /* detach JNIEnv from thread */
-        (*g_vm)->DetachCurrentThread(g_vm);
+    cleanup:
+        /* release ByteBuffer views */
+        NativeCtxViewDone(jenv, myCtx, inBB);
+        NativeCtxViewDone(jenv, myCtx, outBB);
+        NativeCtxViewDone(jenv, myCtx, keyDerBB);
 
     } else {
         /* clear any existing exception before we throw another */
@@ -2497,13 +2098,7 @@ int  NativeRsaSignCb(CYASSL* ssl, const unsigned char* in, unsigned int inSz,
 JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_setRsaVerifyCb
   (JNIEnv* jenv, jobject jcl, jlong ctx)
 {
-    /* find exception class */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return;
-    }
+    jclass excClass = g_excClass;
 
     if(ctx) {
         /* set RSA verify callback */
@@ -2522,170 +2117,69 @@ int  NativeRsaVerifyCb(CYASSL* ssl, unsigned char* sig, unsigned int sigSz,
 {
     JNIEnv*    jenv;
     jint       retval = 0;
-    jint       vmret  = 0;
-    jmethodID  rsaVerifyMethodId;
     jclass     excClass;
 
-    jobjectRefType refcheck;
     internCtx*     myCtx = ctx;
+    jobject        sigBB = NULL;
+    jobject        outBB = NULL;
+    jobject        keyDerBB = NULL;
     
-    if (!g_vm) {
-        printf("Global JavaVM reference is null!\n");
+    /* get JNIEnv, attaching this thread on first use */
+    jenv = NativeGetEnv();
+    if (!jenv)
         return -1;
-    }
-
-    /* get JavaEnv from JavaVM */
-    vmret = (int)((*g_vm)->GetEnv(g_vm, (void**) &jenv, JNI_VERSION_1_6));
-    if (vmret == JNI_EDETACHED) {
-#ifdef __ANDROID__
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, &jenv, NULL);
-#else
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, (void**) &jenv, NULL);
-#endif
-        if (vmret) {
-            printf("Failed to attach JNIEnv to thread\n");
-        } else {
-            printf("Attached JNIEnv to thread\n");
-        }
-    } else if (vmret != JNI_OK) {
-        printf("Error getting JNIEnv from JavaVM, ret = %d\n", vmret);
-    }
     
-    /* find exception class in case we need it */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return -1;
-    }
-
-    /* check if our stored object reference is valid */
-    refcheck = (*jenv)->GetObjectRefType(jenv, myCtx->obj);
-    if (refcheck == 2) {
-       
-        /* lookup WolfSSLSession class from global object ref */
-        jclass sessClass = (*jenv)->GetObjectClass(jenv, myCtx->obj);
-        if (!sessClass) {
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLSession class reference "
-                "in NativeRsaVerifyCb");
-            return -1;
-        } 
+    excClass = g_excClass;
 
-        /* lookup WolfSSLContext private member fieldID */
-        jfieldID ctxFid = (*jenv)->GetFieldID(jenv, sessClass, "ctx",
-                "Lcom/wolfssl/WolfSSLContext;");
-        if (!ctxFid) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
+    /* WolfSSLSession and WolfSSLContext refs are stored at registration */
+    if (myCtx->obj && myCtx->ctxObj) {
 
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLContext field ID "
-                "in NativeRsaVerifyCb");
+        /* create ByteBuffer to wrap 'sig' */
+        sigBB = NativeCtxView(jenv, myCtx, 0, sig,
+                sigSz);
+        if (!sigBB) {
+            printf("failed to create rsaVerify sig ByteBuffer\n");
             return -1;
         }
 
-        /* find getContextPtr() method */
-        jmethodID getCtxMethodId = (*jenv)->GetMethodID(jenv, sessClass,
-            "getAssociatedContextPtr",
-            "()Lcom/wolfssl/WolfSSLContext;");
-        if (!getCtxMethodId) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get getAssociatedContextPtr() method ID "
-                "in NativeRsaVerifyCb");
-            return -1;
-        }
-
-        /* get WolfSSLContext ctx object from Java land */
-        jobject ctxref = (*jenv)->CallObjectMethod(jenv, myCtx->obj,
-                getCtxMethodId);
-        if (!ctxref) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get WolfSSLContext object in NativeRsaVerifyCb");
-            return -1;
-        }
-       
-        /* get WolfSSLContext class reference from Java land */
-        jclass innerCtxClass = (*jenv)->GetObjectClass(jenv, ctxref);
-        if (!innerCtxClass) {
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLContext class reference "
-                "in NativeRsaVerifyCb");
-            return -1;
+        /* create ByteBuffer to wrap 'out', since we're actually
+         * doing this inline, outBB points to the same address as
+         * sigBB */
+        outBB = NativeCtxView(jenv, myCtx, 1, sig,
+                sigSz);
+        if (!outBB) {
+            printf("failed to create rsaVerify out ByteBuffer\n");
+            retval = -1;
+            goto cleanup;
         }
-
-        /* call internal ECC verify callback */
-        rsaVerifyMethodId = (*jenv)->GetMethodID(jenv, innerCtxClass,
-                "internalRsaVerifyCallback",
-                "(Lcom/wolfssl/WolfSSLSession;Ljava/nio/ByteBuffer;"
-                "JLjava/nio/ByteBuffer;JLjava/nio/ByteBuffer;J)I");
-
-        if (!rsaVerifyMethodId) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            printf("Error getting internalRsaVerifyCallback method "
-                    "from JNI\n");
+        
+        /* create ByteBuffer to wrap 'keyDer' */
+        keyDerBB = NativeCtxView(jenv, myCtx, 2, (void*)keyDer,
+                keySz);
+        if (!keyDerBB) {
+            printf("failed to create rsaVerify keyDer ByteBuffer\n");
             retval = -1;
+            goto cleanup;
         }
 
-        if (retval == 0)
-        {
-            /* create ByteBuffer to wrap 'sig' */
-            jobject sigBB = (*jenv)->NewDirectByteBuffer(jenv, sig,
-                    sigSz);
-            if (!sigBB) {
-                printf("failed to create rsaVerify sig ByteBuffer\n");
-                return -1;
-            }
-
-            /* create ByteBuffer to wrap 'out', since we're actually
-             * doing this inline, outBB points to the same address as
-             * sigBB */
-            jobject outBB = (*jenv)->NewDirectByteBuffer(jenv, sig,
-                    sigSz);
-            if (!outBB) {
-                printf("failed to create rsaVerify out ByteBuffer\n");
-                return -1;
-            }
-            
-            /* create ByteBuffer to wrap 'keyDer' */
-            jobject keyDerBB = (*jenv)->NewDirectByteBuffer(jenv, (void*)keyDer,
-                    keySz);
-            if (!keyDerBB) {
-                printf("failed to create rsaVerify keyDer ByteBuffer\n");
-                return -1;
-            }
-
-            /* call Java RSA verify callback, java layer handles
-             * adding CTX reference */
-            retval = (*jenv)->CallIntMethod(jenv, ctxref, rsaVerifyMethodId,
-                    myCtx->obj, sigBB, (jlong)sigSz, outBB, (jlong)sigSz,
-                    keyDerBB, (jlong)keySz);
+        /* call Java RSA verify callback, java layer handles
+         * adding CTX reference */
+        retval = (*jenv)->CallIntMethod(jenv, myCtx->ctxObj,
+                g_rsaVerifyMethodId,
+                myCtx->obj, sigBB, (jlong)sigSz, outBB, (jlong)sigSz,
+                keyDerBB, (jlong)keySz);
 
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-                retval = -1;
-            }
+        if ((*jenv)->ExceptionOccurred(jenv)) {
+            (*jenv)->ExceptionDescribe(jenv);
+            (*jenv)->ExceptionClear(jenv);
+            retval = -1;
         }
 
-        /* detach JNIEnv from thread */
-        (*g_vm)->DetachCurrentThread(g_vm);
+    cleanup:
+        /* release ByteBuffer views */
+        NativeCtxViewDone(jenv, myCtx, sigBB);
+        NativeCtxViewDone(jenv, myCtx, outBB);
+        NativeCtxViewDone(jenv, myCtx, keyDerBB);
 
     } else {
         /* clear any existing exception before we throw another */
@@ -2710,13 +2204,7 @@ int  NativeRsaVerifyCb(CYASSL* ssl, unsigned char* sig, unsigned int sigSz,
 JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_setRsaEncCb
   (JNIEnv* jenv, jobject jcl, jlong ctx)
 {
-    /* find exception class */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return;
-    }
+    jclass excClass = g_excClass;
 
     if(ctx) {
         /* set RSA encrypt callback */
@@ -2735,191 +2223,91 @@ int  NativeRsaEncCb(CYASSL* ssl, const unsigned char* in, unsigned int inSz,
 {
     JNIEnv*    jenv;
     jint       retval = 0;
-    jint       vmret  = 0;
-    jmethodID  rsaEncMethodId;
     jclass     excClass;
 
-    jobjectRefType refcheck;
     internCtx*     myCtx = ctx;
+    jobject        inBB = NULL;
+    jobject        outBB = NULL;
+    jobject        keyDerBB = NULL;
     
     jintArray j_outSz;
 
-    if (!g_vm) {
-        printf("Global JavaVM reference is null!\n");
+    /* get JNIEnv, attaching this thread on first use */
+    jenv = NativeGetEnv();
+    if (!jenv)
         return -1;
-    }
-
-    /* get JavaEnv from JavaVM */
-    vmret = (int)((*g_vm)->GetEnv(g_vm, (void**) &jenv, JNI_VERSION_1_6));
-    if (vmret == JNI_EDETACHED) {
-#ifdef __ANDROID__
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, &jenv, NULL);
-#else
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, (void**) &jenv, NULL);
-#endif
-        if (vmret) {
-            printf("Failed to attach JNIEnv to thread\n");
-        } else {
-            printf("Attached JNIEnv to thread\n");
-        }
-    } else if (vmret != JNI_OK) {
-        printf("Error getting JNIEnv from JavaVM, ret = %d\n", vmret);
-    }
     
-    /* find exception class in case we need it */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return -1;
-    }
-
-    /* check if our stored object reference is valid */
-    refcheck = (*jenv)->GetObjectRefType(jenv, myCtx->obj);
-    if (refcheck == 2) {
-       
-        /* lookup WolfSSLSession class from global object ref */
-        jclass sessClass = (*jenv)->GetObjectClass(jenv, myCtx->obj);
-        if (!sessClass) {
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLSession class reference "
-                "in NativeRsaEncCb");
-            return -1;
-        } 
-
-        /* lookup WolfSSLContext private member fieldID */
-        jfieldID ctxFid = (*jenv)->GetFieldID(jenv, sessClass, "ctx",
-                "Lcom/wolfssl/WolfSSLContext;");
-        if (!ctxFid) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLContext field ID "
-                "in NativeRsaEncCb");
-            return -1;
-        }
+    excClass = g_excClass;
 
-        /* find getContextPtr() method */
-        jmethodID getCtxMethodId = (*jenv)->GetMethodID(jenv, sessClass,
-            "getAssociatedContextPtr",
-            "()Lcom/wolfssl/WolfSSLContext;");
-        if (!getCtxMethodId) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
+    /* WolfSSLSession and WolfSSLContext refs are stored at registration */
+    if (myCtx->obj && myCtx->ctxObj) {
 
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get getAssociatedContextPtr() method ID "
-                "in NativeRsaEncCb");
+        /* create ByteBuffer to wrap 'in' */
+        inBB = NativeCtxView(jenv, myCtx, 0, (void*)in,
+                inSz);
+        if (!inBB) {
+            printf("failed to create rsaEnc in ByteBuffer\n");
             return -1;
         }
 
-        /* get WolfSSLContext ctx object from Java land */
-        jobject ctxref = (*jenv)->CallObjectMethod(jenv, myCtx->obj,
-                getCtxMethodId);
-        if (!ctxref) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get WolfSSLContext object in NativeRsaEncCb");
-            return -1;
+        /* create ByteBuffer to wrap 'out' */
+        outBB = NativeCtxView(jenv, myCtx, 1, (void*)out,
+                *outSz);
+        if (!outBB) {
+            printf("failed to create rsaEnc out ByteBuffer\n");
+            retval = -1;
+            goto cleanup;
         }
-       
-        /* get WolfSSLContext class reference from Java land */
-        jclass innerCtxClass = (*jenv)->GetObjectClass(jenv, ctxref);
-        if (!innerCtxClass) {
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLContext class reference "
-                "in NativeRsaEncCb");
-            return -1;
+        
+        /* create ByteBuffer to wrap 'keyDer' */
+        keyDerBB = NativeCtxView(jenv, myCtx, 2, (void*)keyDer,
+                keySz);
+        if (!keyDerBB) {
+            printf("failed to create rsaEnc keyDer ByteBuffer\n");
+            retval = -1;
+            goto cleanup;
         }
 
-        /* call internal RSA enc callback */
-        rsaEncMethodId = (*jenv)->GetMethodID(jenv, innerCtxClass,
-                "internalRsaEncCallback",
-                "(Lcom/wolfssl/WolfSSLSession;Ljava/nio/ByteBuffer;"
-                "JLjava/nio/ByteBuffer;[ILjava/nio/ByteBuffer;J)I");
-
-        if (!rsaEncMethodId) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            printf("Error getting internalRsaEncCallback method "
-                    "from JNI\n");
+        /* get reusable jintArray to hold outSz, since we need to use it as
+         * an OUTPUT parameter from Java. Only needs to have 1 element */
+        j_outSz = NativeCtxOutArray(jenv, myCtx, 0);
+        if (!j_outSz) {
+            printf("failed to create result intArray\n");
             retval = -1;
+            goto cleanup;
         }
+        (*jenv)->SetIntArrayRegion(jenv, j_outSz, 0, 1, (jint*)outSz);
 
-        if (retval == 0)
-        {
-            /* create ByteBuffer to wrap 'in' */
-            jobject inBB = (*jenv)->NewDirectByteBuffer(jenv, (void*)in,
-                    inSz);
-            if (!inBB) {
-                printf("failed to create rsaEnc in ByteBuffer\n");
-                return -1;
-            }
-
-            /* create ByteBuffer to wrap 'out' */
-            jobject outBB = (*jenv)->NewDirectByteBuffer(jenv, (void*)out,
-                    *outSz);
-            if (!outBB) {
-                printf("failed to create rsaEnc out ByteBuffer\n");
-                return -1;
-            }
-            
-            /* create ByteBuffer to wrap 'keyDer' */
-            jobject keyDerBB = (*jenv)->NewDirectByteBuffer(jenv, (void*)keyDer,
-                    keySz);
-            if (!keyDerBB) {
-                printf("failed to create rsaEnc keyDer ByteBuffer\n");
-                return -1;
-            }
-
-            /* create jintArray to hold outSz, since we need to use it as
-             * an OUTPUT parameter from Java. Only needs to have 1 element */
-            j_outSz = (*jenv)->NewIntArray(jenv, 1);
-            if (!j_outSz) {
-                printf("failed to create result intArray\n");
-                return -1;
-            }
-            (*jenv)->SetIntArrayRegion(jenv, j_outSz, 0, 1, (jint*)outSz);
+        /* call Java RSA enc callback, java layer handles
+         * adding CTX reference */
+        retval = (*jenv)->CallIntMethod(jenv, myCtx->ctxObj,
+                g_rsaEncMethodId,
+                myCtx->obj, inBB, (jlong)inSz, outBB, j_outSz, keyDerBB,
+                (jlong)keySz);
 
-            /* call Java RSA enc callback, java layer handles
-             * adding CTX reference */
-            retval = (*jenv)->CallIntMethod(jenv, ctxref, rsaEncMethodId,
-                    myCtx->obj, inBB, (jlong)inSz, outBB, j_outSz, keyDerBB,
-                    (jlong)keySz);
+        if ((*jenv)->ExceptionOccurred(jenv)) {
+            (*jenv)->ExceptionDescribe(jenv);
+            (*jenv)->ExceptionClear(jenv);
+            retval = -1;
+        }
 
+        if (retval == 0) {
+            /* copy j_outSz into outSz */
+            jint tmpVal;
+            (*jenv)->GetIntArrayRegion(jenv, j_outSz, 0, 1, &tmpVal);
             if ((*jenv)->ExceptionOccurred(jenv)) {
                 (*jenv)->ExceptionDescribe(jenv);
                 (*jenv)->ExceptionClear(jenv);
                 retval = -1;
             }
-
-            if (retval == 0) {
-                /* copy j_outSz into outSz */
-                jint tmpVal;
-                (*jenv)->GetIntArrayRegion(jenv, j_outSz, 0, 1, &tmpVal);
-                if ((*jenv)->ExceptionOccurred(jenv)) {
-                    (*jenv)->ExceptionDescribe(jenv);
-                    (*jenv)->ExceptionClear(jenv);
-                    retval = -1;
-                }
-                *outSz = tmpVal;
-            }
+            *outSz = tmpVal;
         }
 
-        /* detach JNIEnv from thread */
-        (*g_vm)->DetachCurrentThread(g_vm);
+    cleanup:
+        /* release ByteBuffer views */
+        NativeCtxViewDone(jenv, myCtx, inBB);
+        NativeCtxViewDone(jenv, myCtx, outBB);
+        NativeCtxViewDone(jenv, myCtx, keyDerBB);
 
     } else {
         /* clear any existing exception before we throw another */
@@ -2940,13 +2328,7 @@ int  NativeRsaEncCb(CYASSL* ssl, const unsigned char* in, unsigned int inSz,
 JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_setRsaDecCb
   (JNIEnv* jenv, jobject jcl, jlong ctx)
 {
-    /* find exception class */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return;
-    }
+    jclass excClass = g_excClass;
 
     if(ctx) {
         /* set RSA encrypt callback */
@@ -2965,170 +2347,69 @@ int  NativeRsaDecCb(CYASSL* ssl, unsigned char* in, unsigned int inSz,
 {
     JNIEnv*    jenv;
     jint       retval = 0;
-    jint       vmret  = 0;
-    jmethodID  rsaDecMethodId;
     jclass     excClass;
 
-    jobjectRefType refcheck;
     internCtx*     myCtx = ctx;
+    jobject        inBB = NULL;
+    jobject        outBB = NULL;
+    jobject        keyDerBB = NULL;
     
-    if (!g_vm) {
-        printf("Global JavaVM reference is null!\n");
+    /* get JNIEnv, attaching this thread on first use */
+    jenv = NativeGetEnv();
+    if (!jenv)
         return -1;
-    }
-
-    /* get JavaEnv from JavaVM */
-    vmret = (int)((*g_vm)->GetEnv(g_vm, (void**) &jenv, JNI_VERSION_1_6));
-    if (vmret == JNI_EDETACHED) {
-#ifdef __ANDROID__
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, &jenv, NULL);
-#else
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, (void**) &jenv, NULL);
-#endif
-        if (vmret) {
-            printf("Failed to attach JNIEnv to thread\n");
-        } else {
-            printf("Attached JNIEnv to thread\n");
-        }
-    } else if (vmret != JNI_OK) {
-        printf("Error getting JNIEnv from JavaVM, ret = %d\n", vmret);
-    }
     
-    /* find exception class in case we need it */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return -1;
-    }
+    excClass = g_excClass;
 
-    /* check if our stored object reference is valid */
-    refcheck = (*jenv)->GetObjectRefType(jenv, myCtx->obj);
-    if (refcheck == 2) {
-       
-        /* lookup WolfSSLSession class from global object ref */
-        jclass sessClass = (*jenv)->GetObjectClass(jenv, myCtx->obj);
-        if (!sessClass) {
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLSession class reference "
-                "in NativeRsaDecCb");
-            return -1;
-        } 
+    /* WolfSSLSession and WolfSSLContext refs are stored at registration */
+    if (myCtx->obj && myCtx->ctxObj) {
 
-        /* lookup WolfSSLContext private member fieldID */
-        jfieldID ctxFid = (*jenv)->GetFieldID(jenv, sessClass, "ctx",
-                "Lcom/wolfssl/WolfSSLContext;");
-        if (!ctxFid) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLContext field ID "
-                "in NativeRsaDecCb");
+        /* create ByteBuffer to wrap 'in' */
+        inBB = NativeCtxView(jenv, myCtx, 0, in,
+                inSz);
+        if (!inBB) {
+            printf("failed to create rsaDec in ByteBuffer\n");
             return -1;
         }
 
-        /* find getContextPtr() method */
-        jmethodID getCtxMethodId = (*jenv)->GetMethodID(jenv, sessClass,
-            "getAssociatedContextPtr",
-            "()Lcom/wolfssl/WolfSSLContext;");
-        if (!getCtxMethodId) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get getAssociatedContextPtr() method ID "
-                "in NativeRsaDecCb");
-            return -1;
-        }
-
-        /* get WolfSSLContext ctx object from Java land */
-        jobject ctxref = (*jenv)->CallObjectMethod(jenv, myCtx->obj,
-                getCtxMethodId);
-        if (!ctxref) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get WolfSSLContext object in NativeRsaDecCb");
-            return -1;
-        }
-       
-        /* get WolfSSLContext class reference from Java land */
-        jclass innerCtxClass = (*jenv)->GetObjectClass(jenv, ctxref);
-        if (!innerCtxClass) {
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLContext class reference "
-                "in NativeRsaDecCb");
-            return -1;
+        /* create ByteBuffer to wrap 'out', since we're actually
+         * doing this inline, outBB points to the same address as
+         * inBB */
+        outBB = NativeCtxView(jenv, myCtx, 1, in,
+                inSz);
+        if (!outBB) {
+            printf("failed to create rsaDec out ByteBuffer\n");
+            retval = -1;
+            goto cleanup;
         }
-
-        /* call internal ECC verify callback */
-        rsaDecMethodId = (*jenv)->GetMethodID(jenv, innerCtxClass,
-                "internalRsaDecCallback",
-                "(Lcom/wolfssl/WolfSSLSession;Ljava/nio/ByteBuffer;"
-                "JLjava/nio/ByteBuffer;JLjava/nio/ByteBuffer;J)I");
-
-        if (!rsaDecMethodId) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            printf("Error getting internalRsaDecCallback method "
-                    "from JNI\n");
+        
+        /* create ByteBuffer to wrap 'keyDer' */
+        keyDerBB = NativeCtxView(jenv, myCtx, 2, (void*)keyDer,
+                keySz);
+        if (!keyDerBB) {
+            printf("failed to create rsaDec keyDer ByteBuffer\n");
             retval = -1;
+            goto cleanup;
         }
 
-        if (retval == 0)
-        {
-            /* create ByteBuffer to wrap 'in' */
-            jobject inBB = (*jenv)->NewDirectByteBuffer(jenv, in,
-                    inSz);
-            if (!inBB) {
-                printf("failed to create rsaDec in ByteBuffer\n");
-                return -1;
-            }
-
-            /* create ByteBuffer to wrap 'out', since we're actually
-             * doing this inline, outBB points to the same address as
-             * inBB */
-            jobject outBB = (*jenv)->NewDirectByteBuffer(jenv, in,
-                    inSz);
-            if (!outBB) {
-                printf("failed to create rsaDec out ByteBuffer\n");
-                return -1;
-            }
-            
-            /* create ByteBuffer to wrap 'keyDer' */
-            jobject keyDerBB = (*jenv)->NewDirectByteBuffer(jenv, (void*)keyDer,
-                    keySz);
-            if (!keyDerBB) {
-                printf("failed to create rsaDec keyDer ByteBuffer\n");
-                return -1;
-            }
-
-            /* call Java RSA decrypt callback, java layer handles
-             * adding CTX reference */
-            retval = (*jenv)->CallIntMethod(jenv, ctxref, rsaDecMethodId,
-                    myCtx->obj, inBB, (jlong)inSz, outBB, (jlong)inSz,
-                    keyDerBB, (jlong)keySz);
+        /* call Java RSA decrypt callback, java layer handles
+         * adding CTX reference */
+        retval = (*jenv)->CallIntMethod(jenv, myCtx->ctxObj,
+                g_rsaDecMethodId,
+                myCtx->obj, inBB, (jlong)inSz, outBB, (jlong)inSz,
+                keyDerBB, (jlong)keySz);
 
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-                retval = -1;
-            }
+        if ((*jenv)->ExceptionOccurred(jenv)) {
+            (*jenv)->ExceptionDescribe(jenv);
+            (*jenv)->ExceptionClear(jenv);
+            retval = -1;
         }
 
-        /* detach JNIEnv from thread */
-        (*g_vm)->DetachCurrentThread(g_vm);
+    cleanup:
+        /* release ByteBuffer views */
+        NativeCtxViewDone(jenv, myCtx, inBB);
+        NativeCtxViewDone(jenv, myCtx, outBB);
+        NativeCtxViewDone(jenv, myCtx, keyDerBB);
 
     } else {
         /* clear any existing exception before we throw another */
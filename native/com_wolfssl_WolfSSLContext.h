@@ -53,15 +53,39 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_useCertificateChainFile
  * Signature: (J)V
  */
 JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_freeContext
-  (JNIEnv *, jobject, jlong);
+  (JNIEnv *, jclass, jlong);
 
 /*
  * Class:     com_wolfssl_WolfSSLContext
  * Method:    setVerify
- * Signature: (JILcom/wolfssl/WolfSSLVerifyCallback;)V
+ * Signature: (JILcom/wolfssl/WolfSSLVerifyCallback;JII)J
+ */
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLContext_setVerify
+  (JNIEnv *, jobject, jlong, jint, jobject, jlong, jint, jint);
+
+/*
+ * Class:     com_wolfssl_WolfSSLContext
+ * Method:    setVerifyCache
+ * Signature: (JII)I
+ */
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLContext_setVerifyCache
+  (JNIEnv *, jobject, jlong, jint, jint);
+
+/*
+ * Class:     com_wolfssl_WolfSSLContext
+ * Method:    attachVerifyCtx
+ * Signature: (JJ)J
  */
-JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_setVerify
-  (JNIEnv *, jobject, jlong, jint, jobject);
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLContext_attachVerifyCtx
+  (JNIEnv *, jobject, jlong, jlong);
+
+/*
+ * Class:     com_wolfssl_WolfSSLContext
+ * Method:    freeVerifyCtx
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_freeVerifyCtx
+  (JNIEnv *, jclass, jlong);
 
 /*
  * Class:     com_wolfssl_WolfSSLContext
@@ -151,6 +175,22 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_setIORecv
 JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_setIOSend
   (JNIEnv *, jobject, jlong);
 
+/*
+ * Class:     com_wolfssl_WolfSSLContext
+ * Method:    setIORecvBuffer
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_setIORecvBuffer
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     com_wolfssl_WolfSSLContext
+ * Method:    setIOSendBuffer
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLContext_setIOSendBuffer
+  (JNIEnv *, jobject, jlong);
+
 /*
  * Class:     com_wolfssl_WolfSSLContext
  * Method:    setGenCookie
@@ -0,0 +1,417 @@
+/* com_wolfssl_WolfSSLEngine.c
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <cyassl/ssl.h>
+#include <cyassl/error-ssl.h>
+
+#include "com_wolfssl_globals.h"
+#include "com_wolfssl_WolfSSLEngine.h"
+
+/* indexes into the Java status array, see WolfSSLEngine.java */
+#define ENGINE_CONSUMED  0
+#define ENGINE_PRODUCED  1
+#define ENGINE_ERROR     2
+#define ENGINE_PENDING   3
+#define ENGINE_DONE      4
+#define ENGINE_STATUS_SZ 5
+
+/* Memory I/O state of one engine, registered as both the I/O read and
+ * write ctx of its session. The in/out windows point at the caller's
+ * network buffers only for the duration of one wrap/unwrap call. */
+typedef struct {
+    int tag;                /* IO_CTX_ENGINE, tells this apart from an
+                               internCtx holding global refs */
+    int client;
+    int handshakeDone;
+
+    const char* in;         /* network input for the current call */
+    int inSz;
+    int inUsed;
+
+    char* out;              /* network output space for the current call */
+    int outSz;
+    int outUsed;
+
+    char* pend;             /* output that did not fit in 'out' */
+    int pendSz;
+    int pendOff;
+    int pendCap;
+} engineCtx;
+
+/* custom native fn prototypes */
+static int NativeEngineRecv(CYASSL* ssl, char* buf, int sz, void* ctx);
+static int NativeEngineSend(CYASSL* ssl, char* buf, int sz, void* ctx);
+
+/* wolfSSL pulls network input straight from the caller's buffer */
+static int NativeEngineRecv(CYASSL* ssl, char* buf, int sz, void* ctx)
+{
+    engineCtx* eng = (engineCtx*)ctx;
+    int avail;
+
+    if (eng == NULL)
+        return CYASSL_CBIO_ERR_GENERAL;
+
+    avail = eng->inSz - eng->inUsed;
+    if (avail <= 0)
+        return CYASSL_CBIO_ERR_WANT_READ;
+
+    if (sz > avail)
+        sz = avail;
+
+    memcpy(buf, eng->in + eng->inUsed, sz);
+    eng->inUsed += sz;
+
+    return sz;
+}
+
+/* wolfSSL pushes records straight into the caller's buffer. Whatever does
+ * not fit is kept in 'pend' and flushed first by the next wrap, so wolfSSL
+ * never sees a would-block on send. */
+static int NativeEngineSend(CYASSL* ssl, char* buf, int sz, void* ctx)
+{
+    engineCtx* eng = (engineCtx*)ctx;
+    int   room;
+    int   copied = 0;
+    char* tmp;
+
+    if (eng == NULL)
+        return CYASSL_CBIO_ERR_GENERAL;
+
+    /* keep ordering, only write directly if nothing is queued */
+    if (eng->pendSz == 0 && eng->out != NULL) {
+        room = eng->outSz - eng->outUsed;
+        copied = (sz < room) ? sz : room;
+        memcpy(eng->out + eng->outUsed, buf, copied);
+        eng->outUsed += copied;
+    }
+
+    if (copied < sz) {
+        if (eng->pendOff + eng->pendSz + (sz - copied) > eng->pendCap) {
+            /* compact, then grow if still needed */
+            if (eng->pendOff > 0) {
+                memmove(eng->pend, eng->pend + eng->pendOff, eng->pendSz);
+                eng->pendOff = 0;
+            }
+
+            if (eng->pendSz + (sz - copied) > eng->pendCap) {
+                tmp = (char*)realloc(eng->pend, eng->pendSz + (sz - copied));
+                if (tmp == NULL)
+                    return CYASSL_CBIO_ERR_GENERAL;
+                eng->pend = tmp;
+                eng->pendCap = eng->pendSz + (sz - copied);
+            }
+        }
+        memcpy(eng->pend + eng->pendOff + eng->pendSz, buf + copied,
+                sz - copied);
+        eng->pendSz += sz - copied;
+    }
+
+    return sz;
+}
+
+/* moves as much queued output as fits into the current out window */
+static void NativeEngineFlush(engineCtx* eng)
+{
+    int n;
+
+    if (eng->pendSz == 0 || eng->out == NULL)
+        return;
+
+    n = eng->outSz - eng->outUsed;
+    if (n > eng->pendSz)
+        n = eng->pendSz;
+
+    memcpy(eng->out + eng->outUsed, eng->pend + eng->pendOff, n);
+    eng->outUsed += n;
+    eng->pendOff += n;
+    eng->pendSz  -= n;
+
+    if (eng->pendSz == 0)
+        eng->pendOff = 0;
+}
+
+/* points the engine windows at the caller's direct buffers, returns 0 on
+ * success or BAD_FUNC_ARG if a buffer is not usable */
+static int NativeEngineBegin(JNIEnv* jenv, engineCtx* eng,
+        jobject in, jint inOff, jint inLen,
+        jobject out, jint outOff, jint outLen)
+{
+    char* addr;
+
+    eng->in  = NULL; eng->inSz  = 0; eng->inUsed  = 0;
+    eng->out = NULL; eng->outSz = 0; eng->outUsed = 0;
+
+    if (inOff < 0 || inLen < 0 || outOff < 0 || outLen < 0)
+        return BAD_FUNC_ARG;
+
+    if (in != NULL && inLen > 0) {
+        addr = (char*)(*jenv)->GetDirectBufferAddress(jenv, in);
+        if (addr == NULL ||
+            (jlong)inOff + inLen > (*jenv)->GetDirectBufferCapacity(jenv, in))
+            return BAD_FUNC_ARG;
+        eng->in   = addr + inOff;
+        eng->inSz = inLen;
+    }
+
+    if (out != NULL && outLen > 0) {
+        addr = (char*)(*jenv)->GetDirectBufferAddress(jenv, out);
+        if (addr == NULL ||
+            (jlong)outOff + outLen > (*jenv)->GetDirectBufferCapacity(jenv,
+                out))
+            return BAD_FUNC_ARG;
+        eng->out   = addr + outOff;
+        eng->outSz = outLen;
+    }
+
+    return 0;
+}
+
+/* reports progress to Java and detaches the caller's buffers */
+static void NativeEngineEnd(JNIEnv* jenv, engineCtx* eng, jintArray status,
+        int consumed, int produced, int err)
+{
+    jint st[ENGINE_STATUS_SZ];
+
+    st[ENGINE_CONSUMED] = consumed;
+    st[ENGINE_PRODUCED] = produced;
+    st[ENGINE_ERROR]    = err;
+    st[ENGINE_PENDING]  = eng->pendSz;
+    st[ENGINE_DONE]     = eng->handshakeDone;
+
+    eng->in  = NULL; eng->inSz  = 0; eng->inUsed  = 0;
+    eng->out = NULL; eng->outSz = 0; eng->outUsed = 0;
+
+    (*jenv)->SetIntArrayRegion(jenv, status, 0, ENGINE_STATUS_SZ, st);
+    if ((*jenv)->ExceptionOccurred(jenv)) {
+        (*jenv)->ExceptionDescribe(jenv);
+        (*jenv)->ExceptionClear(jenv);
+    }
+}
+
+/* drives the handshake if not done yet, returns SSL_SUCCESS once done */
+static int NativeEngineHandshake(CYASSL* ssl, engineCtx* eng)
+{
+    int ret;
+
+    if (eng->handshakeDone)
+        return SSL_SUCCESS;
+
+    if (eng->client)
+        ret = CyaSSL_connect(ssl);
+    else
+        ret = CyaSSL_accept(ssl);
+
+    if (ret == SSL_SUCCESS)
+        eng->handshakeDone = 1;
+
+    return ret;
+}
+
+JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLEngine_setContextIO
+  (JNIEnv* jenv, jclass jcl, jlong ctx)
+{
+    if (!ctx)
+        return;
+
+    CyaSSL_SetIORecv((CYASSL_CTX*)ctx, NativeEngineRecv);
+    CyaSSL_SetIOSend((CYASSL_CTX*)ctx, NativeEngineSend);
+}
+
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLEngine_newEngineIO
+  (JNIEnv* jenv, jobject jcl, jlong ssl, jboolean client)
+{
+    engineCtx* eng;
+
+    if (!ssl)
+        return 0;
+
+    eng = (engineCtx*)calloc(1, sizeof(engineCtx));
+    if (eng == NULL)
+        return 0;
+
+    eng->tag = IO_CTX_ENGINE;
+    eng->client = (client == JNI_TRUE) ? 1 : 0;
+
+    CyaSSL_SetIOReadCtx((CYASSL*)ssl, eng);
+    CyaSSL_SetIOWriteCtx((CYASSL*)ssl, eng);
+
+    return (jlong)eng;
+}
+
+/* called once the session using eng has been freed */
+JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLEngine_freeEngineIO
+  (JNIEnv* jenv, jclass jcl, jlong io)
+{
+    engineCtx* eng = (engineCtx*)io;
+
+    if (eng != NULL && eng->tag == IO_CTX_ENGINE) {
+        free(eng->pend);
+        free(eng);
+    }
+}
+
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLEngine_wrap
+  (JNIEnv* jenv, jobject jcl, jlong ssl, jlong io,
+   jobject src, jint srcOff, jint srcLen,
+   jobject dst, jint dstOff, jint dstLen, jintArray status)
+{
+    int ret;
+    int err = SSL_ERROR_NONE;
+    int consumed = 0;
+    char* in;
+    engineCtx* eng = (engineCtx*)io;
+
+    if (!jenv || !ssl || !eng || !status)
+        return BAD_FUNC_ARG;
+
+    /* plaintext comes from 'src', network output goes to 'dst' */
+    ret = NativeEngineBegin(jenv, eng, src, srcOff, srcLen,
+            dst, dstOff, dstLen);
+    if (ret != 0) {
+        NativeEngineEnd(jenv, eng, status, 0, 0, SSL_ERROR_NONE);
+        return ret;
+    }
+    in = (char*)eng->in;
+    eng->in = NULL;
+    eng->inSz = 0;
+
+    NativeEngineFlush(eng);
+
+    /* don't queue more records until the earlier ones are taken */
+    if (eng->pendSz > 0) {
+        ret = SSL_FATAL_ERROR;
+        err = SSL_ERROR_WANT_WRITE;
+
+    } else {
+        ret = NativeEngineHandshake((CYASSL*)ssl, eng);
+
+        if (ret == SSL_SUCCESS) {
+            ret = 0;
+            if (in != NULL && srcLen > 0) {
+                /* send never blocks, so all of 'src' goes out */
+                ret = CyaSSL_write((CYASSL*)ssl, in, srcLen);
+                if (ret > 0)
+                    consumed = ret;
+            }
+        }
+        if (ret < 0)
+            err = CyaSSL_get_error((CYASSL*)ssl, ret);
+    }
+
+    NativeEngineEnd(jenv, eng, status, consumed, eng->outUsed, err);
+
+    return ret;
+}
+
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLEngine_unwrap
+  (JNIEnv* jenv, jobject jcl, jlong ssl, jlong io,
+   jobject src, jint srcOff, jint srcLen,
+   jobject dst, jint dstOff, jint dstLen, jintArray status)
+{
+    int ret;
+    int err = SSL_ERROR_NONE;
+    int produced = 0;
+    char* out;
+    engineCtx* eng = (engineCtx*)io;
+
+    if (!jenv || !ssl || !eng || !status)
+        return BAD_FUNC_ARG;
+
+    /* network input comes from 'src', plaintext goes to 'dst' */
+    ret = NativeEngineBegin(jenv, eng, src, srcOff, srcLen,
+            dst, dstOff, dstLen);
+    if (ret != 0) {
+        NativeEngineEnd(jenv, eng, status, 0, 0, SSL_ERROR_NONE);
+        return ret;
+    }
+
+    /* 'dst' is for plaintext, any records produced now (handshake
+     * messages, alerts) are queued for the next wrap */
+    out = eng->out;
+    eng->out = NULL;
+    eng->outSz = 0;
+
+    ret = NativeEngineHandshake((CYASSL*)ssl, eng);
+
+    if (ret == SSL_SUCCESS) {
+        ret = 0;
+
+        /* decrypt every record available into 'dst' */
+        while (out != NULL && produced < dstLen) {
+            ret = CyaSSL_read((CYASSL*)ssl, out + produced,
+                    dstLen - produced);
+            if (ret <= 0)
+                break;
+            produced += ret;
+        }
+
+        if (ret <= 0) {
+            err = CyaSSL_get_error((CYASSL*)ssl, ret);
+
+            /* running out of input after reading data is not an error */
+            if (produced > 0 && err == SSL_ERROR_WANT_READ)
+                err = SSL_ERROR_NONE;
+        }
+
+        if (produced > 0)
+            ret = produced;
+
+    } else {
+        err = CyaSSL_get_error((CYASSL*)ssl, ret);
+    }
+
+    NativeEngineEnd(jenv, eng, status, eng->inUsed, produced, err);
+
+    return ret;
+}
+
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLEngine_shutdown
+  (JNIEnv* jenv, jobject jcl, jlong ssl, jlong io,
+   jobject dst, jint dstOff, jint dstLen, jintArray status)
+{
+    int ret;
+    int err = SSL_ERROR_NONE;
+    engineCtx* eng = (engineCtx*)io;
+
+    if (!jenv || !ssl || !eng || !status)
+        return BAD_FUNC_ARG;
+
+    ret = NativeEngineBegin(jenv, eng, NULL, 0, 0, dst, dstOff, dstLen);
+    if (ret != 0) {
+        NativeEngineEnd(jenv, eng, status, 0, 0, SSL_ERROR_NONE);
+        return ret;
+    }
+
+    NativeEngineFlush(eng);
+
+    /* queues close_notify behind any earlier output */
+    ret = CyaSSL_shutdown((CYASSL*)ssl);
+    if (ret != SSL_SUCCESS)
+        err = CyaSSL_get_error((CYASSL*)ssl, ret);
+
+    NativeEngineEnd(jenv, eng, status, 0, eng->outUsed, err);
+
+    return ret;
+}
+
@@ -0,0 +1,71 @@
+/* DO NOT EDIT THIS FILE - it is machine generated */
+#include <jni.h>
+/* Header for class com_wolfssl_WolfSSLEngine */
+
+#ifndef _Included_com_wolfssl_WolfSSLEngine
+#define _Included_com_wolfssl_WolfSSLEngine
+#ifdef __cplusplus
+extern "C" {
+#endif
+#undef com_wolfssl_WolfSSLEngine_STATUS_CONSUMED
+#define com_wolfssl_WolfSSLEngine_STATUS_CONSUMED 0L
+#undef com_wolfssl_WolfSSLEngine_STATUS_PRODUCED
+#define com_wolfssl_WolfSSLEngine_STATUS_PRODUCED 1L
+#undef com_wolfssl_WolfSSLEngine_STATUS_ERROR
+#define com_wolfssl_WolfSSLEngine_STATUS_ERROR 2L
+#undef com_wolfssl_WolfSSLEngine_STATUS_PENDING
+#define com_wolfssl_WolfSSLEngine_STATUS_PENDING 3L
+#undef com_wolfssl_WolfSSLEngine_STATUS_DONE
+#define com_wolfssl_WolfSSLEngine_STATUS_DONE 4L
+/*
+ * Class:     com_wolfssl_WolfSSLEngine
+ * Method:    setContextIO
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLEngine_setContextIO
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     com_wolfssl_WolfSSLEngine
+ * Method:    newEngineIO
+ * Signature: (JZ)J
+ */
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLEngine_newEngineIO
+  (JNIEnv *, jobject, jlong, jboolean);
+
+/*
+ * Class:     com_wolfssl_WolfSSLEngine
+ * Method:    freeEngineIO
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLEngine_freeEngineIO
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     com_wolfssl_WolfSSLEngine
+ * Method:    wrap
+ * Signature: (JJLjava/nio/ByteBuffer;IILjava/nio/ByteBuffer;II[I)I
+ */
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLEngine_wrap
+  (JNIEnv *, jobject, jlong, jlong, jobject, jint, jint, jobject, jint, jint, jintArray);
+
+/*
+ * Class:     com_wolfssl_WolfSSLEngine
+ * Method:    unwrap
+ * Signature: (JJLjava/nio/ByteBuffer;IILjava/nio/ByteBuffer;II[I)I
+ */
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLEngine_unwrap
+  (JNIEnv *, jobject, jlong, jlong, jobject, jint, jint, jobject, jint, jint, jintArray);
+
+/*
+ * Class:     com_wolfssl_WolfSSLEngine
+ * Method:    shutdown
+ * Signature: (JJLjava/nio/ByteBuffer;II[I)I
+ */
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLEngine_shutdown
+  (JNIEnv *, jobject, jlong, jlong, jobject, jint, jint, jintArray);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
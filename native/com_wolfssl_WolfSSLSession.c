@@ -20,6 +20,7 @@
  */
 
 #include <stdio.h>
+#include <string.h>
 #include <arpa/inet.h>
 #include <cyassl/ssl.h>
 #include <cyassl/error-ssl.h>
@@ -30,16 +31,58 @@
 /* global object refs for verify, CRL callbacks */
 static jobject g_crlCbIfaceObj;
 
+/* maximum plaintext carried by one SSL/TLS record */
+#define MAX_RECORD_PLAIN_SZ 16384
+
 /* custom native fn prototypes */
 void NativeMissingCRLCallback(const char* url);
+static int NativeWriteRecords(CYASSL* ssl, const char* data, int sz);
+static int NativeWriteStaged(JNIEnv* jenv, CYASSL* ssl, jbyteArray raw,
+        int offset, int sz);
+static int NativeStoreCtxRefs(JNIEnv* jenv, internCtx* myCtx, jobject jcl);
+static void NativeFreeInternCtx(JNIEnv* jenv, internCtx* myCtx);
+static internCtx* NativeGetIOReadCtx(CYASSL* ssl);
+static jlong NativeStatus(CYASSL* ssl, int ret);
+static jint NativeWriteDirect(JNIEnv* jenv, jlong ssl, jobject buf,
+        jint offset, jint length);
+static jint NativeReadDirect(JNIEnv* jenv, jlong ssl, jobject buf,
+        jint offset, jint length);
+static int NativeCanPin(jlong ssl, jboolean pin);
+static jint NativeWriteArray(JNIEnv* jenv, jlong ssl, jbyteArray raw,
+        jint offset, jint length, jboolean pin);
+static jint NativeReadArray(JNIEnv* jenv, jlong ssl, jbyteArray raw,
+        jint offset, jint length, jboolean pin);
+static jint NativeWriteBulkDirect(JNIEnv* jenv, jlong ssl, jobject buf,
+        jint offset, jint length);
+static jint NativeWriteBulkArray(JNIEnv* jenv, jlong ssl, jbyteArray raw,
+        jint offset, jint length, jboolean pin);
+static jint* NativeGetRegions(JNIEnv* jenv, jobjectArray bufs,
+        jintArray offsets, jintArray lengths, int* count, int* err);
+static int NativeGetRegionBuffer(JNIEnv* jenv, jobject buf, jint off,
+        jint len, char** addr);
+static int NativeGatherRecords(JNIEnv* jenv, CYASSL* ssl, jobjectArray bufs,
+        const jint* off, const jint* len, int count);
+static jint NativeWriteGather(JNIEnv* jenv, jlong ssl, jobjectArray bufs,
+        jintArray offsets, jintArray lengths);
+static int NativeScatterRecords(JNIEnv* jenv, CYASSL* ssl, jobjectArray bufs,
+        const jint* off, const jint* len, int count);
+static jint NativeReadScatter(JNIEnv* jenv, jlong ssl, jobjectArray bufs,
+        jintArray offsets, jintArray lengths);
 
 /* jni functions */
 
 JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLSession_newSSL
   (JNIEnv* jenv, jobject jcl, jlong ctx)
 {
+    NativeMemStats* prev;
+    CYASSL* ssl;
+
     /* CyaSSL checks for null pointer */
-    return (jlong)CyaSSL_new((CYASSL_CTX*)ctx);
+    prev = NativeMemEnter(jenv, jcl, g_sessionMemFid);
+    ssl = CyaSSL_new((CYASSL_CTX*)ctx);
+    NativeMemLeave(prev);
+
+    return (jlong)ssl;
 }
 
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setFd(JNIEnv* jenv,
@@ -57,7 +100,10 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setFd(JNIEnv* jenv,
     /* get SocketImpl or DatagramSocketImpl from Java Socket */
     jcls = (*jenv)->GetObjectClass(jenv, jsock);
     if (type == 1) {
-        fid = (*jenv)->GetFieldID(jenv, jcls, "impl", "Ljava/net/SocketImpl;");
+        fid = g_socketImplFid;
+        if (!fid)
+            fid = (*jenv)->GetFieldID(jenv, jcls, "impl",
+                    "Ljava/net/SocketImpl;");
         if ((*jenv)->ExceptionOccurred(jenv)) {
             (*jenv)->ExceptionDescribe(jenv);
             (*jenv)->ExceptionClear(jenv);
@@ -66,24 +112,37 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setFd(JNIEnv* jenv,
         impl = (*jenv)->GetObjectField(jenv, jsock, fid);
 
     } else if (type == 2) {
-        fid = (*jenv)->GetFieldID(jenv, jcls, "impl",
-                "Ljava/net/DatagramSocketImpl;");
+        fid = g_datagramImplFid;
+        if (!fid)
+            fid = (*jenv)->GetFieldID(jenv, jcls, "impl",
+                    "Ljava/net/DatagramSocketImpl;");
         if ((*jenv)->ExceptionOccurred(jenv)) {
             (*jenv)->ExceptionDescribe(jenv);
             (*jenv)->ExceptionClear(jenv);
             return SSL_FAILURE;
         }
         impl = (*jenv)->GetObjectField(jenv, jsock, fid);
+    } else if (type == 3 || type == 4) {
+        /* SocketChannel and DatagramChannel implementations hold the
+         * FileDescriptor themselves, no separate impl object */
+        fid = NULL;
+        impl = jsock;
     } else {
         return SSL_FAILURE; /* invalid class type */
     }
 
-    if (!jcls || !fid || !impl)
+    if (!jcls || !impl || (!fid && impl != jsock))
         return SSL_FAILURE;
 
-    /* get FileDescriptor from SocketImpl */
+    /* get FileDescriptor from SocketImpl or channel */
     jcls = (*jenv)->GetObjectClass(jenv, impl);
-    fid = (*jenv)->GetFieldID(jenv, jcls, "fd", "Ljava/io/FileDescriptor;");
+    if (type == 1 && g_socketImplFdFid)
+        fid = g_socketImplFdFid;
+    else if (type == 2 && g_datagramImplFdFid)
+        fid = g_datagramImplFdFid;
+    else
+        fid = (*jenv)->GetFieldID(jenv, jcls, "fd",
+                "Ljava/io/FileDescriptor;");
     if ((*jenv)->ExceptionOccurred(jenv)) {
         (*jenv)->ExceptionDescribe(jenv);
         (*jenv)->ExceptionClear(jenv);
@@ -96,11 +155,14 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setFd(JNIEnv* jenv,
 
     /* get fd from FileDescriptor */
     jcls = (*jenv)->GetObjectClass(jenv, fdesc);
+    fid = g_fdescFdFid;
+    if (!fid) {
 #ifdef __ANDROID__
-    fid = (*jenv)->GetFieldID(jenv, jcls, "descriptor", "I");
+        fid = (*jenv)->GetFieldID(jenv, jcls, "descriptor", "I");
 #else
-    fid = (*jenv)->GetFieldID(jenv, jcls, "fd", "I");
+        fid = (*jenv)->GetFieldID(jenv, jcls, "fd", "I");
 #endif
+    }
     if ((*jenv)->ExceptionOccurred(jenv)) {
         (*jenv)->ExceptionDescribe(jenv);
         (*jenv)->ExceptionClear(jenv);
@@ -118,6 +180,7 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setFd(JNIEnv* jenv,
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_useCertificateFile
   (JNIEnv* jenv, jobject jcl, jlong ssl, jstring file, jint format)
 {
+    NativeMemStats* prev;
     jint ret = 0;
     const char* certFile;
 
@@ -126,8 +189,10 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_useCertificateFile
     
     certFile = (*jenv)->GetStringUTFChars(jenv, file, 0);
 
+    prev = NativeMemEnter(jenv, jcl, g_sessionMemFid);
     ret = (jint) CyaSSL_use_certificate_file((CYASSL*)ssl, certFile,
             (int)format);
+    NativeMemLeave(prev);
 
     (*jenv)->ReleaseStringUTFChars(jenv, file, certFile);
 
@@ -137,6 +202,7 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_useCertificateFile
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_usePrivateKeyFile
   (JNIEnv* jenv, jobject jcl, jlong ssl, jstring file, jint format)
 {
+    NativeMemStats* prev;
     jint ret = 0;
     const char* keyFile;
     
@@ -145,8 +211,10 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_usePrivateKeyFile
 
     keyFile = (*jenv)->GetStringUTFChars(jenv, file, 0);
 
+    prev = NativeMemEnter(jenv, jcl, g_sessionMemFid);
     ret = (jint) CyaSSL_use_PrivateKey_file((CYASSL*)ssl, keyFile,
             (int)format);
+    NativeMemLeave(prev);
 
     (*jenv)->ReleaseStringUTFChars(jenv, file, keyFile);
 
@@ -156,6 +224,7 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_usePrivateKeyFile
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_useCertificateChainFile
   (JNIEnv* jenv, jobject jcl, jlong ssl, jstring file)
 {
+    NativeMemStats* prev;
     jint ret = 0;
     const char* chainFile;
     
@@ -164,7 +233,9 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_useCertificateChainFile
 
     chainFile = (*jenv)->GetStringUTFChars(jenv, file, 0);
 
+    prev = NativeMemEnter(jenv, jcl, g_sessionMemFid);
     ret = (jint) CyaSSL_use_certificate_chain_file((CYASSL*)ssl, chainFile);
+    NativeMemLeave(prev);
 
     (*jenv)->ReleaseStringUTFChars(jenv, file, chainFile);
 
@@ -192,6 +263,7 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_getFd
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_connect
   (JNIEnv* jenv, jobject jcl, jlong ssl)
 {
+    NativeMemStats* prev;
     int ret = 0;
     
     /* make sure we don't have any outstanding exceptions pending */    
@@ -201,7 +273,9 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_connect
         return SSL_FAILURE;
     }
 
+    prev = NativeMemEnter(jenv, jcl, g_sessionMemFid);
     ret = CyaSSL_connect((CYASSL*)ssl);
+    NativeMemLeave(prev);
     if ((*jenv)->ExceptionCheck(jenv)) {
         (*jenv)->ExceptionDescribe(jenv);
         (*jenv)->ExceptionClear(jenv);
@@ -211,41 +285,173 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_connect
     return ret;
 }
 
-JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_write(JNIEnv* jenv,
-    jobject jcl, jlong ssl, jbyteArray raw, jint length)
+static jint NativeWriteDirect(JNIEnv* jenv, jlong ssl, jobject buf,
+        jint offset, jint length)
 {
-    char data[16384];
+    char* data;
 
-    if (!jenv || !ssl || !raw)
+    if (!jenv || !ssl || !buf || offset < 0 || length < 0)
         return BAD_FUNC_ARG;
 
-    if (length >= 0) {
-        (*jenv)->GetByteArrayRegion(jenv, raw, 0, length, (jbyte*)data);
-        if ((*jenv)->ExceptionOccurred(jenv)) {
-            (*jenv)->ExceptionDescribe(jenv);
-            (*jenv)->ExceptionClear(jenv);
-            return SSL_FAILURE;
-        }
-        return CyaSSL_write((CYASSL*)ssl, data, length);
+    data = (char*)(*jenv)->GetDirectBufferAddress(jenv, buf);
+    if (data == NULL)
+        return BAD_FUNC_ARG;
 
-    } else {
+    if ((jlong)offset + length > (*jenv)->GetDirectBufferCapacity(jenv, buf))
+        return BAD_FUNC_ARG;
+
+    /* encrypt straight from the caller's buffer, no staging copy */
+    return CyaSSL_write((CYASSL*)ssl, data + offset, length);
+}
+
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_writeDirect
+  (JNIEnv* jenv, jobject jcl, jlong ssl, jobject buf, jint offset,
+   jint length)
+{
+    jint ret;
+    NativeMemStats* prev;
+
+    prev = NativeMemEnter(jenv, jcl, g_sessionMemFid);
+    ret = NativeWriteDirect(jenv, ssl, buf, offset, length);
+    NativeMemLeave(prev);
+
+    return ret;
+}
+
+static jint NativeReadDirect(JNIEnv* jenv, jlong ssl, jobject buf,
+        jint offset, jint length)
+{
+    char* data;
+
+    if (!jenv || !ssl || !buf || offset < 0 || length < 0)
+        return BAD_FUNC_ARG;
+
+    data = (char*)(*jenv)->GetDirectBufferAddress(jenv, buf);
+    if (data == NULL)
+        return BAD_FUNC_ARG;
+
+    if ((jlong)offset + length > (*jenv)->GetDirectBufferCapacity(jenv, buf))
+        return BAD_FUNC_ARG;
+
+    /* decrypt straight into the caller's buffer, no staging copy */
+    return CyaSSL_read((CYASSL*)ssl, data + offset, length);
+}
+
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_readDirect
+  (JNIEnv* jenv, jobject jcl, jlong ssl, jobject buf, jint offset,
+   jint length)
+{
+    jint ret;
+    NativeMemStats* prev;
+
+    prev = NativeMemEnter(jenv, jcl, g_sessionMemFid);
+    ret = NativeReadDirect(jenv, ssl, buf, offset, length);
+    NativeMemLeave(prev);
+
+    return ret;
+}
+
+/* Heap arrays are only pinned with GetPrimitiveArrayCritical when nothing
+ * below CyaSSL_read/CyaSSL_write can call back into Java, which the caller
+ * tells us with 'pin', and when the session is non-blocking. A blocking
+ * call can wait on the peer for as long as it likes, and holding the
+ * critical region that long stalls the garbage collector. */
+static int NativeCanPin(jlong ssl, jboolean pin)
+{
+    return pin == JNI_TRUE && CyaSSL_get_using_nonblock((CYASSL*)ssl) &&
+           !NativeLoggingCbRegistered();
+}
+
+static jint NativeWriteArray(JNIEnv* jenv, jlong ssl, jbyteArray raw,
+        jint offset, jint length, jboolean pin)
+{
+    int   ret;
+    char* data;
+    char  staging[16384];
+
+    if (!jenv || !ssl || !raw || offset < 0 || length < 0)
+        return BAD_FUNC_ARG;
+
+    if ((jlong)offset + length > (*jenv)->GetArrayLength(jenv, raw))
+        return BAD_FUNC_ARG;
+
+    if (NativeCanPin(ssl, pin)) {
+        data = (char*)(*jenv)->GetPrimitiveArrayCritical(jenv, raw, NULL);
+        if (data == NULL)
+            return MEMORY_E;
+
+        ret = CyaSSL_write((CYASSL*)ssl, data + offset, length);
+
+        /* input only, nothing to copy back */
+        (*jenv)->ReleasePrimitiveArrayCritical(jenv, raw, data, JNI_ABORT);
+
+        return ret;
+    }
+
+    /* blocking, or callbacks may run: stage at most one record through
+     * the stack */
+    if (length > (int)sizeof(staging))
+        length = sizeof(staging);
+
+    (*jenv)->GetByteArrayRegion(jenv, raw, offset, length, (jbyte*)staging);
+    if ((*jenv)->ExceptionOccurred(jenv)) {
+        (*jenv)->ExceptionDescribe(jenv);
+        (*jenv)->ExceptionClear(jenv);
         return SSL_FAILURE;
     }
+
+    return CyaSSL_write((CYASSL*)ssl, staging, length);
 }
 
-JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_read(JNIEnv* jenv,
-    jobject jcl, jlong ssl, jbyteArray raw, jint length)
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_writeArray
+  (JNIEnv* jenv, jobject jcl, jlong ssl, jbyteArray raw, jint offset,
+   jint length, jboolean pin)
 {
-    int size;
-    char data[16384];
+    jint ret;
+    NativeMemStats* prev;
 
-    if (!jenv || !ssl || !raw)
+    prev = NativeMemEnter(jenv, jcl, g_sessionMemFid);
+    ret = NativeWriteArray(jenv, ssl, raw, offset, length, pin);
+    NativeMemLeave(prev);
+
+    return ret;
+}
+
+static jint NativeReadArray(JNIEnv* jenv, jlong ssl, jbyteArray raw,
+        jint offset, jint length, jboolean pin)
+{
+    int   size;
+    char* data;
+    char  staging[16384];
+
+    if (!jenv || !ssl || !raw || offset < 0 || length < 0)
         return BAD_FUNC_ARG;
 
-    size = CyaSSL_read((CYASSL*)ssl, data, length);
+    if ((jlong)offset + length > (*jenv)->GetArrayLength(jenv, raw))
+        return BAD_FUNC_ARG;
 
-    if (size >= 0) {
-        (*jenv)->SetByteArrayRegion(jenv, raw, 0, size, (jbyte*)data);
+    if (NativeCanPin(ssl, pin)) {
+        data = (char*)(*jenv)->GetPrimitiveArrayCritical(jenv, raw, NULL);
+        if (data == NULL)
+            return MEMORY_E;
+
+        size = CyaSSL_read((CYASSL*)ssl, data + offset, length);
+
+        (*jenv)->ReleasePrimitiveArrayCritical(jenv, raw, data, 0);
+
+        return size;
+    }
+
+    /* blocking, or callbacks may run: stage at most one record through
+     * the stack */
+    if (length > (int)sizeof(staging))
+        length = sizeof(staging);
+
+    size = CyaSSL_read((CYASSL*)ssl, staging, length);
+
+    if (size > 0) {
+        (*jenv)->SetByteArrayRegion(jenv, raw, offset, size,
+                (jbyte*)staging);
         if ((*jenv)->ExceptionOccurred(jenv)) {
             (*jenv)->ExceptionDescribe(jenv);
             (*jenv)->ExceptionClear(jenv);
@@ -256,52 +462,716 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_read(JNIEnv* jenv,
     return size;
 }
 
-JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_accept
-  (JNIEnv* jenv, jobject jcl, jlong ssl)
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_readArray
+  (JNIEnv* jenv, jobject jcl, jlong ssl, jbyteArray raw, jint offset,
+   jint length, jboolean pin)
 {
-    return CyaSSL_accept((CYASSL*)ssl);
+    jint ret;
+    NativeMemStats* prev;
+
+    prev = NativeMemEnter(jenv, jcl, g_sessionMemFid);
+    ret = NativeReadArray(jenv, ssl, raw, offset, length, pin);
+    NativeMemLeave(prev);
+
+    return ret;
 }
 
-JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_freeSSL
-  (JNIEnv* jenv, jobject jcl, jlong ssl)
+/* Writes sz bytes as a sequence of maximum-size records. Once at least
+ * one record has been sent, a later failure (ie: WANT_WRITE on a
+ * non-blocking socket) is reported as a short write. The failed record is
+ * left pending inside wolfSSL and is completed by the next call, which
+ * starts at the same data since record boundaries are recomputed the same
+ * way. */
+static int NativeWriteRecords(CYASSL* ssl, const char* data, int sz)
 {
-    internCtx*   myCtx;
+    int ret;
+    int chunk;
+    int total = 0;
 
-    /* free internal ioReadCtx */
-    myCtx = (internCtx*) CyaSSL_GetIOReadCtx((CYASSL*)ssl);
-    if (myCtx != NULL) {
-        if (myCtx->active == 1) {
-            (*jenv)->DeleteGlobalRef(jenv, myCtx->obj);
-            free(myCtx);
+    while (total < sz) {
+        chunk = sz - total;
+        if (chunk > MAX_RECORD_PLAIN_SZ)
+            chunk = MAX_RECORD_PLAIN_SZ;
+
+        ret = CyaSSL_write(ssl, data + total, chunk);
+        if (ret <= 0)
+            return (total > 0) ? total : ret;
+
+        total += ret;
+    }
+
+    return total;
+}
+
+/* Same as NativeWriteRecords(), but stages each record through the stack
+ * for callers that can not keep the Java array pinned. */
+static int NativeWriteStaged(JNIEnv* jenv, CYASSL* ssl, jbyteArray raw,
+        int offset, int sz)
+{
+    int  ret;
+    int  chunk;
+    int  total = 0;
+    char data[MAX_RECORD_PLAIN_SZ];
+
+    while (total < sz) {
+        chunk = sz - total;
+        if (chunk > MAX_RECORD_PLAIN_SZ)
+            chunk = MAX_RECORD_PLAIN_SZ;
+
+        (*jenv)->GetByteArrayRegion(jenv, raw, offset + total, chunk,
+                (jbyte*)data);
+        if ((*jenv)->ExceptionOccurred(jenv)) {
+            (*jenv)->ExceptionDescribe(jenv);
+            (*jenv)->ExceptionClear(jenv);
+            return (total > 0) ? total : SSL_FAILURE;
         }
+
+        ret = CyaSSL_write(ssl, data, chunk);
+        if (ret <= 0)
+            return (total > 0) ? total : ret;
+
+        total += ret;
+    }
+
+    return total;
+}
+
+static jint NativeWriteBulkDirect(JNIEnv* jenv, jlong ssl, jobject buf,
+        jint offset, jint length)
+{
+    char* data;
+
+    if (!jenv || !ssl || !buf || offset < 0 || length < 0)
+        return BAD_FUNC_ARG;
+
+    data = (char*)(*jenv)->GetDirectBufferAddress(jenv, buf);
+    if (data == NULL)
+        return BAD_FUNC_ARG;
+
+    if ((jlong)offset + length > (*jenv)->GetDirectBufferCapacity(jenv, buf))
+        return BAD_FUNC_ARG;
+
+    return NativeWriteRecords((CYASSL*)ssl, data + offset, length);
+}
+
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_writeBulkDirect
+  (JNIEnv* jenv, jobject jcl, jlong ssl, jobject buf, jint offset,
+   jint length)
+{
+    jint ret;
+    NativeMemStats* prev;
+
+    prev = NativeMemEnter(jenv, jcl, g_sessionMemFid);
+    ret = NativeWriteBulkDirect(jenv, ssl, buf, offset, length);
+    NativeMemLeave(prev);
+
+    return ret;
+}
+
+static jint NativeWriteBulkArray(JNIEnv* jenv, jlong ssl, jbyteArray raw,
+        jint offset, jint length, jboolean pin)
+{
+    int   ret;
+    char* data;
+
+    if (!jenv || !ssl || !raw || offset < 0 || length < 0)
+        return BAD_FUNC_ARG;
+
+    if ((jlong)offset + length > (*jenv)->GetArrayLength(jenv, raw))
+        return BAD_FUNC_ARG;
+
+    /* held across every record, so only ever for non-blocking I/O */
+    if (NativeCanPin(ssl, pin)) {
+        data = (char*)(*jenv)->GetPrimitiveArrayCritical(jenv, raw, NULL);
+        if (data == NULL)
+            return MEMORY_E;
+
+        ret = NativeWriteRecords((CYASSL*)ssl, data + offset, length);
+
+        (*jenv)->ReleasePrimitiveArrayCritical(jenv, raw, data, JNI_ABORT);
+
+        return ret;
     }
 
-    /* free internal ioWriteCtx */
-    myCtx = (internCtx*) CyaSSL_GetIOWriteCtx((CYASSL*)ssl);
-    if (myCtx != NULL) {
-        if (myCtx->active == 1) {
-            (*jenv)->DeleteGlobalRef(jenv, myCtx->obj);
-            free(myCtx);
+    return NativeWriteStaged(jenv, (CYASSL*)ssl, raw, offset, length);
+}
+
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_writeBulkArray
+  (JNIEnv* jenv, jobject jcl, jlong ssl, jbyteArray raw, jint offset,
+   jint length, jboolean pin)
+{
+    jint ret;
+    NativeMemStats* prev;
+
+    prev = NativeMemEnter(jenv, jcl, g_sessionMemFid);
+    ret = NativeWriteBulkArray(jenv, ssl, raw, offset, length, pin);
+    NativeMemLeave(prev);
+
+    return ret;
+}
+
+/* Copies the offsets and lengths passed along with 'count' buffers into
+ * one malloc'd block, lengths following offsets. Returns NULL on failure
+ * with the error in 'err', otherwise the block, which the caller frees. */
+static jint* NativeGetRegions(JNIEnv* jenv, jobjectArray bufs,
+        jintArray offsets, jintArray lengths, int* count, int* err)
+{
+    jint* regions;
+
+    *count = (*jenv)->GetArrayLength(jenv, bufs);
+    if (*count <= 0 || (*jenv)->GetArrayLength(jenv, offsets) < *count ||
+        (*jenv)->GetArrayLength(jenv, lengths) < *count ||
+        (size_t)*count > ((size_t)-1) / (2 * sizeof(jint))) {
+        *err = BAD_FUNC_ARG;
+        return NULL;
+    }
+
+    regions = (jint*)malloc((size_t)*count * 2 * sizeof(jint));
+    if (regions == NULL) {
+        *err = MEMORY_E;
+        return NULL;
+    }
+
+    (*jenv)->GetIntArrayRegion(jenv, offsets, 0, *count, regions);
+    (*jenv)->GetIntArrayRegion(jenv, lengths, 0, *count, regions + *count);
+    if ((*jenv)->ExceptionOccurred(jenv)) {
+        (*jenv)->ExceptionDescribe(jenv);
+        (*jenv)->ExceptionClear(jenv);
+        free(regions);
+        *err = SSL_FAILURE;
+        return NULL;
+    }
+
+    return regions;
+}
+
+/* Returns the address of a direct ByteBuffer, or NULL for a heap byte[],
+ * checking the region off/len lies within it. */
+static int NativeGetRegionBuffer(JNIEnv* jenv, jobject buf, jint off,
+        jint len, char** addr)
+{
+    jlong cap;
+
+    if (buf == NULL || off < 0 || len < 0)
+        return BAD_FUNC_ARG;
+
+    *addr = (char*)(*jenv)->GetDirectBufferAddress(jenv, buf);
+    if (*addr != NULL)
+        cap = (*jenv)->GetDirectBufferCapacity(jenv, buf);
+    else
+        cap = (*jenv)->GetArrayLength(jenv, (jbyteArray)buf);
+
+    if ((jlong)off + len > cap)
+        return BAD_FUNC_ARG;
+
+    return 0;
+}
+
+/* Pack the sources back to back into maximum-size records. A source
+ * with at least a full record left is sent in place when no partial
+ * record is pending, otherwise bytes are copied into 'record'. Record
+ * boundaries only depend on the data still to be sent, so a retry
+ * after a short write rebuilds the same pending record. */
+static int NativeGatherRecords(JNIEnv* jenv, CYASSL* ssl, jobjectArray bufs,
+        const jint* off, const jint* len, int count)
+{
+    int     i;
+    int     ret;
+    int     pos;
+    int     chunk;
+    int     fill  = 0;
+    int     total = 0;
+    char*   addr;
+    jobject buf;
+    char    record[MAX_RECORD_PLAIN_SZ];
+
+    for (i = 0; i < count; i++) {
+
+        buf = (*jenv)->GetObjectArrayElement(jenv, bufs, i);
+        ret = NativeGetRegionBuffer(jenv, buf, off[i], len[i], &addr);
+        if (ret != 0) {
+            if (buf != NULL)
+                (*jenv)->DeleteLocalRef(jenv, buf);
+            return (total > 0) ? total : ret;
+        }
+
+        pos = 0;
+        while (pos < len[i]) {
+
+            if (fill == 0 && addr != NULL &&
+                len[i] - pos >= MAX_RECORD_PLAIN_SZ) {
+
+                ret = CyaSSL_write(ssl, addr + off[i] + pos,
+                        MAX_RECORD_PLAIN_SZ);
+                if (ret <= 0) {
+                    (*jenv)->DeleteLocalRef(jenv, buf);
+                    return (total > 0) ? total : ret;
+                }
+
+                total += ret;
+                pos   += ret;
+                continue;
+            }
+
+            chunk = len[i] - pos;
+            if (chunk > MAX_RECORD_PLAIN_SZ - fill)
+                chunk = MAX_RECORD_PLAIN_SZ - fill;
+
+            if (addr != NULL) {
+                memcpy(record + fill, addr + off[i] + pos, chunk);
+            } else {
+                (*jenv)->GetByteArrayRegion(jenv, (jbyteArray)buf,
+                        off[i] + pos, chunk, (jbyte*)(record + fill));
+                if ((*jenv)->ExceptionOccurred(jenv)) {
+                    (*jenv)->ExceptionDescribe(jenv);
+                    (*jenv)->ExceptionClear(jenv);
+                    (*jenv)->DeleteLocalRef(jenv, buf);
+                    return (total > 0) ? total : SSL_FAILURE;
+                }
+            }
+            fill += chunk;
+            pos  += chunk;
+
+            if (fill == MAX_RECORD_PLAIN_SZ) {
+                ret = CyaSSL_write(ssl, record, fill);
+                if (ret <= 0) {
+                    (*jenv)->DeleteLocalRef(jenv, buf);
+                    return (total > 0) ? total : ret;
+                }
+
+                total += ret;
+                fill = 0;
+            }
         }
+
+        (*jenv)->DeleteLocalRef(jenv, buf);
+    }
+
+    /* flush the final, partially filled record */
+    if (fill > 0) {
+        ret = CyaSSL_write(ssl, record, fill);
+        if (ret <= 0)
+            return (total > 0) ? total : ret;
+
+        total += ret;
     }
 
-    /* free internal genCookieCtx */
-    myCtx = (internCtx*) CyaSSL_GetCookieCtx((CYASSL*)ssl);
-    if (myCtx != NULL) {
-        if (myCtx->active == 1) {
-            (*jenv)->DeleteGlobalRef(jenv, myCtx->obj);
-            free(myCtx);
+    return total;
+}
+
+static jint NativeWriteGather(JNIEnv* jenv, jlong ssl, jobjectArray bufs,
+        jintArray offsets, jintArray lengths)
+{
+    int   ret;
+    int   count;
+    jint* regions;
+
+    if (!jenv || !ssl || !bufs || !offsets || !lengths)
+        return BAD_FUNC_ARG;
+
+    regions = NativeGetRegions(jenv, bufs, offsets, lengths, &count, &ret);
+    if (regions == NULL)
+        return ret;
+
+    ret = NativeGatherRecords(jenv, (CYASSL*)ssl, bufs, regions,
+            regions + count, count);
+
+    free(regions);
+
+    return ret;
+}
+
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_writeGather
+  (JNIEnv* jenv, jobject jcl, jlong ssl, jobjectArray bufs,
+   jintArray offsets, jintArray lengths)
+{
+    jint ret;
+    NativeMemStats* prev;
+
+    prev = NativeMemEnter(jenv, jcl, g_sessionMemFid);
+    ret = NativeWriteGather(jenv, ssl, bufs, offsets, lengths);
+    NativeMemLeave(prev);
+
+    return ret;
+}
+
+/* The first read may wait for (blocking) or try (non-blocking) the
+ * transport, as a plain read() would. After that we only keep going
+ * while data is known to be buffered: decrypted bytes left in the
+ * current record, or on non-blocking I/O until wolfSSL reports that
+ * it would block. An error hit after some data was read is left for
+ * the next call to report. */
+static int NativeScatterRecords(JNIEnv* jenv, CYASSL* ssl, jobjectArray bufs,
+        const jint* off, const jint* len, int count)
+{
+    int     i;
+    int     ret;
+    int     pos;
+    int     chunk;
+    int     nonblock;
+    int     total = 0;
+    char*   addr;
+    jobject buf;
+    char    record[MAX_RECORD_PLAIN_SZ];
+
+    nonblock = CyaSSL_get_using_nonblock(ssl);
+
+    for (i = 0; i < count; i++) {
+
+        buf = (*jenv)->GetObjectArrayElement(jenv, bufs, i);
+        ret = NativeGetRegionBuffer(jenv, buf, off[i], len[i], &addr);
+        if (ret != 0) {
+            if (buf != NULL)
+                (*jenv)->DeleteLocalRef(jenv, buf);
+            return (total > 0) ? total : ret;
+        }
+
+        pos = 0;
+        while (pos < len[i]) {
+
+            if (total > 0 && !nonblock && CyaSSL_pending(ssl) <= 0) {
+                (*jenv)->DeleteLocalRef(jenv, buf);
+                return total;
+            }
+
+            if (addr != NULL) {
+                ret = CyaSSL_read(ssl, addr + off[i] + pos, len[i] - pos);
+            } else {
+                chunk = len[i] - pos;
+                if (chunk > MAX_RECORD_PLAIN_SZ)
+                    chunk = MAX_RECORD_PLAIN_SZ;
+
+                ret = CyaSSL_read(ssl, record, chunk);
+                if (ret > 0) {
+                    (*jenv)->SetByteArrayRegion(jenv, (jbyteArray)buf,
+                            off[i] + pos, ret, (jbyte*)record);
+                    if ((*jenv)->ExceptionOccurred(jenv)) {
+                        (*jenv)->ExceptionDescribe(jenv);
+                        (*jenv)->ExceptionClear(jenv);
+                        (*jenv)->DeleteLocalRef(jenv, buf);
+                        return (total > 0) ? total : SSL_FAILURE;
+                    }
+                }
+            }
+
+            if (ret <= 0) {
+                (*jenv)->DeleteLocalRef(jenv, buf);
+                return (total > 0) ? total : ret;
+            }
+
+            pos   += ret;
+            total += ret;
         }
+
+        (*jenv)->DeleteLocalRef(jenv, buf);
+    }
+
+    return total;
+}
+
+static jint NativeReadScatter(JNIEnv* jenv, jlong ssl, jobjectArray bufs,
+        jintArray offsets, jintArray lengths)
+{
+    int   ret;
+    int   count;
+    jint* regions;
+
+    if (!jenv || !ssl || !bufs || !offsets || !lengths)
+        return BAD_FUNC_ARG;
+
+    regions = NativeGetRegions(jenv, bufs, offsets, lengths, &count, &ret);
+    if (regions == NULL)
+        return ret;
+
+    ret = NativeScatterRecords(jenv, (CYASSL*)ssl, bufs, regions,
+            regions + count, count);
+
+    free(regions);
+
+    return ret;
+}
+
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_readScatter
+  (JNIEnv* jenv, jobject jcl, jlong ssl, jobjectArray bufs,
+   jintArray offsets, jintArray lengths)
+{
+    jint ret;
+    NativeMemStats* prev;
+
+    prev = NativeMemEnter(jenv, jcl, g_sessionMemFid);
+    ret = NativeReadScatter(jenv, ssl, bufs, offsets, lengths);
+    NativeMemLeave(prev);
+
+    return ret;
+}
+
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_pending
+  (JNIEnv* jenv, jobject jcl, jlong ssl)
+{
+    return CyaSSL_pending((CYASSL*)ssl);
+}
+
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_accept
+  (JNIEnv* jenv, jobject jcl, jlong ssl)
+{
+    NativeMemStats* prev;
+    int ret;
+
+    prev = NativeMemEnter(jenv, jcl, g_sessionMemFid);
+    ret = CyaSSL_accept((CYASSL*)ssl);
+    NativeMemLeave(prev);
+
+    return ret;
+}
+
+/* Packs the return value of a connect/accept/read/write call and the
+ * matching CyaSSL_get_error() code into one jlong, so non-blocking callers
+ * get both in a single JNI call. The return value is kept in the upper 32
+ * bits and the error code in the lower 32 bits. */
+static jlong NativeStatus(CYASSL* ssl, int ret)
+{
+    int err = SSL_ERROR_NONE;
+
+    if (ret == SSL_FATAL_ERROR || ret == SSL_FAILURE) {
+        err = CyaSSL_get_error(ssl, ret);
+    } else if (ret < 0) {
+        /* argument errors never reach wolfSSL, which would otherwise
+         * report whatever error was left behind by an earlier call */
+        err = ret;
     }
 
+    return ((jlong)ret << 32) | (jlong)(unsigned int)err;
+}
+
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLSession_connectStatus
+  (JNIEnv* jenv, jobject jcl, jlong ssl)
+{
+    return NativeStatus((CYASSL*)ssl,
+            Java_com_wolfssl_WolfSSLSession_connect(jenv, jcl, ssl));
+}
+
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLSession_acceptStatus
+  (JNIEnv* jenv, jobject jcl, jlong ssl)
+{
+    return NativeStatus((CYASSL*)ssl,
+            Java_com_wolfssl_WolfSSLSession_accept(jenv, jcl, ssl));
+}
+
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLSession_writeDirectStatus
+  (JNIEnv* jenv, jobject jcl, jlong ssl, jobject buf, jint offset,
+   jint length)
+{
+    return NativeStatus((CYASSL*)ssl,
+            Java_com_wolfssl_WolfSSLSession_writeDirect(jenv, jcl, ssl,
+                buf, offset, length));
+}
+
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLSession_readDirectStatus
+  (JNIEnv* jenv, jobject jcl, jlong ssl, jobject buf, jint offset,
+   jint length)
+{
+    return NativeStatus((CYASSL*)ssl,
+            Java_com_wolfssl_WolfSSLSession_readDirect(jenv, jcl, ssl,
+                buf, offset, length));
+}
+
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLSession_writeArrayStatus
+  (JNIEnv* jenv, jobject jcl, jlong ssl, jbyteArray raw, jint offset,
+   jint length, jboolean pin)
+{
+    return NativeStatus((CYASSL*)ssl,
+            Java_com_wolfssl_WolfSSLSession_writeArray(jenv, jcl, ssl,
+                raw, offset, length, pin));
+}
+
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLSession_writeBulkArrayStatus
+  (JNIEnv* jenv, jobject jcl, jlong ssl, jbyteArray raw, jint offset,
+   jint length, jboolean pin)
+{
+    return NativeStatus((CYASSL*)ssl,
+            Java_com_wolfssl_WolfSSLSession_writeBulkArray(jenv, jcl, ssl,
+                raw, offset, length, pin));
+}
+
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLSession_readArrayStatus
+  (JNIEnv* jenv, jobject jcl, jlong ssl, jbyteArray raw, jint offset,
+   jint length, jboolean pin)
+{
+    return NativeStatus((CYASSL*)ssl,
+            Java_com_wolfssl_WolfSSLSession_readArray(jenv, jcl, ssl,
+                raw, offset, length, pin));
+}
+
+/* Starts a session over with a new CYASSL object from ctx, since
+ * CyaSSL_clear() does not reset connection state. The internal JNI
+ * contexts of the old object, with their global refs, cached views and
+ * read-ahead buffer, are moved to the new one rather than being freed and
+ * allocated again. Returns the new CYASSL pointer, or 0 on failure, in
+ * which case the old object is left untouched. */
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLSession_renewSSL
+  (JNIEnv* jenv, jobject jcl, jlong ssl, jlong ctx)
+{
+    CYASSL*    oldSsl = (CYASSL*)ssl;
+    CYASSL*    newSsl;
+    internCtx* myCtx;
+    int*       invalid;
+    NativeMemStats* prev;
+
+    if (!jenv || !oldSsl || !ctx)
+        return 0;
+
+    prev = NativeMemEnter(jenv, jcl, g_sessionMemFid);
+    newSsl = CyaSSL_new((CYASSL_CTX*)ctx);
+    NativeMemLeave(prev);
+    if (newSsl == NULL)
+        return 0;
+
+    /* I/O contexts default to pointers into the CYASSL object itself,
+     * only move ours. Data read ahead for the old connection is dropped. */
+    myCtx = NativeGetIOReadCtx(oldSsl);
+    if (myCtx) {
+        myCtx->raOff = 0;
+        myCtx->raLen = 0;
+        CyaSSL_SetIOReadCtx(newSsl, myCtx);
+    }
+
+    myCtx = (internCtx*)CyaSSL_GetIOWriteCtx(oldSsl);
+    invalid = (int*)myCtx;
+    if (myCtx != NULL && *invalid != -1 && myCtx->active == IO_CTX_INTERN)
+        CyaSSL_SetIOWriteCtx(newSsl, myCtx);
+
+    CyaSSL_SetCookieCtx(newSsl, CyaSSL_GetCookieCtx(oldSsl));
+
+    /* public key callback contexts */
+    CyaSSL_SetMacEncryptCtx(newSsl, CyaSSL_GetMacEncryptCtx(oldSsl));
+    CyaSSL_SetDecryptVerifyCtx(newSsl, CyaSSL_GetDecryptVerifyCtx(oldSsl));
+    CyaSSL_SetEccSignCtx(newSsl, CyaSSL_GetEccSignCtx(oldSsl));
+    CyaSSL_SetEccVerifyCtx(newSsl, CyaSSL_GetEccVerifyCtx(oldSsl));
+    CyaSSL_SetRsaSignCtx(newSsl, CyaSSL_GetRsaSignCtx(oldSsl));
+    CyaSSL_SetRsaVerifyCtx(newSsl, CyaSSL_GetRsaVerifyCtx(oldSsl));
+    CyaSSL_SetRsaEncCtx(newSsl, CyaSSL_GetRsaEncCtx(oldSsl));
+    CyaSSL_SetRsaDecCtx(newSsl, CyaSSL_GetRsaDecCtx(oldSsl));
+
+    /* CyaSSL_free() leaves user contexts alone */
+    CyaSSL_free(oldSsl);
+
+    return (jlong)newSsl;
+}
+
+JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_freeSSL
+  (JNIEnv* jenv, jclass jcl, jlong ssl)
+{
+    /* free internal I/O and cookie ctxs */
+    NativeFreeInternCtx(jenv, CyaSSL_GetIOReadCtx((CYASSL*)ssl));
+    NativeFreeInternCtx(jenv, CyaSSL_GetIOWriteCtx((CYASSL*)ssl));
+    NativeFreeInternCtx(jenv, CyaSSL_GetCookieCtx((CYASSL*)ssl));
+
+    /* free internal public key callback ctxs */
+    NativeFreeInternCtx(jenv, CyaSSL_GetMacEncryptCtx((CYASSL*)ssl));
+    NativeFreeInternCtx(jenv, CyaSSL_GetDecryptVerifyCtx((CYASSL*)ssl));
+    NativeFreeInternCtx(jenv, CyaSSL_GetEccSignCtx((CYASSL*)ssl));
+    NativeFreeInternCtx(jenv, CyaSSL_GetEccVerifyCtx((CYASSL*)ssl));
+    NativeFreeInternCtx(jenv, CyaSSL_GetRsaSignCtx((CYASSL*)ssl));
+    NativeFreeInternCtx(jenv, CyaSSL_GetRsaVerifyCtx((CYASSL*)ssl));
+    NativeFreeInternCtx(jenv, CyaSSL_GetRsaEncCtx((CYASSL*)ssl));
+    NativeFreeInternCtx(jenv, CyaSSL_GetRsaDecCtx((CYASSL*)ssl));
+
     /* native cleanup */
     CyaSSL_free((CYASSL*)ssl);
 }
 
+/* Stores global refs to the WolfSSLSession and its associated WolfSSLContext
+ * in myCtx, so native callbacks can upcall into the context directly.
+ * Returns 0 on success. */
+static int NativeStoreCtxRefs(JNIEnv* jenv, internCtx* myCtx, jobject jcl)
+{
+    int i;
+    jobject ctxref;
+
+    myCtx->obj = NULL;
+    myCtx->ctxObj = NULL;
+    myCtx->outArr = NULL;
+    for (i = 0; i < INTERN_CTX_VIEWS; i++)
+        myCtx->views[i] = NULL;
+    myCtx->raBuf = NULL;
+    myCtx->raSz = 0;
+    myCtx->raOff = 0;
+    myCtx->raLen = 0;
+    myCtx->raBusy = 0;
+    myCtx->raUsed = 0;
+
+    ctxref = (*jenv)->CallObjectMethod(jenv, jcl, g_getCtxMethodId);
+    if ((*jenv)->ExceptionOccurred(jenv)) {
+        (*jenv)->ExceptionDescribe(jenv);
+        (*jenv)->ExceptionClear(jenv);
+        return -1;
+    }
+    if (!ctxref)
+        return -1;
+
+    /* weak, so the session can still be garbage collected if it is
+     * never freed. Callbacks only run during calls on the session,
+     * which keep it reachable. */
+    myCtx->obj = (*jenv)->NewWeakGlobalRef(jenv, jcl);
+    myCtx->ctxObj = (*jenv)->NewGlobalRef(jenv, ctxref);
+    (*jenv)->DeleteLocalRef(jenv, ctxref);
+
+    if (!myCtx->obj || !myCtx->ctxObj) {
+        if (myCtx->obj)
+            (*jenv)->DeleteWeakGlobalRef(jenv, myCtx->obj);
+        if (myCtx->ctxObj)
+            (*jenv)->DeleteGlobalRef(jenv, myCtx->ctxObj);
+        return -1;
+    }
+
+    return 0;
+}
+
+/* returns the internCtx registered by setIOReadCtx(), or NULL if the
+ * session still uses CyaSSL's default I/O read context */
+static internCtx* NativeGetIOReadCtx(CYASSL* ssl)
+{
+    internCtx* myCtx = (internCtx*)CyaSSL_GetIOReadCtx(ssl);
+
+    /* note: if CTX has not been set up yet, CyaSSL defaults to -1 */
+    if (myCtx == NULL || *(int*)myCtx == -1 || myCtx->active != IO_CTX_INTERN)
+        return NULL;
+
+    return myCtx;
+}
+
+/* releases an internCtx created by one of the set*Ctx() functions */
+static void NativeFreeInternCtx(JNIEnv* jenv, internCtx* myCtx)
+{
+    int i;
+
+    if (myCtx == NULL || myCtx->active != IO_CTX_INTERN)
+        return;
+
+    (*jenv)->DeleteWeakGlobalRef(jenv, myCtx->obj);
+    (*jenv)->DeleteGlobalRef(jenv, myCtx->ctxObj);
+    for (i = 0; i < INTERN_CTX_VIEWS; i++) {
+        if (myCtx->views[i])
+            (*jenv)->DeleteGlobalRef(jenv, myCtx->views[i]);
+    }
+    if (myCtx->outArr)
+        (*jenv)->DeleteGlobalRef(jenv, myCtx->outArr);
+    if (myCtx->raBuf)
+        free(myCtx->raBuf);
+    free(myCtx);
+}
+
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_shutdownSSL
   (JNIEnv* jenv, jobject jcl, jlong ssl)
 {
-    return CyaSSL_shutdown((CYASSL*)ssl);
+    NativeMemStats* prev;
+    int ret;
+
+    prev = NativeMemEnter(jenv, jcl, g_sessionMemFid);
+    ret = CyaSSL_shutdown((CYASSL*)ssl);
+    NativeMemLeave(prev);
+
+    return ret;
 }
 
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_getError
@@ -338,6 +1208,12 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setCipherList
     return ret;
 }
 
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setMinVersion
+  (JNIEnv* jenv, jobject jcl, jlong ssl, jint version)
+{
+    return (jint) CyaSSL_SetMinVersion((CYASSL*)ssl, version);
+}
+
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_dtlsGetCurrentTimeout
   (JNIEnv* jenv, jobject jcl, jlong ssl)
 {
@@ -364,24 +1240,8 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_dtlsSetPeer
     struct sockaddr_in sa;
     const char* ipAddress;
 
-    /* get class references */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    jclass inetsockaddr = (*jenv)->FindClass(jenv,
-            "java/net/InetSocketAddress");
-    jclass inetaddr = (*jenv)->FindClass(jenv, "java/net/InetAddress");
-
     /* get port */
-    jmethodID portID = (*jenv)->GetMethodID(jenv, inetsockaddr,
-            "getPort", "()I");
-    if (!portID) {
-        if ((*jenv)->ExceptionOccurred(jenv))
-            (*jenv)->ExceptionClear(jenv);
-
-        (*jenv)->ThrowNew(jenv, excClass, "Can't get getPort() method ID");
-        return SSL_FAILURE;
-    }
-    (*jenv)->ExceptionClear(jenv);
-    jint port = (*jenv)->CallIntMethod(jenv, peer, portID);
+    jint port = (*jenv)->CallIntMethod(jenv, peer, g_getPortMethodId);
     if ((*jenv)->ExceptionOccurred(jenv)) {
         /* an exception occurred on the Java side, how to handle it? */
         (*jenv)->ExceptionDescribe(jenv);
@@ -389,17 +1249,8 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_dtlsSetPeer
     }
 
     /* get InetAddress object */
-    jmethodID addrID = (*jenv)->GetMethodID(jenv, inetsockaddr, "getAddress",
-            "()Ljava/net/InetAddress;");
-    if (!addrID) {
-        if ((*jenv)->ExceptionOccurred(jenv))
-            (*jenv)->ExceptionClear(jenv);
-
-        (*jenv)->ThrowNew(jenv, excClass, "Can't get getAddress() method ID");
-        return SSL_FAILURE;
-    }
-    (*jenv)->ExceptionClear(jenv);
-    jobject addrObj = (*jenv)->CallObjectMethod(jenv, peer, addrID);
+    jobject addrObj = (*jenv)->CallObjectMethod(jenv, peer,
+            g_getAddressMethodId);
     if ((*jenv)->ExceptionOccurred(jenv)) {
         /* an exception occurred on the Java side, how to handle it? */
         (*jenv)->ExceptionDescribe(jenv);
@@ -407,18 +1258,8 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_dtlsSetPeer
     }
 
     /* is this a wildcard address, ie: INADDR_ANY? */
-    jmethodID isAnyID = (*jenv)->GetMethodID(jenv, inetaddr,
-            "isAnyLocalAddress", "()Z");
-    if (!isAnyID) {
-        if ((*jenv)->ExceptionOccurred(jenv))
-            (*jenv)->ExceptionClear(jenv);
-
-        (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get isAnyLocalAddress() method ID");
-        return SSL_FAILURE;
-    }
-    (*jenv)->ExceptionClear(jenv);
-    jboolean isAny = (*jenv)->CallBooleanMethod(jenv, addrObj, isAnyID);
+    jboolean isAny = (*jenv)->CallBooleanMethod(jenv, addrObj,
+            g_isAnyLocalMethodId);
     if ((*jenv)->ExceptionOccurred(jenv)) {
         /* an exception occurred on the Java side, how to handle it? */
         (*jenv)->ExceptionDescribe(jenv);
@@ -427,17 +1268,8 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_dtlsSetPeer
     
     /* get IP address as a String */
     if (!isAny) {
-        jmethodID ipAddrID = (*jenv)->GetMethodID(jenv, inetaddr,
-                "getHostAddress", "()Ljava/lang/String;");
-        if (!ipAddrID) {
-            if ((*jenv)->ExceptionOccurred(jenv))
-                (*jenv)->ExceptionClear(jenv);
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                    "Can't get getHostAddress() method ID");
-            return SSL_FAILURE;
-        }
-        ipAddr = (*jenv)->CallObjectMethod(jenv, addrObj, ipAddrID);
+        ipAddr = (*jenv)->CallObjectMethod(jenv, addrObj,
+                g_getHostAddressMethodId);
         if ((*jenv)->ExceptionOccurred(jenv)) {
             /* an exception occurred on the Java side, how to handle it? */
             (*jenv)->ExceptionDescribe(jenv);
@@ -476,8 +1308,6 @@ JNIEXPORT jobject JNICALL Java_com_wolfssl_WolfSSLSession_dtlsGetPeer
     unsigned int peerSz;
     struct sockaddr_in peer;
     char* ipAddrString;
-
-    jmethodID constr;
     jstring ipAddr;
 
     /* get native sockaddr_in peer */
@@ -490,50 +1320,17 @@ JNIEXPORT jobject JNICALL Java_com_wolfssl_WolfSSLSession_dtlsGetPeer
     ipAddrString = inet_ntoa(peer.sin_addr);
     port = ntohs(peer.sin_port);
 
-    /* create new InetSocketAddress with this IP/port info */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    jclass isa = (*jenv)->FindClass(jenv, "java/net/InetSocketAddress");
-    if (!isa) {
-        if ((*jenv)->ExceptionOccurred(jenv))
-            (*jenv)->ExceptionClear(jenv);
-
-        (*jenv)->ThrowNew(jenv, excClass, "Can't find InetSocketAddress class");
-        return SSL_FAILURE;
-    }
-
     /* create jstring from char* */ 
     ipAddr = (*jenv)->NewStringUTF(jenv, ipAddrString);
 
-    /* find correct InetSocketAddress constructor */
+    /* create new InetSocketAddress with this IP/port info, using the
+     * wildcard constructor if sockaddr_in was created with INADDR_ANY */
     if (peer.sin_addr.s_addr != INADDR_ANY) {
-
-        constr = (*jenv)->GetMethodID(jenv, isa, "<init>",
-                "(Ljava/lang/String;I)V");
-        if (!constr) {
-            if ((*jenv)->ExceptionOccurred(jenv))
-                (*jenv)->ExceptionClear(jenv);
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                    "Can't find InetSocketAddress(String,port)");
-            return SSL_FAILURE;
-        }
-
-        return (*jenv)->NewObject(jenv, isa, constr, ipAddr, port);
-
-    } else { /* sockaddr_in was created with INADDR_ANY, use wildcard IP */
-
-        constr = (*jenv)->GetMethodID(jenv, isa, "<init>",
-                "(I)V");
-        if (!constr) {
-            if ((*jenv)->ExceptionOccurred(jenv))
-                (*jenv)->ExceptionClear(jenv);
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                    "Can't find InetSocketAddress(port)");
-            return SSL_FAILURE;
-        }
-
-        return (*jenv)->NewObject(jenv, isa, constr, port);
+        return (*jenv)->NewObject(jenv, g_inetSockAddrClass,
+                g_isaStringCtorId, ipAddr, port);
+    } else {
+        return (*jenv)->NewObject(jenv, g_inetSockAddrClass,
+                g_isaPortCtorId, port);
     }
 }
 
@@ -549,6 +1346,65 @@ JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLSession_getPeerCertificate
     return (long)CyaSSL_get_peer_certificate((CYASSL*)ssl);
 }
 
+JNIEXPORT jobjectArray JNICALL Java_com_wolfssl_WolfSSLSession_getPeerCertChain
+  (JNIEnv* jenv, jobject jcl, jlong ssl)
+{
+#ifdef SESSION_CERTS
+    int i;
+    int count;
+    CYASSL_X509_CHAIN* chain;
+    jclass arrayClass;
+    jobjectArray certs;
+
+    chain = CyaSSL_get_peer_chain((CYASSL*)ssl);
+    if (!chain)
+        return NULL;
+
+    count = CyaSSL_get_chain_count(chain);
+    if (count <= 0)
+        return NULL;
+
+    arrayClass = (*jenv)->FindClass(jenv, "[B");
+    if (!arrayClass) {
+        (*jenv)->ExceptionClear(jenv);
+        return NULL;
+    }
+
+    certs = (*jenv)->NewObjectArray(jenv, count, arrayClass, NULL);
+    (*jenv)->DeleteLocalRef(jenv, arrayClass);
+    if (!certs) {
+        (*jenv)->ExceptionClear(jenv);
+        return NULL;
+    }
+
+    for (i = 0; i < count; i++) {
+        int sz = CyaSSL_get_chain_length(chain, i);
+        unsigned char* der = CyaSSL_get_chain_cert(chain, i);
+        jbyteArray cert;
+
+        if (!der || sz <= 0) {
+            (*jenv)->DeleteLocalRef(jenv, certs);
+            return NULL;
+        }
+
+        cert = (*jenv)->NewByteArray(jenv, sz);
+        if (!cert) {
+            (*jenv)->ExceptionClear(jenv);
+            (*jenv)->DeleteLocalRef(jenv, certs);
+            return NULL;
+        }
+
+        (*jenv)->SetByteArrayRegion(jenv, cert, 0, sz, (jbyte*)der);
+        (*jenv)->SetObjectArrayElement(jenv, certs, i, cert);
+        (*jenv)->DeleteLocalRef(jenv, cert);
+    }
+
+    return certs;
+#else
+    return NULL;
+#endif
+}
+
 JNIEXPORT jstring JNICALL Java_com_wolfssl_WolfSSLSession_getPeerX509Issuer
   (JNIEnv* jenv, jobject jcl, jlong ssl, jlong x509)
 {
@@ -625,6 +1481,8 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setTmpDH
   (JNIEnv* jenv, jobject jcl, jlong ssl, jbyteArray p, jint pSz, jbyteArray g,
    jint gSz)
 {
+    NativeMemStats* prev;
+    int ret;
     unsigned char pBuf[pSz];
     unsigned char gBuf[gSz];
 
@@ -646,13 +1504,18 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setTmpDH
         return SSL_FAILURE;
     }
 
-    return CyaSSL_SetTmpDH((CYASSL*)ssl, pBuf, pSz, gBuf, gSz);
+    prev = NativeMemEnter(jenv, jcl, g_sessionMemFid);
+    ret = CyaSSL_SetTmpDH((CYASSL*)ssl, pBuf, pSz, gBuf, gSz);
+    NativeMemLeave(prev);
+
+    return ret;
 
 }
 
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setTmpDHFile
   (JNIEnv* jenv, jobject jcl, jlong ssl, jstring file, jint format)
 {
+    NativeMemStats* prev;
     int ret;
     const char* fname;
 
@@ -661,7 +1524,9 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setTmpDHFile
 
     fname = (*jenv)->GetStringUTFChars(jenv, file, 0);
 
+    prev = NativeMemEnter(jenv, jcl, g_sessionMemFid);
     ret = CyaSSL_SetTmpDH_file((CYASSL*)ssl, fname, format);
+    NativeMemLeave(prev);
 
     (*jenv)->ReleaseStringUTFChars(jenv, file, fname);
 
@@ -671,6 +1536,8 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setTmpDHFile
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_useCertificateBuffer
   (JNIEnv* jenv, jobject jcl, jlong ssl, jbyteArray in, jlong sz, jint format)
 {
+    NativeMemStats* prev;
+    int ret;
     unsigned char buff[sz];
 
     if (!jenv || !ssl || !in)
@@ -683,12 +1550,18 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_useCertificateBuffer
         return SSL_FAILURE;
     }
 
-    return CyaSSL_use_certificate_buffer((CYASSL*)ssl, buff, sz, format);
+    prev = NativeMemEnter(jenv, jcl, g_sessionMemFid);
+    ret = CyaSSL_use_certificate_buffer((CYASSL*)ssl, buff, sz, format);
+    NativeMemLeave(prev);
+
+    return ret;
 }
 
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_usePrivateKeyBuffer
   (JNIEnv* jenv, jobject jcl, jlong ssl, jbyteArray in, jlong sz, jint format)
 {
+    NativeMemStats* prev;
+    int ret;
     unsigned char buff[sz];
 
     if (!jenv || !ssl || !in)
@@ -701,12 +1574,18 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_usePrivateKeyBuffer
         return SSL_FAILURE;
     }
 
-    return CyaSSL_use_PrivateKey_buffer((CYASSL*)ssl, buff, sz, format);
+    prev = NativeMemEnter(jenv, jcl, g_sessionMemFid);
+    ret = CyaSSL_use_PrivateKey_buffer((CYASSL*)ssl, buff, sz, format);
+    NativeMemLeave(prev);
+
+    return ret;
 }
 
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_useCertificateChainBuffer
   (JNIEnv* jenv, jobject jcl, jlong ssl, jbyteArray in, jlong sz)
 {
+    NativeMemStats* prev;
+    int ret;
     unsigned char buff[sz];
 
     if (!jenv || !ssl || !in)
@@ -719,7 +1598,11 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_useCertificateChainBuffer
         return SSL_FAILURE;
     }
 
-    return CyaSSL_use_certificate_chain_buffer((CYASSL*)ssl, buff, sz);
+    prev = NativeMemEnter(jenv, jcl, g_sessionMemFid);
+    ret = CyaSSL_use_certificate_chain_buffer((CYASSL*)ssl, buff, sz);
+    NativeMemLeave(prev);
+
+    return ret;
 }
 
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setGroupMessages
@@ -734,12 +1617,10 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setIOReadCtx
     jclass         sslClass;
     jclass         excClass;
 
-    int*           invalid;
-    void*          ioReadCtx;
+    internCtx*   oldCtx;
     internCtx*   myCtx;
     
-    /* find exception class in case we need it */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
+    excClass = g_excClass;
 
     /* get WolfSSLSession class from object ref */
     sslClass = (*jenv)->GetObjectClass(jenv, jcl);
@@ -749,19 +1630,6 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setIOReadCtx
         return;
     }
 
-    /* free existing memory if it already exists, before we malloc again */
-    ioReadCtx = (internCtx*) CyaSSL_GetIOReadCtx((CYASSL*)ssl);
-
-    /* note: if CTX has not been set up yet, CyaSSL defaults to -1 */
-    invalid = (int*)ioReadCtx;
-    if ((*invalid != -1) && (ioReadCtx != NULL)) {
-        myCtx = (internCtx*)ioReadCtx;
-        if (myCtx->active == 1) {
-            (*jenv)->DeleteGlobalRef(jenv, myCtx->obj);
-            free(myCtx);
-        }
-    }
-
     /* allocate memory for internal JNI object reference */
     myCtx = malloc(sizeof(internCtx));
     if (!myCtx) {
@@ -771,19 +1639,135 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setIOReadCtx
     }
 
     /* set CTX as active */
-    myCtx->active = 1;
+    myCtx->active = IO_CTX_INTERN;
 
-    /* store global ref to WolfSSLSession object */
-    myCtx->obj = (*jenv)->NewGlobalRef(jenv, jcl);
-    if (!myCtx->obj) {
+    /* store global refs to WolfSSLSession and WolfSSLContext objects */
+    if (NativeStoreCtxRefs(jenv, myCtx, jcl) != 0) {
+        free(myCtx);
         (*jenv)->ThrowNew(jenv, excClass,
                "Unable to store WolfSSLSession object as global reference");
         return;
     }
 
+    /* free existing context, keeping any data already read ahead */
+    oldCtx = NativeGetIOReadCtx((CYASSL*)ssl);
+    if (oldCtx) {
+        myCtx->raBuf = oldCtx->raBuf;
+        myCtx->raSz  = oldCtx->raSz;
+        myCtx->raOff = oldCtx->raOff;
+        myCtx->raLen = oldCtx->raLen;
+        oldCtx->raBuf = NULL;
+        NativeFreeInternCtx(jenv, oldCtx);
+    }
+
     CyaSSL_SetIOReadCtx((CYASSL*) ssl, myCtx);
 }
 
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setIOReadAhead
+  (JNIEnv* jenv, jobject jcl, jlong ssl, jint size)
+{
+    int            pending;
+    unsigned char* newBuf = NULL;
+    internCtx*   myCtx;
+
+    if (!ssl || size < 0)
+        return BAD_FUNC_ARG;
+
+    myCtx = NativeGetIOReadCtx((CYASSL*)ssl);
+    if (!myCtx)
+        return BAD_FUNC_ARG;
+
+    /* data already read ahead must still fit */
+    pending = myCtx->raLen - myCtx->raOff;
+    if (size < pending)
+        return BAD_FUNC_ARG;
+
+    /* a buffer released while idle is allocated again on the next read */
+    if (size > 0 && (pending > 0 || myCtx->raBuf || myCtx->raSz == 0)) {
+        newBuf = malloc(size);
+        if (!newBuf)
+            return MEMORY_E;
+        if (pending > 0)
+            memcpy(newBuf, myCtx->raBuf + myCtx->raOff, pending);
+    }
+
+    if (myCtx->raBuf)
+        free(myCtx->raBuf);
+
+    myCtx->raBuf = newBuf;
+    myCtx->raSz  = size;
+    myCtx->raOff = 0;
+    myCtx->raLen = pending;
+
+    return SSL_SUCCESS;
+}
+
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_releaseIOBuffers
+  (JNIEnv* jenv, jclass jcl, jlong ssl, jboolean ifUnused)
+{
+    int        ret = SSL_SUCCESS;
+    internCtx* myCtx;
+
+    if (!ssl)
+        return BAD_FUNC_ARG;
+
+    myCtx = NativeGetIOReadCtx((CYASSL*)ssl);
+    if (!myCtx)
+        return SSL_SUCCESS;
+
+    /* never wait for a read in progress, the session is not idle */
+    if (!__sync_bool_compare_and_swap(&myCtx->raBusy, 0, 1))
+        return SSL_FAILURE;
+
+    if (myCtx->raLen != myCtx->raOff) {
+        /* part of a record is still buffered */
+        ret = SSL_FAILURE;
+    } else if (ifUnused && myCtx->raUsed) {
+        /* read since the last check, give it another period */
+        myCtx->raUsed = 0;
+        ret = SSL_FAILURE;
+    } else if (myCtx->raBuf) {
+        free(myCtx->raBuf);
+        myCtx->raBuf = NULL;
+        myCtx->raOff = 0;
+        myCtx->raLen = 0;
+    }
+
+    __sync_lock_release(&myCtx->raBusy);
+
+    return ret;
+}
+
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_getIOReadAheadPending
+  (JNIEnv* jenv, jobject jcl, jlong ssl)
+{
+    internCtx* myCtx;
+
+    if (!ssl)
+        return 0;
+
+    myCtx = NativeGetIOReadCtx((CYASSL*)ssl);
+    if (!myCtx)
+        return 0;
+
+    return myCtx->raLen - myCtx->raOff;
+}
+
+JNIEXPORT jboolean JNICALL Java_com_wolfssl_WolfSSLSession_hasIOReadAheadBuffer
+  (JNIEnv* jenv, jobject jcl, jlong ssl)
+{
+    internCtx* myCtx;
+
+    if (!ssl)
+        return JNI_FALSE;
+
+    myCtx = NativeGetIOReadCtx((CYASSL*)ssl);
+    if (!myCtx || !myCtx->raBuf)
+        return JNI_FALSE;
+
+    return JNI_TRUE;
+}
+
 JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setIOWriteCtx
   (JNIEnv* jenv, jobject jcl, jlong ssl, jobject ioctx) 
 {
@@ -794,8 +1778,7 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setIOWriteCtx
     void*          ioWriteCtx;
     internCtx*   myCtx;
     
-    /* find exception class in case we need it */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
+    excClass = g_excClass;
 
     /* get WolfSSLSession class from object ref */
     sslClass = (*jenv)->GetObjectClass(jenv, jcl);
@@ -812,9 +1795,8 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setIOWriteCtx
     invalid = (int*)ioWriteCtx;
     if ((*invalid != -1) && (ioWriteCtx != NULL)) {
         myCtx = (internCtx*)ioWriteCtx;
-        if (myCtx->active == 1) {
-            (*jenv)->DeleteGlobalRef(jenv, myCtx->obj);
-            free(myCtx);
+        if (myCtx->active == IO_CTX_INTERN) {
+            NativeFreeInternCtx(jenv, myCtx);
         }
     }
 
@@ -827,11 +1809,11 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setIOWriteCtx
     }
 
     /* set CTX as active */
-    myCtx->active = 1;
+    myCtx->active = IO_CTX_INTERN;
 
-    /* store global ref to WolfSSLSession object */
-    myCtx->obj = (*jenv)->NewGlobalRef(jenv, jcl);
-    if (!myCtx->obj) {
+    /* store global refs to WolfSSLSession and WolfSSLContext objects */
+    if (NativeStoreCtxRefs(jenv, myCtx, jcl) != 0) {
+        free(myCtx);
         (*jenv)->ThrowNew(jenv, excClass,
                "Unable to store WolfSSLSession object as global reference");
         return;
@@ -850,13 +1832,7 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setGenCookieCtx
     void*          genCookieCtx;
     internCtx*   myCtx;
    
-    /* find exception class in case we need it */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return;
-    }
+    excClass = g_excClass;
 
     /* get WolfSSLSession class from object ref */
     sslClass = (*jenv)->GetObjectClass(jenv, jcl);
@@ -873,9 +1849,8 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setGenCookieCtx
     invalid = (int*)genCookieCtx;
     if ((genCookieCtx != NULL) && (*invalid != -1)) {
         myCtx = (internCtx*)genCookieCtx;
-        if (myCtx->active == 1) {
-            (*jenv)->DeleteGlobalRef(jenv, myCtx->obj);
-            free(myCtx);
+        if (myCtx->active == IO_CTX_INTERN) {
+            NativeFreeInternCtx(jenv, myCtx);
         }
     }
 
@@ -888,11 +1863,11 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setGenCookieCtx
     }
 
     /* set CTX as active */
-    myCtx->active = 1;
+    myCtx->active = IO_CTX_INTERN;
 
-    /* store global ref to WolfSSLSession object */
-    myCtx->obj = (*jenv)->NewGlobalRef(jenv, jcl);
-    if (!myCtx->obj) {
+    /* store global refs to WolfSSLSession and WolfSSLContext objects */
+    if (NativeStoreCtxRefs(jenv, myCtx, jcl) != 0) {
+        free(myCtx);
         (*jenv)->ThrowNew(jenv, excClass,
                "Unable to store WolfSSLSession object as global reference");
         return;
@@ -904,10 +1879,16 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setGenCookieCtx
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_enableCRL
   (JNIEnv* jenv, jobject jcl, jlong ssl, jint options)
 {
+    NativeMemStats* prev;
+    int ret;
     if (!jenv || !ssl)
         return BAD_FUNC_ARG;
 
-    return CyaSSL_EnableCRL((CYASSL*)ssl, options);
+    prev = NativeMemEnter(jenv, jcl, g_sessionMemFid);
+    ret = CyaSSL_EnableCRL((CYASSL*)ssl, options);
+    NativeMemLeave(prev);
+
+    return ret;
 }
 
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_disableCRL
@@ -922,6 +1903,7 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_disableCRL
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_loadCRL
   (JNIEnv* jenv, jobject jcl, jlong ssl, jstring path, jint type, jint monitor)
 {
+    NativeMemStats* prev;
     int ret;
     const char* crlPath;
 
@@ -930,7 +1912,9 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_loadCRL
 
     crlPath = (*jenv)->GetStringUTFChars(jenv, path, 0);
 
+    prev = NativeMemEnter(jenv, jcl, g_sessionMemFid);
     ret = CyaSSL_LoadCRL((CYASSL*)ssl, crlPath, type, monitor);
+    NativeMemLeave(prev);
 
     (*jenv)->ReleaseStringUTFChars(jenv, path, crlPath);
 
@@ -947,13 +1931,7 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setCRLCb
         return BAD_FUNC_ARG;
     }
     
-    /* find exception class in case we need it */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return SSL_FAILURE;
-    }
+    excClass = g_excClass;
         
     /* store Java CRL callback Interface object */
     g_crlCbIfaceObj = (*jenv)->NewGlobalRef(jenv, cb);
@@ -970,64 +1948,21 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setCRLCb
 void NativeMissingCRLCallback(const char* url)
 {
     JNIEnv*   jenv;
-    jint      vmret  = 0;
     jclass    excClass;
-    jmethodID crlMethod;
-    jobjectRefType refcheck;
     
-    /* get JNIEnv from JavaVM */
-    vmret = (int)((*g_vm)->GetEnv(g_vm, (void**) &jenv, JNI_VERSION_1_6));
-    if (vmret == JNI_EDETACHED) {
-#ifdef __ANDROID__
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, &jenv, NULL);
-#else
-        vmret = (*g_vm)->AttachCurrentThread(g_vm, (void**) &jenv, NULL);
-#endif
-        if (vmret) {
-            printf("Failed to attach JNIEnv to thread\n");
-        }
-    } else if (vmret != JNI_OK) {
-        printf("Unable to get JNIEnv from JavaVM\n");
-    }
-
-    /* find exception class */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
+    /* get JNIEnv, attaching this thread on first use */
+    jenv = NativeGetEnv();
+    if (!jenv)
         return;
-    }
 
-    /* check if our stored object reference is valid */
-    refcheck = (*jenv)->GetObjectRefType(jenv, g_crlCbIfaceObj);
-    if (refcheck == 2) {
+    excClass = g_excClass;
 
-        /* lookup WolfSSLMissingCRLCallback class from global object ref */
-        jclass crlClass = (*jenv)->GetObjectClass(jenv, g_crlCbIfaceObj);
-        if (!crlClass) {
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Can't get native WolfSSLMissingCRLCallback class reference");
-            return;
-        } 
-
-        crlMethod = (*jenv)->GetMethodID(jenv, crlClass, 
-                                            "missingCRLCallback",
-                                            "(Ljava/lang/String;)V");
-        if (crlMethod == 0) {
-            if ((*jenv)->ExceptionOccurred(jenv)) {
-                (*jenv)->ExceptionDescribe(jenv);
-                (*jenv)->ExceptionClear(jenv);
-            }
-
-            (*jenv)->ThrowNew(jenv, excClass,
-                "Error getting missingCRLCallback method from JNI");
-            return;
-        }
-    
+    /* check if a callback object has been registered */
+    if (g_crlCbIfaceObj) {
         /* create jstring from char* */ 
         jstring missingUrl = (*jenv)->NewStringUTF(jenv, url);
     
-        (*jenv)->CallVoidMethod(jenv, g_crlCbIfaceObj, crlMethod, missingUrl);
+        (*jenv)->CallVoidMethod(jenv, g_crlCbIfaceObj, g_missingCRLMethodId, missingUrl);
     
         if ((*jenv)->ExceptionOccurred(jenv)) {
             (*jenv)->ExceptionDescribe(jenv);
@@ -1069,13 +2004,7 @@ JNIEXPORT jbyteArray JNICALL Java_com_wolfssl_WolfSSLSession_getMacSecret
     jbyteArray retSecret;
     const unsigned char* secret;
     
-    /* find exception class */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return NULL;
-    }
+    jclass excClass = g_excClass;
 
     secret = CyaSSL_GetMacSecret((CYASSL*)ssl, (int)verify);
     
@@ -1114,13 +2043,7 @@ JNIEXPORT jbyteArray JNICALL Java_com_wolfssl_WolfSSLSession_getClientWriteKey
     jbyteArray retKey;
     const unsigned char* key;
     
-    /* find exception class */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return NULL;
-    }
+    jclass excClass = g_excClass;
 
     key = CyaSSL_GetClientWriteKey((CYASSL*)ssl);
 
@@ -1159,13 +2082,7 @@ JNIEXPORT jbyteArray JNICALL Java_com_wolfssl_WolfSSLSession_getClientWriteIV
     const unsigned char* iv;
     int ivLength;
     
-    /* find exception class */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return NULL;
-    }
+    jclass excClass = g_excClass;
 
     iv = CyaSSL_GetClientWriteIV((CYASSL*)ssl);
 
@@ -1204,13 +2121,7 @@ JNIEXPORT jbyteArray JNICALL Java_com_wolfssl_WolfSSLSession_getServerWriteKey
     const unsigned char* key;
     int keyLength;
     
-    /* find exception class */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return NULL;
-    }
+    jclass excClass = g_excClass;
 
     key = CyaSSL_GetServerWriteKey((CYASSL*)ssl);
 
@@ -1249,13 +2160,7 @@ JNIEXPORT jbyteArray JNICALL Java_com_wolfssl_WolfSSLSession_getServerWriteIV
     const unsigned char* iv;
     int ivLength;
     
-    /* find exception class */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return NULL;
-    }
+    jclass excClass = g_excClass;
 
     iv = CyaSSL_GetServerWriteIV((CYASSL*)ssl);
 
@@ -1352,13 +2257,7 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setTlsHmacInner
         return BAD_FUNC_ARG;
     }
 
-    /* find exception class */
-    jclass excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
-    if ((*jenv)->ExceptionOccurred(jenv)) {
-        (*jenv)->ExceptionDescribe(jenv);
-        (*jenv)->ExceptionClear(jenv);
-        return -1;
-    }
+    jclass excClass = g_excClass;
 
     ret = CyaSSL_SetTlsHmacInner((CYASSL*)ssl, hmacInner, sz, content, verify);
 
@@ -1385,8 +2284,7 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setMacEncryptCtx
     void*          macEncryptCtx;
     internCtx*     myCtx;
     
-    /* find exception class in case we need it */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
+    excClass = g_excClass;
 
     /* get WolfSSLSession class from object ref */
     sslClass = (*jenv)->GetObjectClass(jenv, jcl);
@@ -1402,9 +2300,8 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setMacEncryptCtx
     /* note: if CTX has not been set up yet, CyaSSL defaults to NULL */
     if (macEncryptCtx != NULL) {
         myCtx = (internCtx*)macEncryptCtx;
-        if (myCtx->active == 1) {
-            (*jenv)->DeleteGlobalRef(jenv, myCtx->obj);
-            free(myCtx);
+        if (myCtx->active == IO_CTX_INTERN) {
+            NativeFreeInternCtx(jenv, myCtx);
         }
     }
 
@@ -1417,11 +2314,11 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setMacEncryptCtx
     }
 
     /* set CTX as active */
-    myCtx->active = 1;
+    myCtx->active = IO_CTX_INTERN;
 
-    /* store global ref to WolfSSLSession object */
-    myCtx->obj = (*jenv)->NewGlobalRef(jenv, jcl);
-    if (!myCtx->obj) {
+    /* store global refs to WolfSSLSession and WolfSSLContext objects */
+    if (NativeStoreCtxRefs(jenv, myCtx, jcl) != 0) {
+        free(myCtx);
         (*jenv)->ThrowNew(jenv, excClass,
                "Unable to store WolfSSLSession object as global reference");
         return;
@@ -1439,8 +2336,7 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setDecryptVerifyCtx
     void*          decryptVerifyCtx;
     internCtx*     myCtx;
     
-    /* find exception class in case we need it */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
+    excClass = g_excClass;
 
     /* get WolfSSLSession class from object ref */
     sslClass = (*jenv)->GetObjectClass(jenv, jcl);
@@ -1456,9 +2352,8 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setDecryptVerifyCtx
     /* note: if CTX has not been set up yet, CyaSSL defaults to NULL */
     if (decryptVerifyCtx != NULL) {
         myCtx = (internCtx*)decryptVerifyCtx;
-        if (myCtx->active == 1) {
-            (*jenv)->DeleteGlobalRef(jenv, myCtx->obj);
-            free(myCtx);
+        if (myCtx->active == IO_CTX_INTERN) {
+            NativeFreeInternCtx(jenv, myCtx);
         }
     }
 
@@ -1471,11 +2366,11 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setDecryptVerifyCtx
     }
 
     /* set CTX as active */
-    myCtx->active = 1;
+    myCtx->active = IO_CTX_INTERN;
 
-    /* store global ref to WolfSSLSession object */
-    myCtx->obj = (*jenv)->NewGlobalRef(jenv, jcl);
-    if (!myCtx->obj) {
+    /* store global refs to WolfSSLSession and WolfSSLContext objects */
+    if (NativeStoreCtxRefs(jenv, myCtx, jcl) != 0) {
+        free(myCtx);
         (*jenv)->ThrowNew(jenv, excClass,
                "Unable to store WolfSSLSession object as global reference");
         return;
@@ -1493,8 +2388,7 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setEccSignCtx
     void*          eccSignCtx;
     internCtx*     myCtx;
     
-    /* find exception class in case we need it */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
+    excClass = g_excClass;
 
     /* get WolfSSLSession class from object ref */
     sslClass = (*jenv)->GetObjectClass(jenv, jcl);
@@ -1510,9 +2404,8 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setEccSignCtx
     /* note: if CTX has not been set up yet, CyaSSL defaults to NULL */
     if (eccSignCtx != NULL) {
         myCtx = (internCtx*)eccSignCtx;
-        if (myCtx->active == 1) {
-            (*jenv)->DeleteGlobalRef(jenv, myCtx->obj);
-            free(myCtx);
+        if (myCtx->active == IO_CTX_INTERN) {
+            NativeFreeInternCtx(jenv, myCtx);
         }
     }
 
@@ -1525,11 +2418,11 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setEccSignCtx
     }
 
     /* set CTX as active */
-    myCtx->active = 1;
+    myCtx->active = IO_CTX_INTERN;
 
-    /* store global ref to WolfSSLSession object */
-    myCtx->obj = (*jenv)->NewGlobalRef(jenv, jcl);
-    if (!myCtx->obj) {
+    /* store global refs to WolfSSLSession and WolfSSLContext objects */
+    if (NativeStoreCtxRefs(jenv, myCtx, jcl) != 0) {
+        free(myCtx);
         (*jenv)->ThrowNew(jenv, excClass,
                "Unable to store WolfSSLSession object as global reference");
         return;
@@ -1547,8 +2440,7 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setEccVerifyCtx
     void*          eccVerifyCtx;
     internCtx*     myCtx;
     
-    /* find exception class in case we need it */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
+    excClass = g_excClass;
 
     /* get WolfSSLSession class from object ref */
     sslClass = (*jenv)->GetObjectClass(jenv, jcl);
@@ -1564,9 +2456,8 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setEccVerifyCtx
     /* note: if CTX has not been set up yet, CyaSSL defaults to NULL */
     if (eccVerifyCtx != NULL) {
         myCtx = (internCtx*)eccVerifyCtx;
-        if (myCtx->active == 1) {
-            (*jenv)->DeleteGlobalRef(jenv, myCtx->obj);
-            free(myCtx);
+        if (myCtx->active == IO_CTX_INTERN) {
+            NativeFreeInternCtx(jenv, myCtx);
         }
     }
 
@@ -1579,11 +2470,11 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setEccVerifyCtx
     }
 
     /* set CTX as active */
-    myCtx->active = 1;
+    myCtx->active = IO_CTX_INTERN;
 
-    /* store global ref to WolfSSLSession object */
-    myCtx->obj = (*jenv)->NewGlobalRef(jenv, jcl);
-    if (!myCtx->obj) {
+    /* store global refs to WolfSSLSession and WolfSSLContext objects */
+    if (NativeStoreCtxRefs(jenv, myCtx, jcl) != 0) {
+        free(myCtx);
         (*jenv)->ThrowNew(jenv, excClass,
                "Unable to store WolfSSLSession object as global reference");
         return;
@@ -1601,8 +2492,7 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setRsaSignCtx
     void*          rsaSignCtx;
     internCtx*     myCtx;
     
-    /* find exception class in case we need it */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
+    excClass = g_excClass;
 
     /* get WolfSSLSession class from object ref */
     sslClass = (*jenv)->GetObjectClass(jenv, jcl);
@@ -1618,9 +2508,8 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setRsaSignCtx
     /* note: if CTX has not been set up yet, CyaSSL defaults to NULL */
     if (rsaSignCtx != NULL) {
         myCtx = (internCtx*)rsaSignCtx;
-        if (myCtx->active == 1) {
-            (*jenv)->DeleteGlobalRef(jenv, myCtx->obj);
-            free(myCtx);
+        if (myCtx->active == IO_CTX_INTERN) {
+            NativeFreeInternCtx(jenv, myCtx);
         }
     }
 
@@ -1633,11 +2522,11 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setRsaSignCtx
     }
 
     /* set CTX as active */
-    myCtx->active = 1;
+    myCtx->active = IO_CTX_INTERN;
 
-    /* store global ref to WolfSSLSession object */
-    myCtx->obj = (*jenv)->NewGlobalRef(jenv, jcl);
-    if (!myCtx->obj) {
+    /* store global refs to WolfSSLSession and WolfSSLContext objects */
+    if (NativeStoreCtxRefs(jenv, myCtx, jcl) != 0) {
+        free(myCtx);
         (*jenv)->ThrowNew(jenv, excClass,
                "Unable to store WolfSSLSession object as global reference");
         return;
@@ -1655,8 +2544,7 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setRsaVerifyCtx
     void*          rsaVerifyCtx;
     internCtx*     myCtx;
     
-    /* find exception class in case we need it */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
+    excClass = g_excClass;
 
     /* get WolfSSLSession class from object ref */
     sslClass = (*jenv)->GetObjectClass(jenv, jcl);
@@ -1672,9 +2560,8 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setRsaVerifyCtx
     /* note: if CTX has not been set up yet, CyaSSL defaults to NULL */
     if (rsaVerifyCtx != NULL) {
         myCtx = (internCtx*)rsaVerifyCtx;
-        if (myCtx->active == 1) {
-            (*jenv)->DeleteGlobalRef(jenv, myCtx->obj);
-            free(myCtx);
+        if (myCtx->active == IO_CTX_INTERN) {
+            NativeFreeInternCtx(jenv, myCtx);
         }
     }
 
@@ -1687,11 +2574,11 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setRsaVerifyCtx
     }
 
     /* set CTX as active */
-    myCtx->active = 1;
+    myCtx->active = IO_CTX_INTERN;
 
-    /* store global ref to WolfSSLSession object */
-    myCtx->obj = (*jenv)->NewGlobalRef(jenv, jcl);
-    if (!myCtx->obj) {
+    /* store global refs to WolfSSLSession and WolfSSLContext objects */
+    if (NativeStoreCtxRefs(jenv, myCtx, jcl) != 0) {
+        free(myCtx);
         (*jenv)->ThrowNew(jenv, excClass,
                "Unable to store WolfSSLSession object as global reference");
         return;
@@ -1709,8 +2596,7 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setRsaEncCtx
     void*          rsaEncCtx;
     internCtx*     myCtx;
     
-    /* find exception class in case we need it */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
+    excClass = g_excClass;
 
     /* get WolfSSLSession class from object ref */
     sslClass = (*jenv)->GetObjectClass(jenv, jcl);
@@ -1726,9 +2612,8 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setRsaEncCtx
     /* note: if CTX has not been set up yet, CyaSSL defaults to NULL */
     if (rsaEncCtx != NULL) {
         myCtx = (internCtx*)rsaEncCtx;
-        if (myCtx->active == 1) {
-            (*jenv)->DeleteGlobalRef(jenv, myCtx->obj);
-            free(myCtx);
+        if (myCtx->active == IO_CTX_INTERN) {
+            NativeFreeInternCtx(jenv, myCtx);
         }
     }
 
@@ -1741,11 +2626,11 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setRsaEncCtx
     }
 
     /* set CTX as active */
-    myCtx->active = 1;
+    myCtx->active = IO_CTX_INTERN;
 
-    /* store global ref to WolfSSLSession object */
-    myCtx->obj = (*jenv)->NewGlobalRef(jenv, jcl);
-    if (!myCtx->obj) {
+    /* store global refs to WolfSSLSession and WolfSSLContext objects */
+    if (NativeStoreCtxRefs(jenv, myCtx, jcl) != 0) {
+        free(myCtx);
         (*jenv)->ThrowNew(jenv, excClass,
                "Unable to store WolfSSLSession object as global reference");
         return;
@@ -1763,8 +2648,7 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setRsaDecCtx
     void*          rsaDecCtx;
     internCtx*     myCtx;
     
-    /* find exception class in case we need it */
-    excClass = (*jenv)->FindClass(jenv, "java/lang/Exception");
+    excClass = g_excClass;
 
     /* get WolfSSLSession class from object ref */
     sslClass = (*jenv)->GetObjectClass(jenv, jcl);
@@ -1780,9 +2664,8 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setRsaDecCtx
     /* note: if CTX has not been set up yet, CyaSSL defaults to NULL */
     if (rsaDecCtx != NULL) {
         myCtx = (internCtx*)rsaDecCtx;
-        if (myCtx->active == 1) {
-            (*jenv)->DeleteGlobalRef(jenv, myCtx->obj);
-            free(myCtx);
+        if (myCtx->active == IO_CTX_INTERN) {
+            NativeFreeInternCtx(jenv, myCtx);
         }
     }
 
@@ -1795,11 +2678,11 @@ JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setRsaDecCtx
     }
 
     /* set CTX as active */
-    myCtx->active = 1;
+    myCtx->active = IO_CTX_INTERN;
 
-    /* store global ref to WolfSSLSession object */
-    myCtx->obj = (*jenv)->NewGlobalRef(jenv, jcl);
-    if (!myCtx->obj) {
+    /* store global refs to WolfSSLSession and WolfSSLContext objects */
+    if (NativeStoreCtxRefs(jenv, myCtx, jcl) != 0) {
+        free(myCtx);
         (*jenv)->ThrowNew(jenv, excClass,
                "Unable to store WolfSSLSession object as global reference");
         return;
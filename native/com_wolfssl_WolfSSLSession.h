@@ -31,6 +31,22 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setFd__JLjava_net_Socket_
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setFd__JLjava_net_DatagramSocket_2I
   (JNIEnv *, jobject, jlong, jobject, jint);
 
+/*
+ * Class:     com_wolfssl_WolfSSLSession
+ * Method:    setFd
+ * Signature: (JLjava/nio/channels/SocketChannel;I)I
+ */
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setFd__JLjava_nio_channels_SocketChannel_2I
+  (JNIEnv *, jobject, jlong, jobject, jint);
+
+/*
+ * Class:     com_wolfssl_WolfSSLSession
+ * Method:    setFd
+ * Signature: (JLjava/nio/channels/DatagramChannel;I)I
+ */
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setFd__JLjava_nio_channels_DatagramChannel_2I
+  (JNIEnv *, jobject, jlong, jobject, jint);
+
 /*
  * Class:     com_wolfssl_WolfSSLSession
  * Method:    useCertificateFile
@@ -89,19 +105,131 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_connect
 
 /*
  * Class:     com_wolfssl_WolfSSLSession
- * Method:    write
- * Signature: (J[BI)I
+ * Method:    writeDirect
+ * Signature: (JLjava/nio/ByteBuffer;II)I
+ */
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_writeDirect
+  (JNIEnv *, jobject, jlong, jobject, jint, jint);
+
+/*
+ * Class:     com_wolfssl_WolfSSLSession
+ * Method:    readDirect
+ * Signature: (JLjava/nio/ByteBuffer;II)I
+ */
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_readDirect
+  (JNIEnv *, jobject, jlong, jobject, jint, jint);
+
+/*
+ * Class:     com_wolfssl_WolfSSLSession
+ * Method:    writeArray
+ * Signature: (J[BIIZ)I
+ */
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_writeArray
+  (JNIEnv *, jobject, jlong, jbyteArray, jint, jint, jboolean);
+
+/*
+ * Class:     com_wolfssl_WolfSSLSession
+ * Method:    readArray
+ * Signature: (J[BIIZ)I
+ */
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_readArray
+  (JNIEnv *, jobject, jlong, jbyteArray, jint, jint, jboolean);
+
+/*
+ * Class:     com_wolfssl_WolfSSLSession
+ * Method:    writeBulkDirect
+ * Signature: (JLjava/nio/ByteBuffer;II)I
+ */
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_writeBulkDirect
+  (JNIEnv *, jobject, jlong, jobject, jint, jint);
+
+/*
+ * Class:     com_wolfssl_WolfSSLSession
+ * Method:    writeBulkArray
+ * Signature: (J[BIIZ)I
+ */
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_writeBulkArray
+  (JNIEnv *, jobject, jlong, jbyteArray, jint, jint, jboolean);
+
+/*
+ * Class:     com_wolfssl_WolfSSLSession
+ * Method:    writeGather
+ * Signature: (J[Ljava/lang/Object;[I[I)I
+ */
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_writeGather
+  (JNIEnv *, jobject, jlong, jobjectArray, jintArray, jintArray);
+
+/*
+ * Class:     com_wolfssl_WolfSSLSession
+ * Method:    readScatter
+ * Signature: (J[Ljava/lang/Object;[I[I)I
+ */
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_readScatter
+  (JNIEnv *, jobject, jlong, jobjectArray, jintArray, jintArray);
+
+/*
+ * Class:     com_wolfssl_WolfSSLSession
+ * Method:    connectStatus
+ * Signature: (J)J
+ */
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLSession_connectStatus
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     com_wolfssl_WolfSSLSession
+ * Method:    acceptStatus
+ * Signature: (J)J
+ */
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLSession_acceptStatus
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     com_wolfssl_WolfSSLSession
+ * Method:    writeDirectStatus
+ * Signature: (JLjava/nio/ByteBuffer;II)J
  */
-JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_write
-  (JNIEnv *, jobject, jlong, jbyteArray, jint);
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLSession_writeDirectStatus
+  (JNIEnv *, jobject, jlong, jobject, jint, jint);
 
 /*
  * Class:     com_wolfssl_WolfSSLSession
- * Method:    read
- * Signature: (J[BI)I
+ * Method:    readDirectStatus
+ * Signature: (JLjava/nio/ByteBuffer;II)J
  */
-JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_read
-  (JNIEnv *, jobject, jlong, jbyteArray, jint);
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLSession_readDirectStatus
+  (JNIEnv *, jobject, jlong, jobject, jint, jint);
+
+/*
+ * Class:     com_wolfssl_WolfSSLSession
+ * Method:    writeArrayStatus
+ * Signature: (J[BIIZ)J
+ */
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLSession_writeArrayStatus
+  (JNIEnv *, jobject, jlong, jbyteArray, jint, jint, jboolean);
+
+/*
+ * Class:     com_wolfssl_WolfSSLSession
+ * Method:    writeBulkArrayStatus
+ * Signature: (J[BIIZ)J
+ */
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLSession_writeBulkArrayStatus
+  (JNIEnv *, jobject, jlong, jbyteArray, jint, jint, jboolean);
+
+/*
+ * Class:     com_wolfssl_WolfSSLSession
+ * Method:    readArrayStatus
+ * Signature: (J[BIIZ)J
+ */
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLSession_readArrayStatus
+  (JNIEnv *, jobject, jlong, jbyteArray, jint, jint, jboolean);
+
+/*
+ * Class:     com_wolfssl_WolfSSLSession
+ * Method:    pending
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_pending
+  (JNIEnv *, jobject, jlong);
 
 /*
  * Class:     com_wolfssl_WolfSSLSession
@@ -117,7 +245,15 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_accept
  * Signature: (J)V
  */
 JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_freeSSL
-  (JNIEnv *, jobject, jlong);
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     com_wolfssl_WolfSSLSession
+ * Method:    renewSSL
+ * Signature: (JJ)J
+ */
+JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLSession_renewSSL
+  (JNIEnv *, jobject, jlong, jlong);
 
 /*
  * Class:     com_wolfssl_WolfSSLSession
@@ -159,6 +295,14 @@ JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLSession_getSession
 JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setCipherList
   (JNIEnv *, jobject, jlong, jstring);
 
+/*
+ * Class:     com_wolfssl_WolfSSLSession
+ * Method:    setMinVersion
+ * Signature: (JI)I
+ */
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setMinVersion
+  (JNIEnv *, jobject, jlong, jint);
+
 /*
  * Class:     com_wolfssl_WolfSSLSession
  * Method:    dtlsGetCurrentTimeout
@@ -215,6 +359,14 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_sessionReused
 JNIEXPORT jlong JNICALL Java_com_wolfssl_WolfSSLSession_getPeerCertificate
   (JNIEnv *, jobject, jlong);
 
+/*
+ * Class:     com_wolfssl_WolfSSLSession
+ * Method:    getPeerCertChain
+ * Signature: (J)[[B
+ */
+JNIEXPORT jobjectArray JNICALL Java_com_wolfssl_WolfSSLSession_getPeerCertChain
+  (JNIEnv *, jobject, jlong);
+
 /*
  * Class:     com_wolfssl_WolfSSLSession
  * Method:    getPeerX509Issuer
@@ -319,6 +471,38 @@ JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setGroupMessages
 JNIEXPORT void JNICALL Java_com_wolfssl_WolfSSLSession_setIOReadCtx
   (JNIEnv *, jobject, jlong);
 
+/*
+ * Class:     com_wolfssl_WolfSSLSession
+ * Method:    setIOReadAhead
+ * Signature: (JI)I
+ */
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_setIOReadAhead
+  (JNIEnv *, jobject, jlong, jint);
+
+/*
+ * Class:     com_wolfssl_WolfSSLSession
+ * Method:    getIOReadAheadPending
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_getIOReadAheadPending
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     com_wolfssl_WolfSSLSession
+ * Method:    hasIOReadAheadBuffer
+ * Signature: (J)Z
+ */
+JNIEXPORT jboolean JNICALL Java_com_wolfssl_WolfSSLSession_hasIOReadAheadBuffer
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     com_wolfssl_WolfSSLSession
+ * Method:    releaseIOBuffers
+ * Signature: (JZ)I
+ */
+JNIEXPORT jint JNICALL Java_com_wolfssl_WolfSSLSession_releaseIOBuffers
+  (JNIEnv *, jclass, jlong, jboolean);
+
 /*
  * Class:     com_wolfssl_WolfSSLSession
  * Method:    setIOWriteCtx
@@ -27,11 +27,99 @@
 /* global JavaVM reference for JNIEnv lookup */
 JavaVM*  g_vm;
 
+/* most direct ByteBuffer views any one callback passes to Java */
+#define INTERN_CTX_VIEWS 4
+
+/* Tags held by the first int of every I/O ctx this library registers with
+ * CyaSSL, so a ctx can be identified before it is cast. CyaSSL's default
+ * ctx is the socket descriptor, which is -1 until set. */
+#define IO_CTX_INTERN  1            /* internCtx */
+#define IO_CTX_ENGINE  0x454e4731   /* engineCtx, "ENG1" */
+
 /* struct to hold I/O class, object refs */
 typedef struct {
-    int active;
-    jobject obj;
+    int active;         /* IO_CTX_INTERN */
+    jobject obj;        /* WolfSSLSession, weak global ref */
+    jobject ctxObj;     /* WolfSSLContext associated with obj */
+    jobject views[INTERN_CTX_VIEWS]; /* direct ByteBuffers re-pointed by
+                                        each callback, NULL until used */
+    jobject outArr;     /* one-element long[] or int[] output parameter
+                           reused by PK callbacks, NULL until used */
+    unsigned char* raBuf; /* I/O read-ahead buffer, NULL when disabled
+                             or released while idle */
+    int raSz;           /* size of raBuf, 0 when read-ahead is disabled */
+    int raOff;          /* offset of first unread byte in raBuf */
+    int raLen;          /* bytes placed in raBuf by the last upcall */
+    volatile int raBusy; /* set while raBuf is read or released */
+    int raUsed;         /* read since the last idle check */
 } internCtx;
 
+/* class, method and field IDs resolved once in JNI_OnLoad, so native
+ * callbacks and JNI functions never need to look them up again */
+extern jclass    g_excClass;
+extern jclass    g_nullPtrExcClass;
+extern jclass    g_inetSockAddrClass;
+
+extern jmethodID g_getCtxMethodId;
+extern jmethodID g_ioRecvMethodId;
+extern jmethodID g_ioSendMethodId;
+extern jmethodID g_ioRecvBufMethodId;
+extern jmethodID g_ioSendBufMethodId;
+extern jmethodID g_genCookieMethodId;
+extern jmethodID g_macEncryptMethodId;
+extern jmethodID g_decryptVerifyMethodId;
+extern jmethodID g_eccSignMethodId;
+extern jmethodID g_eccVerifyMethodId;
+extern jmethodID g_rsaSignMethodId;
+extern jmethodID g_rsaVerifyMethodId;
+extern jmethodID g_rsaEncMethodId;
+extern jmethodID g_rsaDecMethodId;
+extern jmethodID g_verifyMethodId;
+extern jmethodID g_loggingMethodId;
+extern jmethodID g_missingCRLMethodId;
+
+extern jmethodID g_getPortMethodId;
+extern jmethodID g_getAddressMethodId;
+extern jmethodID g_isAnyLocalMethodId;
+extern jmethodID g_getHostAddressMethodId;
+extern jmethodID g_isaStringCtorId;
+extern jmethodID g_isaPortCtorId;
+
+extern jfieldID  g_socketImplFid;
+extern jfieldID  g_datagramImplFid;
+extern jfieldID  g_socketImplFdFid;
+extern jfieldID  g_datagramImplFdFid;
+extern jfieldID  g_fdescFdFid;
+extern jfieldID  g_bufferAddressFid;
+extern jfieldID  g_bufferCapacityFid;
+extern jfieldID  g_bufferLimitFid;
+extern jfieldID  g_bufferPositionFid;
+extern jfieldID  g_bufferMarkFid;
+
+/* WolfSSLSession.memStatsPtr and WolfSSLContext.memStatsPtr */
+extern jfieldID  g_sessionMemFid;
+extern jfieldID  g_contextMemFid;
+
+/* native memory counters of one session or context, allocated by
+ * WolfSSL.newMemStats() */
+typedef struct NativeMemStats NativeMemStats;
+
+/* returns the JNIEnv of the calling thread, attaching it to the JVM as a
+ * daemon on first use. Threads attached here are detached automatically
+ * when they exit. Returns NULL if no JNIEnv can be obtained. */
+JNIEnv* NativeGetEnv(void);
+
+/* returns 1 if a Java logging callback has been registered, in which case
+ * any wolfSSL call may upcall into Java */
+int NativeLoggingCbRegistered(void);
+
+/* charges native memory allocated by the calling thread to the counters
+ * referenced by the long field fid of obj, until NativeMemLeave(). Returns
+ * the previous owner, which must be passed to NativeMemLeave(). */
+NativeMemStats* NativeMemEnter(JNIEnv* jenv, jobject obj, jfieldID fid);
+
+/* restores the owner returned by the matching NativeMemEnter() */
+void NativeMemLeave(NativeMemStats* prev);
+
 #endif
 
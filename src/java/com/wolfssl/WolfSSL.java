@@ -118,6 +118,12 @@ public class WolfSSL {
     public final static int CYASSL_OCSP_URL_OVERRIDE = 1;
     public final static int CYASSL_OCSP_NO_NONCE     = 2;
 
+    /* protocol versions for WolfSSLSession.setMinVersion(), from ssl.h */
+    public final static int CYASSL_SSLV3   = 0;
+    public final static int CYASSL_TLSV1   = 1;
+    public final static int CYASSL_TLSV1_1 = 2;
+    public final static int CYASSL_TLSV1_2 = 3;
+
     /* I/O callback default errors, pulled from cyassl/ssl.h IOerrors */
     public final static int CYASSL_CBIO_ERR_GENERAL    = -1;
     public final static int CYASSL_CBIO_ERR_WANT_READ  = -2;
@@ -210,6 +216,22 @@ public class WolfSSL {
     public final static int SHA512 = 4;
     public final static int SHA384 = 5;
 
+    /* logging levels, from cyassl/ctaocrypt/logging.h */
+    public final static int ERROR_LOG = 0;
+    public final static int INFO_LOG  = 1;
+    public final static int ENTER_LOG = 2;
+    public final static int LEAVE_LOG = 3;
+    public final static int OTHER_LOG = 4;
+
+    /* messages delivered per drainLog() call, and how long the drain
+     * thread sleeps when the ring is empty, in milliseconds */
+    private final static int LOG_DRAIN_BATCH    = 256;
+    private final static int LOG_DRAIN_INTERVAL = 20;
+
+    /* thread delivering asynchronous log messages, null when stopped */
+    private static Thread logDrainThread = null;
+    private static volatile boolean logDrainRunning = false;
+
     /* ------------------------ constructors ---------------------------- */
 
     /**
@@ -232,6 +254,26 @@ public class WolfSSL {
 
     static native void nativeFree(long ptr);
 
+    private static native int startAsyncLogging(int capacity);
+    private static native void stopAsyncLogging();
+    private static native int drainLog(int max);
+
+    /* native memory counters of one session or context, 0 for the whole
+     * library in getMemStats(). With arenaSz > 0, memory charged to them
+     * is served from a preallocated arena of that many bytes while it
+     * has room. */
+    static native long newMemStats(int arenaSz);
+    static native void freeMemStats(long stats);
+    private static native void getMemStats(long stats, long[] out);
+
+    static WolfSSLMemoryStats getMemoryStats(long stats) {
+        long[] values = new long[4];
+
+        getMemStats(stats, values);
+
+        return new WolfSSLMemoryStats(values);
+    }
+
     /* ------------------------- Java methods --------------------------- */ 
 
     /**
@@ -497,6 +539,179 @@ public class WolfSSL {
      * @see         #debuggingOFF()
      */
     public final static native int setLoggingCb(WolfSSLLoggingCallback cb);
+
+    /**
+     * Sets the most verbose level of log messages passed to the logging
+     * callback.
+     * Messages with a level above <b>level</b> are discarded as soon as
+     * wolfSSL produces them, before any work is done to deliver them.
+     * Levels are, from least to most verbose, <code>ERROR_LOG</code>,
+     * <code>INFO_LOG</code>, <code>ENTER_LOG</code>,
+     * <code>LEAVE_LOG</code> and <code>OTHER_LOG</code>. All levels are
+     * passed by default.
+     *
+     * @param level     most verbose level to pass on
+     * @see             #setLoggingCb(WolfSSLLoggingCallback)
+     */
+    public final static native void setLoggingLevel(int level);
+
+    /**
+     * Delivers log messages to the logging callback asynchronously.
+     * By default the logging callback runs on the thread that produced
+     * the message, in the middle of the SSL/TLS operation. Once this is
+     * called, messages are instead copied into a native ring buffer
+     * without taking any lock, and a daemon thread passes them to the
+     * logging callback in batches. Messages longer than 159 bytes are
+     * truncated.
+     * <p>
+     * If the ring buffer is full, new messages are dropped and counted,
+     * see <code>getDroppedLogCount()</code>. The ring buffer is allocated
+     * by the first call and keeps its size for the life of the process.
+     *
+     * @param capacity  number of messages the ring buffer holds, rounded
+     *                  up to a power of two. Ignored if a ring buffer has
+     *                  already been allocated.
+     * @return          <b><code>SSL_SUCCESS</code></b> on success,
+     *                  <b><code>BAD_FUNC_ARG</code></b> if <b>capacity</b>
+     *                  is not positive, <b><code>MEMORY_E</code></b> if the
+     *                  ring buffer can't be allocated.
+     * @see             #disableAsyncLogging()
+     * @see             #setLoggingCb(WolfSSLLoggingCallback)
+     */
+    public static synchronized int enableAsyncLogging(int capacity) {
+
+        int ret = startAsyncLogging(capacity);
+        if (ret != SSL_SUCCESS)
+            return ret;
+
+        if (logDrainThread == null) {
+            logDrainRunning = true;
+            logDrainThread = new Thread(new Runnable() {
+                public void run() {
+                    while (logDrainRunning) {
+                        if (drainLog(LOG_DRAIN_BATCH) > 0)
+                            continue;
+                        try {
+                            Thread.sleep(LOG_DRAIN_INTERVAL);
+                        } catch (InterruptedException e) {
+                            /* woken up to stop */
+                        }
+                    }
+                }
+            }, "wolfSSL-log-drain");
+            logDrainThread.setDaemon(true);
+            logDrainThread.start();
+        }
+
+        return SSL_SUCCESS;
+    }
+
+    /**
+     * Returns to delivering log messages on the thread that produced them.
+     * Stops the drain thread started by <code>enableAsyncLogging()</code>
+     * after passing any queued messages to the logging callback.
+     *
+     * @see     #enableAsyncLogging(int)
+     */
+    public static synchronized void disableAsyncLogging() {
+
+        stopAsyncLogging();
+
+        if (logDrainThread != null) {
+            logDrainRunning = false;
+            logDrainThread.interrupt();
+            try {
+                logDrainThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            logDrainThread = null;
+
+            /* deliver whatever was queued before the switch */
+            while (drainLog(LOG_DRAIN_BATCH) > 0)
+                ;
+        }
+    }
+
+    /**
+     * Returns the number of log messages dropped because the asynchronous
+     * logging ring buffer was full.
+     *
+     * @return  total number of dropped log messages
+     * @see     #enableAsyncLogging(int)
+     */
+    public final static native long getDroppedLogCount();
+
+    /**
+     * Records where leaked sessions and contexts were created.
+     * A <code>WolfSSLSession</code> or <code>WolfSSLContext</code> that
+     * is garbage collected without <code>freeSSL()</code> or
+     * <code>free()</code> having been called is freed automatically, and
+     * counted by <code>getLeakedObjectCount()</code>. With sampling
+     * enabled, the stack trace of one in every <b>interval</b> objects is
+     * also captured when it is created, and is kept if that object leaks.
+     * Capturing a stack trace is expensive, so large intervals are
+     * recommended in production.
+     *
+     * @param interval  capture the creation site of one in every
+     *                  <b>interval</b> objects, 1 for all of them, or 0 to
+     *                  stop capturing. Only objects created afterwards
+     *                  are affected.
+     * @return          <b><code>SSL_SUCCESS</code></b> on success,
+     *                  <b><code>BAD_FUNC_ARG</code></b> if <b>interval</b>
+     *                  is negative.
+     * @see             #getLeakSites()
+     * @see             #getLeakedObjectCount()
+     */
+    public static int setLeakDetection(int interval) {
+
+        if (interval < 0)
+            return BAD_FUNC_ARG;
+
+        WolfSSLCleaner.setSampleInterval(interval);
+
+        return SSL_SUCCESS;
+    }
+
+    /**
+     * Returns the number of sessions, engines and contexts that were
+     * garbage collected without having been freed, and were freed
+     * automatically.
+     *
+     * @return  total number of leaked sessions, engines and contexts
+     * @see     #setLeakDetection(int)
+     */
+    public static long getLeakedObjectCount() {
+        return WolfSSLCleaner.getLeakedCount();
+    }
+
+    /**
+     * Returns the creation sites recorded for leaked sessions and
+     * contexts, oldest first. Only sampled objects have a site recorded,
+     * see <code>setLeakDetection()</code>, and only the 64 most recent
+     * sites are kept.
+     *
+     * @return  a Throwable whose stack trace shows where each leaked
+     *          object was created, empty if none were recorded
+     * @see     #setLeakDetection(int)
+     */
+    public static Throwable[] getLeakSites() {
+        return WolfSSLCleaner.getLeakSites();
+    }
+
+    /**
+     * Returns the native heap currently used by wolfSSL.
+     * Every allocation wolfSSL makes is counted, including session I/O
+     * buffers, certificate and session caches, and CRLs. Reading the
+     * counters does not lock, so this may be called as often as needed.
+     *
+     * @return  snapshot of the library's native memory use
+     * @see     WolfSSLContext#getNativeMemoryStats()
+     * @see     WolfSSLSession#getNativeMemoryStats()
+     */
+    public static WolfSSLMemoryStats getNativeMemoryStats() {
+        return getMemoryStats(0);
+    }
     
     /**
      * Persists session cache to memory buffer.
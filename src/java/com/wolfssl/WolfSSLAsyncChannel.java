@@ -0,0 +1,597 @@
+/* WolfSSLAsyncChannel.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.wolfssl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.ReadPendingException;
+import java.nio.channels.WritePendingException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.wolfssl.WolfSSLException;
+
+/**
+ * SSL/TLS transport over an NIO.2 <code>AsynchronousSocketChannel</code>.
+ * <p>
+ * The connection is driven by a {@link WolfSSLEngine}. Whenever wolfSSL
+ * needs network data it reports <b>SSL_ERROR_WANT_READ</b>, just like an
+ * I/O callback returning <code>CBIO_ERR_WANT_READ</code> would; the
+ * channel then starts an asynchronous read and the operation resumes from
+ * its completion handler. Encrypted output is written the same way, so no
+ * thread ever blocks on the connection.
+ * <p>
+ * Every operation comes in the two styles of
+ * <code>AsynchronousSocketChannel</code>: one returning a
+ * <code>Future</code>, and one taking a <code>CompletionHandler</code>,
+ * which is called on the channel group's threads. At most one read and
+ * one write may be outstanding at a time, and both require the handshake
+ * to have completed.
+ *
+ * @author  wolfSSL
+ * @version 1.0, August 2013
+ */
+public class WolfSSLAsyncChannel {
+
+    /* large enough for one full record plus expansion */
+    private static final int NET_BUFFER_SIZE = 16384 + 2048;
+
+    private final AsynchronousSocketChannel channel;
+    private final WolfSSLEngine engine;
+
+    /* network data received but not yet given to the engine, kept ready
+     * for filling (position at the end of the data) between calls */
+    private final ByteBuffer netIn;
+
+    /* network data produced for writes and for the handshake */
+    private final ByteBuffer netOut;
+
+    private final ByteBuffer empty = ByteBuffer.allocate(0);
+
+    private final AtomicBoolean readPending = new AtomicBoolean(false);
+    private final AtomicBoolean writePending = new AtomicBoolean(false);
+
+    /**
+     * Creates a new asynchronous SSL/TLS channel.
+     *
+     * @param ctx           context used to create the underlying engine.
+     *                      Its I/O callbacks are replaced, see
+     *                      {@link WolfSSLEngine}.
+     * @param channel       connected channel to run SSL/TLS over
+     * @param clientMode    <code>true</code> to perform the client side of
+     *                      the handshake, <code>false</code> for the server
+     *                      side.
+     * @throws com.wolfssl.WolfSSLException if the engine could not be
+     *                      created
+     */
+    public WolfSSLAsyncChannel(WolfSSLContext ctx,
+            AsynchronousSocketChannel channel, boolean clientMode)
+        throws WolfSSLException {
+
+        this.channel = channel;
+        this.engine = new WolfSSLEngine(ctx, clientMode);
+        this.netIn = ByteBuffer.allocateDirect(NET_BUFFER_SIZE);
+        this.netOut = ByteBuffer.allocateDirect(NET_BUFFER_SIZE);
+    }
+
+    /**
+     * Returns the underlying channel.
+     *
+     * @return      the AsynchronousSocketChannel
+     */
+    public AsynchronousSocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Returns the session of the underlying engine, which may be used to
+     * configure the connection before the handshake and to inspect it
+     * afterwards. It must not be used for I/O.
+     *
+     * @return      the underlying WolfSSLSession
+     */
+    public WolfSSLSession getSession() {
+        return engine.getSession();
+    }
+
+    /* ------------------------------ handshake ------------------------- */
+
+    /**
+     * Performs the SSL/TLS handshake.
+     *
+     * @return      a Future completing once the handshake has finished
+     * @throws ReadPendingException   if a read is outstanding
+     * @throws WritePendingException  if a write is outstanding
+     */
+    public Future<Void> handshake() {
+        Result<Void> r = new Result<Void>();
+        handshake(null, r);
+        return r;
+    }
+
+    /**
+     * Performs the SSL/TLS handshake.
+     * The handler is completed once the handshake has finished, or failed
+     * with a {@link WolfSSLException} carrying the wolfSSL error, or with
+     * the I/O exception reported by the channel.
+     *
+     * @param attachment    object passed to the handler
+     * @param handler       handler for the result
+     * @throws ReadPendingException   if a read is outstanding
+     * @throws WritePendingException  if a write is outstanding
+     */
+    public <A> void handshake(A attachment,
+            CompletionHandler<Void, ? super A> handler) {
+
+        acquire(readPending, true);
+        try {
+            acquire(writePending, false);
+        } catch (WritePendingException e) {
+            readPending.set(false);
+            throw e;
+        }
+
+        new Handshake<A>(attachment, handler).step();
+    }
+
+    private class Handshake<A> {
+
+        private final A attachment;
+        private final CompletionHandler<Void, ? super A> handler;
+
+        Handshake(A attachment, CompletionHandler<Void, ? super A> handler) {
+            this.attachment = attachment;
+            this.handler = handler;
+        }
+
+        void done(Throwable exc) {
+            writePending.set(false);
+            readPending.set(false);
+            if (exc == null)
+                handler.completed(null, attachment);
+            else
+                handler.failed(exc, attachment);
+        }
+
+        void step() {
+
+            int ret;
+            int err;
+            int avail;
+
+            while (true) {
+                /* collect handshake messages and queued output */
+                netOut.clear();
+                ret = engine.wrap(null, netOut);
+                err = lastError(ret);
+                netOut.flip();
+
+                if (netOut.hasRemaining()) {
+                    flushThen(new Runnable() {
+                        public void run() { step(); }
+                    });
+                    return;
+                }
+                if (isFatal(ret, err)) {
+                    done(sslError(err));
+                    return;
+                }
+                if (engine.isHandshakeComplete()) {
+                    done(null);
+                    return;
+                }
+
+                if (netIn.position() == 0) {
+                    fillThen(new Runnable() {
+                        public void run() { step(); }
+                    });
+                    return;
+                }
+
+                /* hand received data to the handshake */
+                avail = netIn.position();
+                netIn.flip();
+                ret = engine.unwrap(netIn, empty);
+                err = lastError(ret);
+                netIn.compact();
+
+                if (isFatal(ret, err)) {
+                    /* send the alert before reporting the error */
+                    final Throwable exc = sslError(err);
+                    netOut.clear();
+                    engine.wrap(null, netOut);
+                    netOut.flip();
+                    flushThen(new Runnable() {
+                        public void run() { done(exc); }
+                    });
+                    return;
+                }
+
+                if (netIn.position() == avail) {
+                    fillThen(new Runnable() {
+                        public void run() { step(); }
+                    });
+                    return;
+                }
+            }
+        }
+
+        /* writes netOut completely, then runs next */
+        void flushThen(final Runnable next) {
+            channel.write(netOut, null, new CompletionHandler<Integer, Void>() {
+                public void completed(Integer n, Void v) {
+                    if (netOut.hasRemaining())
+                        channel.write(netOut, null, this);
+                    else
+                        next.run();
+                }
+                public void failed(Throwable exc, Void v) {
+                    done(exc);
+                }
+            });
+        }
+
+        /* reads more network data into netIn, then runs next */
+        void fillThen(final Runnable next) {
+            channel.read(netIn, null, new CompletionHandler<Integer, Void>() {
+                public void completed(Integer n, Void v) {
+                    if (n < 0)
+                        done(new EOFException(
+                                "Connection closed during handshake"));
+                    else
+                        next.run();
+                }
+                public void failed(Throwable exc, Void v) {
+                    done(exc);
+                }
+            });
+        }
+    }
+
+    /* -------------------------------- read ---------------------------- */
+
+    /**
+     * Reads decrypted application data into <b>dst</b>.
+     *
+     * @param dst   buffer receiving the data
+     * @return      a Future holding the number of bytes read, or -1 once
+     *              the peer has closed the connection
+     * @throws ReadPendingException   if a read is already outstanding
+     * @throws IllegalStateException  if the handshake has not completed
+     */
+    public Future<Integer> read(ByteBuffer dst) {
+        Result<Integer> r = new Result<Integer>();
+        read(dst, null, r);
+        return r;
+    }
+
+    /**
+     * Reads decrypted application data into <b>dst</b>.
+     * The handler is completed with the number of bytes read, which is
+     * -1 once the peer has sent close_notify or closed the connection.
+     *
+     * @param dst           buffer receiving the data
+     * @param attachment    object passed to the handler
+     * @param handler       handler for the result
+     * @throws ReadPendingException   if a read is already outstanding
+     * @throws IllegalStateException  if the handshake has not completed
+     */
+    public <A> void read(final ByteBuffer dst, final A attachment,
+            final CompletionHandler<Integer, ? super A> handler) {
+
+        if (dst == null || handler == null)
+            throw new NullPointerException();
+        if (dst.isReadOnly())
+            throw new IllegalArgumentException("Read-only buffer");
+        if (!engine.isHandshakeComplete())
+            throw new IllegalStateException("Handshake has not completed");
+
+        acquire(readPending, true);
+        readStep(dst, attachment, handler);
+    }
+
+    private <A> void readStep(final ByteBuffer dst, final A attachment,
+            final CompletionHandler<Integer, ? super A> handler) {
+
+        int ret;
+        int err;
+
+        if (!dst.hasRemaining()) {
+            readPending.set(false);
+            handler.completed(0, attachment);
+            return;
+        }
+
+        netIn.flip();
+        ret = engine.unwrap(netIn, dst);
+        err = lastError(ret);
+        netIn.compact();
+
+        if (ret > 0 || (ret == 0 && err == WolfSSL.SSL_ERROR_ZERO_RETURN)) {
+            readPending.set(false);
+            handler.completed((ret > 0) ? ret : -1, attachment);
+            return;
+        }
+
+        if (isFatal(ret, err)) {
+            readPending.set(false);
+            handler.failed(sslError(err), attachment);
+            return;
+        }
+
+        channel.read(netIn, null, new CompletionHandler<Integer, Void>() {
+            public void completed(Integer n, Void v) {
+                if (n < 0) {
+                    readPending.set(false);
+                    handler.completed(-1, attachment);
+                } else {
+                    readStep(dst, attachment, handler);
+                }
+            }
+            public void failed(Throwable exc, Void v) {
+                readPending.set(false);
+                handler.failed(exc, attachment);
+            }
+        });
+    }
+
+    /* -------------------------------- write --------------------------- */
+
+    /**
+     * Encrypts and writes application data from <b>src</b>.
+     *
+     * @param src   data to send
+     * @return      a Future holding the number of bytes written
+     * @throws WritePendingException  if a write is already outstanding
+     * @throws IllegalStateException  if the handshake has not completed
+     */
+    public Future<Integer> write(ByteBuffer src) {
+        Result<Integer> r = new Result<Integer>();
+        write(src, null, r);
+        return r;
+    }
+
+    /**
+     * Encrypts and writes application data from <b>src</b>.
+     * At most one record's worth of data (16kB) is written per call; the
+     * handler is completed with the number of bytes consumed from
+     * <b>src</b> once the resulting record has been written to the
+     * channel.
+     *
+     * @param src           data to send
+     * @param attachment    object passed to the handler
+     * @param handler       handler for the result
+     * @throws WritePendingException  if a write is already outstanding
+     * @throws IllegalStateException  if the handshake has not completed
+     */
+    public <A> void write(final ByteBuffer src, final A attachment,
+            final CompletionHandler<Integer, ? super A> handler) {
+
+        int ret;
+        int err;
+        ByteBuffer slice;
+
+        if (src == null || handler == null)
+            throw new NullPointerException();
+        if (!engine.isHandshakeComplete())
+            throw new IllegalStateException("Handshake has not completed");
+
+        acquire(writePending, false);
+
+        /* one record per call, so the engine never has to queue output */
+        slice = src.duplicate();
+        slice.limit(slice.position() + Math.min(slice.remaining(), 16384));
+
+        netOut.clear();
+        ret = engine.wrap(slice, netOut);
+        err = lastError(ret);
+        netOut.flip();
+
+        if (isFatal(ret, err)) {
+            writePending.set(false);
+            handler.failed(sslError(err), attachment);
+            return;
+        }
+
+        final int consumed = Math.max(ret, 0);
+        src.position(src.position() + consumed);
+
+        if (!netOut.hasRemaining()) {
+            writePending.set(false);
+            handler.completed(consumed, attachment);
+            return;
+        }
+
+        channel.write(netOut, null, new CompletionHandler<Integer, Void>() {
+            public void completed(Integer n, Void v) {
+                if (netOut.hasRemaining()) {
+                    channel.write(netOut, null, this);
+                } else {
+                    writePending.set(false);
+                    handler.completed(consumed, attachment);
+                }
+            }
+            public void failed(Throwable exc, Void v) {
+                writePending.set(false);
+                handler.failed(exc, attachment);
+            }
+        });
+    }
+
+    /* -------------------------------- close --------------------------- */
+
+    /**
+     * Sends close_notify, closes the channel and frees the engine.
+     *
+     * @return      a Future completing once the channel is closed
+     */
+    public Future<Void> close() {
+        Result<Void> r = new Result<Void>();
+        close(null, r);
+        return r;
+    }
+
+    /**
+     * Sends close_notify, closes the channel and frees the engine.
+     * Outstanding reads and writes fail with the exception reported by the
+     * channel.
+     *
+     * @param attachment    object passed to the handler
+     * @param handler       handler for the result
+     */
+    public <A> void close(final A attachment,
+            final CompletionHandler<Void, ? super A> handler) {
+
+        /* separate buffer, netOut may belong to an outstanding write */
+        final ByteBuffer alert = ByteBuffer.allocateDirect(256);
+
+        if (engine.isHandshakeComplete())
+            engine.closeOutbound(alert);
+        alert.flip();
+
+        if (!alert.hasRemaining() || !channel.isOpen()) {
+            finishClose(attachment, handler, null);
+            return;
+        }
+
+        channel.write(alert, null, new CompletionHandler<Integer, Void>() {
+            public void completed(Integer n, Void v) {
+                if (alert.hasRemaining())
+                    channel.write(alert, null, this);
+                else
+                    finishClose(attachment, handler, null);
+            }
+            public void failed(Throwable exc, Void v) {
+                finishClose(attachment, handler, exc);
+            }
+        });
+    }
+
+    private <A> void finishClose(A attachment,
+            CompletionHandler<Void, ? super A> handler, Throwable exc) {
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            if (exc == null)
+                exc = e;
+        }
+
+        /* calls racing with this see a freed engine and fail */
+        engine.free();
+
+        if (exc == null)
+            handler.completed(null, attachment);
+        else
+            handler.failed(exc, attachment);
+    }
+
+    /* ------------------------------ helpers --------------------------- */
+
+    private static void acquire(AtomicBoolean pending, boolean read) {
+
+        if (!pending.compareAndSet(false, true)) {
+            if (read)
+                throw new ReadPendingException();
+            throw new WritePendingException();
+        }
+    }
+
+    /* error of the last engine call, BAD_FUNC_ARG is returned without
+     * reaching native code so it is not recorded by the engine */
+    private int lastError(int ret) {
+        if (ret == WolfSSL.BAD_FUNC_ARG)
+            return ret;
+        return engine.getError();
+    }
+
+    /* BAD_FUNC_ARG means the engine was freed by close() */
+    private static boolean isFatal(int ret, int err) {
+        return ret == WolfSSL.BAD_FUNC_ARG ||
+               (ret < 0 && err != WolfSSL.SSL_ERROR_WANT_READ &&
+                err != WolfSSL.SSL_ERROR_WANT_WRITE);
+    }
+
+    private static WolfSSLException sslError(int err) {
+        return new WolfSSLException("wolfSSL error " + err + ": " +
+                WolfSSL.getErrorString(err));
+    }
+
+    /* Future backing the Future-returning variants */
+    private static class Result<V> implements Future<V>,
+            CompletionHandler<V, Object> {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile V value;
+        private volatile Throwable exc;
+
+        public void completed(V result, Object attachment) {
+            value = result;
+            latch.countDown();
+        }
+
+        public void failed(Throwable t, Object attachment) {
+            exc = t;
+            latch.countDown();
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            return latch.getCount() == 0;
+        }
+
+        public V get() throws InterruptedException, ExecutionException {
+            latch.await();
+            return report();
+        }
+
+        public V get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException,
+                   TimeoutException {
+
+            if (!latch.await(timeout, unit))
+                throw new TimeoutException();
+            return report();
+        }
+
+        private V report() throws ExecutionException {
+            if (exc != null)
+                throw new ExecutionException(exc);
+            return value;
+        }
+    }
+}
+
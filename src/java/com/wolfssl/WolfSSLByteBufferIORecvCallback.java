@@ -0,0 +1,62 @@
+/* WolfSSLByteBufferIORecvCallback.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package com.wolfssl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * wolfSSL ByteBuffer I/O Receive Callback Interface.
+ * This is a variant of {@link WolfSSLIORecvCallback} that hands the
+ * application a direct ByteBuffer view of wolfSSL's own input buffer
+ * instead of a newly allocated array, so received data is written in
+ * place without any per-record allocation or copy.
+ * <p>
+ * After implementing this interface, it should be passed as a parameter
+ * to the {@link WolfSSLContext#setIORecv(WolfSSLByteBufferIORecvCallback)
+ * WolfSSLContext.setIORecv()} method to be registered with the native wolfSSL
+ * library.
+ *
+ * @author  wolfSSL
+ * @version 1.0, August 2013
+ */
+public interface WolfSSLByteBufferIORecvCallback {
+
+    /**
+     * ByteBuffer I/O receive callback method.
+     * The buffer is only valid for the duration of the call. The same
+     * ByteBuffer object may be passed again on later calls for the same
+     * session, pointing at different memory, so it must not be kept or
+     * used from another thread.
+     *
+     * @param ssl   the current SSL session object from which the callback was
+     *              initiated.
+     * @param buf   direct buffer in which the application should place data
+     *              which has been received from the peer. Position is zero
+     *              and limit is the number of bytes wolfSSL asked for.
+     * @param ctx   I/O context to be used.
+     * @return      the number of bytes read, or an error. For possible error
+     *              codes, see the default EmbedRecv() function in
+     *              cyassl_package/src/io.c
+     */
+    public int receiveCallback(WolfSSLSession ssl, ByteBuffer buf,
+            Object ctx);
+}
+
@@ -0,0 +1,61 @@
+/* WolfSSLByteBufferIOSendCallback.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.wolfssl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * wolfSSL ByteBuffer I/O Send Callback Interface.
+ * This is a variant of {@link WolfSSLIOSendCallback} that hands the
+ * application a direct ByteBuffer view of wolfSSL's own output buffer
+ * instead of a copy of it, so outgoing records reach the transport
+ * without any per-record allocation or copy.
+ * <p>
+ * After implementing this interface, it should be passed as a parameter
+ * to the {@link WolfSSLContext#setIOSend(WolfSSLByteBufferIOSendCallback)
+ * WolfSSLContext.setIOSend()} method to be registered with the native wolfSSL
+ * library.
+ *
+ * @author  wolfSSL
+ * @version 1.0, August 2013
+ */
+public interface WolfSSLByteBufferIOSendCallback {
+
+    /**
+     * ByteBuffer I/O send callback method.
+     * The buffer is only valid for the duration of the call. The same
+     * ByteBuffer object may be passed again on later calls for the same
+     * session, pointing at different memory, so it must not be kept or
+     * used from another thread.
+     *
+     * @param ssl   the current SSL session object from which the callback was
+     *              initiated.
+     * @param buf   direct buffer containing data to be sent to the peer,
+     *              between its position (zero) and limit.
+     * @param ctx   I/O context to be used.
+     * @return      the number of bytes sent, or an error. For possible error
+     *              codes, see the default EmbedSend() function in
+     *              cyassl_package/src/io.c
+     */
+    public int sendCallback(WolfSSLSession ssl, ByteBuffer buf, Object ctx);
+}
+
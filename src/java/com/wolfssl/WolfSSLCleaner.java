@@ -0,0 +1,184 @@
+/* WolfSSLCleaner.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.wolfssl;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Frees the native state of sessions, engines and contexts that become
+ * unreachable without <code>freeSSL()</code> or <code>free()</code>
+ * having been called.
+ * <p>
+ * Each tracked object registers a {@link Resource} holding its native
+ * pointers, which must not refer back to the object itself. Once the
+ * object is only phantom reachable, a daemon thread frees the Resource.
+ * A Resource is freed at most once, so an explicit free racing with the
+ * cleaner, or a second explicit free, is harmless.
+ * <p>
+ * Optionally, the allocation site of one in every N tracked objects is
+ * recorded, so objects reclaimed here can be traced back to the code that
+ * dropped them without freeing them.
+ *
+ * @author  wolfSSL
+ * @version 1.0, August 2013
+ */
+class WolfSSLCleaner implements Runnable {
+
+    /* most recent leak sites kept for getLeakSites() */
+    static final int MAX_LEAK_SITES = 64;
+
+    /**
+     * Native state of one tracked object.
+     */
+    abstract static class Resource {
+
+        private boolean freed = false;
+        private Ref ref = null;
+        private Throwable site = null;
+
+        /* frees the native state, called at most once */
+        abstract void release();
+
+        /* Frees the native state unless that has already been done.
+         * Returns true if this call freed it. */
+        final boolean free() {
+
+            synchronized (this) {
+                if (freed)
+                    return false;
+                freed = true;
+            }
+
+            if (ref != null) {
+                refs.remove(ref);
+                ref.clear();
+            }
+            release();
+
+            return true;
+        }
+
+        /* True once free() has been called. Holding the Resource's lock
+         * while this is false keeps free() from releasing it. */
+        final synchronized boolean isFreed() {
+            return freed;
+        }
+    }
+
+    private static class Ref extends PhantomReference<Object> {
+        final Resource res;
+
+        Ref(Object owner, Resource res, ReferenceQueue<Object> q) {
+            super(owner, q);
+            this.res = res;
+        }
+    }
+
+    private static final ReferenceQueue<Object> queue =
+        new ReferenceQueue<Object>();
+
+    /* keeps registered references reachable until they are processed */
+    private static final Set<Ref> refs =
+        Collections.newSetFromMap(new ConcurrentHashMap<Ref, Boolean>());
+
+    private static volatile int sampleInterval = 0;
+    private static final AtomicLong allocated = new AtomicLong();
+    private static final AtomicLong leaked = new AtomicLong();
+    private static final ArrayDeque<Throwable> leakSites =
+        new ArrayDeque<Throwable>();
+
+    static {
+        Thread t = new Thread(new WolfSSLCleaner(), "wolfSSL-cleaner");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private WolfSSLCleaner() {
+    }
+
+    /**
+     * Tracks the native state of an object, freeing it if the object is
+     * garbage collected before <code>res.free()</code> has been called.
+     *
+     * @param owner     object owning the native state
+     * @param res       native state of <b>owner</b>, must not reference it
+     */
+    static void register(Object owner, Resource res) {
+
+        int interval = sampleInterval;
+
+        if (interval > 0 && allocated.incrementAndGet() % interval == 0) {
+            res.site = new Throwable(owner.getClass().getName() +
+                    " allocated here was not freed");
+        }
+
+        res.ref = new Ref(owner, res, queue);
+        refs.add(res.ref);
+    }
+
+    static void setSampleInterval(int interval) {
+        sampleInterval = interval;
+    }
+
+    static long getLeakedCount() {
+        return leaked.get();
+    }
+
+    static Throwable[] getLeakSites() {
+        synchronized (leakSites) {
+            return leakSites.toArray(new Throwable[leakSites.size()]);
+        }
+    }
+
+    public void run() {
+
+        while (true) {
+            Ref ref;
+
+            try {
+                ref = (Ref)queue.remove();
+            } catch (InterruptedException e) {
+                continue;
+            }
+
+            if (!ref.res.free())
+                continue;
+
+            leaked.incrementAndGet();
+
+            if (ref.res.site != null) {
+                synchronized (leakSites) {
+                    if (leakSites.size() == MAX_LEAK_SITES)
+                        leakSites.removeFirst();
+                    leakSites.addLast(ref.res.site);
+                }
+            }
+        }
+    }
+}
+
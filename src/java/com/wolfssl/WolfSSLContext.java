@@ -31,11 +31,16 @@ import com.wolfssl.WolfSSLException;
 /**
  * Wraps a native WolfSSL context object and contains methods directly related
  * to the SSL/TLS context.
+ * <p>
+ * Contexts should be freed with {@link #free()}, or by using them in a
+ * try-with-resources statement. A context that becomes unreachable
+ * without having been freed has its native resources freed by a
+ * background thread after it is garbage collected.
  *
  * @author  wolfSSL
  * @version 1.0, August 2013
  */
-public class WolfSSLContext {
+public class WolfSSLContext implements AutoCloseable {
 
     /* internal native CYASSL_CTX pointer */
     private long sslCtxPtr;
@@ -46,6 +51,11 @@ public class WolfSSLContext {
     private WolfSSLIORecvCallback internRecvCb;
     private WolfSSLIOSendCallback internSendCb;
 
+    /* user-registered ByteBuffer I/O callbacks, used instead of the
+     * above when set */
+    private WolfSSLByteBufferIORecvCallback internRecvBufCb = null;
+    private WolfSSLByteBufferIOSendCallback internSendBufCb = null;
+
     /* user-registered DTLS cookie generation callback */
     private WolfSSLGenCookieCallback internCookieCb = null;
        
@@ -65,9 +75,52 @@ public class WolfSSLContext {
     private WolfSSLRsaEncCallback internRsaEncCb = null;
     private WolfSSLRsaDecCallback internRsaDecCb = null;
 
+    /* user-registered verify and missing CRL callbacks, only tracked
+     * here so we know when native calls may upcall into Java */
+    private WolfSSLVerifyCallback internVerifyCb = null;
+    private WolfSSLMissingCRLCallback internCRLCb = null;
+
+    /* verify callback result cache settings */
+    private int verifyCacheSz = 0;
+    private int verifyCacheTimeout = 0;
+
+    /* bytes preallocated for each new session's native memory, 0 if none */
+    private volatile int sessionArenaSz = 0;
+
     /* is this context active, or has it been freed? */
     private boolean active = false;
 
+    /* native state, freed by free() or once this context is garbage
+     * collected, whichever happens first */
+    private ContextResource resource;
+
+    private static class ContextResource extends WolfSSLCleaner.Resource {
+        private final long ctx;
+        private final long memStats;
+
+        /* native verify callback state shared with new sessions, 0 if no
+         * verify callback is set. Only changed with the context locked. */
+        private volatile long verifyCtx = 0;
+
+        ContextResource(long ctx, long memStats) {
+            this.ctx = ctx;
+            this.memStats = memStats;
+        }
+
+        void release() {
+            freeContext(ctx);
+            /* sessions still using it hold their own reference */
+            if (verifyCtx != 0)
+                freeVerifyCtx(verifyCtx);
+            /* blocks still charged to it keep the counters alive */
+            WolfSSL.freeMemStats(memStats);
+        }
+    }
+
+    /* native memory counters charged by native calls on this context,
+     * read from JNI code */
+    private long memStatsPtr = 0;
+
     /**
      * Creates a new SSL/TLS context for the desired SSL/TLS protocol level.
      * 
@@ -80,11 +133,17 @@ public class WolfSSLContext {
      * @throws com.wolfssl.WolfSSLException when creation of SSL context fails
      */
     public WolfSSLContext(long method) throws WolfSSLException {
+        memStatsPtr = WolfSSL.newMemStats(0);
         sslCtxPtr = newContext(method);
         if (sslCtxPtr == 0) {
+            WolfSSL.freeMemStats(memStatsPtr);
+            memStatsPtr = 0;
             throw new WolfSSLException("Failed to create SSL Context");
         }
         this.active = true;
+
+        this.resource = new ContextResource(sslCtxPtr, memStatsPtr);
+        WolfSSLCleaner.register(this, resource);
     }
 
     /* ------------------- private/protected methods -------------------- */ 
@@ -119,6 +178,34 @@ public class WolfSSLContext {
         return internDecryptVerifyCb;
     }
 
+    /* called when a session is created from this context, gives the
+     * session a reference to this context's verify callback state.
+     * Returns the pointer to pass to releaseVerifyCtx() once the native
+     * session has been freed, or 0 if there is none. */
+    synchronized long attachVerifyCtx(long ssl) {
+        if (resource.verifyCtx == 0)
+            return 0;
+
+        return attachVerifyCtx(ssl, resource.verifyCtx);
+    }
+
+    static void releaseVerifyCtx(long verifyCtx) {
+        freeVerifyCtx(verifyCtx);
+    }
+
+    /* true if any Java callback is registered with this context, meaning
+     * native calls on sessions created from it may upcall into Java */
+    boolean hasJavaCallbacks() {
+        return (internRecvCb != null || internSendCb != null ||
+                internRecvBufCb != null || internSendBufCb != null ||
+                internCookieCb != null || internMacEncryptCb != null ||
+                internDecryptVerifyCb != null || internEccSignCb != null ||
+                internEccVerifyCb != null || internRsaSignCb != null ||
+                internRsaVerifyCb != null || internRsaEncCb != null ||
+                internRsaDecCb != null || internVerifyCb != null ||
+                internCRLCb != null);
+    }
+
     /* this will be registered with native wolfSSL library */
     private int internalIORecvCallback(WolfSSLSession ssl, byte[] buf, int sz)
     {
@@ -142,6 +229,30 @@ public class WolfSSLContext {
         return ret;
     }
 
+    private int internalIORecvBufferCallback(WolfSSLSession ssl,
+            ByteBuffer buf, int sz)
+    {
+        int ret;
+
+        /* call user-registered recv method, buf views the native input
+         * buffer and is emptied again by native code once this returns */
+        ret = internRecvBufCb.receiveCallback(ssl, buf, ssl.getIOReadCtx());
+
+        return ret;
+    }
+
+    private int internalIOSendBufferCallback(WolfSSLSession ssl,
+            ByteBuffer buf, int sz)
+    {
+        int ret;
+
+        /* call user-registered send method, buf views the native output
+         * buffer and is emptied again by native code once this returns */
+        ret = internSendBufCb.sendCallback(ssl, buf, ssl.getIOWriteCtx());
+
+        return ret;
+    }
+
     private int internalGenCookieCallback(WolfSSLSession ssl, byte[] buf,
             int sz)
     {
@@ -268,8 +379,13 @@ public class WolfSSLContext {
     private native int usePrivateKeyFile(long ctx, String file, int format);
     private native int loadVerifyLocations(long ctx, String file, String path); 
     private native int useCertificateChainFile(long ctx, String file);
-    private native void freeContext(long ctx);
-    private native void setVerify(long ctx, int mode, WolfSSLVerifyCallback vc);
+    private static native void freeContext(long ctx);
+    private native long setVerify(long ctx, int mode, WolfSSLVerifyCallback vc,
+            long oldVerifyCtx, int cacheSz, int cacheTimeout);
+    private native int setVerifyCache(long verifyCtx, int cacheSz,
+            int cacheTimeout);
+    private native long attachVerifyCtx(long ssl, long verifyCtx);
+    private static native void freeVerifyCtx(long verifyCtx);
     private native int memsaveCertCache(long ctx, byte[] mem, int sz,
             int[] used);
     private native int memrestoreCertCache(long ctx, byte[] mem, int sz);
@@ -285,6 +401,8 @@ public class WolfSSLContext {
     private native int setGroupMessages(long ctx);
     private native void setIORecv(long ctx);
     private native void setIOSend(long ctx);
+    private native void setIORecvBuffer(long ctx);
+    private native void setIOSendBuffer(long ctx);
     private native void setGenCookie(long ctx);
     private native int enableCRL(long ctx, int options);
     private native int disableCRL(long ctx);
@@ -453,31 +571,165 @@ public class WolfSSLContext {
      * the client fails to send a certificate when requested to do so (when
      * using SSL_VERIFY_PEER on the SSL server).
      *
+     * <p>
+     * The callback belongs to this context only. Sessions use the callback
+     * registered when they were created.
+     *
      * @param mode      session timeout value in seconds
      * @param callback  custom verification callback to register with the SSL
      *                  session. If no callback is desired, <code>null</code>
      *                  may be used.
+     * @see             #setVerifyCache(int, int)
+     */
+    public synchronized void setVerify(int mode,
+            WolfSSLVerifyCallback callback) {
+        internVerifyCb = callback;
+        resource.verifyCtx = setVerify(getContextPtr(), mode, callback,
+                resource.verifyCtx, verifyCacheSz, verifyCacheTimeout);
+    }
+
+    /**
+     * Caches the results of this context's verify callback.
+     * When enabled, the result returned by the verify callback for a
+     * certificate is stored, keyed by the SHA-256 fingerprint of the
+     * certificate together with the <b>preverify_ok</b> value and native
+     * verify error it was called with. Later handshakes presenting the
+     * same certificate under the same conditions reuse the stored result
+     * without calling into Java, which helps servers whose clients
+     * reconnect with a small set of certificates.
+     * <p>
+     * Results are cached per certificate and shared by all sessions of
+     * this context, so a result returned for one session is reused for
+     * every other session presenting the same certificate. Callbacks whose
+     * decision depends on the session, such as on the host name being
+     * connected to, should not be used with a cache.
+     * <p>
+     * The cache holds at most <b>size</b> results, replacing older ones
+     * as needed. The setting applies to the current verify callback,
+     * including sessions already using it, and to any set later with
+     * <code>setVerify()</code>. Changing it discards cached results.
+     * Results are only cached when the native library keeps the peer
+     * certificate available to the verify callback.
+     *
+     * @param size      maximum number of cached results, or 0 to disable
+     *                  caching.
+     * @param timeout   number of seconds a cached result stays valid, or
+     *                  0 for no limit.
+     * @return          <b><code>SSL_SUCCESS</code></b> on success,
+     *                  <b><code>BAD_FUNC_ARG</code></b> if <b>size</b> or
+     *                  <b>timeout</b> is negative, and
+     *                  <b><code>MEMORY_E</code></b> if the cache can't be
+     *                  allocated.
+     * @see             #setVerify(int, WolfSSLVerifyCallback)
+     */
+    public synchronized int setVerifyCache(int size, int timeout) {
+
+        if (size < 0 || timeout < 0)
+            return WolfSSL.BAD_FUNC_ARG;
+
+        if (resource.verifyCtx != 0) {
+            int ret = setVerifyCache(resource.verifyCtx, size, timeout);
+            if (ret != WolfSSL.SSL_SUCCESS)
+                return ret;
+        }
+
+        verifyCacheSz = size;
+        verifyCacheTimeout = timeout;
+
+        return WolfSSL.SSL_SUCCESS;
+    }
+
+    /**
+     * Serves the native memory of new sessions from a per-session arena.
+     * When enabled, each session created from this context preallocates
+     * an arena of <b>size</b> bytes. Memory wolfSSL allocates for the
+     * session is carved from the arena while it has room, and comes from
+     * the native heap after that. Freeing the session releases the arena
+     * in one step, avoiding many small allocations and frees during the
+     * handshake and the heap fragmentation they cause under concurrency.
+     * <p>
+     * The arena is kept until every block carved from it has been freed,
+     * which normally happens when the session is freed. A size large
+     * enough to hold a session and its handshake state, as reported by
+     * <code>WolfSSLSession.getNativeMemoryStats().getPeakBytes()</code>
+     * plus some slack for block headers, makes best use of it.
+     *
+     * @param size      arena size in bytes, or 0 to disable arenas. Only
+     *                  sessions created afterwards are affected.
+     * @return          <b><code>SSL_SUCCESS</code></b> on success, or
+     *                  <b><code>BAD_FUNC_ARG</code></b> if <b>size</b> is
+     *                  negative.
+     * @see             #getSessionArenaSize()
      */
-    public void setVerify(int mode, WolfSSLVerifyCallback callback) {
-        setVerify(getContextPtr(), mode, callback);
+    public int setSessionArenaSize(int size) {
+
+        if (size < 0)
+            return WolfSSL.BAD_FUNC_ARG;
+
+        sessionArenaSz = size;
+
+        return WolfSSL.SSL_SUCCESS;
+    }
+
+    /**
+     * Returns the arena size used for new sessions.
+     *
+     * @return  arena size in bytes, or 0 if arenas are disabled
+     * @see     #setSessionArenaSize(int)
+     */
+    public int getSessionArenaSize() {
+        return sessionArenaSz;
     }
 
     /**
      * Frees an allocated SSL context.
      * This method decrements the CTX reference count and only frees the
-     * context when the reference count has reached zero.
+     * context when the reference count has reached zero. Calling this
+     * method again after the context has been freed has no effect.
      *
      * @see         WolfSSLSession#freeSSL()
      */
-    public void free() {
+    public synchronized void free() {
 
-        /* free native resources */
-        freeContext(getContextPtr());
+        /* free native resources, only once */
+        if (!resource.free())
+            return;
+        this.sslCtxPtr = 0;
+        this.memStatsPtr = 0;
 
         /* free Java resources */
         this.active = false;
     }
 
+    /**
+     * Frees an allocated SSL context, same as {@link #free()}.
+     * Allows contexts to be used in try-with-resources statements.
+     */
+    public void close() {
+        free();
+    }
+
+    /**
+     * Returns the native heap charged to this context.
+     * Memory allocated by wolfSSL while a method of this context runs is
+     * charged to it, including loaded certificates, keys and CRLs.
+     * Sessions created from the context are counted separately.
+     *
+     * @return  snapshot of this context's native memory use, or null if
+     *          the context has been freed or its counters could not be
+     *          allocated
+     * @see     WolfSSL#getNativeMemoryStats()
+     * @see     WolfSSLSession#getNativeMemoryStats()
+     */
+    public WolfSSLMemoryStats getNativeMemoryStats() {
+        long stats = this.memStatsPtr;
+
+        if (stats == 0)
+            return null;
+
+        return WolfSSL.getMemoryStats(stats);
+    }
+
     /**
      * Persists the certificate cache to memory.
      * Use this method to store the current certificate cache to a memory
@@ -746,11 +998,39 @@ public class WolfSSLContext {
 
         /* set user I/O recv */
         internRecvCb = callback;
+        internRecvBufCb = null;
 
         /* register internal callback with native library */
         setIORecv(getContextPtr());
     }
 
+    /**
+     * Registers a ByteBuffer receive callback for wolfSSL to get input data.
+     * This works like {@link #setIORecv(WolfSSLIORecvCallback)}, but the
+     * callback is given a direct ByteBuffer view of wolfSSL's input buffer
+     * to fill, rather than a new byte array which is then copied. No
+     * memory is allocated or copied per call.
+     * <p>
+     * Registering this callback replaces any receive callback registered
+     * with {@link #setIORecv(WolfSSLIORecvCallback)}, and the reverse.
+     *
+     * @param callback  method to be registered as the receive callback for
+     *                  the wolfSSL context. The signature of this function
+     *                  must follow that as shown in
+     *                  WolfSSLByteBufferIORecvCallback#receiveCallback(
+     *                  WolfSSLSession, ByteBuffer, Object).
+     * @see             #setIOSend(WolfSSLByteBufferIOSendCallback)
+     */
+    public void setIORecv(WolfSSLByteBufferIORecvCallback callback) {
+
+        /* set user ByteBuffer I/O recv */
+        internRecvBufCb = callback;
+        internRecvCb = null;
+
+        /* register internal callback with native library */
+        setIORecvBuffer(getContextPtr());
+    }
+
     /**
      * Registers a send callback for wolfSSL to write output data.
      * By default, wolfSSL uses EmbedSend() in src/io.c as the callback,
@@ -773,11 +1053,39 @@ public class WolfSSLContext {
 
         /* set user I/O send */
         internSendCb = callback;
+        internSendBufCb = null;
 
         /* register internal callback with native library */
         setIOSend(getContextPtr());
     }
 
+    /**
+     * Registers a ByteBuffer send callback for wolfSSL to write output data.
+     * This works like {@link #setIOSend(WolfSSLIOSendCallback)}, but the
+     * callback is given a direct ByteBuffer view of wolfSSL's output
+     * buffer, rather than a copy of it in a new byte array. No memory is
+     * allocated or copied per call.
+     * <p>
+     * Registering this callback replaces any send callback registered
+     * with {@link #setIOSend(WolfSSLIOSendCallback)}, and the reverse.
+     *
+     * @param callback  method to be registered as the send callback for
+     *                  the wolfSSL context. The signature of this function
+     *                  must follow that as shown in
+     *                  WolfSSLByteBufferIOSendCallback#sendCallback(
+     *                  WolfSSLSession, ByteBuffer, Object).
+     * @see             #setIORecv(WolfSSLByteBufferIORecvCallback)
+     */
+    public void setIOSend(WolfSSLByteBufferIOSendCallback callback) {
+
+        /* set user ByteBuffer I/O send */
+        internSendBufCb = callback;
+        internSendCb = null;
+
+        /* register internal callback with native library */
+        setIOSendBuffer(getContextPtr());
+    }
+
     /**
      * Registers a DTLS cookie generation callback.
      * By default, wolfSSL uses EmbedGenerateCookie() in src/io.c as the
@@ -910,6 +1218,7 @@ public class WolfSSLContext {
      * @see             #disableCRL()
      */
     public int setCRLCb(WolfSSLMissingCRLCallback cb) {
+        internCRLCb = cb;
         return setCRLCb(getContextPtr(), cb);
     }
 
@@ -0,0 +1,426 @@
+/* WolfSSLEngine.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.wolfssl;
+
+import java.nio.ByteBuffer;
+
+import com.wolfssl.WolfSSLException;
+
+/**
+ * Socketless SSL/TLS engine operating on caller-supplied memory buffers.
+ * <p>
+ * A <code>WolfSSLEngine</code> wraps a {@link WolfSSLSession} whose I/O is
+ * served natively from the network buffers passed to <code>wrap()</code>
+ * and <code>unwrap()</code>. wolfSSL reads TLS records directly out of the
+ * network source buffer and writes records directly into the network
+ * destination buffer, so no Java callback is made per record. This allows
+ * wolfSSL to be driven from an application's own event loop.
+ * <p>
+ * Installing an engine replaces the I/O callbacks of its
+ * {@link WolfSSLContext}, so a context used for engines should not also be
+ * used for socket-based sessions or with
+ * {@link WolfSSLContext#setIORecv(WolfSSLIORecvCallback)}.
+ * <p>
+ * Both methods follow the conventions of non-blocking sessions. A negative
+ * return value together with {@link #getError()} reporting
+ * <b>SSL_ERROR_WANT_READ</b> means more network input is needed, and
+ * <b>SSL_ERROR_WANT_WRITE</b> means earlier network output is still
+ * waiting to be taken by <code>wrap()</code>. Network output produced by
+ * any call is always placed in (or queued for) the destination buffer,
+ * even when an error is returned, and should be sent to the peer.
+ * <p>
+ * Direct buffers are used in place. Heap buffers work as well, but are
+ * copied through per-engine direct scratch buffers.
+ * <p>
+ * Engines should be freed with {@link #free()}. An engine that becomes
+ * unreachable without having been freed has its session and native I/O
+ * state freed by a background thread, as for <code>WolfSSLSession</code>.
+ *
+ * @author  wolfSSL
+ * @version 1.0, August 2013
+ */
+public class WolfSSLEngine {
+
+    /* indexes into status, shared with native code */
+    private static final int STATUS_CONSUMED = 0;
+    private static final int STATUS_PRODUCED = 1;
+    private static final int STATUS_ERROR    = 2;
+    private static final int STATUS_PENDING  = 3;
+    private static final int STATUS_DONE     = 4;
+
+    /* session driven by this engine */
+    private WolfSSLSession ssl;
+
+    /* internal pointer to native engine I/O state */
+    private long engineIOPtr;
+
+    /* native state, freed by free() or once this engine is garbage
+     * collected, whichever happens first */
+    private EngineResource resource;
+
+    private static class EngineResource extends WolfSSLCleaner.Resource {
+        private final WolfSSLCleaner.Resource session;
+        private final long io;
+
+        EngineResource(WolfSSLCleaner.Resource session, long io) {
+            this.session = session;
+            this.io = io;
+        }
+
+        void release() {
+            /* the session's I/O ctx points at io, free the session first */
+            session.free();
+            freeEngineIO(io);
+        }
+    }
+
+    /* results of the last native call, reused on every call */
+    private final int[] status = new int[5];
+
+    /* scratch buffers for callers passing heap buffers */
+    private ByteBuffer srcScratch;
+    private ByteBuffer dstScratch;
+
+    private boolean clientMode;
+
+    /* is this engine active, or has it been freed? */
+    private boolean active = false;
+
+    /**
+     * Creates a new SSL/TLS engine.
+     *
+     * @param ctx           WolfSSLContext used to create the engine's
+     *                      session. Its I/O callbacks are replaced with the
+     *                      native memory I/O used by the engine.
+     * @param clientMode    <code>true</code> to perform the client side of
+     *                      the handshake, <code>false</code> for the server
+     *                      side.
+     * @throws com.wolfssl.WolfSSLException if the engine could not be
+     *                      created
+     */
+    public WolfSSLEngine(WolfSSLContext ctx, boolean clientMode)
+        throws WolfSSLException {
+
+        setContextIO(ctx.getContextPtr());
+
+        this.ssl = new WolfSSLSession(ctx);
+        this.engineIOPtr = newEngineIO(ssl.getSessionPtr(), clientMode);
+        if (this.engineIOPtr == 0) {
+            ssl.freeSSL();
+            throw new WolfSSLException("Failed to create engine I/O");
+        }
+        this.clientMode = clientMode;
+        this.active = true;
+
+        this.resource = new EngineResource(ssl.getResource(), engineIOPtr);
+        WolfSSLCleaner.register(this, resource);
+        ssl.setEngine(this);
+    }
+
+    /* ------------------ native method declarations -------------------- */
+
+    private static native void setContextIO(long ctx);
+    private native long newEngineIO(long ssl, boolean client);
+    private static native void freeEngineIO(long io);
+    private native int wrap(long ssl, long io, ByteBuffer src, int srcOff,
+            int srcLen, ByteBuffer dst, int dstOff, int dstLen, int[] status);
+    private native int unwrap(long ssl, long io, ByteBuffer src, int srcOff,
+            int srcLen, ByteBuffer dst, int dstOff, int dstLen, int[] status);
+    private native int shutdown(long ssl, long io, ByteBuffer dst, int dstOff,
+            int dstLen, int[] status);
+
+    /* -------------------- engine-specific methods --------------------- */
+
+    /**
+     * Encrypts application data into SSL/TLS records.
+     * If the handshake has not completed yet, this first advances it,
+     * producing handshake messages into <b>netDst</b>. Once the handshake
+     * is done, the remaining bytes of <b>src</b> are encrypted into records
+     * and written to <b>netDst</b>. Records that do not fit are kept inside
+     * the engine and returned by the next <code>wrap()</code> call, which
+     * consumes no new data until they have all been taken.
+     * <p>
+     * The position of <b>src</b> is advanced by the number of bytes
+     * consumed and the position of <b>netDst</b> by the number of network
+     * bytes produced.
+     *
+     * @param src       application data to send, may be <code>null</code>
+     *                  or empty to only drive the handshake or flush
+     *                  queued output
+     * @param netDst    buffer receiving network data to send to the peer
+     * @return          the number of bytes consumed from <b>src</b> (which
+     *                  is zero while handshaking), otherwise a negative
+     *                  value on failure. Call <code>getError()</code> for
+     *                  the reason, which is <b>SSL_ERROR_WANT_READ</b> when
+     *                  the handshake needs data from the peer and
+     *                  <b>SSL_ERROR_WANT_WRITE</b> when <b>netDst</b> was
+     *                  too small for queued output.
+     *                  <code>BAD_FUNC_ARG</code> when bad arguments are
+     *                  used.
+     * @see             #unwrap(ByteBuffer, ByteBuffer)
+     * @see             #pendingNetOutput()
+     */
+    public synchronized int wrap(ByteBuffer src, ByteBuffer netDst) {
+
+        int ret;
+        ByteBuffer in;
+        ByteBuffer out;
+
+        if (!this.active || netDst == null || netDst.isReadOnly())
+            return WolfSSL.BAD_FUNC_ARG;
+
+        in  = directSource(src);
+        out = directDest(netDst);
+
+        ret = wrap(ssl.getSessionPtr(), engineIOPtr,
+                in, (in == null) ? 0 : in.position(),
+                (in == null) ? 0 : in.remaining(),
+                out, out.position(), out.remaining(), status);
+
+        complete(src, netDst, out);
+
+        return ret;
+    }
+
+    /**
+     * Decrypts SSL/TLS records into application data.
+     * Network data from <b>netSrc</b> is handed to wolfSSL. If the
+     * handshake has not completed yet it is advanced first; any handshake
+     * messages or alerts generated in response are queued and must be
+     * collected with <code>wrap()</code>. Once the handshake is done, every
+     * record that can be completed from the available data is decrypted
+     * into <b>dst</b>, as long as space remains.
+     * <p>
+     * The position of <b>netSrc</b> is advanced by the number of network
+     * bytes consumed and the position of <b>dst</b> by the number of
+     * plaintext bytes produced. wolfSSL may buffer consumed bytes that
+     * belong to a record not yet complete, so all of <b>netSrc</b> can be
+     * consumed while no plaintext is produced.
+     *
+     * @param netSrc    network data received from the peer, may be
+     *                  <code>null</code> or empty to only return data
+     *                  already buffered inside wolfSSL
+     * @param dst       buffer receiving decrypted application data
+     * @return          the number of plaintext bytes placed in <b>dst</b>,
+     *                  <code>0</code> if none were produced without error
+     *                  (including when the peer sent close_notify, in
+     *                  which case <code>getError()</code> returns
+     *                  <b>SSL_ERROR_ZERO_RETURN</b>), otherwise a negative
+     *                  value on failure. Call <code>getError()</code> for
+     *                  the reason, which is <b>SSL_ERROR_WANT_READ</b> when
+     *                  more network data is needed.
+     *                  <code>BAD_FUNC_ARG</code> when bad arguments are
+     *                  used.
+     * @see             #wrap(ByteBuffer, ByteBuffer)
+     */
+    public synchronized int unwrap(ByteBuffer netSrc, ByteBuffer dst) {
+
+        int ret;
+        ByteBuffer in;
+        ByteBuffer out;
+
+        if (!this.active || dst == null || dst.isReadOnly())
+            return WolfSSL.BAD_FUNC_ARG;
+
+        in  = directSource(netSrc);
+        out = directDest(dst);
+
+        ret = unwrap(ssl.getSessionPtr(), engineIOPtr,
+                in, (in == null) ? 0 : in.position(),
+                (in == null) ? 0 : in.remaining(),
+                out, out.position(), out.remaining(), status);
+
+        complete(netSrc, dst, out);
+
+        return ret;
+    }
+
+    /**
+     * Starts closing the SSL/TLS connection by generating a close_notify
+     * alert.
+     * The alert is written to <b>netDst</b> after any earlier output that
+     * was still queued, or queued itself if <b>netDst</b> is too small.
+     *
+     * @param netDst    buffer receiving network data to send to the peer
+     * @return          <code>SSL_SUCCESS</code> on success, otherwise
+     *                  a failure code. Call <code>getError()</code> for a
+     *                  more specific error code.
+     * @see             WolfSSLSession#shutdownSSL()
+     */
+    public synchronized int closeOutbound(ByteBuffer netDst) {
+
+        int ret;
+        ByteBuffer out;
+
+        if (!this.active || netDst == null || netDst.isReadOnly())
+            return WolfSSL.BAD_FUNC_ARG;
+
+        out = directDest(netDst);
+
+        ret = shutdown(ssl.getSessionPtr(), engineIOPtr,
+                out, out.position(), out.remaining(), status);
+
+        complete(null, netDst, out);
+
+        return ret;
+    }
+
+    /**
+     * Returns the error code of the last <code>wrap()</code>,
+     * <code>unwrap()</code> or <code>closeOutbound()</code> call.
+     * This is gathered in the same native call as the operation itself,
+     * so unlike {@link WolfSSLSession#getError(int)} no further native
+     * call is made.
+     *
+     * @return      <b>SSL_ERROR_NONE</b> if the last call succeeded,
+     *              otherwise the error code, as returned by
+     *              <code>WolfSSLSession.getError()</code>.
+     */
+    public synchronized int getError() {
+        return status[STATUS_ERROR];
+    }
+
+    /**
+     * Returns the number of network bytes generated by the engine that
+     * are waiting to be taken by the next <code>wrap()</code> call.
+     *
+     * @return      number of queued network output bytes
+     */
+    public synchronized int pendingNetOutput() {
+        return status[STATUS_PENDING];
+    }
+
+    /**
+     * Checks if the SSL/TLS handshake has completed.
+     *
+     * @return      <code>true</code> if the handshake has completed,
+     *              otherwise <code>false</code>.
+     */
+    public synchronized boolean isHandshakeComplete() {
+        return status[STATUS_DONE] != 0;
+    }
+
+    /**
+     * Returns whether this engine performs the client side of the
+     * handshake.
+     *
+     * @return      <code>true</code> in client mode, <code>false</code> in
+     *              server mode.
+     */
+    public boolean getUseClientMode() {
+        return clientMode;
+    }
+
+    /**
+     * Returns the session driven by this engine.
+     * The session can be used to configure certificates, cipher lists
+     * and other options before the handshake starts, and to inspect the
+     * connection afterwards. It must not be used for I/O directly and must
+     * not be freed separately from the engine.
+     *
+     * @return      the underlying WolfSSLSession
+     */
+    public WolfSSLSession getSession() {
+        return ssl;
+    }
+
+    /**
+     * Frees the engine and its underlying session.
+     *
+     * @see         WolfSSLSession#freeSSL()
+     */
+    public synchronized void free() {
+
+        if (!this.active)
+            return;
+
+        /* free native resources, the session before its I/O state */
+        ssl.freeSSL();
+        resource.free();
+        engineIOPtr = 0;
+
+        /* free Java resources */
+        srcScratch = null;
+        dstScratch = null;
+        this.active = false;
+    }
+
+    /* ------------------- private/protected methods -------------------- */
+
+    /* returns a direct buffer holding the remaining bytes of src */
+    private ByteBuffer directSource(ByteBuffer src) {
+
+        if (src == null || src.isDirect())
+            return src;
+
+        srcScratch = scratch(srcScratch, src.remaining());
+        srcScratch.put(src.duplicate());
+        srcScratch.flip();
+
+        return srcScratch;
+    }
+
+    /* returns a direct buffer with room for the remaining bytes of dst */
+    private ByteBuffer directDest(ByteBuffer dst) {
+
+        if (dst.isDirect())
+            return dst;
+
+        dstScratch = scratch(dstScratch, dst.remaining());
+        dstScratch.limit(dst.remaining());
+
+        return dstScratch;
+    }
+
+    private static ByteBuffer scratch(ByteBuffer buf, int size) {
+
+        if (buf == null || buf.capacity() < size) {
+            /* at least one full record, to avoid regrowing */
+            buf = ByteBuffer.allocateDirect(Math.max(size, 16384 + 2048));
+        }
+        buf.clear();
+
+        return buf;
+    }
+
+    /* advances caller buffers by the native results, copying back out of
+     * the scratch buffer if one was used for the destination */
+    private void complete(ByteBuffer src, ByteBuffer dst, ByteBuffer out) {
+
+        int consumed = status[STATUS_CONSUMED];
+        int produced = status[STATUS_PRODUCED];
+
+        if (src != null && consumed > 0)
+            src.position(src.position() + consumed);
+
+        if (produced > 0) {
+            if (out == dst) {
+                dst.position(dst.position() + produced);
+            } else {
+                out.limit(out.position() + produced);
+                dst.put(out);
+            }
+        }
+    }
+
+} /* end WolfSSLEngine */
+
@@ -0,0 +1,142 @@
+/* WolfSSLIdleSweeper.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.wolfssl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Releases the I/O buffers of sessions that have been idle for a while.
+ * <p>
+ * Each registered {@link Target} is swept once per idle period by a
+ * daemon thread. A target remembers whether it was used since the
+ * previous sweep, and only releases its buffers if it was not, so
+ * buffers are released after between one and two idle periods without
+ * I/O. Targets are dropped once they report having been freed.
+ *
+ * @author  wolfSSL
+ * @version 1.0, August 2013
+ */
+class WolfSSLIdleSweeper implements Runnable {
+
+    /* longest time the sweeper sleeps with nothing due */
+    private static final long MAX_WAIT = 60000;
+
+    /**
+     * Session state whose buffers can be released while idle.
+     */
+    interface Target {
+
+        /* releases buffers unused since the last call, returns false
+         * once the target has been freed */
+        boolean sweep();
+    }
+
+    private static class Entry {
+        final long idle;
+        long next;      /* only used by the sweeper thread */
+
+        Entry(long idle, long next) {
+            this.idle = idle;
+            this.next = next;
+        }
+    }
+
+    private static final Map<Target, Entry> targets =
+        new ConcurrentHashMap<Target, Entry>();
+
+    private static final Object lock = new Object();
+    private static boolean changed = false;    /* guarded by lock */
+
+    static {
+        Thread t = new Thread(new WolfSSLIdleSweeper(),
+                "wolfSSL-idle-sweeper");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private WolfSSLIdleSweeper() {
+    }
+
+    /**
+     * Sweeps a target every <b>idle</b> milliseconds, or stops sweeping
+     * it if <b>idle</b> is 0.
+     *
+     * @param target    target to sweep
+     * @param idle      idle period in milliseconds, or 0
+     */
+    static void register(Target target, long idle) {
+
+        if (idle == 0) {
+            targets.remove(target);
+            return;
+        }
+
+        targets.put(target,
+                new Entry(idle, System.currentTimeMillis() + idle));
+
+        /* the new period may be shorter than the current wait */
+        synchronized (lock) {
+            changed = true;
+            lock.notify();
+        }
+    }
+
+    public void run() {
+
+        while (true) {
+            long now = System.currentTimeMillis();
+            long wake = now + MAX_WAIT;
+            Iterator<Map.Entry<Target, Entry>> it =
+                targets.entrySet().iterator();
+
+            while (it.hasNext()) {
+                Map.Entry<Target, Entry> e = it.next();
+                Entry entry = e.getValue();
+
+                if (entry.next <= now) {
+                    if (!e.getKey().sweep()) {
+                        it.remove();
+                        continue;
+                    }
+                    entry.next = now + entry.idle;
+                }
+
+                if (entry.next < wake)
+                    wake = entry.next;
+            }
+
+            synchronized (lock) {
+                long wait = wake - System.currentTimeMillis();
+                if (wait > 0 && !changed) {
+                    try {
+                        lock.wait(wait);
+                    } catch (InterruptedException e) {
+                        /* sweep again */
+                    }
+                }
+                changed = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/* WolfSSLMemoryStats.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.wolfssl;
+
+/**
+ * Snapshot of the native heap used by wolfSSL.
+ * Returned by <code>WolfSSL.getNativeMemoryStats()</code> for the whole
+ * library, and by the <code>getNativeMemoryStats()</code> methods of
+ * <code>WolfSSLContext</code> and <code>WolfSSLSession</code> for memory
+ * charged to one context or session. Sizes are the bytes requested by
+ * wolfSSL, not including malloc overhead.
+ *
+ * @author  wolfSSL
+ * @version 1.0, August 2013
+ */
+public class WolfSSLMemoryStats {
+
+    private final long liveBytes;
+    private final long peakBytes;
+    private final long allocations;
+    private final long frees;
+
+    WolfSSLMemoryStats(long[] values) {
+        this.liveBytes = values[0];
+        this.peakBytes = values[1];
+        this.allocations = values[2];
+        this.frees = values[3];
+    }
+
+    /**
+     * Returns the number of bytes currently allocated.
+     *
+     * @return  bytes allocated and not yet freed
+     */
+    public long getLiveBytes() {
+        return liveBytes;
+    }
+
+    /**
+     * Returns the highest number of bytes allocated at any one time.
+     *
+     * @return  peak of <code>getLiveBytes()</code>
+     */
+    public long getPeakBytes() {
+        return peakBytes;
+    }
+
+    /**
+     * Returns the number of allocations made.
+     *
+     * @return  total number of blocks allocated
+     */
+    public long getAllocations() {
+        return allocations;
+    }
+
+    /**
+     * Returns the number of allocations freed.
+     *
+     * @return  total number of blocks freed
+     */
+    public long getFrees() {
+        return frees;
+    }
+
+    @Override
+    public String toString() {
+        return "live=" + liveBytes + " peak=" + peakBytes +
+               " allocs=" + allocations + " frees=" + frees;
+    }
+}
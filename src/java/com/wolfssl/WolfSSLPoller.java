@@ -0,0 +1,336 @@
+/* WolfSSLPoller.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.wolfssl;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ClosedSelectorException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shared readiness poller used by sessions in park-on-would-block mode.
+ * <p>
+ * A single daemon thread owns one Selector. Threads waiting for a channel
+ * to become readable or writable hand it a request and park with
+ * <code>LockSupport</code>, which releases the carrier of a virtual thread
+ * instead of pinning it the way a blocking native <code>recv()</code>
+ * would. The poller unparks the waiter once the channel is ready.
+ * Several threads may wait on the same channel, for example one reading
+ * and one writing, and each is woken for its own operations.
+ * <p>
+ * If the selector fails, the waiting threads are woken as if their wait
+ * had timed out and the poller backs off before selecting again. A
+ * poller whose selector has been closed stops, and the next wait starts
+ * a new one.
+ *
+ * @author  wolfSSL
+ * @version 1.0, August 2013
+ */
+class WolfSSLPoller implements Runnable {
+
+    private static final Logger log =
+        Logger.getLogger(WolfSSLPoller.class.getName());
+
+    /* longest pause after repeated selector failures */
+    private static final long MAX_BACKOFF = 1000;
+
+    /* single pending wait, the waiters of a channel are kept in a list
+     * attached to its selection key */
+    private static class Waiter {
+        final Thread thread;
+        final SelectableChannel channel;
+        final int ops;
+        volatile boolean ready = false;
+        volatile boolean failed = false;
+        volatile boolean cancelled = false;
+
+        Waiter(Thread thread, SelectableChannel channel, int ops) {
+            this.thread = thread;
+            this.channel = channel;
+            this.ops = ops;
+        }
+    }
+
+    private static WolfSSLPoller instance = null;
+
+    private final Selector selector;
+
+    /* new waits and channels to deregister, added by any thread */
+    private final Queue<Object> requests = new ConcurrentLinkedQueue<Object>();
+
+    /* every thread currently parked in await(), failed if the selector
+     * breaks */
+    private final Set<Waiter> waiting =
+        Collections.newSetFromMap(new ConcurrentHashMap<Waiter, Boolean>());
+
+    private WolfSSLPoller() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    /* returns the shared poller, starting its thread on first use */
+    static synchronized WolfSSLPoller getInstance() throws IOException {
+
+        if (instance == null || !instance.selector.isOpen()) {
+            instance = new WolfSSLPoller();
+            Thread t = new Thread(instance, "wolfSSL-poller");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Parks the calling thread until the channel is ready for the given
+     * operations or the timeout expires.
+     *
+     * @param channel   non-blocking channel to wait on
+     * @param ops       SelectionKey.OP_READ and/or SelectionKey.OP_WRITE
+     * @param timeoutMs maximum time to wait in milliseconds, or 0 to wait
+     *                  without limit
+     * @return          true if the channel became ready, false on timeout,
+     *                  interrupt or if the channel was closed
+     */
+    boolean await(SelectableChannel channel, int ops, long timeoutMs) {
+
+        long deadline = 0;
+        Waiter w = new Waiter(Thread.currentThread(), channel, ops);
+
+        if (timeoutMs > 0)
+            deadline = System.nanoTime() + timeoutMs * 1000000L;
+
+        waiting.add(w);
+        requests.add(w);
+        selector.wakeup();
+
+        try {
+            while (!w.ready) {
+                if (w.failed || !channel.isOpen() || !selector.isOpen() ||
+                    Thread.currentThread().isInterrupted()) {
+                    w.cancelled = true;
+                    return false;
+                }
+                if (timeoutMs > 0) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) {
+                        w.cancelled = true;
+                        return false;
+                    }
+                    LockSupport.parkNanos(this, left);
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        } finally {
+            waiting.remove(w);
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes a channel from the poller, called when its session is freed.
+     *
+     * @param channel   channel to deregister
+     */
+    void deregister(SelectableChannel channel) {
+        requests.add(channel);
+        selector.wakeup();
+    }
+
+    public void run() {
+
+        long backoff = 0;
+
+        while (true) {
+            try {
+                selector.select();
+                backoff = 0;
+            } catch (ClosedSelectorException e) {
+                /* stop, the next await() starts a new poller */
+                log.log(Level.WARNING, "wolfSSL poller selector closed", e);
+                failAll();
+                return;
+            } catch (IOException e) {
+                /* don't spin on a failing selector, release the waiters
+                 * so they can report the failure, then retry later */
+                backoff = Math.min(Math.max(backoff * 2, 10), MAX_BACKOFF);
+                log.log(Level.WARNING, "wolfSSL poller select() failed, " +
+                        "retrying in " + backoff + " ms", e);
+                failAll();
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    /* retry now */
+                }
+                continue;
+            }
+
+            Object req;
+            while ((req = requests.poll()) != null) {
+                if (req instanceof Waiter)
+                    register((Waiter)req);
+                else {
+                    SelectionKey key =
+                        ((SelectableChannel)req).keyFor(selector);
+                    if (key != null)
+                        key.cancel();
+                }
+            }
+
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                wake(key);
+            }
+        }
+    }
+
+    private void register(Waiter w) {
+
+        if (w.cancelled)
+            return;
+
+        try {
+            SelectionKey key = w.channel.keyFor(selector);
+            if (key != null && !key.isValid()) {
+                /* flush the cancelled key so the channel can register */
+                selector.selectNow();
+                key = null;
+            }
+            if (key == null) {
+                List<Waiter> waiters = new ArrayList<Waiter>();
+                waiters.add(w);
+                w.channel.register(selector, w.ops, waiters);
+            } else {
+                List<Waiter> waiters = waitersOf(key);
+                waiters.add(w);
+                key.interestOps(interestOf(waiters));
+            }
+            return;
+
+        } catch (ClosedChannelException e) {
+            /* fall through, waiter gives up */
+        } catch (CancelledKeyException e) {
+        } catch (IllegalBlockingModeException e) {
+        } catch (IllegalArgumentException e) {
+        } catch (IOException e) {
+        }
+
+        w.failed = true;
+        LockSupport.unpark(w.thread);
+    }
+
+    /* wakes the waiters whose operations are ready, leaving the others
+     * registered */
+    private void wake(SelectionKey key) {
+
+        List<Waiter> waiters = waitersOf(key);
+        Iterator<Waiter> it = waiters.iterator();
+        int ready;
+
+        try {
+            ready = key.readyOps();
+        } catch (CancelledKeyException e) {
+            ready = ~0;
+        }
+
+        while (it.hasNext()) {
+            Waiter w = it.next();
+            if ((w.ops & ready) != 0) {
+                it.remove();
+                w.ready = true;
+                LockSupport.unpark(w.thread);
+            }
+        }
+
+        if (key.isValid())
+            key.interestOps(interestOf(waiters));
+    }
+
+    /* waiters of a key, dropping those that gave up */
+    @SuppressWarnings("unchecked")
+    private static List<Waiter> waitersOf(SelectionKey key) {
+
+        List<Waiter> waiters = (List<Waiter>)key.attachment();
+        Iterator<Waiter> it = waiters.iterator();
+
+        while (it.hasNext()) {
+            if (it.next().cancelled)
+                it.remove();
+        }
+
+        return waiters;
+    }
+
+    private static int interestOf(List<Waiter> waiters) {
+
+        int ops = 0;
+
+        for (Waiter w : waiters)
+            ops |= w.ops;
+
+        return ops;
+    }
+
+    /* fails every pending wait, after the selector itself failed */
+    private void failAll() {
+
+        Object req;
+
+        for (Waiter w : waiting) {
+            w.failed = true;
+            LockSupport.unpark(w.thread);
+        }
+
+        /* queued waits are failed above, deregistrations are covered by
+         * cancelling every key */
+        while ((req = requests.poll()) != null) {
+            if (req instanceof Waiter)
+                ((Waiter)req).failed = true;
+        }
+
+        try {
+            for (SelectionKey key : selector.keys())
+                key.cancel();
+        } catch (ClosedSelectorException e) {
+            /* nothing registered anymore */
+        }
+    }
+}
+
@@ -0,0 +1,754 @@
+/* WolfSSLSelectorServer.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.wolfssl;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.wolfssl.WolfSSLException;
+
+/**
+ * Multiplexed, non-blocking SSL/TLS server built on NIO selectors.
+ * <p>
+ * One acceptor thread accepts TCP connections and hands them round-robin
+ * to a small, fixed set of selector threads. Each selector thread drives
+ * the <code>accept()</code>, <code>read()</code>, <code>write()</code> and
+ * <code>shutdownSSL()</code> state machines of its sessions, which use the
+ * channel's file descriptor directly (see
+ * {@link WolfSSLSession#setFd(SocketChannel)}). Selector interest ops are
+ * derived from the <b>SSL_ERROR_WANT_READ</b> and
+ * <b>SSL_ERROR_WANT_WRITE</b> results of each call, so thousands of
+ * connections can be served without a thread per connection.
+ * <p>
+ * Applications receive events through a {@link Handler}. Handler methods
+ * are called on the connection's selector thread and must not block.
+ * {@link Connection#write(ByteBuffer)} and {@link Connection#close()} may
+ * be called from any thread.
+ * <p>
+ * Connections are closed by sending close_notify, waiting for the socket
+ * to accept it if needed, for at most {@link #CLOSE_TIMEOUT} milliseconds.
+ * The channel is closed and the session freed only after that.
+ * <p>
+ * A server may be stopped and started again. Each start opens a new
+ * listening socket and new selector threads.
+ *
+ * @author  wolfSSL
+ * @version 1.0, August 2013
+ */
+public class WolfSSLSelectorServer {
+
+    /**
+     * Milliseconds a closing connection may wait for its socket before
+     * it is closed without completing close_notify.
+     */
+    public static final long CLOSE_TIMEOUT = 5000;
+
+    /**
+     * Receives connection events from a WolfSSLSelectorServer.
+     * All methods are called on the selector thread owning the connection.
+     */
+    public interface Handler {
+
+        /**
+         * Called once the SSL/TLS handshake with a client has completed.
+         *
+         * @param conn  the connection
+         */
+        public void connected(Connection conn);
+
+        /**
+         * Called with decrypted application data received from a client.
+         * The buffer is only valid for the duration of the call.
+         *
+         * @param conn  the connection
+         * @param data  decrypted data, from position up to limit
+         */
+        public void received(Connection conn, ByteBuffer data);
+
+        /**
+         * Called once a connection has been closed, for any reason,
+         * including a failed handshake. A handler method throwing a
+         * RuntimeException closes the connection it was called for
+         * immediately, without close_notify.
+         *
+         * @param conn  the connection
+         * @param error the wolfSSL error code that caused the connection
+         *              to close, or <b>SSL_ERROR_NONE</b> for an orderly
+         *              close. <b>SSL_ERROR_WANT_READ</b> or <b>
+         *              SSL_ERROR_WANT_WRITE</b> if close_notify could not
+         *              be completed within <code>CLOSE_TIMEOUT</code>.
+         *              <b>SSL_FATAL_ERROR</b> if a handler method threw.
+         */
+        public void closed(Connection conn, int error);
+    }
+
+    /**
+     * A single client connection served by a WolfSSLSelectorServer.
+     */
+    public static class Connection {
+
+        private static final int HANDSHAKE = 0;
+        private static final int OPEN      = 1;
+        private static final int CLOSING   = 2;
+        private static final int CLOSED    = 3;
+
+        private final SocketChannel channel;
+        private final WolfSSLSession ssl;
+        private final Worker worker;
+        private SelectionKey key;
+        private int state = HANDSHAKE;
+
+        /* while CLOSING: error to report once closed, the would-block
+         * error of the last shutdownSSL() attempt, and when to give up */
+        private int closeError = WolfSSL.SSL_ERROR_NONE;
+        private int closeWait = WolfSSL.SSL_ERROR_NONE;
+        private long closeDeadline = 0;
+
+        /* application data waiting to be written, any thread may add */
+        private final Queue<ByteBuffer> outbound =
+            new ConcurrentLinkedQueue<ByteBuffer>();
+        private volatile boolean closeRequested = false;
+
+        /* application defined state */
+        private volatile Object attachment;
+
+        Connection(SocketChannel channel, WolfSSLSession ssl, Worker worker) {
+            this.channel = channel;
+            this.ssl = ssl;
+            this.worker = worker;
+        }
+
+        /**
+         * Queues application data to be sent to the client.
+         * The buffer is sent from its position up to its limit and must
+         * not be modified until it has been written.
+         *
+         * @param data  data to send
+         */
+        public void write(ByteBuffer data) {
+            if (data != null && data.hasRemaining()) {
+                outbound.add(data);
+                worker.schedule(this);
+            }
+        }
+
+        /**
+         * Sends close_notify to the client after all queued data has been
+         * written, then closes the connection. A connection still in its
+         * handshake is closed right away, without close_notify.
+         */
+        public void close() {
+            closeRequested = true;
+            worker.schedule(this);
+        }
+
+        /**
+         * Returns the remote address of the client.
+         *
+         * @return  client address, or <code>null</code> if not available
+         */
+        public SocketAddress getRemoteAddress() {
+            return channel.socket().getRemoteSocketAddress();
+        }
+
+        /**
+         * Returns the session of this connection, for inspection from
+         * handler methods (for example the negotiated cipher). The session
+         * must only be used on the connection's selector thread.
+         *
+         * @return  the WolfSSLSession of this connection
+         */
+        public WolfSSLSession getSession() {
+            return ssl;
+        }
+
+        /**
+         * Attaches an application object to this connection.
+         *
+         * @param obj   object to attach, may be <code>null</code>
+         */
+        public void attach(Object obj) {
+            this.attachment = obj;
+        }
+
+        /**
+         * Returns the application object attached to this connection.
+         *
+         * @return  attached object, or <code>null</code>
+         */
+        public Object attachment() {
+            return this.attachment;
+        }
+
+        /* drives the connection as far as possible without blocking,
+         * called on the worker thread only */
+        void process() {
+
+            int ret;
+            int err;
+            int ops = 0;
+
+            if (state == CLOSED)
+                return;
+
+            if (state == HANDSHAKE) {
+                /* nothing to flush yet, and no session to close */
+                if (closeRequested) {
+                    finish(WolfSSL.SSL_ERROR_NONE);
+                    return;
+                }
+
+                ret = ssl.accept();
+                if (ret != WolfSSL.SSL_SUCCESS) {
+                    err = ssl.getError(ret);
+                    if (!setInterest(err))
+                        finish(err);
+                    return;
+                }
+                state = OPEN;
+                worker.handler.connected(this);
+            }
+
+            if (state == OPEN) {
+
+                /* flush queued application data */
+                boolean writeBlocked = false;
+                ByteBuffer data;
+                while ((data = outbound.peek()) != null) {
+                    ret = ssl.writeBulk(data);
+                    if (ret < 0) {
+                        err = ssl.getError(ret);
+                        if (err == WolfSSL.SSL_ERROR_WANT_WRITE) {
+                            ops |= SelectionKey.OP_WRITE;
+                            writeBlocked = true;
+                            break;
+                        } else if (err == WolfSSL.SSL_ERROR_WANT_READ) {
+                            ops |= SelectionKey.OP_READ;
+                            writeBlocked = true;
+                            break;
+                        }
+                        finish(err);
+                        return;
+                    }
+                    if (!data.hasRemaining())
+                        outbound.poll();
+                }
+
+                /* read until wolfSSL would block */
+                ByteBuffer in = worker.readBuffer;
+                while (state == OPEN) {
+                    in.clear();
+                    ret = ssl.read(in);
+                    if (ret > 0) {
+                        in.flip();
+                        worker.handler.received(this, in);
+                        continue;
+                    }
+                    err = ssl.getError(ret);
+                    if (err == WolfSSL.SSL_ERROR_WANT_READ) {
+                        ops |= SelectionKey.OP_READ;
+                    } else if (err == WolfSSL.SSL_ERROR_WANT_WRITE) {
+                        ops |= SelectionKey.OP_WRITE;
+                    } else if (err == WolfSSL.SSL_ERROR_ZERO_RETURN) {
+                        /* client sent close_notify, answer it */
+                        startClose(WolfSSL.SSL_ERROR_NONE);
+                        return;
+                    } else {
+                        finish(err);
+                        return;
+                    }
+                    break;
+                }
+
+                /* handler may have queued more data or closed */
+                if (state == OPEN && closeRequested && outbound.isEmpty()) {
+                    startClose(WolfSSL.SSL_ERROR_NONE);
+                    return;
+                } else if (state == OPEN && !outbound.isEmpty() &&
+                           !writeBlocked) {
+                    worker.schedule(this);
+                }
+            }
+
+            if (state == CLOSING) {
+                continueClose();
+                return;
+            }
+
+            if (state == OPEN)
+                key.interestOps(ops);
+        }
+
+        /* maps a wolfSSL would-block error to selector interest, returns
+         * false if the error is not a would-block condition */
+        private boolean setInterest(int err) {
+
+            if (err == WolfSSL.SSL_ERROR_WANT_READ) {
+                key.interestOps(SelectionKey.OP_READ);
+                return true;
+            } else if (err == WolfSSL.SSL_ERROR_WANT_WRITE) {
+                key.interestOps(SelectionKey.OP_WRITE);
+                return true;
+            }
+            return false;
+        }
+
+        /* enters CLOSING, sending close_notify until it is out or
+         * CLOSE_TIMEOUT expires */
+        private void startClose(int error) {
+
+            state = CLOSING;
+            closeError = error;
+            closeDeadline = System.currentTimeMillis() + CLOSE_TIMEOUT;
+            worker.closing.add(this);
+
+            continueClose();
+        }
+
+        /* one shutdownSSL() attempt, waiting for the socket if it would
+         * block and closing the connection otherwise */
+        private void continueClose() {
+
+            int ret = ssl.shutdownSSL();
+            int err;
+
+            if (ret == WolfSSL.SSL_SUCCESS) {
+                finish(closeError);
+                return;
+            }
+
+            err = ssl.getError(ret);
+            if (setInterest(err)) {
+                closeWait = err;
+                return;
+            }
+
+            finish(closeError != WolfSSL.SSL_ERROR_NONE ? closeError : err);
+        }
+
+        /* closes the connection if CLOSING has run past its deadline,
+         * returns false once the connection is closed */
+        boolean checkCloseTimeout(long now) {
+
+            if (state != CLOSING)
+                return state != CLOSED;
+
+            if (now < closeDeadline)
+                return true;
+
+            finish(closeError != WolfSSL.SSL_ERROR_NONE ? closeError
+                                                        : closeWait);
+            return false;
+        }
+
+        /* milliseconds until the close deadline, at least 1 */
+        long closeRemaining(long now) {
+            return Math.max(closeDeadline - now, 1);
+        }
+
+        /* sends close_notify on a best effort basis, without waiting, and
+         * closes the connection, used when the server stops */
+        void shutdown(int error) {
+
+            if (state == OPEN || state == CLOSING)
+                ssl.shutdownSSL();
+
+            finish(error);
+        }
+
+        /* closes the connection after a handler method threw, keeping
+         * the exception away from the worker loop */
+        void abort() {
+            try {
+                finish(WolfSSL.SSL_FATAL_ERROR);
+            } catch (RuntimeException e) {
+                /* closed() threw too, resources are already released */
+            }
+        }
+
+        /* releases all resources of the connection */
+        private void finish(int error) {
+
+            if (state == CLOSED)
+                return;
+
+            state = CLOSED;
+            if (key != null)
+                key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                /* nothing more to do */
+            }
+            ssl.freeSSL();
+            outbound.clear();
+
+            worker.handler.closed(this, error);
+        }
+    }
+
+    /* selector thread serving a subset of the connections */
+    static class Worker implements Runnable {
+
+        private final Selector selector;
+        private final Handler handler;
+        private final WolfSSLSelectorServer server;
+
+        /* cleared by stop(), a stopped worker is never restarted */
+        volatile boolean running = true;
+
+        /* new channels and connections needing attention */
+        private final Queue<Object> tasks = new ConcurrentLinkedQueue<Object>();
+
+        /* shared by all connections of this worker, data is handed to
+         * the handler synchronously */
+        final ByteBuffer readBuffer = ByteBuffer.allocateDirect(16384);
+
+        /* connections sending close_notify, checked for CLOSE_TIMEOUT */
+        final List<Connection> closing = new ArrayList<Connection>();
+
+        Worker(WolfSSLSelectorServer server, Handler handler)
+            throws IOException {
+            this.server = server;
+            this.handler = handler;
+            this.selector = Selector.open();
+        }
+
+        void schedule(Object task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        public void run() {
+
+            while (running) {
+                try {
+                    selector.select(nextTimeout());
+                } catch (IOException e) {
+                    break;
+                }
+
+                /* register new channels, run scheduled connections */
+                Object task;
+                while ((task = tasks.poll()) != null) {
+                    if (task instanceof SocketChannel)
+                        register((SocketChannel)task);
+                    else
+                        process((Connection)task);
+                }
+
+                Iterator<SelectionKey> it =
+                    selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (key.isValid())
+                        process((Connection)key.attachment());
+                }
+
+                expireClosing();
+            }
+
+            /* server stopped, close remaining connections */
+            Object task;
+            while ((task = tasks.poll()) != null) {
+                if (task instanceof SocketChannel)
+                    closeChannel((SocketChannel)task);
+            }
+            for (SelectionKey key : selector.keys()) {
+                Connection conn = (Connection)key.attachment();
+                if (conn == null)
+                    continue;
+                try {
+                    conn.shutdown(WolfSSL.SSL_ERROR_NONE);
+                } catch (RuntimeException e) {
+                    conn.abort();
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                /* nothing more to do */
+            }
+        }
+
+        /* runs a connection, a handler exception only closes that
+         * connection */
+        private static void process(Connection conn) {
+            try {
+                conn.process();
+            } catch (RuntimeException e) {
+                conn.abort();
+            }
+        }
+
+        /* select() timeout until the nearest close deadline, 0 if none */
+        private long nextTimeout() {
+
+            long now = System.currentTimeMillis();
+            long timeout = 0;
+
+            for (Connection c : closing) {
+                long left = c.closeRemaining(now);
+                if (timeout == 0 || left < timeout)
+                    timeout = left;
+            }
+
+            return timeout;
+        }
+
+        private void expireClosing() {
+
+            long now = System.currentTimeMillis();
+            Iterator<Connection> it = closing.iterator();
+
+            while (it.hasNext()) {
+                Connection conn = it.next();
+                try {
+                    if (conn.checkCloseTimeout(now))
+                        continue;
+                } catch (RuntimeException e) {
+                    conn.abort();
+                }
+                it.remove();
+            }
+        }
+
+        private void register(SocketChannel channel) {
+
+            WolfSSLSession ssl = null;
+            Connection conn;
+
+            try {
+                channel.configureBlocking(false);
+                ssl = new WolfSSLSession(server.ctx);
+                if (ssl.setFd(channel) != WolfSSL.SSL_SUCCESS)
+                    throw new IOException("setFd() failed");
+
+                conn = new Connection(channel, ssl, this);
+                conn.key = channel.register(selector, SelectionKey.OP_READ,
+                                            conn);
+            } catch (IOException e) {
+                /* includes ClosedChannelException */
+                release(channel, ssl);
+                return;
+            } catch (WolfSSLException e) {
+                release(channel, ssl);
+                return;
+            } catch (RuntimeException e) {
+                release(channel, ssl);
+                return;
+            }
+
+            /* start the handshake, the client speaks first anyway */
+            process(conn);
+        }
+
+        private static void release(SocketChannel channel,
+                WolfSSLSession ssl) {
+            if (ssl != null)
+                ssl.freeSSL();
+            closeChannel(channel);
+        }
+
+        private static void closeChannel(SocketChannel channel) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                /* nothing more to do */
+            }
+        }
+    }
+
+    private final WolfSSLContext ctx;
+    private final SocketAddress address;
+    private final Handler handler;
+    private final int selectorCount;
+    private Worker[] workers;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running = false;
+
+    /**
+     * Creates a new selector-based server.
+     * The server does not accept connections until {@link #start()} is
+     * called.
+     *
+     * @param ctx           WolfSSLContext used to create a session for
+     *                      every accepted connection. It should be set up
+     *                      for the server side, with certificate and key
+     *                      loaded.
+     * @param address       local address to listen on
+     * @param selectorCount number of selector threads serving connections
+     * @param handler       receives connection events
+     * @throws IOException  if a selector could not be opened
+     */
+    public WolfSSLSelectorServer(WolfSSLContext ctx, SocketAddress address,
+        int selectorCount, Handler handler) throws IOException {
+
+        if (ctx == null || address == null || handler == null ||
+            selectorCount <= 0)
+            throw new IllegalArgumentException("invalid server arguments");
+
+        this.ctx = ctx;
+        this.address = address;
+        this.handler = handler;
+        this.selectorCount = selectorCount;
+        this.workers = newWorkers();
+    }
+
+    private Worker[] newWorkers() throws IOException {
+
+        Worker[] ws = new Worker[selectorCount];
+
+        try {
+            for (int i = 0; i < selectorCount; i++)
+                ws[i] = new Worker(this, handler);
+        } catch (IOException e) {
+            for (Worker w : ws) {
+                if (w != null)
+                    w.selector.close();
+            }
+            throw e;
+        }
+
+        return ws;
+    }
+
+    /**
+     * Binds the listening socket and starts the acceptor and selector
+     * threads. A stopped server gets new selector threads, since those
+     * of the previous run close their selectors when they exit.
+     *
+     * @throws IOException  if the listening socket could not be bound,
+     *                      or a selector could not be opened
+     */
+    public synchronized void start() throws IOException {
+
+        final ServerSocketChannel ch;
+        final Worker[] ws;
+
+        if (running)
+            return;
+
+        if (!workers[0].running)
+            workers = newWorkers();
+        ws = workers;
+
+        ch = ServerSocketChannel.open();
+        try {
+            ch.socket().setReuseAddress(true);
+            ch.socket().bind(address);
+        } catch (IOException e) {
+            ch.close();
+            throw e;
+        }
+        serverChannel = ch;
+        running = true;
+
+        for (int i = 0; i < ws.length; i++) {
+            Thread t = new Thread(ws[i], "wolfSSL-selector-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        /* a previous acceptor may still be exiting, so each one only
+         * uses the socket and workers it was started with */
+        Thread acceptor = new Thread(new Runnable() {
+            public void run() {
+                acceptLoop(ch, ws);
+            }
+        }, "wolfSSL-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stops accepting connections and closes all open connections.
+     */
+    public synchronized void stop() {
+
+        if (!running)
+            return;
+
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            /* nothing more to do */
+        }
+        for (Worker w : workers) {
+            w.running = false;
+            w.selector.wakeup();
+        }
+    }
+
+    /**
+     * Returns the local address the server is listening on, which is
+     * useful when binding to an ephemeral port.
+     *
+     * @return  local address, or <code>null</code> if not started
+     */
+    public SocketAddress getLocalAddress() {
+        ServerSocketChannel ch = serverChannel;
+        return (ch == null) ? null : ch.socket().getLocalSocketAddress();
+    }
+
+    private static void acceptLoop(ServerSocketChannel serverChannel,
+            Worker[] workers) {
+
+        int next = 0;
+
+        while (serverChannel.isOpen()) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                if (!serverChannel.isOpen())
+                    break;
+                /* transient failure (ie: out of descriptors), back off */
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+                continue;
+            }
+            if (channel == null)
+                continue;
+
+            workers[next].schedule(channel);
+            next = (next + 1) % workers.length;
+        }
+    }
+
+} /* end WolfSSLSelectorServer */
+
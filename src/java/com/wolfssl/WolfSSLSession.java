@@ -24,17 +24,27 @@ package com.wolfssl;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.DatagramSocket;
+import java.nio.ByteBuffer;
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
 
 import com.wolfssl.WolfSSLException;
 
 /**
  * Wraps a native WolfSSL session object and contains methods directly related
  * to the SSL/TLS session.
+ * <p>
+ * Sessions should be freed with {@link #freeSSL()}, or by using them in a
+ * try-with-resources statement. A session that becomes unreachable
+ * without having been freed has its native resources freed by a
+ * background thread after it is garbage collected.
  *
  * @author  wolfSSL
  * @version 1.0, August 2013
  */
-public class WolfSSLSession {
+public class WolfSSLSession implements AutoCloseable {
 
     private long sslPtr;    /* internal pointer to native CYASSL object */
 
@@ -50,8 +60,66 @@ public class WolfSSLSession {
     private Object rsaEncCtx;
     private Object rsaDecCtx;
 
+    /* user-registered session-level missing CRL callback, tracked so we
+     * know when native calls may upcall into Java */
+    private WolfSSLMissingCRLCallback internCRLCb = null;
+
+    /* set with setUsingNonblock(), arrays are only pinned for sessions
+     * whose native reads and writes can not block */
+    private volatile boolean nonblocking = false;
+
+    /* channel set with setFd(SocketChannel), and whether would-block
+     * conditions on it are waited out by parking the calling thread */
+    private SocketChannel channel = null;
+    private boolean parkOnWouldBlock = false;
+    private long parkTimeout = 0;
+
     /* reference to the associated WolfSSLContext */
     private WolfSSLContext ctx;
+
+    /* native state, freed by freeSSL() or once this session is garbage
+     * collected, whichever happens first */
+    private SessionResource resource;
+
+    private static class SessionResource extends WolfSSLCleaner.Resource
+        implements WolfSSLIdleSweeper.Target {
+        /* both replaced when the session is recycled */
+        private volatile long ssl;
+        private volatile long verifyCtx; /* shared with ctx, 0 if none */
+        private final long memStats;
+
+        SessionResource(long ssl, long verifyCtx, long memStats) {
+            this.ssl = ssl;
+            this.verifyCtx = verifyCtx;
+            this.memStats = memStats;
+        }
+
+        void release() {
+            freeSSL(ssl);
+            if (verifyCtx != 0)
+                WolfSSLContext.releaseVerifyCtx(verifyCtx);
+            /* blocks still charged to it keep the counters alive */
+            WolfSSL.freeMemStats(memStats);
+        }
+
+        /* holding the lock keeps the session from being freed, recycled
+         * or given a new read context meanwhile */
+        public synchronized boolean sweep() {
+            if (isFreed())
+                return false;
+            releaseIOBuffers(ssl, true);
+            return true;
+        }
+    }
+
+    /* engine driving this session, if any. Its native I/O state is freed
+     * once the engine is collected, so the engine must stay reachable for
+     * as long as the session is. */
+    private WolfSSLEngine engine = null;
+
+    /* native memory counters charged by native calls on this session,
+     * read from JNI code */
+    private long memStatsPtr = 0;
     
     /* is this context active, or has it been freed? */
     private boolean active = false;
@@ -65,14 +133,22 @@ public class WolfSSLSession {
      *                                      failed.
      */
     public WolfSSLSession(WolfSSLContext ctx) throws WolfSSLException {
+        memStatsPtr = WolfSSL.newMemStats(ctx.getSessionArenaSize());
         sslPtr = newSSL(ctx.getContextPtr());
         if (sslPtr == 0) {
+            WolfSSL.freeMemStats(memStatsPtr);
+            memStatsPtr = 0;
             throw new WolfSSLException("Failed to create SSL Object");
         } else {
             this.active = true;
             
             /* save context reference for I/O callbacks from JNI */
             this.ctx = ctx;
+
+            /* share the context's verify callback and result cache */
+            this.resource = new SessionResource(sslPtr,
+                    ctx.attachVerifyCtx(sslPtr), memStatsPtr);
+            WolfSSLCleaner.register(this, resource);
         }
     }
 
@@ -82,6 +158,15 @@ public class WolfSSLSession {
         return sslPtr;
     }
 
+    /* native state, freed by WolfSSLEngine before its own */
+    WolfSSLCleaner.Resource getResource() {
+        return resource;
+    }
+
+    void setEngine(WolfSSLEngine engine) {
+        this.engine = engine;
+    }
+
     /* used from JNI code */
     WolfSSLContext getAssociatedContextPtr() {
         return ctx;
@@ -133,11 +218,121 @@ public class WolfSSLSession {
         return this.rsaDecCtx;
     }
 
+    /* Heap arrays may only be pinned with GetPrimitiveArrayCritical if
+     * the native read/write can not call back into Java while the array
+     * is held. Any Java callback registered on this session or its
+     * context could be invoked from inside CyaSSL_read/CyaSSL_write.
+     * Blocking sessions are never pinned, since the native call may wait
+     * on the peer for an unbounded time with the array held. */
+    boolean canPinArrays() {
+        if (!nonblocking || internCRLCb != null)
+            return false;
+        return !ctx.hasJavaCallbacks();
+    }
+
+    /* Starts this session over as if it had just been created from its
+     * context, for WolfSSLSessionPool. The native CYASSL object is
+     * replaced, and everything bound to the previous connection (fd,
+     * channel, callback contexts, session CRL callback) is dropped.
+     * Returns false if the session can not be reused, in which case it
+     * should be freed. */
+    synchronized boolean recycle() {
+
+        long ssl;
+
+        if (sslPtr == 0)
+            return false;
+
+        synchronized (resource) {
+            ssl = renewSSL(sslPtr, ctx.getContextPtr());
+            if (ssl == 0)
+                return false;
+
+            if (resource.verifyCtx != 0)
+                WolfSSLContext.releaseVerifyCtx(resource.verifyCtx);
+            resource.ssl = ssl;
+            resource.verifyCtx = ctx.attachVerifyCtx(ssl);
+            sslPtr = ssl;
+        }
+
+        if (parkOnWouldBlock) {
+            try {
+                WolfSSLPoller.getInstance().deregister(channel);
+            } catch (IOException e) {
+                /* poller never started, nothing registered */
+            }
+        }
+        channel = null;
+        parkOnWouldBlock = false;
+        parkTimeout = 0;
+        nonblocking = false;
+
+        ioReadCtx = null;
+        ioWriteCtx = null;
+        genCookieCtx = null;
+        macEncryptCtx = null;
+        decryptVerifyCtx = null;
+        eccSignCtx = null;
+        eccVerifyCtx = null;
+        rsaSignCtx = null;
+        rsaVerifyCtx = null;
+        rsaEncCtx = null;
+        rsaDecCtx = null;
+        internCRLCb = null;
+
+        return true;
+    }
+
+    /* In park-on-would-block mode, waits for the channel to become ready
+     * for what wolfSSL is waiting on. Returns true if the operation that
+     * returned 'ret' should be retried. */
+    private boolean parkIfWouldBlock(int ret) {
+
+        /* would-block is always reported as SSL_FATAL_ERROR, anything else
+         * (ie: BAD_FUNC_ARG) leaves a stale error behind in wolfSSL */
+        if (!parkOnWouldBlock || ret != WolfSSL.SSL_FATAL_ERROR)
+            return false;
+
+        return parkForError(getError(ret));
+    }
+
+    /* Same as parkIfWouldBlock(), for a status returned by one of the
+     * *Status() methods, which already carries the error code. */
+    private boolean parkIfWouldBlock(long status) {
+
+        if (!parkOnWouldBlock ||
+            statusReturn(status) != WolfSSL.SSL_FATAL_ERROR)
+            return false;
+
+        return parkForError(statusError(status));
+    }
+
+    private boolean parkForError(int err) {
+
+        int ops;
+
+        if (err == WolfSSL.SSL_ERROR_WANT_READ)
+            ops = SelectionKey.OP_READ;
+        else if (err == WolfSSL.SSL_ERROR_WANT_WRITE)
+            ops = SelectionKey.OP_WRITE;
+        else
+            return false;
+
+        try {
+            return WolfSSLPoller.getInstance().await(channel, ops,
+                    parkTimeout);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
     /* ------------------ native method declarations -------------------- */
 
     private native long newSSL(long ctx);
     private native int setFd(long ssl, Socket sd, int type);
     private native int setFd(long ssl, DatagramSocket sd, int type);
+    private native int setFd(long ssl, SocketChannel sd, int type);
+    private native int setFd(long ssl, DatagramChannel sd, int type);
     private native int useCertificateFile(long ssl, String file, int format);
     private native int usePrivateKeyFile(long ssl, String file, int format);
     private native int useCertificateChainFile(long ssl, String file);
@@ -145,15 +340,44 @@ public class WolfSSLSession {
     private native int getUsingNonblock(long ssl);
     private native int getFd(long ssl);
     private native int connect(long ssl);
-    private native int write(long ssl, byte[] data, int length);
-    private native int read(long ssl, byte[] data, int sz);
+    private native int writeDirect(long ssl, ByteBuffer data, int offset,
+            int length);
+    private native int readDirect(long ssl, ByteBuffer data, int offset,
+            int length);
+    private native int writeArray(long ssl, byte[] data, int offset,
+            int length, boolean pin);
+    private native int readArray(long ssl, byte[] data, int offset,
+            int length, boolean pin);
+    private native int writeBulkDirect(long ssl, ByteBuffer data, int offset,
+            int length);
+    private native int writeBulkArray(long ssl, byte[] data, int offset,
+            int length, boolean pin);
+    private native int writeGather(long ssl, Object[] bufs, int[] offsets,
+            int[] lengths);
+    private native int readScatter(long ssl, Object[] bufs, int[] offsets,
+            int[] lengths);
+    private native long connectStatus(long ssl);
+    private native long acceptStatus(long ssl);
+    private native long writeDirectStatus(long ssl, ByteBuffer data,
+            int offset, int length);
+    private native long readDirectStatus(long ssl, ByteBuffer data,
+            int offset, int length);
+    private native long writeArrayStatus(long ssl, byte[] data, int offset,
+            int length, boolean pin);
+    private native long writeBulkArrayStatus(long ssl, byte[] data,
+            int offset, int length, boolean pin);
+    private native long readArrayStatus(long ssl, byte[] data, int offset,
+            int length, boolean pin);
+    private native int pending(long ssl);
     private native int accept(long ssl);
-    private native void freeSSL(long ssl);
+    private static native void freeSSL(long ssl);
+    private native long renewSSL(long ssl, long ctx);
     private native int shutdownSSL(long ssl);
     private native int getError(long ssl, int ret);
     private native int setSession(long ssl, long session);
     private native long getSession(long ssl);
     private native int setCipherList(long ssl, String list);
+    private native int setMinVersion(long ssl, int version);
     private native int dtlsGetCurrentTimeout(long ssl);
     private native int dtlsGotTimeout(long ssl);
     private native int dtls(long ssl);
@@ -161,6 +385,7 @@ public class WolfSSLSession {
     private native InetSocketAddress dtlsGetPeer(long ssl);
     private native int sessionReused(long ssl);
     private native long getPeerCertificate(long ssl);
+    private native byte[][] getPeerCertChain(long ssl);
     private native String getPeerX509Issuer(long ssl, long x509);
     private native String getPeerX509Subject(long ssl, long x509);
     private native String getPeerX509AltName(long ssl, long x509);
@@ -177,6 +402,10 @@ public class WolfSSLSession {
             long sz);
     private native int setGroupMessages(long ssl);
     private native void setIOReadCtx(long ssl);
+    private native int setIOReadAhead(long ssl, int size);
+    private native int getIOReadAheadPending(long ssl);
+    private native boolean hasIOReadAheadBuffer(long ssl);
+    private static native int releaseIOBuffers(long ssl, boolean ifUnused);
     private native void setIOWriteCtx(long ssl);
     private native void setGenCookieCtx(long ssl);
     private native int enableCRL(long ssl, int options);
@@ -317,6 +546,117 @@ public class WolfSSLSession {
         return setFd(getSessionPtr(), sd, 2);
     }
 
+    /**
+     * Assigns the file descriptor of a SocketChannel as the input/output
+     * facility for the SSL connection.
+     * wolfSSL then reads from and writes to the channel's socket natively,
+     * so the channel can be registered with a <code>Selector</code>
+     * without falling back to Java I/O callbacks. The channel must be
+     * connected, and must not be read from or written to directly while
+     * wolfSSL owns it.
+     * <p>
+     * If the channel is in non-blocking mode when this method is called,
+     * <code>setUsingNonblock(1)</code> is applied to the session as well.
+     *
+     * @param sd    SocketChannel to be used as input/output facility.
+     * @return      <code>SSL_SUCCESS</code> on success, otherwise
+     *              <code>SSL_FAILURE</code>.
+     * @see         #getFd()
+     * @see         #setUsingNonblock(int)
+     */
+    public int setFd(SocketChannel sd) {
+
+        int ret = setFd(getSessionPtr(), sd, 3);
+
+        if (ret == WolfSSL.SSL_SUCCESS) {
+            this.channel = sd;
+            if (!sd.isBlocking())
+                setUsingNonblock(1);
+        }
+
+        return ret;
+    }
+
+    /**
+     * Assigns the file descriptor of a DatagramChannel as the input/output
+     * facility for the SSL connection.
+     * This can be used when using DatagramChannel objects with DTLS. The
+     * peer address still has to be set with <code>dtlsSetPeer()</code> if
+     * the channel is not connected.
+     * <p>
+     * If the channel is in non-blocking mode when this method is called,
+     * <code>setUsingNonblock(1)</code> is applied to the session as well.
+     *
+     * @param sd    DatagramChannel to be used as input/output facility.
+     * @return      <code>SSL_SUCCESS</code> on success, otherwise
+     *              <code>SSL_FAILURE</code>.
+     * @see         #getFd()
+     * @see         #dtlsSetPeer(InetSocketAddress)
+     */
+    public int setFd(DatagramChannel sd) {
+
+        int ret = setFd(getSessionPtr(), sd, 4);
+
+        if (ret == WolfSSL.SSL_SUCCESS && !sd.isBlocking())
+            setUsingNonblock(1);
+
+        return ret;
+    }
+
+    /**
+     * Enables or disables park-on-would-block mode for a session whose I/O
+     * facility was set with {@link #setFd(SocketChannel)}.
+     * <p>
+     * In this mode the channel is switched to non-blocking, so native
+     * wolfSSL calls never block inside <code>recv()</code> or
+     * <code>send()</code>. When <code>connect()</code>, <code>accept()
+     * </code>, <code>read()</code>, <code>write()</code>, <code>writeBulk()
+     * </code> or <code>shutdownSSL()</code> would block, the calling thread
+     * is parked until the channel is ready and the call is retried, so
+     * these methods keep their blocking semantics. Parking uses a shared
+     * selector thread and <code>LockSupport</code>, which frees the carrier
+     * thread of a virtual thread rather than pinning it in native code,
+     * allowing blocking-style code to run on large numbers of virtual
+     * threads.
+     * <p>
+     * Disabling the mode leaves the channel non-blocking; call
+     * <code>configureBlocking(true)</code> on it and
+     * <code>setUsingNonblock(0)</code> to return to native blocking I/O.
+     *
+     * @param park      <code>true</code> to enable, <code>false</code> to
+     *                  disable park-on-would-block mode
+     * @param timeoutMs maximum time to wait for the channel each time an
+     *                  operation would block, in milliseconds, or 0 to
+     *                  wait without limit. On timeout the would-block
+     *                  failure is returned to the caller.
+     * @return          <code>SSL_SUCCESS</code> on success,
+     *                  <code>BAD_FUNC_ARG</code> if no SocketChannel has
+     *                  been set with <code>setFd()</code>, or
+     *                  <code>SSL_FAILURE</code> if the channel could not be
+     *                  switched to non-blocking mode.
+     * @see             #setFd(SocketChannel)
+     * @see             #setUsingNonblock(int)
+     */
+    public int setParkOnWouldBlock(boolean park, long timeoutMs) {
+
+        if (this.channel == null || timeoutMs < 0)
+            return WolfSSL.BAD_FUNC_ARG;
+
+        if (park) {
+            try {
+                this.channel.configureBlocking(false);
+            } catch (IOException e) {
+                return WolfSSL.SSL_FAILURE;
+            }
+            setUsingNonblock(1);
+        }
+
+        this.parkOnWouldBlock = park;
+        this.parkTimeout = timeoutMs;
+
+        return WolfSSL.SSL_SUCCESS;
+    }
+
     /**
      * Informs wolfSSL session that the underlying I/O is non-blocking.
      * After an application creates a SSL session (native CYASSL object),
@@ -333,6 +673,7 @@ public class WolfSSLSession {
      */
     public void setUsingNonblock(int nonblock) {
         setUsingNonblock(getSessionPtr(), nonblock);
+        nonblocking = (nonblock != 0);
     }
 
     /**
@@ -398,7 +739,14 @@ public class WolfSSLSession {
      *              a more detailed error code, call <code>getError()</code>.
      */
     public int connect() {
-        return connect(getSessionPtr());
+
+        int ret;
+
+        do {
+            ret = connect(getSessionPtr());
+        } while (parkIfWouldBlock(ret));
+
+        return ret;
     }
 
     /**
@@ -418,10 +766,19 @@ public class WolfSSLSession {
      * If the underlying I/O is blocking, <code>write()</code> will only
      * return once the buffer <b>data</b> of size <b>length</b> has been
      * completely written or an error occurred.
+     * <p>
+     * Data larger than one record is sent as consecutive records, so when
+     * the underlying I/O is non-blocking <code>write()</code> may return a
+     * positive count smaller than <b>length</b>. The records counted have
+     * been handed to wolfSSL, and the application must call
+     * <code>write()</code> again with the remaining data, starting at
+     * <b>data</b> plus the returned count, once the I/O is ready.
      *
      * @param data      data buffer which will be sent to peer
      * @param length    size, in bytes, of data to send to the peer
-     * @return          the number of bytes written upon success. <code>0
+     * @return          the number of bytes written upon success, which may
+     *                  be less than <b>length</b> when using non-blocking
+     *                  I/O. <code>0
      *                  </code>will be returned upon failure. <code>
      *                  SSL_FATAL_ERROR</code>upon failure when either an 
      *                  error occurred or, when using non-blocking sockets, 
@@ -432,7 +789,48 @@ public class WolfSSLSession {
      *                  Use <code>getError</code> to get a specific error code.
      */
     public int write(byte[] data, int length) {
-        return write(getSessionPtr(), data, length);
+        return write(data, 0, length);
+    }
+
+    /**
+     * Write bytes from a region of a byte array to the SSL connection.
+     * Behaves like {@link #write(byte[], int)} on the <b>length</b> bytes
+     * of <b>data</b> starting at <b>offset</b>.
+     * <p>
+     * The array is pinned for the duration of the native call when the
+     * session is non-blocking and no Java callbacks are registered with
+     * this session or its context, so wolfSSL encrypts straight out of
+     * it. Otherwise the data is staged
+     * through a native buffer one record at a time. Data larger than one
+     * record is sent as consecutive records.
+     *
+     * @param data      data buffer which will be sent to peer
+     * @param offset    offset into <b>data</b> of the first byte to send
+     * @param length    size, in bytes, of data to send to the peer
+     * @return          the number of bytes written upon success, which may
+     *                  be less than <b>length</b> when using non-blocking
+     *                  I/O. <code>SSL_FATAL_ERROR</code> upon failure when
+     *                  either an error occurred or, when using non-blocking
+     *                  sockets, the <b>SSL_ERROR_WANT_READ</b> or
+     *                  <b>SSL_ERROR_WANT_WRITE</b> error was received and
+     *                  the application needs to call <code>write()</code>
+     *                  again. <code>BAD_FUNC_ARG</code> when bad arguments
+     *                  are used, including a region outside of
+     *                  <b>data</b>. Use <code>getError</code> to get a
+     *                  specific error code.
+     * @see             #write(byte[], int)
+     * @see             #read(byte[], int, int)
+     */
+    public int write(byte[] data, int offset, int length) {
+
+        int ret;
+
+        do {
+            ret = writeBulkArray(getSessionPtr(), data, offset, length,
+                    canPinArrays());
+        } while (parkIfWouldBlock(ret));
+
+        return ret;
     }
 
     /**
@@ -469,7 +867,534 @@ public class WolfSSLSession {
      *              <code>BAD_FUNC_ARC</code> when bad arguments are used.
      */
     public int read(byte[] data, int sz) {
-        return read(getSessionPtr(), data, sz);
+        return read(data, 0, sz);
+    }
+
+    /**
+     * Reads bytes from the SSL session into a region of a byte array.
+     * Behaves like {@link #read(byte[], int)}, placing at most
+     * <b>length</b> bytes into <b>data</b> starting at <b>offset</b>.
+     * <p>
+     * The array is pinned for the duration of the native call when the
+     * session is non-blocking and no Java callbacks are registered with
+     * this session or its context, so wolfSSL decrypts straight into it.
+     * Otherwise at most one record
+     * (16kB) is read per call through a native staging buffer.
+     *
+     * @param data      buffer where the data read from the SSL connection
+     *                  will be placed.
+     * @param offset    offset into <b>data</b> of the first byte to fill
+     * @param length    maximum number of bytes to read
+     * @return          the number of bytes read upon success. <code>
+     *                  SSL_FAILURE</code> will be returned upon failure
+     *                  which may be caused by either a clean (close notify
+     *                  alert) shutdown or just that the peer closed the
+     *                  connection. <code>SSL_FATAL_ERROR</code> upon
+     *                  failure when either an error occurred or, when using
+     *                  non-blocking sockets, the <b>SSL_ERROR_WANT_READ</b>
+     *                  or <b>SSL_ERROR_WANT_WRITE</b> error was received and
+     *                  the application needs to call <code>read()</code>
+     *                  again. <code>BAD_FUNC_ARG</code> when bad arguments
+     *                  are used, including a region outside of
+     *                  <b>data</b>. Use <code>getError</code> to get a
+     *                  specific error code.
+     * @see             #read(byte[], int)
+     * @see             #write(byte[], int, int)
+     */
+    public int read(byte[] data, int offset, int length) {
+
+        int ret;
+
+        do {
+            ret = readArray(getSessionPtr(), data, offset, length,
+                    canPinArrays());
+        } while (parkIfWouldBlock(ret));
+
+        return ret;
+    }
+
+    /**
+     * Write bytes from a ByteBuffer to the SSL connection.
+     * The bytes between the buffer's current position and its limit are
+     * sent to the peer, and the position is advanced by the number of bytes
+     * written.
+     * <p>
+     * Direct (and mapped) buffers are passed to wolfSSL by address, so the
+     * data is encrypted straight out of the caller's buffer without being
+     * copied through an intermediate Java or native array. Heap buffers
+     * are pinned for the duration of the native call when the session is
+     * non-blocking and no Java callbacks are registered with this session
+     * or its context, and are otherwise copied into a native staging
+     * buffer of at most 16kB per call.
+     * <p>
+     * Apart from the buffer handling, this method behaves like
+     * {@link #write(byte[], int)}, including the handling of non-blocking
+     * I/O and implicit handshaking. Read-only heap buffers are always
+     * staged through a temporary copy.
+     *
+     * @param data  buffer which will be sent to the peer, from position
+     *              up to limit
+     * @return      the number of bytes written upon success, which may be
+     *              less than <code>data.remaining()</code> when heap buffers
+     *              are staged. <code>SSL_FATAL_ERROR</code> upon failure
+     *              when either an error occurred or, when using
+     *              non-blocking sockets, the <b>SSL_ERROR_WANT_READ</b> or
+     *              <b>SSL_ERROR_WANT_WRITE</b> error was received and the
+     *              application needs to call <code>write()</code> again.
+     *              <code>BAD_FUNC_ARG</code> when bad arguments are used.
+     *              Use <code>getError</code> to get a specific error code.
+     * @see         #write(byte[], int)
+     * @see         #read(ByteBuffer)
+     */
+    public int write(ByteBuffer data) {
+
+        int ret;
+
+        do {
+            ret = writeBuffer(data);
+        } while (parkIfWouldBlock(ret));
+
+        return ret;
+    }
+
+    private int writeBuffer(ByteBuffer data) {
+
+        int ret;
+        int pos;
+
+        if (data == null)
+            return WolfSSL.BAD_FUNC_ARG;
+
+        pos = data.position();
+
+        if (data.isDirect()) {
+            ret = writeDirect(getSessionPtr(), data, pos, data.remaining());
+
+        } else if (data.hasArray()) {
+            ret = writeArray(getSessionPtr(), data.array(),
+                    data.arrayOffset() + pos, data.remaining(),
+                    canPinArrays());
+
+        } else {
+            /* read-only heap buffer, no access to backing array */
+            byte[] tmp = new byte[data.remaining()];
+            data.duplicate().get(tmp);
+            ret = writeArray(getSessionPtr(), tmp, 0, tmp.length,
+                    canPinArrays());
+        }
+
+        if (ret > 0)
+            data.position(pos + ret);
+
+        return ret;
+    }
+
+    /**
+     * Writes an arbitrarily large amount of data to the SSL connection in
+     * a single native call.
+     * The data is split natively into consecutive maximum-size (16kB)
+     * SSL/TLS records, so callers do not need to chunk large payloads
+     * themselves and pay a JNI transition per record.
+     * <p>
+     * If the underlying I/O is blocking, this method returns once all
+     * <b>length</b> bytes have been written or an error occurred.
+     * <p>
+     * When using non-blocking I/O, this method may return a short count.
+     * The return value is the number of bytes fully handed to wolfSSL
+     * before the underlying I/O would have blocked. The record that could
+     * not be completed stays pending inside wolfSSL, and the application
+     * should call <code>writeBulk()</code> again with the remaining data,
+     * starting at <code>offset</code> plus the returned count, once the
+     * I/O is ready. A later call then reports the
+     * <b>SSL_ERROR_WANT_WRITE</b> or <b>SSL_ERROR_WANT_READ</b> condition
+     * through <code>getError()</code> if no progress can be made.
+     *
+     * @param data      data buffer which will be sent to peer
+     * @param offset    offset into <b>data</b> of the first byte to send
+     * @param length    number of bytes to send to the peer
+     * @return          the number of bytes written upon success, which may
+     *                  be less than <b>length</b> when using non-blocking
+     *                  I/O. <code>SSL_FATAL_ERROR</code> if no data could
+     *                  be written, either because an error occurred or
+     *                  because the non-blocking I/O would block.
+     *                  <code>BAD_FUNC_ARG</code> when bad arguments are
+     *                  used. Use <code>getError</code> to get a specific
+     *                  error code.
+     * @see             #write(byte[], int)
+     * @see             #writeBulk(ByteBuffer)
+     */
+    public int writeBulk(byte[] data, int offset, int length) {
+
+        int ret;
+        int total = 0;
+
+        /* in park-on-would-block mode, behave like a blocking write */
+        do {
+            ret = writeBulkArray(getSessionPtr(), data, offset + total,
+                    length - total, canPinArrays());
+            if (ret > 0)
+                total += ret;
+        } while (ret > 0 ? (parkOnWouldBlock && total < length)
+                         : parkIfWouldBlock(ret));
+
+        return (total > 0) ? total : ret;
+    }
+
+    /**
+     * Writes all remaining bytes of a ByteBuffer to the SSL connection in
+     * a single native call.
+     * Behaves like {@link #writeBulk(byte[], int, int)} on the bytes between
+     * the buffer's position and limit. The position is advanced by the
+     * number of bytes written, so after a short write on non-blocking I/O
+     * the same buffer can simply be passed again.
+     *
+     * @param data  buffer which will be sent to the peer, from position
+     *              up to limit
+     * @return      the number of bytes written upon success, which may be
+     *              less than <code>data.remaining()</code> when using
+     *              non-blocking I/O. <code>SSL_FATAL_ERROR</code> if no data
+     *              could be written. <code>BAD_FUNC_ARG</code> when bad
+     *              arguments are used.
+     * @see         #writeBulk(byte[], int, int)
+     * @see         #write(ByteBuffer)
+     */
+    public int writeBulk(ByteBuffer data) {
+
+        int ret;
+        int total = 0;
+
+        /* in park-on-would-block mode, behave like a blocking write */
+        do {
+            ret = writeBulkBuffer(data);
+            if (ret > 0)
+                total += ret;
+        } while (ret > 0 ? (parkOnWouldBlock && data.hasRemaining())
+                         : parkIfWouldBlock(ret));
+
+        return (total > 0) ? total : ret;
+    }
+
+    private int writeBulkBuffer(ByteBuffer data) {
+
+        int ret;
+        int pos;
+
+        if (data == null)
+            return WolfSSL.BAD_FUNC_ARG;
+
+        pos = data.position();
+
+        if (data.isDirect()) {
+            ret = writeBulkDirect(getSessionPtr(), data, pos,
+                    data.remaining());
+
+        } else if (data.hasArray()) {
+            ret = writeBulkArray(getSessionPtr(), data.array(),
+                    data.arrayOffset() + pos, data.remaining(),
+                    canPinArrays());
+
+        } else {
+            /* read-only heap buffer, no access to backing array */
+            byte[] tmp = new byte[data.remaining()];
+            data.duplicate().get(tmp);
+            ret = writeBulkArray(getSessionPtr(), tmp, 0, tmp.length,
+                    canPinArrays());
+        }
+
+        if (ret > 0)
+            data.position(pos + ret);
+
+        return ret;
+    }
+
+    /**
+     * Gathering write of a sequence of ByteBuffers to the SSL connection.
+     * The remaining bytes of <code>srcs[offset]</code> through
+     * <code>srcs[offset + length - 1]</code> are treated as one contiguous
+     * stream and packed into as few maximum-size (16kB) SSL/TLS records as
+     * possible, all within a single native call. Writing a header, body
+     * and trailer this way produces one record instead of three, saving
+     * the per-record MAC/tag, header bytes and system call.
+     * <p>
+     * The position of each buffer is advanced by the number of bytes
+     * consumed from it. Partial progress on non-blocking I/O is reported
+     * the same way as {@link #writeBulk(byte[], int, int)}: a short count
+     * is returned, and the same buffers should be passed again once the
+     * I/O is ready. With {@link #setParkOnWouldBlock(boolean, long)}
+     * enabled, the call instead keeps writing until every buffer is empty.
+     * At most <code>Integer.MAX_VALUE</code> bytes are written per call.
+     *
+     * @param srcs      buffers from which bytes are to be sent
+     * @param offset    index of the first buffer in <b>srcs</b> to use
+     * @param length    number of buffers in <b>srcs</b> to use
+     * @return          the total number of bytes written upon success,
+     *                  which may be less than the bytes remaining when
+     *                  using non-blocking I/O. <code>SSL_FATAL_ERROR</code>
+     *                  if no data could be written. <code>BAD_FUNC_ARG
+     *                  </code> when bad arguments are used. Use
+     *                  <code>getError</code> to get a specific error code.
+     * @see             #write(ByteBuffer)
+     * @see             #writeBulk(ByteBuffer)
+     */
+    public int write(ByteBuffer[] srcs, int offset, int length) {
+
+        int ret;
+        int total = 0;
+        long remaining = 0;
+
+        if (srcs != null && offset >= 0 && length > 0 &&
+            offset <= srcs.length - length) {
+            for (int i = 0; i < length; i++) {
+                if (srcs[offset + i] != null)
+                    remaining += srcs[offset + i].remaining();
+            }
+            remaining = Math.min(remaining, Integer.MAX_VALUE);
+        }
+
+        /* in park-on-would-block mode, behave like a blocking write */
+        do {
+            ret = writeBuffers(srcs, offset, length);
+            if (ret > 0)
+                total += ret;
+        } while (ret > 0 ? (parkOnWouldBlock && total < remaining)
+                         : parkIfWouldBlock(ret));
+
+        return (total > 0) ? total : ret;
+    }
+
+    private int writeBuffers(ByteBuffer[] srcs, int offset, int length) {
+
+        int ret;
+        long total = 0;
+        Object[] bufs;
+        int[] offsets;
+        int[] lengths;
+
+        if (srcs == null || offset < 0 || length <= 0 ||
+            offset > srcs.length - length)
+            return WolfSSL.BAD_FUNC_ARG;
+
+        bufs    = new Object[length];
+        offsets = new int[length];
+        lengths = new int[length];
+
+        for (int i = 0; i < length; i++) {
+            ByteBuffer src = srcs[offset + i];
+            if (src == null)
+                return WolfSSL.BAD_FUNC_ARG;
+
+            lengths[i] = (int)Math.min(src.remaining(),
+                                       Integer.MAX_VALUE - total);
+            total += lengths[i];
+
+            if (src.isDirect()) {
+                bufs[i] = src;
+                offsets[i] = src.position();
+            } else if (src.hasArray()) {
+                bufs[i] = src.array();
+                offsets[i] = src.arrayOffset() + src.position();
+            } else {
+                /* read-only heap buffer, no access to backing array */
+                byte[] tmp = new byte[lengths[i]];
+                src.duplicate().get(tmp);
+                bufs[i] = tmp;
+                offsets[i] = 0;
+            }
+        }
+
+        ret = writeGather(getSessionPtr(), bufs, offsets, lengths);
+
+        /* advance buffer positions past the bytes consumed */
+        for (int i = 0, left = ret; i < length && left > 0; i++) {
+            int n = Math.min(left, lengths[i]);
+            ByteBuffer src = srcs[offset + i];
+            src.position(src.position() + n);
+            left -= n;
+        }
+
+        return ret;
+    }
+
+    /**
+     * Reads bytes from the SSL session into a ByteBuffer.
+     * Decrypted data is placed into the buffer starting at its current
+     * position, up to its limit, and the position is advanced by the
+     * number of bytes read.
+     * <p>
+     * Direct (and mapped) buffers are passed to wolfSSL by address, so
+     * wolfSSL decrypts straight into the caller's buffer. Heap buffers are
+     * pinned for the duration of the native call when the session is
+     * non-blocking and no Java callbacks are registered with this session
+     * or its context, and are otherwise filled from a native staging
+     * buffer of at most 16kB per call.
+     * <p>
+     * Apart from the buffer handling, this method behaves like
+     * {@link #read(byte[], int)}.
+     *
+     * @param data  buffer where the data read from the SSL connection will
+     *              be placed, from position up to limit
+     * @return      the number of bytes read upon success. <code>SSL_FAILURE
+     *              </code> will be returned upon failure which may be caused
+     *              by either a clean (close notify alert) shutdown or just
+     *              that the peer closed the connection. <code>
+     *              SSL_FATAL_ERROR</code> upon failure when either an error
+     *              occurred or, when using non-blocking sockets, the
+     *              <b>SSL_ERROR_WANT_READ</b> or <b>SSL_ERROR_WANT_WRITE</b>
+     *              error was received and the application needs to call
+     *              <code>read()</code> again. <code>BAD_FUNC_ARG</code> when
+     *              bad arguments are used, including a read-only buffer.
+     * @see         #read(byte[], int)
+     * @see         #write(ByteBuffer)
+     */
+    public int read(ByteBuffer data) {
+
+        int ret;
+
+        do {
+            ret = readBuffer(data);
+        } while (parkIfWouldBlock(ret));
+
+        return ret;
+    }
+
+    private int readBuffer(ByteBuffer data) {
+
+        int ret;
+        int pos;
+
+        if (data == null || data.isReadOnly())
+            return WolfSSL.BAD_FUNC_ARG;
+
+        pos = data.position();
+
+        if (data.isDirect()) {
+            ret = readDirect(getSessionPtr(), data, pos, data.remaining());
+        } else {
+            ret = readArray(getSessionPtr(), data.array(),
+                    data.arrayOffset() + pos, data.remaining(),
+                    canPinArrays());
+        }
+
+        if (ret > 0)
+            data.position(pos + ret);
+
+        return ret;
+    }
+
+    /**
+     * Scattering read from the SSL session into a sequence of ByteBuffers.
+     * Decrypted data fills <code>dsts[offset]</code> through
+     * <code>dsts[offset + length - 1]</code> in order, each from its
+     * position up to its limit, and each position is advanced by the number
+     * of bytes placed in that buffer.
+     * <p>
+     * The first record is read the same way <code>read()</code> would,
+     * waiting on blocking I/O if nothing is available yet. After that,
+     * all data that wolfSSL already has buffered is drained in the same
+     * native call: on blocking I/O as long as <code>pending()</code>
+     * reports decrypted data, and on non-blocking I/O until wolfSSL would
+     * block. Once some data has been read, an error or would-block
+     * condition is not returned but is reported by the next call.
+     *
+     * @param dsts      buffers into which decrypted data is placed
+     * @param offset    index of the first buffer in <b>dsts</b> to use
+     * @param length    number of buffers in <b>dsts</b> to use
+     * @return          the total number of bytes read upon success.
+     *                  Otherwise the same failure values as
+     *                  {@link #read(byte[], int)}, or <code>BAD_FUNC_ARG
+     *                  </code> when bad arguments are used, including a
+     *                  read-only buffer.
+     * @see             #read(ByteBuffer)
+     * @see             #pending()
+     */
+    public int read(ByteBuffer[] dsts, int offset, int length) {
+
+        int ret;
+
+        do {
+            ret = readBuffers(dsts, offset, length);
+        } while (parkIfWouldBlock(ret));
+
+        return ret;
+    }
+
+    private int readBuffers(ByteBuffer[] dsts, int offset, int length) {
+
+        int ret;
+        long total = 0;
+        Object[] bufs;
+        int[] offsets;
+        int[] lengths;
+
+        if (dsts == null || offset < 0 || length <= 0 ||
+            offset > dsts.length - length)
+            return WolfSSL.BAD_FUNC_ARG;
+
+        bufs    = new Object[length];
+        offsets = new int[length];
+        lengths = new int[length];
+
+        for (int i = 0; i < length; i++) {
+            ByteBuffer dst = dsts[offset + i];
+            if (dst == null || dst.isReadOnly())
+                return WolfSSL.BAD_FUNC_ARG;
+
+            lengths[i] = (int)Math.min(dst.remaining(),
+                                       Integer.MAX_VALUE - total);
+            total += lengths[i];
+
+            if (dst.isDirect()) {
+                bufs[i] = dst;
+                offsets[i] = dst.position();
+            } else {
+                bufs[i] = dst.array();
+                offsets[i] = dst.arrayOffset() + dst.position();
+            }
+        }
+
+        ret = readScatter(getSessionPtr(), bufs, offsets, lengths);
+
+        /* advance buffer positions past the bytes placed in them */
+        for (int i = 0, left = ret; i < length && left > 0; i++) {
+            int n = Math.min(left, lengths[i]);
+            ByteBuffer dst = dsts[offset + i];
+            dst.position(dst.position() + n);
+            left -= n;
+        }
+
+        return ret;
+    }
+
+    /**
+     * Scattering read from the SSL session into all of the given
+     * ByteBuffers.
+     * Equivalent to <code>read(dsts, 0, dsts.length)</code>.
+     *
+     * @param dsts  buffers into which decrypted data is placed
+     * @return      the total number of bytes read upon success, otherwise
+     *              the failure values of
+     *              {@link #read(ByteBuffer[], int, int)}.
+     * @see         #read(ByteBuffer[], int, int)
+     */
+    public int read(ByteBuffer[] dsts) {
+        if (dsts == null)
+            return WolfSSL.BAD_FUNC_ARG;
+
+        return read(dsts, 0, dsts.length);
+    }
+
+    /**
+     * Returns the number of bytes which are buffered and available in the
+     * SSL session for immediate reading.
+     * This is the decrypted data left over from the most recently processed
+     * record, which a following <code>read()</code> returns without touching
+     * the underlying I/O.
+     *
+     * @return      the number of bytes pending
+     * @see         #read(ByteBuffer[])
+     */
+    public int pending() {
+        return pending(getSessionPtr());
     }
 
     /**
@@ -498,24 +1423,75 @@ public class WolfSSLSession {
      * @see         #connect()
      */
     public int accept() {
-        return accept(getSessionPtr());
+
+        int ret;
+
+        do {
+            ret = accept(getSessionPtr());
+        } while (parkIfWouldBlock(ret));
+
+        return ret;
     }
 
     /**
      * Frees an allocated SSL session.
+     * Calling this method again after the session has been freed has no
+     * effect.
      *
      * @see         WolfSSLContext#newContext(long)
      * @see         WolfSSLContext#free()
      */
     public void freeSSL() {
 
-        /* free native resources */
-        freeSSL(getSessionPtr());
+        /* free native resources, only once */
+        if (!resource.free())
+            return;
+        this.sslPtr = 0;
+        this.memStatsPtr = 0;
+
+        if (this.parkOnWouldBlock) {
+            try {
+                WolfSSLPoller.getInstance().deregister(this.channel);
+            } catch (IOException e) {
+                /* poller never started, nothing registered */
+            }
+        }
 
         /* free Java resources */
         this.active = false;
     }
 
+    /**
+     * Frees an allocated SSL session, same as {@link #freeSSL()}.
+     * Allows sessions to be used in try-with-resources statements.
+     * This does not send a close notify alert to the peer, call
+     * {@link #shutdownSSL()} first for that.
+     */
+    public void close() {
+        freeSSL();
+    }
+
+    /**
+     * Returns the native heap charged to this session.
+     * Memory allocated by wolfSSL while a method of this session runs is
+     * charged to it, including the session's I/O buffers and handshake
+     * state. Memory allocated before the session was freed stays counted
+     * until wolfSSL frees it, but can no longer be read here.
+     *
+     * @return  snapshot of this session's native memory use, or null if
+     *          the session has been freed or its counters could not be
+     *          allocated
+     * @see     WolfSSL#getNativeMemoryStats()
+     */
+    public WolfSSLMemoryStats getNativeMemoryStats() {
+        long stats = this.memStatsPtr;
+
+        if (stats == 0)
+            return null;
+
+        return WolfSSL.getMemoryStats(stats);
+    }
+
     /**
      * Shuts down the active SSL/TLS connection using the SSL session.
      * This function will try to send a "close notify" alert to the peer.
@@ -543,7 +1519,14 @@ public class WolfSSLSession {
      * @see         WolfSSLContext#free()
      */
     public int shutdownSSL() {
-        return shutdownSSL(getSessionPtr());
+
+        int ret;
+
+        do {
+            ret = shutdownSSL(getSessionPtr());
+        } while (parkIfWouldBlock(ret));
+
+        return ret;
     }
 
     /**
@@ -567,6 +1550,257 @@ public class WolfSSLSession {
         return getError(getSessionPtr(), ret);
     }
 
+    /**
+     * Returns the return value held in a status returned by
+     * {@link #connectStatus()}, {@link #acceptStatus()},
+     * <code>readStatus()</code> or <code>writeStatus()</code>.
+     *
+     * @param status    status returned by one of the status methods
+     * @return          the value the matching <code>connect()</code>,
+     *                  <code>accept()</code>, <code>read()</code> or
+     *                  <code>write()</code> call would have returned
+     * @see             #statusError(long)
+     */
+    public static int statusReturn(long status) {
+        return (int)(status >> 32);
+    }
+
+    /**
+     * Returns the error code held in a status returned by
+     * {@link #connectStatus()}, {@link #acceptStatus()},
+     * <code>readStatus()</code> or <code>writeStatus()</code>.
+     *
+     * @param status    status returned by one of the status methods
+     * @return          <code>SSL_ERROR_NONE</code> if the call succeeded,
+     *                  otherwise the code <code>getError()</code> would
+     *                  have returned for it, such as
+     *                  <b>SSL_ERROR_WANT_READ</b>,
+     *                  <b>SSL_ERROR_WANT_WRITE</b> or
+     *                  <b>SSL_ERROR_ZERO_RETURN</b>. Argument errors such
+     *                  as <code>BAD_FUNC_ARG</code> are reported as is.
+     * @see             #statusReturn(long)
+     */
+    public static int statusError(long status) {
+        return (int)status;
+    }
+
+    /**
+     * Same as {@link #connect()}, but also returns the error code that
+     * <code>getError()</code> would report, without a second call into
+     * the native library. Intended for non-blocking event loops, which
+     * otherwise call <code>getError()</code> after every would-block
+     * return.
+     *
+     * @return      the return value and error code of the
+     *              <code>connect()</code> call, packed into one long.
+     *              Use {@link #statusReturn(long)} and
+     *              {@link #statusError(long)} to unpack them.
+     * @see         #connect()
+     */
+    public long connectStatus() {
+
+        long status;
+
+        do {
+            status = connectStatus(getSessionPtr());
+        } while (parkIfWouldBlock(status));
+
+        return status;
+    }
+
+    /**
+     * Same as {@link #accept()}, but also returns the error code that
+     * <code>getError()</code> would report, without a second call into
+     * the native library.
+     *
+     * @return      the return value and error code of the
+     *              <code>accept()</code> call, packed into one long.
+     *              Use {@link #statusReturn(long)} and
+     *              {@link #statusError(long)} to unpack them.
+     * @see         #accept()
+     * @see         #connectStatus()
+     */
+    public long acceptStatus() {
+
+        long status;
+
+        do {
+            status = acceptStatus(getSessionPtr());
+        } while (parkIfWouldBlock(status));
+
+        return status;
+    }
+
+    /**
+     * Same as {@link #read(byte[], int, int)}, but also returns the error
+     * code that <code>getError()</code> would report, without a second
+     * call into the native library.
+     *
+     * @param data      buffer where the data read from the SSL connection
+     *                  will be placed.
+     * @param offset    offset into <b>data</b> of the first byte to fill
+     * @param length    maximum number of bytes to read
+     * @return          the return value and error code of the
+     *                  <code>read()</code> call, packed into one long.
+     *                  Use {@link #statusReturn(long)} and
+     *                  {@link #statusError(long)} to unpack them.
+     * @see             #read(byte[], int, int)
+     * @see             #connectStatus()
+     */
+    public long readStatus(byte[] data, int offset, int length) {
+
+        long status;
+
+        do {
+            status = readArrayStatus(getSessionPtr(), data, offset, length,
+                    canPinArrays());
+        } while (parkIfWouldBlock(status));
+
+        return status;
+    }
+
+    /**
+     * Same as {@link #write(byte[], int, int)}, but also returns the error
+     * code that <code>getError()</code> would report, without a second
+     * call into the native library.
+     *
+     * @param data      data buffer which will be sent to peer
+     * @param offset    offset into <b>data</b> of the first byte to send
+     * @param length    size, in bytes, of data to send to the peer
+     * @return          the return value and error code of the
+     *                  <code>write()</code> call, packed into one long.
+     *                  Use {@link #statusReturn(long)} and
+     *                  {@link #statusError(long)} to unpack them.
+     * @see             #write(byte[], int, int)
+     * @see             #connectStatus()
+     */
+    public long writeStatus(byte[] data, int offset, int length) {
+
+        long status;
+
+        do {
+            status = writeBulkArrayStatus(getSessionPtr(), data, offset,
+                    length, canPinArrays());
+        } while (parkIfWouldBlock(status));
+
+        return status;
+    }
+
+    /**
+     * Same as {@link #read(ByteBuffer)}, but also returns the error code
+     * that <code>getError()</code> would report, without a second call
+     * into the native library. The buffer position is advanced by the
+     * number of bytes read.
+     *
+     * @param data  buffer into which decrypted data is placed, from
+     *              position up to limit
+     * @return      the return value and error code of the
+     *              <code>read()</code> call, packed into one long.
+     *              Use {@link #statusReturn(long)} and
+     *              {@link #statusError(long)} to unpack them.
+     * @see         #read(ByteBuffer)
+     * @see         #connectStatus()
+     */
+    public long readStatus(ByteBuffer data) {
+
+        long status;
+
+        do {
+            status = readBufferStatus(data);
+        } while (parkIfWouldBlock(status));
+
+        return status;
+    }
+
+    private long readBufferStatus(ByteBuffer data) {
+
+        long status;
+        int pos;
+
+        if (data == null || data.isReadOnly())
+            return makeStatus(WolfSSL.BAD_FUNC_ARG);
+
+        pos = data.position();
+
+        if (data.isDirect()) {
+            status = readDirectStatus(getSessionPtr(), data, pos,
+                    data.remaining());
+        } else {
+            status = readArrayStatus(getSessionPtr(), data.array(),
+                    data.arrayOffset() + pos, data.remaining(),
+                    canPinArrays());
+        }
+
+        if (statusReturn(status) > 0)
+            data.position(pos + statusReturn(status));
+
+        return status;
+    }
+
+    /**
+     * Same as {@link #write(ByteBuffer)}, but also returns the error code
+     * that <code>getError()</code> would report, without a second call
+     * into the native library. The buffer position is advanced by the
+     * number of bytes written.
+     *
+     * @param data  buffer which will be sent to the peer, from position
+     *              up to limit
+     * @return      the return value and error code of the
+     *              <code>write()</code> call, packed into one long.
+     *              Use {@link #statusReturn(long)} and
+     *              {@link #statusError(long)} to unpack them.
+     * @see         #write(ByteBuffer)
+     * @see         #connectStatus()
+     */
+    public long writeStatus(ByteBuffer data) {
+
+        long status;
+
+        do {
+            status = writeBufferStatus(data);
+        } while (parkIfWouldBlock(status));
+
+        return status;
+    }
+
+    private long writeBufferStatus(ByteBuffer data) {
+
+        long status;
+        int pos;
+
+        if (data == null)
+            return makeStatus(WolfSSL.BAD_FUNC_ARG);
+
+        pos = data.position();
+
+        if (data.isDirect()) {
+            status = writeDirectStatus(getSessionPtr(), data, pos,
+                    data.remaining());
+
+        } else if (data.hasArray()) {
+            status = writeArrayStatus(getSessionPtr(), data.array(),
+                    data.arrayOffset() + pos, data.remaining(),
+                    canPinArrays());
+
+        } else {
+            /* read-only heap buffer, no access to backing array */
+            byte[] tmp = new byte[data.remaining()];
+            data.duplicate().get(tmp);
+            status = writeArrayStatus(getSessionPtr(), tmp, 0, tmp.length,
+                    canPinArrays());
+        }
+
+        if (statusReturn(status) > 0)
+            data.position(pos + statusReturn(status));
+
+        return status;
+    }
+
+    /* packs an argument error the same way the native status methods do */
+    private static long makeStatus(int err) {
+        return ((long)err << 32) | (err & 0xFFFFFFFFL);
+    }
+
     /**
      * Sets the session to be used when the SSL object is used to create
      * a SSL/TLS connection.
@@ -641,6 +1875,24 @@ public class WolfSSLSession {
         return setCipherList(getSessionPtr(), list);
     }
 
+    /**
+     * Sets the lowest protocol version this session will negotiate.
+     * Only useful with the SSLv23 methods, which otherwise accept any
+     * version the native library was built with. The handshake fails if
+     * the peer only supports older versions.
+     *
+     * @param version   lowest version to accept, one of
+     *                  <code>CYASSL_SSLV3</code>, <code>CYASSL_TLSV1
+     *                  </code>, <code>CYASSL_TLSV1_1</code> or <code>
+     *                  CYASSL_TLSV1_2</code>
+     * @return          <code>SSL_SUCCESS</code> upon success. <code>
+     *                  BAD_FUNC_ARG</code> if the version is not valid or
+     *                  not supported by the native library.
+     */
+    public int setMinVersion(int version) {
+        return setMinVersion(getSessionPtr(), version);
+    }
+
     
     /* ---------------- Nonblocking DTLS helper functions  -------------- */
 
@@ -761,6 +2013,20 @@ public class WolfSSLSession {
         return getPeerCertificate(getSessionPtr());
     }
 
+    /**
+     * Returns the certificate chain sent by the peer, DER encoded.
+     * The first certificate is the peer's own, followed by the rest of
+     * the chain in the order the peer sent it.
+     *
+     * @return      DER encoded certificates, or <b>null</b> if the peer sent
+     *              none or the native library was compiled without
+     *              SESSION_CERTS.
+     * @see         WolfSSLSession#getPeerCertificate()
+     */
+    public byte[][] getPeerCertChain() {
+        return getPeerCertChain(getSessionPtr());
+    }
+
     /**
      * Gets the peer X509 certificate's issuer information.
      *
@@ -1017,7 +2283,120 @@ public class WolfSSLSession {
      */ 
     public void setIOReadCtx(Object ctx) {
         ioReadCtx = ctx;
-        setIOReadCtx(getSessionPtr());
+        /* the previous native context is freed */
+        synchronized (resource) {
+            setIOReadCtx(getSessionPtr());
+        }
+    }
+
+    /**
+     * Enables read-ahead for the SSL session's receive callback.
+     * Without read-ahead, wolfSSL calls the Java receive callback at least
+     * twice per record, once for the record header and once for the body.
+     * With read-ahead enabled, the native layer asks the callback for up
+     * to <b>size</b> bytes at a time and serves wolfSSL's reads from that
+     * buffer, so bulk transfers need well under one callback per record.
+     * A size of 32768 is a reasonable choice for TLS.
+     * <p>
+     * Read-ahead applies to callbacks registered with
+     * <code>WolfSSLContext.setIORecv()</code> and requires a receive
+     * context to have been registered with <code>setIOReadCtx()</code>
+     * first. It is meant for stream transports, not DTLS. Applications
+     * which wait for their transport to become readable before calling
+     * <code>read()</code> should first check
+     * <code>getIOReadAheadPending()</code>, since a whole record may
+     * already be buffered.
+     *
+     * @param size  size of the read-ahead buffer in bytes, or 0 to disable
+     *              read-ahead.
+     * @return      <b><code>SSL_SUCCESS</code></b> on success,
+     *              <b><code>BAD_FUNC_ARG</code></b> if <b>size</b> is
+     *              negative or smaller than the data already read ahead, or
+     *              if no receive context has been registered, and
+     *              <b><code>MEMORY_E</code></b> if the buffer can't be
+     *              allocated.
+     * @see         #getIOReadAheadPending()
+     * @see         #releaseIOBuffers()
+     * @see         #setIOReadCtx(Object)
+     * @see         WolfSSLContext#setIORecv(WolfSSLIORecvCallback)
+     */
+    public int setIOReadAhead(int size) {
+        synchronized (resource) {
+            return setIOReadAhead(getSessionPtr(), size);
+        }
+    }
+
+    /**
+     * Returns the number of bytes the receive callback has returned that
+     * wolfSSL has not yet consumed.
+     *
+     * @return      number of bytes held in the read-ahead buffer, 0 if
+     *              read-ahead is disabled.
+     * @see         #setIOReadAhead(int)
+     */
+    public int getIOReadAheadPending() {
+        return getIOReadAheadPending(getSessionPtr());
+    }
+
+    /* true while a read-ahead buffer is allocated */
+    boolean hasIOReadAheadBuffer() {
+        return hasIOReadAheadBuffer(getSessionPtr());
+    }
+
+    /**
+     * Releases the session's read-ahead buffer while it holds no data.
+     * Connections that stay open but idle for long periods, such as
+     * keep-alive connections, can call this between requests so that an
+     * idle session keeps no read-ahead buffer allocated. The buffer is
+     * allocated again by the next read, and read-ahead stays enabled.
+     * <p>
+     * This only has an effect on sessions using read-ahead, enabled with
+     * <code>setIOReadAhead()</code>. On any other session, including
+     * sessions bound with <code>setFd()</code>, nothing is released and
+     * <b><code>SSL_SUCCESS</code></b> is returned. Buffers used by wolfSSL
+     * itself for record processing are managed by the native library and
+     * are not affected.
+     *
+     * @return      <b><code>SSL_SUCCESS</code></b> if the buffer was
+     *              released or none was held,
+     *              <b><code>SSL_FAILURE</code></b> if data read ahead has
+     *              not yet been consumed or a read is in progress, and
+     *              <b><code>BAD_FUNC_ARG</code></b> if the session has
+     *              been freed.
+     * @see         #setIOReadAhead(int)
+     * @see         #setIOBufferIdleRelease(int)
+     */
+    public int releaseIOBuffers() {
+        synchronized (resource) {
+            return releaseIOBuffers(getSessionPtr(), false);
+        }
+    }
+
+    /**
+     * Releases the session's read-ahead buffer automatically while idle.
+     * Once enabled, a background thread releases the buffer, as
+     * <code>releaseIOBuffers()</code> does, after the session has had
+     * no reads for between <b>idleMs</b> and twice that many milliseconds.
+     * The check costs one native call per session per idle period, and
+     * nothing on the read path. As with <code>releaseIOBuffers()</code>,
+     * only sessions using <code>setIOReadAhead()</code> hold a buffer that
+     * can be released, on other sessions the check does nothing.
+     *
+     * @param idleMs    idle time in milliseconds after which the buffer
+     *                  is released, or 0 to disable automatic release.
+     * @return          <b><code>SSL_SUCCESS</code></b> on success, or
+     *                  <b><code>BAD_FUNC_ARG</code></b> if <b>idleMs</b>
+     *                  is negative.
+     * @see             #releaseIOBuffers()
+     */
+    public int setIOBufferIdleRelease(int idleMs) {
+
+        if (idleMs < 0)
+            return WolfSSL.BAD_FUNC_ARG;
+
+        WolfSSLIdleSweeper.register(resource, idleMs);
+
+        return WolfSSL.SSL_SUCCESS;
     }
 
     /**
@@ -1160,6 +2539,7 @@ public class WolfSSLSession {
      * @see             WolfSSLContext#setCRLCb(WolfSSLMissingCRLCallback)
      */
     public int setCRLCb(WolfSSLMissingCRLCallback cb) {
+        internCRLCb = cb;
         return setCRLCb(getSessionPtr(), cb);
     }
     
@@ -0,0 +1,216 @@
+/* WolfSSLSessionPool.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.wolfssl;
+
+import java.util.ArrayDeque;
+
+import com.wolfssl.WolfSSLException;
+
+/**
+ * Pool of reusable WolfSSLSession objects created from one context.
+ * <p>
+ * Sessions handed back with {@link #release(WolfSSLSession)} are reset
+ * and kept for a later {@link #acquire()}, instead of being freed. A
+ * reset session behaves like one just created from the context: it has
+ * no file descriptor, channel or callback contexts, and must be bound to
+ * the next connection with <code>setFd()</code> or
+ * <code>setIOReadCtx()</code>/<code>setIOWriteCtx()</code> as usual.
+ * Reuse saves the Java object and the internal JNI state of the session,
+ * including its global references and read-ahead buffer. The native
+ * CYASSL object itself is not reused: resetting a session still frees it
+ * with <code>CyaSSL_free()</code> and creates a new one with
+ * <code>CyaSSL_new()</code>, so the per-connection native allocations
+ * remain.
+ * <p>
+ * The pool keeps at most <b>maxSize</b> idle sessions, and frees those
+ * that stay idle longer than <b>maxIdle</b> milliseconds. Idle sessions
+ * are checked whenever a session is acquired or released. All methods
+ * may be called from any thread.
+ *
+ * @author  wolfSSL
+ * @version 1.0, August 2013
+ */
+public class WolfSSLSessionPool implements AutoCloseable {
+
+    /* idle session and when it was released */
+    private static class Entry {
+        final WolfSSLSession ssl;
+        final long released;
+
+        Entry(WolfSSLSession ssl, long released) {
+            this.ssl = ssl;
+            this.released = released;
+        }
+    }
+
+    private final WolfSSLContext ctx;
+    private final int maxSize;
+    private final long maxIdle;
+
+    /* most recently released first */
+    private final ArrayDeque<Entry> idle = new ArrayDeque<Entry>();
+    private boolean closed = false;
+
+    /* sessions being reset by release(), counted against maxSize */
+    private int resetting = 0;
+
+    /**
+     * Creates a session pool for the given context.
+     *
+     * @param ctx       context sessions are created from
+     * @param maxSize   maximum number of idle sessions kept
+     * @param maxIdle   milliseconds an idle session is kept before it is
+     *                  freed, or 0 to keep idle sessions without limit
+     * @throws IllegalArgumentException if <b>ctx</b> is null, or
+     *                  <b>maxSize</b> or <b>maxIdle</b> is negative
+     */
+    public WolfSSLSessionPool(WolfSSLContext ctx, int maxSize,
+            long maxIdle) {
+
+        if (ctx == null || maxSize < 0 || maxIdle < 0)
+            throw new IllegalArgumentException("Bad session pool argument");
+
+        this.ctx = ctx;
+        this.maxSize = maxSize;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Returns an idle session from the pool, or a new session if there is
+     * none.
+     *
+     * @return      session ready to be bound to a new connection
+     * @throws com.wolfssl.WolfSSLException if a new session could not be
+     *              created
+     * @see         #release(WolfSSLSession)
+     */
+    public WolfSSLSession acquire() throws WolfSSLException {
+
+        Entry e;
+
+        synchronized (this) {
+            expire(System.currentTimeMillis());
+            e = idle.pollFirst();
+        }
+
+        if (e != null)
+            return e.ssl;
+
+        return new WolfSSLSession(ctx);
+    }
+
+    /**
+     * Hands a session back to the pool once its connection is finished.
+     * The session is reset for reuse, or freed if the pool is full or
+     * closed, or if the session can not be reused. The caller must not
+     * use the session afterwards.
+     * <p>
+     * Call <code>shutdownSSL()</code> first if the peer should receive a
+     * close notify alert.
+     *
+     * @param ssl   session acquired from this pool
+     * @see         #acquire()
+     */
+    public void release(WolfSSLSession ssl) {
+
+        long now;
+        boolean keep;
+
+        if (ssl == null)
+            return;
+
+        if (ssl.getAssociatedContextPtr() != ctx) {
+            ssl.freeSSL();
+            return;
+        }
+
+        /* don't pay for a reset the pool has no room to keep */
+        synchronized (this) {
+            expire(System.currentTimeMillis());
+            keep = !closed && idle.size() + resetting < maxSize;
+            if (keep)
+                resetting++;
+        }
+
+        if (!keep) {
+            ssl.freeSSL();
+            return;
+        }
+
+        if (!ssl.recycle()) {
+            synchronized (this) {
+                resetting--;
+            }
+            ssl.freeSSL();
+            return;
+        }
+
+        now = System.currentTimeMillis();
+
+        synchronized (this) {
+            resetting--;
+            if (!closed) {
+                idle.addFirst(new Entry(ssl, now));
+                return;
+            }
+        }
+
+        ssl.freeSSL();
+    }
+
+    /**
+     * Returns the number of idle sessions currently held by the pool.
+     *
+     * @return  number of idle sessions
+     */
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Frees all idle sessions. Sessions released afterwards are freed
+     * instead of being kept.
+     */
+    public synchronized void close() {
+
+        Entry e;
+
+        closed = true;
+        while ((e = idle.pollFirst()) != null)
+            e.ssl.freeSSL();
+    }
+
+    /* frees sessions idle for longer than maxIdle, oldest are last */
+    private void expire(long now) {
+
+        Entry e;
+
+        if (maxIdle == 0)
+            return;
+
+        while ((e = idle.peekLast()) != null && now - e.released > maxIdle) {
+            idle.pollLast();
+            e.ssl.freeSSL();
+        }
+    }
+}
+
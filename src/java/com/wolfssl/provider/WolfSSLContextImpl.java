@@ -0,0 +1,667 @@
+/* WolfSSLContextImpl.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.wolfssl.provider;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.security.KeyManagementException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509KeyManager;
+import javax.net.ssl.X509TrustManager;
+
+import com.wolfssl.WolfSSL;
+import com.wolfssl.WolfSSLContext;
+import com.wolfssl.WolfSSLEngine;
+import com.wolfssl.WolfSSLException;
+import com.wolfssl.WolfSSLSession;
+import com.wolfssl.WolfSSLVerifyCallback;
+
+/**
+ * SSLContext implementation backed by native wolfSSL contexts.
+ * <p>
+ * Key material from the first X509KeyManager and trust anchors from the
+ * first X509TrustManager are loaded into a WolfSSLContext, created on
+ * first use for each combination of role (client or server), protocol
+ * version method and I/O model (sockets or engines). Certificate
+ * verification then happens inside wolfSSL during the handshake.
+ * <p>
+ * A trust manager that returns no accepted issuers cannot be expressed as
+ * wolfSSL trust anchors. In that case wolfSSL does not verify the peer,
+ * and the trust manager is called with the peer certificate chain once the
+ * handshake has completed instead. Servers still request a client
+ * certificate if client authentication is needed or wanted, accepting it
+ * during the handshake and leaving the decision to the trust manager.
+ * <p>
+ * The "HTTPS" endpoint identification algorithm is supported through
+ * <code>SSLParameters</code>, checking the server certificate against
+ * the peer host once the handshake has completed.
+ * <p>
+ * The SecureRandom passed to <code>init()</code> is ignored, wolfSSL uses
+ * its own random number generator.
+ *
+ * @author  wolfSSL
+ * @version 1.0, August 2013
+ */
+public class WolfSSLContextImpl extends SSLContextSpi {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /* accepts any peer certificate during the handshake, used when there
+     * are no native trust anchors and the trust manager runs afterwards */
+    private static final WolfSSLVerifyCallback DEFER_TO_TRUST_MANAGER =
+        new WolfSSLVerifyCallback() {
+            public int verifyCallback(int preverify_ok, long x509StorePtr) {
+                return 1;
+            }
+        };
+
+    private final String[] protocols;
+
+    private X509KeyManager km = null;
+    private X509TrustManager tm = null;
+
+    /* true if tm returned trust anchors that were loaded into wolfSSL */
+    private boolean nativeVerify = false;
+    private boolean initialized = false;
+
+    /* native contexts, keyed by role, I/O model and method */
+    private final Map<String, WolfSSLContext> contexts =
+        new HashMap<String, WolfSSLContext>();
+
+    /* local certificate chains, as loaded for each role */
+    private X509Certificate[] clientChain = null;
+    private X509Certificate[] serverChain = null;
+
+    private final WolfSSLSessionContextImpl clientSessions =
+        new WolfSSLSessionContextImpl();
+    private final WolfSSLSessionContextImpl serverSessions =
+        new WolfSSLSessionContextImpl();
+
+    protected WolfSSLContextImpl(String[] protocols) {
+        WolfSSLProvider.initLibrary();
+        this.protocols = protocols;
+    }
+
+    /** SSLContext "TLS", negotiating TLS 1.0 through TLS 1.2 */
+    public static final class TLS extends WolfSSLContextImpl {
+        public TLS() {
+            super(WolfSSLParameters.PROTOCOLS);
+        }
+    }
+
+    /** SSLContext "TLSv1" */
+    public static final class TLSv1 extends WolfSSLContextImpl {
+        public TLSv1() {
+            super(new String[] { "TLSv1" });
+        }
+    }
+
+    /** SSLContext "TLSv1.1" */
+    public static final class TLSv11 extends WolfSSLContextImpl {
+        public TLSv11() {
+            super(new String[] { "TLSv1.1" });
+        }
+    }
+
+    /** SSLContext "TLSv1.2" */
+    public static final class TLSv12 extends WolfSSLContextImpl {
+        public TLSv12() {
+            super(new String[] { "TLSv1.2" });
+        }
+    }
+
+    /**
+     * SSLContext "Default", initialized with the platform default trust
+     * anchors and no key material.
+     */
+    public static final class Default extends WolfSSLContextImpl {
+
+        public Default() throws KeyManagementException {
+            super(WolfSSLParameters.PROTOCOLS);
+            init(null, null);
+        }
+
+        @Override
+        protected void engineInit(KeyManager[] km, TrustManager[] tm,
+                SecureRandom sr) throws KeyManagementException {
+            throw new KeyManagementException(
+                    "Default SSLContext is initialized automatically");
+        }
+    }
+
+    /* ------------------------ SSLContextSpi --------------------------- */
+
+    @Override
+    protected void engineInit(KeyManager[] km, TrustManager[] tm,
+            SecureRandom sr) throws KeyManagementException {
+        init(km, tm);
+    }
+
+    @Override
+    protected SSLSocketFactory engineGetSocketFactory() {
+        checkInitialized();
+        return new WolfSSLSocketFactoryImpl(this);
+    }
+
+    @Override
+    protected SSLServerSocketFactory engineGetServerSocketFactory() {
+        checkInitialized();
+        return new WolfSSLServerSocketFactoryImpl(this);
+    }
+
+    @Override
+    protected SSLEngine engineCreateSSLEngine() {
+        checkInitialized();
+        return new WolfSSLEngineImpl(this, null, -1);
+    }
+
+    @Override
+    protected SSLEngine engineCreateSSLEngine(String host, int port) {
+        checkInitialized();
+        return new WolfSSLEngineImpl(this, host, port);
+    }
+
+    @Override
+    protected SSLSessionContext engineGetServerSessionContext() {
+        return serverSessions;
+    }
+
+    @Override
+    protected SSLSessionContext engineGetClientSessionContext() {
+        return clientSessions;
+    }
+
+    /* ---------------------- provider internals ------------------------ */
+
+    synchronized void init(KeyManager[] kms, TrustManager[] tms)
+        throws KeyManagementException {
+
+        X509KeyManager newKm = null;
+        X509TrustManager newTm = null;
+
+        if (kms != null) {
+            for (KeyManager k : kms) {
+                if (k instanceof X509KeyManager) {
+                    newKm = (X509KeyManager)k;
+                    break;
+                }
+            }
+        }
+
+        if (tms == null) {
+            try {
+                TrustManagerFactory tmf = TrustManagerFactory.getInstance(
+                        TrustManagerFactory.getDefaultAlgorithm());
+                tmf.init((KeyStore)null);
+                tms = tmf.getTrustManagers();
+            } catch (NoSuchAlgorithmException e) {
+                throw new KeyManagementException(e);
+            } catch (KeyStoreException e) {
+                throw new KeyManagementException(e);
+            }
+        }
+
+        for (TrustManager t : tms) {
+            if (t instanceof X509TrustManager) {
+                newTm = (X509TrustManager)t;
+                break;
+            }
+        }
+        if (newTm == null)
+            throw new KeyManagementException("No X509TrustManager found");
+
+        freeContexts();
+
+        this.km = newKm;
+        this.tm = newTm;
+        this.nativeVerify = newTm.getAcceptedIssuers().length > 0;
+        this.initialized = true;
+    }
+
+    private synchronized void checkInitialized() {
+        if (!initialized)
+            throw new IllegalStateException("SSLContext is not initialized");
+    }
+
+    private void freeContexts() {
+
+        for (WolfSSLContext c : contexts.values())
+            c.free();
+
+        contexts.clear();
+        clientChain = null;
+        serverChain = null;
+    }
+
+    WolfSSLParameters newParameters(boolean clientMode) {
+        return new WolfSSLParameters(protocols, clientMode);
+    }
+
+    WolfSSLSessionContextImpl getClientSessions() {
+        return clientSessions;
+    }
+
+    /* picks the wolfSSL method for a role and the enabled protocols */
+    private static long getMethod(boolean client, String[] enabled) {
+
+        String p = (enabled.length == 1) ? enabled[0] : "";
+
+        if (p.equals("TLSv1"))
+            return client ? WolfSSL.TLSv1_ClientMethod()
+                          : WolfSSL.TLSv1_ServerMethod();
+        if (p.equals("TLSv1.1"))
+            return client ? WolfSSL.TLSv1_1_ClientMethod()
+                          : WolfSSL.TLSv1_1_ServerMethod();
+        if (p.equals("TLSv1.2"))
+            return client ? WolfSSL.TLSv1_2_ClientMethod()
+                          : WolfSSL.TLSv1_2_ServerMethod();
+
+        return client ? WolfSSL.SSLv23_ClientMethod()
+                      : WolfSSL.SSLv23_ServerMethod();
+    }
+
+    /* lowest enabled protocol, as a wolfSSL minimum version */
+    private static int getMinVersion(String[] enabled) {
+
+        List<String> p = Arrays.asList(enabled);
+
+        if (p.contains("TLSv1"))
+            return WolfSSL.CYASSL_TLSV1;
+        if (p.contains("TLSv1.1"))
+            return WolfSSL.CYASSL_TLSV1_1;
+
+        return WolfSSL.CYASSL_TLSV1_2;
+    }
+
+    /* returns the native context for a role, creating it on first use */
+    private synchronized WolfSSLContext getNativeContext(boolean client,
+            boolean engine, String[] enabled) throws SSLException {
+
+        String key;
+        WolfSSLContext c;
+
+        if (!initialized)
+            throw new SSLException("SSLContext is not initialized");
+        if (enabled.length == 0)
+            throw new SSLHandshakeException("No protocols enabled");
+
+        key = (client ? "client" : "server") + (engine ? "-engine-" : "-") +
+              ((enabled.length == 1) ? enabled[0] : "any");
+
+        c = contexts.get(key);
+        if (c != null)
+            return c;
+
+        try {
+            c = new WolfSSLContext(getMethod(client, enabled));
+        } catch (WolfSSLException e) {
+            throw new SSLException("Failed to create wolfSSL context", e);
+        }
+
+        try {
+            loadKeyMaterial(c, client);
+            loadTrustAnchors(c);
+        } catch (SSLException e) {
+            c.free();
+            throw e;
+        }
+
+        contexts.put(key, c);
+
+        return c;
+    }
+
+    private void loadKeyMaterial(WolfSSLContext c, boolean client)
+        throws SSLException {
+
+        String alias = null;
+        X509Certificate[] chain;
+        PrivateKey key;
+        byte[] pem;
+
+        if (km == null)
+            return;
+
+        for (String type : new String[] { "RSA", "EC" }) {
+            String[] aliases = client ? km.getClientAliases(type, null)
+                                      : km.getServerAliases(type, null);
+            if (aliases != null && aliases.length > 0) {
+                alias = aliases[0];
+                break;
+            }
+        }
+        if (alias == null)
+            return;
+
+        chain = km.getCertificateChain(alias);
+        key = km.getPrivateKey(alias);
+        if (chain == null || chain.length == 0 || key == null ||
+            key.getEncoded() == null)
+            return;
+
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (X509Certificate cert : chain)
+                sb.append(toPem("CERTIFICATE", cert.getEncoded()));
+            pem = sb.toString().getBytes(ASCII);
+        } catch (CertificateException e) {
+            throw new SSLException("Failed to encode certificate", e);
+        }
+
+        if (c.useCertificateChainBuffer(pem, pem.length) !=
+                WolfSSL.SSL_SUCCESS)
+            throw new SSLException("Failed to load certificate chain for " +
+                    alias);
+
+        /* PKCS#8 keys are only unwrapped by wolfSSL when PEM encoded */
+        pem = toPem("PRIVATE KEY", key.getEncoded()).getBytes(ASCII);
+        if (c.usePrivateKeyBuffer(pem, pem.length,
+                WolfSSL.SSL_FILETYPE_PEM) != WolfSSL.SSL_SUCCESS)
+            throw new SSLException("Failed to load private key for " + alias);
+
+        if (client)
+            clientChain = chain;
+        else
+            serverChain = chain;
+    }
+
+    private void loadTrustAnchors(WolfSSLContext c) {
+
+        if (!nativeVerify)
+            return;
+
+        /* anchors wolfSSL cannot parse are skipped, matching how a
+         * certificate with an unsupported algorithm could never be
+         * used to verify a peer anyway */
+        for (X509Certificate ca : tm.getAcceptedIssuers()) {
+            try {
+                byte[] der = ca.getEncoded();
+                c.loadVerifyBuffer(der, der.length, WolfSSL.SSL_FILETYPE_ASN1);
+            } catch (CertificateException e) {
+                continue;
+            }
+        }
+    }
+
+    /**
+     * Creates a session for a socket, configured from the connection
+     * parameters.
+     */
+    WolfSSLSession newSession(WolfSSLParameters p, String host, int port)
+        throws SSLException {
+
+        WolfSSLContext c = getNativeContext(p.clientMode, false,
+                p.getProtocols());
+        WolfSSLSession ssl;
+
+        /* wolfSSL copies the verify mode from the context into each new
+         * session, so set it and create the session under one lock */
+        synchronized (c) {
+            c.setVerify(p.getVerifyMode(nativeVerify), getVerifyCallback());
+            try {
+                ssl = new WolfSSLSession(c);
+            } catch (WolfSSLException e) {
+                throw new SSLException("Failed to create wolfSSL session", e);
+            }
+        }
+
+        configure(ssl, p, host, port);
+
+        return ssl;
+    }
+
+    /**
+     * Creates a wolfSSL engine, configured from the connection
+     * parameters. Engines use their own native contexts since installing
+     * an engine replaces the context I/O callbacks.
+     */
+    WolfSSLEngine newEngine(WolfSSLParameters p, String host, int port)
+        throws SSLException {
+
+        WolfSSLContext c = getNativeContext(p.clientMode, true,
+                p.getProtocols());
+        WolfSSLEngine engine;
+
+        synchronized (c) {
+            c.setVerify(p.getVerifyMode(nativeVerify), getVerifyCallback());
+            try {
+                engine = new WolfSSLEngine(c, p.clientMode);
+            } catch (WolfSSLException e) {
+                throw new SSLException("Failed to create wolfSSL engine", e);
+            }
+        }
+
+        try {
+            configure(engine.getSession(), p, host, port);
+        } catch (SSLException e) {
+            engine.free();
+            throw e;
+        }
+
+        return engine;
+    }
+
+    private WolfSSLVerifyCallback getVerifyCallback() {
+        return nativeVerify ? null : DEFER_TO_TRUST_MANAGER;
+    }
+
+    private void configure(WolfSSLSession ssl, WolfSSLParameters p,
+            String host, int port) throws SSLException {
+
+        String list = p.getCipherList();
+        String[] enabled = p.getProtocols();
+        WolfSSLSessionImpl cached;
+
+        if (list != null && ssl.setCipherList(list) != WolfSSL.SSL_SUCCESS) {
+            ssl.freeSSL();
+            throw new SSLException("No enabled cipher suite is available");
+        }
+
+        /* the SSLv23 methods used for several protocols accept anything
+         * older, the newest version is checked in handshakeDone() */
+        if (enabled.length > 1 &&
+            ssl.setMinVersion(getMinVersion(enabled)) != WolfSSL.SSL_SUCCESS) {
+            ssl.freeSSL();
+            throw new SSLException("Failed to restrict protocol versions");
+        }
+
+        if (p.clientMode) {
+            cached = clientSessions.get(host, port);
+            if (cached != null && cached.getNativeSession() != 0)
+                ssl.setSession(cached.getNativeSession());
+        }
+    }
+
+    /**
+     * Finishes a successful handshake: checks the negotiated protocol is
+     * enabled, runs the trust manager if wolfSSL did not verify the peer
+     * itself, checks the server host name if endpoint identification is
+     * enabled, and returns the session snapshot.
+     * Client sessions are cached for resumption if session creation is
+     * enabled.
+     */
+    WolfSSLSessionImpl handshakeDone(WolfSSLSession ssl, WolfSSLParameters p,
+            String host, int port) throws SSLException {
+
+        X509Certificate[] peer = getPeerCertificates(ssl);
+        String suite = WolfSSLParameters.toStandardName(ssl.cipherGetName());
+        String version = ssl.getVersion();
+        WolfSSLSessionImpl s;
+
+        if (!Arrays.asList(p.getProtocols()).contains(version))
+            throw new SSLHandshakeException("Negotiated protocol " +
+                    version + " is not enabled");
+
+        if (!nativeVerify)
+            checkTrusted(peer, p, suite);
+
+        if (p.clientMode && p.endpointIdentification != null) {
+            if (peer == null)
+                throw new SSLPeerUnverifiedException(
+                        "Server did not send a certificate");
+            WolfSSLHostnameChecker.check(host, peer[0]);
+        }
+
+        s = new WolfSSLSessionImpl(host, port, suite, version,
+                peer, p.clientMode ? clientChain : serverChain,
+                p.clientMode ? ssl.getSession() : 0);
+
+        if (p.clientMode && p.sessionCreation)
+            clientSessions.put(host, port, s);
+
+        return s;
+    }
+
+    private void checkTrusted(X509Certificate[] peer, WolfSSLParameters p,
+            String suite) throws SSLException {
+
+        boolean client = p.clientMode;
+
+        if (peer == null) {
+            if (client)
+                throw new SSLPeerUnverifiedException(
+                        "Server did not send a certificate");
+            if (p.needClientAuth)
+                throw new SSLPeerUnverifiedException(
+                        "Client did not send a certificate");
+            return;
+        }
+
+        try {
+            if (client)
+                tm.checkServerTrusted(peer, getAuthType(suite));
+            else
+                tm.checkClientTrusted(peer,
+                        peer[0].getPublicKey().getAlgorithm());
+        } catch (CertificateException e) {
+            throw new SSLHandshakeException(
+                    "Peer certificate not trusted: " + e.getMessage());
+        }
+    }
+
+    /* key exchange part of a standard suite name, e.g. "ECDHE_RSA" */
+    private static String getAuthType(String suite) {
+
+        int start = suite.indexOf('_');
+        int end = suite.indexOf("_WITH_");
+
+        if (start < 0 || end <= start)
+            return "UNKNOWN";
+
+        return suite.substring(start + 1, end);
+    }
+
+    /* peer chain, leaf first, or only the leaf if wolfSSL did not keep
+     * the chain */
+    private static X509Certificate[] getPeerCertificates(WolfSSLSession ssl)
+        throws SSLException {
+
+        byte[][] chain = ssl.getPeerCertChain();
+        X509Certificate[] certs;
+        CertificateFactory cf;
+
+        if (chain == null) {
+            long x509 = ssl.getPeerCertificate();
+            byte[] der;
+
+            if (x509 == 0)
+                return null;
+
+            der = WolfSSL.x509_getDer(x509);
+            if (der == null)
+                return null;
+
+            chain = new byte[][] { der };
+        }
+
+        certs = new X509Certificate[chain.length];
+        try {
+            cf = CertificateFactory.getInstance("X.509");
+            for (int i = 0; i < chain.length; i++)
+                certs[i] = (X509Certificate)cf.generateCertificate(
+                        new ByteArrayInputStream(chain[i]));
+        } catch (CertificateException e) {
+            throw new SSLException("Failed to parse peer certificate", e);
+        }
+
+        return certs;
+    }
+
+    private static final char[] BASE64 =
+        ("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz" +
+         "0123456789+/").toCharArray();
+
+    private static String toPem(String type, byte[] der) {
+
+        StringBuilder sb = new StringBuilder();
+        int line = 0;
+
+        sb.append("-----BEGIN ").append(type).append("-----\n");
+
+        for (int i = 0; i < der.length; i += 3) {
+            int b = (der[i] & 0xff) << 16;
+            if (i + 1 < der.length)
+                b |= (der[i + 1] & 0xff) << 8;
+            if (i + 2 < der.length)
+                b |= der[i + 2] & 0xff;
+
+            sb.append(BASE64[(b >> 18) & 0x3f]);
+            sb.append(BASE64[(b >> 12) & 0x3f]);
+            sb.append((i + 1 < der.length) ? BASE64[(b >> 6) & 0x3f] : '=');
+            sb.append((i + 2 < der.length) ? BASE64[b & 0x3f] : '=');
+
+            if (++line == 16) {
+                sb.append('\n');
+                line = 0;
+            }
+        }
+        if (line != 0)
+            sb.append('\n');
+
+        sb.append("-----END ").append(type).append("-----\n");
+
+        return sb.toString();
+    }
+}
+
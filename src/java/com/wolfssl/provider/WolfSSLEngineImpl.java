@@ -0,0 +1,478 @@
+/* WolfSSLEngineImpl.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.wolfssl.provider;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLEngineResult.Status;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+
+import com.wolfssl.WolfSSL;
+import com.wolfssl.WolfSSLEngine;
+
+/**
+ * SSLEngine of the wolfSSL JSSE provider, driving a
+ * {@link com.wolfssl.WolfSSLEngine}.
+ * <p>
+ * The native engine is created when the handshake begins, so that the
+ * client mode and other settings can still be changed until then. No
+ * delegated tasks are produced; certificate verification runs inside
+ * <code>unwrap()</code>.
+ * <p>
+ * Application data is only consumed by <code>wrap()</code> as far as the
+ * resulting records fit into the destination buffer, so handshake output
+ * is the only data the native engine ever has to queue.
+ *
+ * @author  wolfSSL
+ * @version 1.0, August 2013
+ */
+final class WolfSSLEngineImpl extends SSLEngine {
+
+    /* largest plaintext per record, and worst case record expansion */
+    private static final int MAX_RECORD = WolfSSLSessionImpl.APP_BUFFER_SIZE;
+    private static final int RECORD_OVERHEAD = 128;
+
+    private final WolfSSLContextImpl context;
+    private final WolfSSLParameters params;
+
+    private WolfSSLEngine engine = null;
+    private WolfSSLSessionImpl session = null;
+
+    private boolean finishedReported = false;
+    private boolean closeSent = false;
+    private boolean outboundClosed = false;
+    private boolean inboundDone = false;
+    private boolean failed = false;
+
+    /* destination used when the caller has no room to offer */
+    private final ByteBuffer empty = ByteBuffer.allocate(0);
+
+    WolfSSLEngineImpl(WolfSSLContextImpl context, String host, int port) {
+        super(host, port);
+        this.context = context;
+        this.params = context.newParameters(true);
+    }
+
+    /* creates the native engine on first use */
+    private void start() throws SSLException {
+
+        if (engine != null)
+            return;
+        if (outboundClosed || inboundDone)
+            throw new SSLException("Engine is closed");
+
+        engine = context.newEngine(params, getPeerHost(), getPeerPort());
+    }
+
+    private void free() {
+
+        if (engine != null && engine.pendingNetOutput() == 0 &&
+            isInboundDone()) {
+            engine.free();
+            engine = null;
+        }
+    }
+
+    /* throws for errors other than the engine waiting on I/O */
+    private void checkError(int ret) throws SSLException {
+
+        int err;
+
+        if (ret >= 0)
+            return;
+
+        err = engine.getError();
+        if (err == WolfSSL.SSL_ERROR_WANT_READ ||
+            err == WolfSSL.SSL_ERROR_WANT_WRITE)
+            return;
+
+        /* any alert generated is still queued for wrap() */
+        failed = true;
+        inboundDone = true;
+        closeSent = true;
+
+        if (engine.isHandshakeComplete())
+            throw new SSLException("wolfSSL error: " + err + ", " +
+                    WolfSSL.getErrorString(err));
+
+        throw new SSLHandshakeException("Handshake failed: " + err + ", " +
+                WolfSSL.getErrorString(err));
+    }
+
+    /* creates the session snapshot once the handshake has completed */
+    private void checkHandshakeDone() throws SSLException {
+
+        if (session != null || !engine.isHandshakeComplete())
+            return;
+
+        try {
+            session = context.handshakeDone(engine.getSession(), params,
+                    getPeerHost(), getPeerPort());
+        } catch (SSLException e) {
+            failed = true;
+            inboundDone = true;
+            closeOutboundInternal();
+            throw e;
+        }
+    }
+
+    private HandshakeStatus resultStatus() {
+
+        HandshakeStatus hs = getHandshakeStatus();
+
+        if (hs == HandshakeStatus.NOT_HANDSHAKING && session != null &&
+            !finishedReported) {
+            finishedReported = true;
+            return HandshakeStatus.FINISHED;
+        }
+
+        return hs;
+    }
+
+    /* bytes of plaintext whose records fit into netRoom bytes */
+    private static int maxPlaintext(int netRoom) {
+
+        int full = netRoom / (MAX_RECORD + RECORD_OVERHEAD);
+        int rest = netRoom % (MAX_RECORD + RECORD_OVERHEAD);
+
+        return full * MAX_RECORD + Math.max(rest - RECORD_OVERHEAD, 0);
+    }
+
+    /* ---------------------------- SSLEngine --------------------------- */
+
+    public synchronized SSLEngineResult wrap(ByteBuffer[] srcs, int offset,
+            int length, ByteBuffer dst) throws SSLException {
+
+        int ret;
+        int consumed = 0;
+        int start = dst.position();
+
+        if (srcs == null || offset < 0 || length < 0 ||
+            offset > srcs.length - length)
+            throw new IndexOutOfBoundsException();
+        if (dst.isReadOnly())
+            throw new ReadOnlyBufferException();
+
+        if (engine == null && outboundClosed)
+            return new SSLEngineResult(Status.CLOSED,
+                    HandshakeStatus.NOT_HANDSHAKING, 0, 0);
+
+        start();
+
+        if (engine.pendingNetOutput() > 0 && !dst.hasRemaining())
+            return new SSLEngineResult(Status.BUFFER_OVERFLOW,
+                    getHandshakeStatus(), 0, 0);
+
+        if (closeSent) {
+            /* only flush, close_notify or the fatal alert is queued */
+            if (engine.isHandshakeComplete() && !failed)
+                engine.closeOutbound(dst);
+            else if (engine.pendingNetOutput() > 0)
+                engine.wrap(null, dst);
+
+        } else if (engine.pendingNetOutput() > 0 ||
+                   !engine.isHandshakeComplete()) {
+
+            /* flush queued output and advance the handshake */
+            ret = engine.wrap(null, dst);
+            checkError(ret);
+            checkHandshakeDone();
+
+        } else {
+            for (int i = offset; i < offset + length; i++) {
+                ByteBuffer src = srcs[i];
+                int room = maxPlaintext(dst.remaining());
+
+                if (!src.hasRemaining())
+                    continue;
+                if (room == 0) {
+                    if (consumed == 0)
+                        return new SSLEngineResult(Status.BUFFER_OVERFLOW,
+                                getHandshakeStatus(), 0, 0);
+                    break;
+                }
+
+                ByteBuffer slice = src.duplicate();
+                slice.limit(slice.position() +
+                        Math.min(slice.remaining(), room));
+
+                ret = engine.wrap(slice, dst);
+                checkError(ret);
+                if (ret <= 0)
+                    break;
+
+                src.position(src.position() + ret);
+                consumed += ret;
+            }
+        }
+
+        if (closeSent && engine.pendingNetOutput() == 0) {
+            HandshakeStatus hs = getHandshakeStatus();
+            free();
+            return new SSLEngineResult(Status.CLOSED, hs,
+                    0, dst.position() - start);
+        }
+
+        return new SSLEngineResult(Status.OK, resultStatus(), consumed,
+                dst.position() - start);
+    }
+
+    public synchronized SSLEngineResult unwrap(ByteBuffer src,
+            ByteBuffer[] dsts, int offset, int length) throws SSLException {
+
+        int ret = 0;
+        int produced = 0;
+        int srcStart = src.position();
+        int room = 0;
+        int i;
+        ByteBuffer in = src;
+
+        if (dsts == null || offset < 0 || length < 0 ||
+            offset > dsts.length - length)
+            throw new IndexOutOfBoundsException();
+
+        for (i = offset; i < offset + length; i++) {
+            if (dsts[i].isReadOnly())
+                throw new ReadOnlyBufferException();
+            room += dsts[i].remaining();
+        }
+
+        if (engine == null && outboundClosed)
+            inboundDone = true;
+        if (inboundDone)
+            return new SSLEngineResult(Status.CLOSED, getHandshakeStatus(),
+                    0, 0);
+
+        start();
+
+        if (engine.isHandshakeComplete() && room == 0 &&
+            src.hasRemaining())
+            return new SSLEngineResult(Status.BUFFER_OVERFLOW,
+                    getHandshakeStatus(), 0, 0);
+
+        /* fill the destinations in order; only the first call takes
+         * network data, later ones drain what wolfSSL has buffered */
+        i = offset;
+        do {
+            ByteBuffer dst = empty;
+            while (i < offset + length && !dsts[i].hasRemaining())
+                i++;
+            if (i < offset + length)
+                dst = dsts[i];
+
+            ret = engine.unwrap(in, dst);
+            in = null;
+
+            if (ret > 0)
+                produced += ret;
+
+        } while (ret > 0 && engine.isHandshakeComplete() &&
+                 i < offset + length);
+
+        if (ret == 0 &&
+            engine.getError() == WolfSSL.SSL_ERROR_ZERO_RETURN) {
+            /* peer sent close_notify, answer with ours */
+            inboundDone = true;
+            closeOutboundInternal();
+            return new SSLEngineResult(Status.CLOSED, getHandshakeStatus(),
+                    src.position() - srcStart, produced);
+        }
+
+        if (produced == 0)
+            checkError(ret);
+        checkHandshakeDone();
+
+        if (src.position() == srcStart && produced == 0 &&
+            engine.pendingNetOutput() == 0 && !engine.isHandshakeComplete())
+            return new SSLEngineResult(Status.BUFFER_UNDERFLOW,
+                    getHandshakeStatus(), 0, 0);
+
+        if (src.position() == srcStart && produced == 0 &&
+            engine.isHandshakeComplete() && finishedReported)
+            return new SSLEngineResult(Status.BUFFER_UNDERFLOW,
+                    getHandshakeStatus(), 0, 0);
+
+        return new SSLEngineResult(Status.OK, resultStatus(),
+                src.position() - srcStart, produced);
+    }
+
+    public Runnable getDelegatedTask() {
+        return null;
+    }
+
+    public synchronized void closeInbound() throws SSLException {
+
+        boolean truncated = !inboundDone && engine != null && !failed;
+
+        inboundDone = true;
+        closeOutboundInternal();
+
+        if (truncated)
+            throw new SSLException(
+                    "Inbound closed before receiving peer's close_notify");
+    }
+
+    public synchronized boolean isInboundDone() {
+        return inboundDone;
+    }
+
+    public synchronized void closeOutbound() {
+        closeOutboundInternal();
+    }
+
+    private void closeOutboundInternal() {
+
+        outboundClosed = true;
+
+        if (engine != null && !closeSent) {
+            closeSent = true;
+            if (engine.isHandshakeComplete() && !failed)
+                engine.closeOutbound(empty);
+        }
+
+        if (engine != null)
+            free();
+    }
+
+    public synchronized boolean isOutboundDone() {
+        return outboundClosed &&
+               (engine == null || engine.pendingNetOutput() == 0);
+    }
+
+    public String[] getSupportedCipherSuites() {
+        return WolfSSLParameters.getSupportedCipherSuites();
+    }
+
+    public synchronized String[] getEnabledCipherSuites() {
+        return params.getCipherSuites();
+    }
+
+    public synchronized void setEnabledCipherSuites(String[] suites) {
+        params.setCipherSuites(suites);
+    }
+
+    public synchronized String[] getSupportedProtocols() {
+        return params.getSupportedProtocols();
+    }
+
+    public synchronized String[] getEnabledProtocols() {
+        return params.getProtocols();
+    }
+
+    public synchronized void setEnabledProtocols(String[] protocols) {
+        params.setProtocols(protocols);
+    }
+
+    public synchronized SSLSession getSession() {
+
+        if (session == null)
+            return new WolfSSLSessionImpl(getPeerHost(), getPeerPort());
+
+        return session;
+    }
+
+    public synchronized void beginHandshake() throws SSLException {
+
+        if (session != null)
+            throw new SSLException("Renegotiation is not supported");
+
+        start();
+    }
+
+    public synchronized HandshakeStatus getHandshakeStatus() {
+
+        int err;
+
+        if (engine == null)
+            return HandshakeStatus.NOT_HANDSHAKING;
+
+        if (engine.pendingNetOutput() > 0)
+            return HandshakeStatus.NEED_WRAP;
+
+        if (engine.isHandshakeComplete() || failed || closeSent)
+            return HandshakeStatus.NOT_HANDSHAKING;
+
+        err = engine.getError();
+        if (err == WolfSSL.SSL_ERROR_WANT_READ)
+            return HandshakeStatus.NEED_UNWRAP;
+        if (err == WolfSSL.SSL_ERROR_WANT_WRITE)
+            return HandshakeStatus.NEED_WRAP;
+
+        /* nothing exchanged yet, the client speaks first */
+        return params.clientMode ? HandshakeStatus.NEED_WRAP
+                                 : HandshakeStatus.NEED_UNWRAP;
+    }
+
+    public synchronized void setUseClientMode(boolean mode) {
+
+        if (engine != null)
+            throw new IllegalArgumentException(
+                    "Handshake has already started");
+
+        params.clientMode = mode;
+    }
+
+    public synchronized boolean getUseClientMode() {
+        return params.clientMode;
+    }
+
+    public synchronized void setNeedClientAuth(boolean need) {
+        params.setNeedClientAuth(need);
+    }
+
+    public synchronized boolean getNeedClientAuth() {
+        return params.needClientAuth;
+    }
+
+    public synchronized void setWantClientAuth(boolean want) {
+        params.setWantClientAuth(want);
+    }
+
+    public synchronized boolean getWantClientAuth() {
+        return params.wantClientAuth;
+    }
+
+    public synchronized void setEnableSessionCreation(boolean flag) {
+        params.sessionCreation = flag;
+    }
+
+    public synchronized boolean getEnableSessionCreation() {
+        return params.sessionCreation;
+    }
+
+    @Override
+    public synchronized SSLParameters getSSLParameters() {
+        return params.getSSLParameters();
+    }
+
+    @Override
+    public synchronized void setSSLParameters(SSLParameters sp) {
+        params.setSSLParameters(sp);
+    }
+}
+
@@ -0,0 +1,191 @@
+/* WolfSSLHostnameChecker.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.wolfssl.provider;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import javax.net.ssl.SSLHandshakeException;
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * Server identity check for the "HTTPS" endpoint identification
+ * algorithm, following RFC 2818.
+ * <p>
+ * IP addresses only match iPAddress subject alternative names. Host
+ * names match dNSName subject alternative names, or the most specific
+ * common name if the certificate has none. A "*" as the entire leftmost
+ * label of a name matches exactly one label of the host name.
+ *
+ * @author  wolfSSL
+ * @version 1.0, August 2013
+ */
+final class WolfSSLHostnameChecker {
+
+    private static final int SAN_DNS = 2;
+    private static final int SAN_IP = 7;
+
+    private WolfSSLHostnameChecker() {
+    }
+
+    /**
+     * Throws if <b>cert</b> does not identify <b>host</b>.
+     */
+    static void check(String host, X509Certificate cert)
+        throws SSLHandshakeException {
+
+        if (host == null || host.length() == 0)
+            throw new SSLHandshakeException(
+                    "No host name to verify the server certificate against");
+
+        if (host.startsWith("[") && host.endsWith("]"))
+            host = host.substring(1, host.length() - 1);
+
+        if (isIpAddress(host) ? matchesIp(host, cert)
+                              : matchesDns(host, cert))
+            return;
+
+        throw new SSLHandshakeException("Server certificate does not match " +
+                host);
+    }
+
+    /* literal addresses only, host names are never resolved */
+    private static boolean isIpAddress(String host) {
+        return host.indexOf(':') >= 0 || host.matches("[0-9.]+");
+    }
+
+    private static boolean matchesIp(String host, X509Certificate cert)
+        throws SSLHandshakeException {
+
+        InetAddress addr;
+
+        try {
+            addr = InetAddress.getByName(host);
+            for (String ip : getAltNames(cert, SAN_IP)) {
+                if (isIpAddress(ip) && addr.equals(InetAddress.getByName(ip)))
+                    return true;
+            }
+        } catch (UnknownHostException e) {
+            return false;
+        }
+
+        return false;
+    }
+
+    private static boolean matchesDns(String host, X509Certificate cert)
+        throws SSLHandshakeException {
+
+        List<String> names = getAltNames(cert, SAN_DNS);
+        String cn;
+
+        if (names.isEmpty()) {
+            cn = getCommonName(cert.getSubjectX500Principal());
+            if (cn != null)
+                names.add(cn);
+        }
+
+        for (String name : names) {
+            if (matchesName(host.toLowerCase(Locale.ENGLISH),
+                            name.toLowerCase(Locale.ENGLISH)))
+                return true;
+        }
+
+        return false;
+    }
+
+    private static boolean matchesName(String host, String name) {
+
+        int dot;
+
+        if (host.endsWith("."))
+            host = host.substring(0, host.length() - 1);
+        if (name.endsWith("."))
+            name = name.substring(0, name.length() - 1);
+
+        if (!name.startsWith("*."))
+            return host.equals(name);
+
+        /* the wildcard needs at least two labels after it, and matches
+         * exactly one non-empty label */
+        name = name.substring(1);
+        if (name.indexOf('.', 1) < 0)
+            return false;
+
+        dot = host.indexOf('.');
+        return dot > 0 && host.substring(dot).equals(name);
+    }
+
+    private static List<String> getAltNames(X509Certificate cert, int type)
+        throws SSLHandshakeException {
+
+        List<String> names = new ArrayList<String>();
+        Collection<List<?>> alt;
+
+        try {
+            alt = cert.getSubjectAlternativeNames();
+        } catch (CertificateParsingException e) {
+            throw new SSLHandshakeException(
+                    "Failed to parse server certificate alternative names");
+        }
+        if (alt == null)
+            return names;
+
+        for (List<?> entry : alt) {
+            if (entry.size() >= 2 && entry.get(0) instanceof Integer &&
+                ((Integer)entry.get(0)).intValue() == type &&
+                entry.get(1) instanceof String)
+                names.add((String)entry.get(1));
+        }
+
+        return names;
+    }
+
+    /* last, and so most specific, CN of a name */
+    private static String getCommonName(X500Principal subject)
+        throws SSLHandshakeException {
+
+        String cn = null;
+
+        try {
+            LdapName dn = new LdapName(
+                    subject.getName(X500Principal.RFC2253));
+            for (Rdn rdn : dn.getRdns()) {
+                if (rdn.getType().equalsIgnoreCase("CN") &&
+                    rdn.getValue() instanceof String)
+                    cn = (String)rdn.getValue();
+            }
+        } catch (InvalidNameException e) {
+            throw new SSLHandshakeException(
+                    "Failed to parse server certificate subject");
+        }
+
+        return cn;
+    }
+}
@@ -0,0 +1,314 @@
+/* WolfSSLParameters.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.wolfssl.provider;
+
+import java.util.Arrays;
+import javax.net.ssl.SSLParameters;
+
+import com.wolfssl.WolfSSL;
+
+/**
+ * Per-connection settings shared by the provider's sockets, server
+ * sockets and engines.
+ * <p>
+ * Cipher suites are exposed under their standard JSSE names and are
+ * translated to wolfSSL cipher list names when a session is created.
+ *
+ * @author  wolfSSL
+ * @version 1.0, August 2013
+ */
+final class WolfSSLParameters {
+
+    /* standard JSSE name, wolfSSL cipher list name */
+    private static final String[][] SUITES = {
+        { "TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384",
+          "ECDHE-ECDSA-AES256-GCM-SHA384" },
+        { "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256",
+          "ECDHE-ECDSA-AES128-GCM-SHA256" },
+        { "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384",
+          "ECDHE-RSA-AES256-GCM-SHA384" },
+        { "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+          "ECDHE-RSA-AES128-GCM-SHA256" },
+        { "TLS_ECDHE_ECDSA_WITH_AES_256_CBC_SHA384",
+          "ECDHE-ECDSA-AES256-SHA384" },
+        { "TLS_ECDHE_ECDSA_WITH_AES_128_CBC_SHA256",
+          "ECDHE-ECDSA-AES128-SHA256" },
+        { "TLS_ECDHE_RSA_WITH_AES_256_CBC_SHA384",
+          "ECDHE-RSA-AES256-SHA384" },
+        { "TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA256",
+          "ECDHE-RSA-AES128-SHA256" },
+        { "TLS_ECDHE_ECDSA_WITH_AES_256_CBC_SHA",
+          "ECDHE-ECDSA-AES256-SHA" },
+        { "TLS_ECDHE_ECDSA_WITH_AES_128_CBC_SHA",
+          "ECDHE-ECDSA-AES128-SHA" },
+        { "TLS_ECDHE_RSA_WITH_AES_256_CBC_SHA",
+          "ECDHE-RSA-AES256-SHA" },
+        { "TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA",
+          "ECDHE-RSA-AES128-SHA" },
+        { "TLS_DHE_RSA_WITH_AES_256_GCM_SHA384",
+          "DHE-RSA-AES256-GCM-SHA384" },
+        { "TLS_DHE_RSA_WITH_AES_128_GCM_SHA256",
+          "DHE-RSA-AES128-GCM-SHA256" },
+        { "TLS_DHE_RSA_WITH_AES_256_CBC_SHA256",
+          "DHE-RSA-AES256-SHA256" },
+        { "TLS_DHE_RSA_WITH_AES_128_CBC_SHA256",
+          "DHE-RSA-AES128-SHA256" },
+        { "TLS_DHE_RSA_WITH_AES_256_CBC_SHA",
+          "DHE-RSA-AES256-SHA" },
+        { "TLS_DHE_RSA_WITH_AES_128_CBC_SHA",
+          "DHE-RSA-AES128-SHA" },
+        { "TLS_RSA_WITH_AES_256_GCM_SHA384",
+          "AES256-GCM-SHA384" },
+        { "TLS_RSA_WITH_AES_128_GCM_SHA256",
+          "AES128-GCM-SHA256" },
+        { "TLS_RSA_WITH_AES_256_CBC_SHA256",
+          "AES256-SHA256" },
+        { "TLS_RSA_WITH_AES_128_CBC_SHA256",
+          "AES128-SHA256" },
+        { "TLS_RSA_WITH_AES_256_CBC_SHA",
+          "AES256-SHA" },
+        { "TLS_RSA_WITH_AES_128_CBC_SHA",
+          "AES128-SHA" },
+        { "SSL_RSA_WITH_3DES_EDE_CBC_SHA",
+          "DES-CBC3-SHA" }
+    };
+
+    /* protocols in the order of their wolfSSL method */
+    static final String[] PROTOCOLS = { "TLSv1", "TLSv1.1", "TLSv1.2" };
+
+    /* protocols supported by the owning SSLContext */
+    private final String[] supportedProtocols;
+
+    private String[] cipherSuites;
+    private String[] protocols;
+
+    /* true once setCipherSuites() was called, otherwise the wolfSSL
+     * default cipher list is used as is */
+    private boolean cipherSuitesSet = false;
+
+    boolean clientMode;
+    boolean needClientAuth = false;
+    boolean wantClientAuth = false;
+    boolean sessionCreation = true;
+
+    /* "HTTPS" to check the server host name, or null */
+    String endpointIdentification = null;
+
+    WolfSSLParameters(String[] supportedProtocols, boolean clientMode) {
+        this.supportedProtocols = supportedProtocols;
+        this.protocols = supportedProtocols.clone();
+        this.cipherSuites = getSupportedCipherSuites();
+        this.clientMode = clientMode;
+    }
+
+    /* returns a copy, used for sockets accepted by a server socket */
+    WolfSSLParameters copy() {
+
+        WolfSSLParameters p =
+            new WolfSSLParameters(supportedProtocols, clientMode);
+
+        p.cipherSuites = cipherSuites.clone();
+        p.protocols = protocols.clone();
+        p.cipherSuitesSet = cipherSuitesSet;
+        p.needClientAuth = needClientAuth;
+        p.wantClientAuth = wantClientAuth;
+        p.sessionCreation = sessionCreation;
+        p.endpointIdentification = endpointIdentification;
+
+        return p;
+    }
+
+    static String[] getSupportedCipherSuites() {
+
+        String[] names = new String[SUITES.length];
+
+        for (int i = 0; i < SUITES.length; i++)
+            names[i] = SUITES[i][0];
+
+        return names;
+    }
+
+    String[] getSupportedProtocols() {
+        return supportedProtocols.clone();
+    }
+
+    String[] getCipherSuites() {
+        return cipherSuites.clone();
+    }
+
+    void setCipherSuites(String[] suites) {
+
+        if (suites == null)
+            throw new IllegalArgumentException("cipher suites are null");
+
+        for (String s : suites) {
+            if (toWolfName(s) == null)
+                throw new IllegalArgumentException(
+                        "Unsupported cipher suite: " + s);
+        }
+
+        this.cipherSuites = suites.clone();
+        this.cipherSuitesSet = true;
+    }
+
+    String[] getProtocols() {
+        return protocols.clone();
+    }
+
+    void setProtocols(String[] protos) {
+
+        if (protos == null)
+            throw new IllegalArgumentException("protocols are null");
+
+        for (String p : protos) {
+            if (!Arrays.asList(supportedProtocols).contains(p))
+                throw new IllegalArgumentException(
+                        "Unsupported protocol: " + p);
+        }
+
+        this.protocols = protos.clone();
+    }
+
+    void setNeedClientAuth(boolean need) {
+        this.needClientAuth = need;
+        this.wantClientAuth = false;
+    }
+
+    void setWantClientAuth(boolean want) {
+        this.wantClientAuth = want;
+        this.needClientAuth = false;
+    }
+
+    SSLParameters getSSLParameters() {
+
+        SSLParameters sp = new SSLParameters(getCipherSuites(),
+                getProtocols());
+
+        if (needClientAuth)
+            sp.setNeedClientAuth(true);
+        else
+            sp.setWantClientAuth(wantClientAuth);
+        sp.setEndpointIdentificationAlgorithm(endpointIdentification);
+
+        return sp;
+    }
+
+    /**
+     * Applies the settings of <b>sp</b>. Only "HTTPS" endpoint
+     * identification is supported, any other algorithm is rejected
+     * rather than silently skipped. Algorithm constraints are ignored.
+     */
+    void setSSLParameters(SSLParameters sp) {
+
+        String alg = sp.getEndpointIdentificationAlgorithm();
+
+        if (alg != null && !alg.equalsIgnoreCase("HTTPS"))
+            throw new IllegalArgumentException(
+                    "Unsupported endpoint identification algorithm: " + alg);
+
+        if (sp.getCipherSuites() != null)
+            setCipherSuites(sp.getCipherSuites());
+        if (sp.getProtocols() != null)
+            setProtocols(sp.getProtocols());
+
+        if (sp.getNeedClientAuth())
+            setNeedClientAuth(true);
+        else
+            setWantClientAuth(sp.getWantClientAuth());
+
+        endpointIdentification = alg;
+    }
+
+    /**
+     * Returns the wolfSSL cipher list for the enabled suites, or
+     * <code>null</code> if the application never changed them.
+     */
+    String getCipherList() {
+
+        StringBuilder sb;
+
+        if (!cipherSuitesSet)
+            return null;
+
+        sb = new StringBuilder();
+        for (String s : cipherSuites) {
+            if (sb.length() > 0)
+                sb.append(':');
+            sb.append(toWolfName(s));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns the verify mode a new session should be created with.
+     * Servers request a client certificate whenever client authentication
+     * is needed or wanted, even without native trust anchors, so that the
+     * trust manager has a certificate to check.
+     *
+     * @param nativeVerify  true if the context has trust anchors loaded
+     *                      into wolfSSL
+     */
+    int getVerifyMode(boolean nativeVerify) {
+
+        if (clientMode)
+            return nativeVerify ? WolfSSL.SSL_VERIFY_PEER
+                                : WolfSSL.SSL_VERIFY_NONE;
+
+        if (needClientAuth)
+            return WolfSSL.SSL_VERIFY_PEER |
+                   WolfSSL.SSL_VERIFY_FAIL_IF_NO_PEER_CERT;
+
+        if (wantClientAuth)
+            return WolfSSL.SSL_VERIFY_PEER;
+
+        return WolfSSL.SSL_VERIFY_NONE;
+    }
+
+    private static String toWolfName(String suite) {
+
+        for (String[] s : SUITES) {
+            if (s[0].equals(suite))
+                return s[1];
+        }
+
+        return null;
+    }
+
+    /**
+     * Converts a cipher name reported by wolfSSL to its standard JSSE
+     * name. Names that are not known are returned unchanged.
+     */
+    static String toStandardName(String name) {
+
+        if (name == null)
+            return "SSL_NULL_WITH_NULL_NULL";
+
+        for (String[] s : SUITES) {
+            if (s[1].equals(name) || s[0].equals(name))
+                return s[0];
+        }
+
+        return name;
+    }
+}
+
@@ -0,0 +1,97 @@
+/* WolfSSLProvider.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.wolfssl.provider;
+
+import java.security.Provider;
+import java.security.ProviderException;
+
+import com.wolfssl.WolfSSL;
+import com.wolfssl.WolfSSLException;
+
+/**
+ * JSSE provider backed by the native wolfSSL library.
+ * <p>
+ * The provider registers <code>SSLContext</code> implementations whose
+ * sockets, server sockets and engines run on {@link com.wolfssl.WolfSSLSession}
+ * and {@link com.wolfssl.WolfSSLEngine}. It can be selected by name,
+ * <pre>
+ *     Security.addProvider(new WolfSSLProvider());
+ *     SSLContext ctx = SSLContext.getInstance("TLS", "wolfJSSE");
+ * </pre>
+ * or installed ahead of SunJSSE so that it becomes the default.
+ *
+ * @author  wolfSSL
+ * @version 1.0, August 2013
+ */
+public final class WolfSSLProvider extends Provider {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Name this provider is registered under */
+    public static final String NAME = "wolfJSSE";
+
+    private static boolean libraryReady = false;
+
+    /**
+     * Creates the provider and initializes the native wolfSSL library.
+     *
+     * @throws ProviderException if the native library can not be loaded
+     *                           or initialized
+     */
+    public WolfSSLProvider() {
+        super(NAME, 1.0, "wolfSSL JSSE Provider (SSLContext backed by " +
+              "native wolfSSL)");
+
+        initLibrary();
+
+        String base = WolfSSLContextImpl.class.getName();
+
+        put("SSLContext.TLS",     base + "$TLS");
+        put("SSLContext.TLSv1",   base + "$TLSv1");
+        put("SSLContext.TLSv1.1", base + "$TLSv11");
+        put("SSLContext.TLSv1.2", base + "$TLSv12");
+        put("SSLContext.Default", base + "$Default");
+        put("Alg.Alias.SSLContext.SSL", "TLS");
+    }
+
+    /**
+     * Loads and initializes the native library once per JVM.
+     */
+    static synchronized void initLibrary() {
+
+        if (libraryReady)
+            return;
+
+        try {
+            WolfSSL.loadLibrary();
+            new WolfSSL();
+        } catch (UnsatisfiedLinkError e) {
+            throw new ProviderException("Failed to load wolfSSL: " +
+                    e.getMessage());
+        } catch (WolfSSLException e) {
+            throw new ProviderException(e.getMessage());
+        }
+
+        libraryReady = true;
+    }
+}
+
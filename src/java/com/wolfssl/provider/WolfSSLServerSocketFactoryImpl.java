@@ -0,0 +1,74 @@
+/* WolfSSLServerSocketFactoryImpl.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.wolfssl.provider;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import javax.net.ssl.SSLServerSocketFactory;
+
+/**
+ * Server socket factory of the wolfSSL JSSE provider.
+ *
+ * @author  wolfSSL
+ * @version 1.0, August 2013
+ */
+final class WolfSSLServerSocketFactoryImpl extends SSLServerSocketFactory {
+
+    private final WolfSSLContextImpl context;
+
+    WolfSSLServerSocketFactoryImpl(WolfSSLContextImpl context) {
+        this.context = context;
+    }
+
+    public String[] getDefaultCipherSuites() {
+        return WolfSSLParameters.getSupportedCipherSuites();
+    }
+
+    public String[] getSupportedCipherSuites() {
+        return WolfSSLParameters.getSupportedCipherSuites();
+    }
+
+    @Override
+    public ServerSocket createServerSocket() throws IOException {
+        return new WolfSSLServerSocketImpl(context,
+                context.newParameters(false));
+    }
+
+    public ServerSocket createServerSocket(int port) throws IOException {
+        return new WolfSSLServerSocketImpl(context,
+                context.newParameters(false), port, 50, null);
+    }
+
+    public ServerSocket createServerSocket(int port, int backlog)
+        throws IOException {
+        return new WolfSSLServerSocketImpl(context,
+                context.newParameters(false), port, backlog, null);
+    }
+
+    public ServerSocket createServerSocket(int port, int backlog,
+            InetAddress addr) throws IOException {
+        return new WolfSSLServerSocketImpl(context,
+                context.newParameters(false), port, backlog, addr);
+    }
+}
+
@@ -0,0 +1,130 @@
+/* WolfSSLServerSocketImpl.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.wolfssl.provider;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import javax.net.ssl.SSLServerSocket;
+
+/**
+ * Server socket of the wolfSSL JSSE provider.
+ * <p>
+ * Accepted connections are returned as SSL sockets that share a copy of
+ * this server socket's settings. The handshake starts on first I/O or on
+ * an explicit <code>startHandshake()</code>.
+ *
+ * @author  wolfSSL
+ * @version 1.0, August 2013
+ */
+final class WolfSSLServerSocketImpl extends SSLServerSocket {
+
+    private final WolfSSLContextImpl context;
+    private final WolfSSLParameters params;
+
+    WolfSSLServerSocketImpl(WolfSSLContextImpl context,
+            WolfSSLParameters params) throws IOException {
+        super();
+        this.context = context;
+        this.params = params;
+    }
+
+    WolfSSLServerSocketImpl(WolfSSLContextImpl context,
+            WolfSSLParameters params, int port, int backlog,
+            InetAddress addr) throws IOException {
+        super(port, backlog, addr);
+        this.context = context;
+        this.params = params;
+    }
+
+    @Override
+    public Socket accept() throws IOException {
+
+        WolfSSLParameters p;
+        Socket s = new Socket();
+
+        implAccept(s);
+
+        synchronized (this) {
+            p = params.copy();
+        }
+
+        return new WolfSSLSocketImpl(context, p, s, null, -1, true);
+    }
+
+    public synchronized String[] getEnabledCipherSuites() {
+        return params.getCipherSuites();
+    }
+
+    public synchronized void setEnabledCipherSuites(String[] suites) {
+        params.setCipherSuites(suites);
+    }
+
+    public String[] getSupportedCipherSuites() {
+        return WolfSSLParameters.getSupportedCipherSuites();
+    }
+
+    public synchronized String[] getSupportedProtocols() {
+        return params.getSupportedProtocols();
+    }
+
+    public synchronized String[] getEnabledProtocols() {
+        return params.getProtocols();
+    }
+
+    public synchronized void setEnabledProtocols(String[] protocols) {
+        params.setProtocols(protocols);
+    }
+
+    public synchronized void setNeedClientAuth(boolean need) {
+        params.setNeedClientAuth(need);
+    }
+
+    public synchronized boolean getNeedClientAuth() {
+        return params.needClientAuth;
+    }
+
+    public synchronized void setWantClientAuth(boolean want) {
+        params.setWantClientAuth(want);
+    }
+
+    public synchronized boolean getWantClientAuth() {
+        return params.wantClientAuth;
+    }
+
+    public synchronized void setUseClientMode(boolean mode) {
+        params.clientMode = mode;
+    }
+
+    public synchronized boolean getUseClientMode() {
+        return params.clientMode;
+    }
+
+    public synchronized void setEnableSessionCreation(boolean flag) {
+        params.sessionCreation = flag;
+    }
+
+    public synchronized boolean getEnableSessionCreation() {
+        return params.sessionCreation;
+    }
+}
+
@@ -0,0 +1,173 @@
+/* WolfSSLSessionContextImpl.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.wolfssl.provider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+
+/**
+ * Cache of completed sessions for one SSLContext.
+ * <p>
+ * On the client side the cache is keyed by peer host and port, and a
+ * cached session is handed to wolfSSL with
+ * <code>WolfSSLSession.setSession()</code> so the next connection to the
+ * same peer attempts resumption. Server side resumption is handled by the
+ * native wolfSSL session cache; the server context only records sessions
+ * for applications that enumerate them.
+ *
+ * @author  wolfSSL
+ * @version 1.0, August 2013
+ */
+final class WolfSSLSessionContextImpl implements SSLSessionContext {
+
+    /* same defaults as SunJSSE */
+    private static final int DEFAULT_CACHE_SIZE = 20480;
+    private static final int DEFAULT_TIMEOUT    = 86400;
+
+    private int cacheSize = DEFAULT_CACHE_SIZE;
+    private int timeout   = DEFAULT_TIMEOUT;
+
+    /* peer "host:port" to session, least recently used first */
+    private final LinkedHashMap<String, WolfSSLSessionImpl> sessions =
+        new LinkedHashMap<String, WolfSSLSessionImpl>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, WolfSSLSessionImpl> eldest) {
+                return cacheSize > 0 && size() > cacheSize;
+            }
+        };
+
+    private static String key(String host, int port) {
+        return host + ":" + port;
+    }
+
+    synchronized void put(String host, int port, WolfSSLSessionImpl s) {
+
+        if (host == null)
+            return;
+
+        s.setContext(this);
+        sessions.put(key(host, port), s);
+    }
+
+    /* returns a valid, unexpired session for the peer, or null */
+    synchronized WolfSSLSessionImpl get(String host, int port) {
+
+        WolfSSLSessionImpl s;
+
+        if (host == null)
+            return null;
+
+        s = sessions.get(key(host, port));
+        if (s != null && !isCurrent(s)) {
+            sessions.remove(key(host, port));
+            s = null;
+        }
+
+        return s;
+    }
+
+    synchronized void remove(WolfSSLSessionImpl s) {
+        sessions.values().remove(s);
+    }
+
+    private boolean isCurrent(WolfSSLSessionImpl s) {
+
+        if (!s.isValid())
+            return false;
+
+        return timeout == 0 ||
+               System.currentTimeMillis() - s.getCreationTime() <
+                   timeout * 1000L;
+    }
+
+    public synchronized SSLSession getSession(byte[] sessionId) {
+
+        if (sessionId == null)
+            throw new NullPointerException("session ID is null");
+
+        for (WolfSSLSessionImpl s : sessions.values()) {
+            if (Arrays.equals(s.getId(), sessionId))
+                return isCurrent(s) ? s : null;
+        }
+
+        return null;
+    }
+
+    public synchronized Enumeration<byte[]> getIds() {
+
+        List<byte[]> ids = new ArrayList<byte[]>();
+
+        for (WolfSSLSessionImpl s : sessions.values()) {
+            if (isCurrent(s))
+                ids.add(s.getId());
+        }
+
+        return Collections.enumeration(ids);
+    }
+
+    public synchronized void setSessionTimeout(int seconds) {
+
+        if (seconds < 0)
+            throw new IllegalArgumentException("timeout is negative");
+
+        this.timeout = seconds;
+
+        Iterator<WolfSSLSessionImpl> it = sessions.values().iterator();
+        while (it.hasNext()) {
+            if (!isCurrent(it.next()))
+                it.remove();
+        }
+    }
+
+    public synchronized int getSessionTimeout() {
+        return timeout;
+    }
+
+    public synchronized void setSessionCacheSize(int size) {
+
+        if (size < 0)
+            throw new IllegalArgumentException("cache size is negative");
+
+        this.cacheSize = size;
+
+        Iterator<WolfSSLSessionImpl> it = sessions.values().iterator();
+        while (size > 0 && sessions.size() > size && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    public synchronized int getSessionCacheSize() {
+        return cacheSize;
+    }
+}
+
@@ -0,0 +1,276 @@
+/* WolfSSLSessionImpl.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.wolfssl.provider;
+
+import java.security.Principal;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionBindingEvent;
+import javax.net.ssl.SSLSessionBindingListener;
+import javax.net.ssl.SSLSessionContext;
+
+/**
+ * Snapshot of a completed wolfSSL handshake, as seen through JSSE.
+ * <p>
+ * The values are copied out of the native session when the handshake
+ * completes, so the snapshot stays usable after the connection has been
+ * closed and its WolfSSLSession freed.
+ *
+ * @author  wolfSSL
+ * @version 1.0, August 2013
+ */
+final class WolfSSLSessionImpl implements SSLSession {
+
+    /* largest TLS plaintext record */
+    static final int APP_BUFFER_SIZE = 16384;
+
+    /* record header, explicit IV, MAC and padding on top of plaintext */
+    static final int PACKET_BUFFER_SIZE = APP_BUFFER_SIZE + 2048;
+
+    private static final AtomicLong nextId = new AtomicLong(1);
+
+    private final byte[] id;
+    private final long creationTime;
+    private long lastAccessedTime;
+    private final String cipherSuite;
+    private final String protocol;
+    private final String peerHost;
+    private final int peerPort;
+    private final X509Certificate[] peerCerts;
+    private final X509Certificate[] localCerts;
+    private final Map<String, Object> values = new HashMap<String, Object>();
+
+    /* native CYASSL_SESSION used to resume, 0 if not resumable */
+    private final long nativeSession;
+
+    private volatile WolfSSLSessionContextImpl context = null;
+    private volatile boolean valid;
+
+    /* session of a connection that has not completed a handshake */
+    WolfSSLSessionImpl(String peerHost, int peerPort) {
+        this(peerHost, peerPort, "SSL_NULL_WITH_NULL_NULL", "NONE",
+             null, null, 0);
+        this.valid = false;
+    }
+
+    WolfSSLSessionImpl(String peerHost, int peerPort, String cipherSuite,
+            String protocol, X509Certificate[] peerCerts,
+            X509Certificate[] localCerts, long nativeSession) {
+
+        long n = nextId.getAndIncrement();
+
+        this.id = new byte[8];
+        for (int i = 0; i < 8; i++)
+            this.id[i] = (byte)(n >>> (56 - (i * 8)));
+
+        this.creationTime = System.currentTimeMillis();
+        this.lastAccessedTime = creationTime;
+        this.cipherSuite = cipherSuite;
+        this.protocol = protocol;
+        this.peerHost = peerHost;
+        this.peerPort = peerPort;
+        this.peerCerts = peerCerts;
+        this.localCerts = localCerts;
+        this.nativeSession = nativeSession;
+        this.valid = true;
+    }
+
+    long getNativeSession() {
+        return nativeSession;
+    }
+
+    void setContext(WolfSSLSessionContextImpl context) {
+        this.context = context;
+    }
+
+    synchronized void touch() {
+        lastAccessedTime = System.currentTimeMillis();
+    }
+
+    public byte[] getId() {
+        return id.clone();
+    }
+
+    public SSLSessionContext getSessionContext() {
+        return context;
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    public synchronized long getLastAccessedTime() {
+        return lastAccessedTime;
+    }
+
+    public void invalidate() {
+
+        WolfSSLSessionContextImpl c = context;
+
+        valid = false;
+        if (c != null)
+            c.remove(this);
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public void putValue(String name, Object value) {
+
+        Object old;
+
+        if (name == null || value == null)
+            throw new IllegalArgumentException("name or value is null");
+
+        synchronized (values) {
+            old = values.put(name, value);
+        }
+
+        if (old instanceof SSLSessionBindingListener)
+            ((SSLSessionBindingListener)old).valueUnbound(
+                    new SSLSessionBindingEvent(this, name));
+        if (value instanceof SSLSessionBindingListener)
+            ((SSLSessionBindingListener)value).valueBound(
+                    new SSLSessionBindingEvent(this, name));
+    }
+
+    public Object getValue(String name) {
+
+        if (name == null)
+            throw new IllegalArgumentException("name is null");
+
+        synchronized (values) {
+            return values.get(name);
+        }
+    }
+
+    public void removeValue(String name) {
+
+        Object old;
+
+        if (name == null)
+            throw new IllegalArgumentException("name is null");
+
+        synchronized (values) {
+            old = values.remove(name);
+        }
+
+        if (old instanceof SSLSessionBindingListener)
+            ((SSLSessionBindingListener)old).valueUnbound(
+                    new SSLSessionBindingEvent(this, name));
+    }
+
+    public String[] getValueNames() {
+        synchronized (values) {
+            return values.keySet().toArray(new String[values.size()]);
+        }
+    }
+
+    /**
+     * Returns the peer certificate. Only the peer's own certificate is
+     * available from wolfSSL, so the array holds at most one entry.
+     */
+    public Certificate[] getPeerCertificates()
+        throws SSLPeerUnverifiedException {
+
+        if (peerCerts == null)
+            throw new SSLPeerUnverifiedException("peer not authenticated");
+
+        return peerCerts.clone();
+    }
+
+    public Certificate[] getLocalCertificates() {
+        return (localCerts == null) ? null : localCerts.clone();
+    }
+
+    @SuppressWarnings("deprecation")
+    public javax.security.cert.X509Certificate[] getPeerCertificateChain()
+        throws SSLPeerUnverifiedException {
+
+        javax.security.cert.X509Certificate[] chain;
+
+        if (peerCerts == null)
+            throw new SSLPeerUnverifiedException("peer not authenticated");
+
+        chain = new javax.security.cert.X509Certificate[peerCerts.length];
+        try {
+            for (int i = 0; i < peerCerts.length; i++) {
+                chain[i] = javax.security.cert.X509Certificate.getInstance(
+                        peerCerts[i].getEncoded());
+            }
+        } catch (CertificateEncodingException e) {
+            throw new SSLPeerUnverifiedException(e.getMessage());
+        } catch (javax.security.cert.CertificateException e) {
+            throw new SSLPeerUnverifiedException(e.getMessage());
+        }
+
+        return chain;
+    }
+
+    public Principal getPeerPrincipal() throws SSLPeerUnverifiedException {
+
+        if (peerCerts == null)
+            throw new SSLPeerUnverifiedException("peer not authenticated");
+
+        return peerCerts[0].getSubjectX500Principal();
+    }
+
+    public Principal getLocalPrincipal() {
+
+        if (localCerts == null || localCerts.length == 0)
+            return null;
+
+        return localCerts[0].getSubjectX500Principal();
+    }
+
+    public String getCipherSuite() {
+        return cipherSuite;
+    }
+
+    public String getProtocol() {
+        return protocol;
+    }
+
+    public String getPeerHost() {
+        return peerHost;
+    }
+
+    public int getPeerPort() {
+        return peerPort;
+    }
+
+    public int getPacketBufferSize() {
+        return PACKET_BUFFER_SIZE;
+    }
+
+    public int getApplicationBufferSize() {
+        return APP_BUFFER_SIZE;
+    }
+}
+
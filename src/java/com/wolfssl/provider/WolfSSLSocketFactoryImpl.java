@@ -0,0 +1,91 @@
+/* WolfSSLSocketFactoryImpl.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.wolfssl.provider;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Client socket factory of the wolfSSL JSSE provider.
+ *
+ * @author  wolfSSL
+ * @version 1.0, August 2013
+ */
+final class WolfSSLSocketFactoryImpl extends SSLSocketFactory {
+
+    private final WolfSSLContextImpl context;
+
+    WolfSSLSocketFactoryImpl(WolfSSLContextImpl context) {
+        this.context = context;
+    }
+
+    private Socket layer(Socket s, String host, int port, boolean autoClose) {
+        return new WolfSSLSocketImpl(context, context.newParameters(true),
+                s, host, port, autoClose);
+    }
+
+    public String[] getDefaultCipherSuites() {
+        return WolfSSLParameters.getSupportedCipherSuites();
+    }
+
+    public String[] getSupportedCipherSuites() {
+        return WolfSSLParameters.getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return layer(new Socket(), null, -1, true);
+    }
+
+    public Socket createSocket(Socket s, String host, int port,
+            boolean autoClose) throws IOException {
+
+        if (s == null || !s.isConnected())
+            throw new IOException("Underlying socket is not connected");
+
+        return layer(s, host, port, autoClose);
+    }
+
+    public Socket createSocket(String host, int port) throws IOException {
+        return layer(new Socket(host, port), host, port, true);
+    }
+
+    public Socket createSocket(String host, int port, InetAddress localAddr,
+            int localPort) throws IOException {
+        return layer(new Socket(host, port, localAddr, localPort),
+                host, port, true);
+    }
+
+    public Socket createSocket(InetAddress addr, int port)
+        throws IOException {
+        return layer(new Socket(addr, port), addr.getHostName(), port, true);
+    }
+
+    public Socket createSocket(InetAddress addr, int port,
+            InetAddress localAddr, int localPort) throws IOException {
+        return layer(new Socket(addr, port, localAddr, localPort),
+                addr.getHostName(), port, true);
+    }
+}
+
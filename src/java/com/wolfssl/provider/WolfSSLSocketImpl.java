@@ -0,0 +1,623 @@
+/* WolfSSLSocketImpl.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.wolfssl.provider;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+
+import com.wolfssl.WolfSSL;
+import com.wolfssl.WolfSSLSession;
+
+/**
+ * SSL socket of the wolfSSL JSSE provider.
+ * <p>
+ * The socket is layered over a connected (or later connected) plain
+ * socket whose file descriptor is handed to wolfSSL, so records are read
+ * and written natively. One thread may read while another writes;
+ * concurrent reads or concurrent writes are serialized.
+ * <p>
+ * wolfSSL performs blocking I/O on the descriptor directly, so
+ * <code>setSoTimeout()</code> has no effect on reads.
+ *
+ * @author  wolfSSL
+ * @version 1.0, August 2013
+ */
+final class WolfSSLSocketImpl extends SSLSocket {
+
+    private final WolfSSLContextImpl context;
+    private final WolfSSLParameters params;
+    private final Socket sock;
+    private final boolean autoClose;
+
+    private String host;
+    private int port;
+
+    private WolfSSLSession ssl = null;
+    private WolfSSLSessionImpl session = null;
+    private volatile boolean handshakeDone = false;
+    private volatile boolean closed = false;
+    private boolean eof = false;
+
+    private final Object handshakeLock = new Object();
+    private final Object readLock = new Object();
+    private final Object writeLock = new Object();
+
+    private final List<HandshakeCompletedListener> listeners =
+        new ArrayList<HandshakeCompletedListener>();
+
+    private final InputStream in = new WolfSSLInputStream();
+    private final OutputStream out = new WolfSSLOutputStream();
+
+    WolfSSLSocketImpl(WolfSSLContextImpl context, WolfSSLParameters params,
+            Socket sock, String host, int port, boolean autoClose) {
+        this.context = context;
+        this.params = params;
+        this.sock = sock;
+        this.host = host;
+        this.port = port;
+        this.autoClose = autoClose;
+    }
+
+    /* --------------------------- handshake ---------------------------- */
+
+    public void startHandshake() throws IOException {
+
+        int ret;
+        HandshakeCompletedEvent event;
+        List<HandshakeCompletedListener> ls;
+
+        synchronized (handshakeLock) {
+            if (closed)
+                throw new SocketException("Socket is closed");
+            if (handshakeDone)
+                return;
+            if (!sock.isConnected())
+                throw new SocketException("Socket is not connected");
+
+            if (host == null) {
+                host = sock.getInetAddress().getHostAddress();
+                port = sock.getPort();
+            }
+
+            if (ssl == null) {
+                ssl = context.newSession(params, host, port);
+                if (ssl.setFd(sock) != WolfSSL.SSL_SUCCESS) {
+                    closeQuietly();
+                    throw new SSLException("Failed to set socket on session");
+                }
+            }
+
+            synchronized (readLock) {
+                synchronized (writeLock) {
+                    ret = params.clientMode ? ssl.connect() : ssl.accept();
+                }
+            }
+
+            if (ret != WolfSSL.SSL_SUCCESS) {
+                int err = ssl.getError(ret);
+                closeQuietly();
+                throw new SSLHandshakeException("Handshake failed: " + err +
+                        ", " + WolfSSL.getErrorString(err));
+            }
+
+            try {
+                session = context.handshakeDone(ssl, params, host, port);
+            } catch (SSLException e) {
+                closeQuietly();
+                throw e;
+            }
+            handshakeDone = true;
+            event = new HandshakeCompletedEvent(this, session);
+        }
+
+        synchronized (listeners) {
+            ls = new ArrayList<HandshakeCompletedListener>(listeners);
+        }
+        for (HandshakeCompletedListener l : ls)
+            l.handshakeCompleted(event);
+    }
+
+    public SSLSession getSession() {
+
+        try {
+            startHandshake();
+        } catch (IOException e) {
+            return new WolfSSLSessionImpl(host, port);
+        }
+
+        return session;
+    }
+
+    public void addHandshakeCompletedListener(
+            HandshakeCompletedListener listener) {
+
+        if (listener == null)
+            throw new IllegalArgumentException("listener is null");
+
+        synchronized (listeners) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeHandshakeCompletedListener(
+            HandshakeCompletedListener listener) {
+
+        synchronized (listeners) {
+            if (!listeners.remove(listener))
+                throw new IllegalArgumentException("listener not registered");
+        }
+    }
+
+    /* ---------------------------- settings ---------------------------- */
+
+    public String[] getSupportedCipherSuites() {
+        return WolfSSLParameters.getSupportedCipherSuites();
+    }
+
+    public String[] getEnabledCipherSuites() {
+        synchronized (handshakeLock) {
+            return params.getCipherSuites();
+        }
+    }
+
+    public void setEnabledCipherSuites(String[] suites) {
+        synchronized (handshakeLock) {
+            params.setCipherSuites(suites);
+        }
+    }
+
+    public String[] getSupportedProtocols() {
+        return params.getSupportedProtocols();
+    }
+
+    public String[] getEnabledProtocols() {
+        synchronized (handshakeLock) {
+            return params.getProtocols();
+        }
+    }
+
+    public void setEnabledProtocols(String[] protocols) {
+        synchronized (handshakeLock) {
+            params.setProtocols(protocols);
+        }
+    }
+
+    public void setUseClientMode(boolean mode) {
+        synchronized (handshakeLock) {
+            if (ssl != null)
+                throw new IllegalArgumentException(
+                        "Handshake has already started");
+            params.clientMode = mode;
+        }
+    }
+
+    public boolean getUseClientMode() {
+        synchronized (handshakeLock) {
+            return params.clientMode;
+        }
+    }
+
+    public void setNeedClientAuth(boolean need) {
+        synchronized (handshakeLock) {
+            params.setNeedClientAuth(need);
+        }
+    }
+
+    public boolean getNeedClientAuth() {
+        synchronized (handshakeLock) {
+            return params.needClientAuth;
+        }
+    }
+
+    public void setWantClientAuth(boolean want) {
+        synchronized (handshakeLock) {
+            params.setWantClientAuth(want);
+        }
+    }
+
+    public boolean getWantClientAuth() {
+        synchronized (handshakeLock) {
+            return params.wantClientAuth;
+        }
+    }
+
+    public void setEnableSessionCreation(boolean flag) {
+        synchronized (handshakeLock) {
+            params.sessionCreation = flag;
+        }
+    }
+
+    public boolean getEnableSessionCreation() {
+        synchronized (handshakeLock) {
+            return params.sessionCreation;
+        }
+    }
+
+    @Override
+    public SSLParameters getSSLParameters() {
+        synchronized (handshakeLock) {
+            return params.getSSLParameters();
+        }
+    }
+
+    @Override
+    public void setSSLParameters(SSLParameters sp) {
+        synchronized (handshakeLock) {
+            params.setSSLParameters(sp);
+        }
+    }
+
+    /* ------------------------------ I/O ------------------------------- */
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (closed)
+            throw new SocketException("Socket is closed");
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (closed)
+            throw new SocketException("Socket is closed");
+        return out;
+    }
+
+    private int readApp(byte[] b, int off, int len) throws IOException {
+
+        int ret;
+        int err;
+
+        startHandshake();
+
+        synchronized (readLock) {
+            if (closed)
+                throw new SocketException("Socket is closed");
+            if (eof)
+                return -1;
+
+            /* the session is blocking, so the array is staged through
+             * a native buffer rather than pinned while the read waits */
+            ret = ssl.read(ByteBuffer.wrap(b, off, len));
+            if (ret > 0)
+                return ret;
+
+            err = ssl.getError(ret);
+            if (ret == 0 || err == WolfSSL.SSL_ERROR_ZERO_RETURN) {
+                eof = true;
+                return -1;
+            }
+        }
+
+        if (closed)
+            throw new SocketException("Socket is closed");
+
+        throw new SSLException("Read failed: " + err + ", " +
+                WolfSSL.getErrorString(err));
+    }
+
+    private void writeApp(byte[] b, int off, int len) throws IOException {
+
+        int ret;
+        ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+
+        startHandshake();
+
+        synchronized (writeLock) {
+            while (buf.hasRemaining()) {
+                if (closed)
+                    throw new SocketException("Socket is closed");
+
+                ret = ssl.write(buf);
+                if (ret <= 0) {
+                    int err = ssl.getError(ret);
+                    throw new SSLException("Write failed: " + err + ", " +
+                            WolfSSL.getErrorString(err));
+                }
+            }
+        }
+    }
+
+    private class WolfSSLInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+
+            byte[] b = new byte[1];
+
+            if (read(b, 0, 1) < 0)
+                return -1;
+
+            return b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+
+            if (off < 0 || len < 0 || len > b.length - off)
+                throw new IndexOutOfBoundsException();
+            if (len == 0)
+                return 0;
+
+            return readApp(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+
+            WolfSSLSession s = ssl;
+
+            if (closed || !handshakeDone || s == null)
+                return 0;
+
+            return Math.max(s.pending(), 0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            WolfSSLSocketImpl.this.close();
+        }
+    }
+
+    private class WolfSSLOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+
+            if (off < 0 || len < 0 || len > b.length - off)
+                throw new IndexOutOfBoundsException();
+            if (len == 0)
+                return;
+
+            writeApp(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            WolfSSLSocketImpl.this.close();
+        }
+    }
+
+    /* ---------------------------- closing ----------------------------- */
+
+    @Override
+    public void close() throws IOException {
+
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+        }
+
+        if (handshakeDone) {
+            synchronized (writeLock) {
+                ssl.shutdownSSL();
+            }
+        }
+
+        /* closing the socket releases a reader blocked in native recv() */
+        if (autoClose)
+            sock.close();
+
+        freeSession();
+    }
+
+    private void closeQuietly() {
+
+        try {
+            close();
+        } catch (IOException e) {
+            /* already failing, report the original error */
+        }
+    }
+
+    private void freeSession() {
+
+        synchronized (readLock) {
+            synchronized (writeLock) {
+                if (ssl != null) {
+                    ssl.freeSSL();
+                    ssl = null;
+                }
+            }
+        }
+    }
+
+    /* ---------------------- socket delegation ------------------------- */
+
+    @Override
+    public void connect(SocketAddress endpoint, int timeout)
+        throws IOException {
+
+        sock.connect(endpoint, timeout);
+
+        if (host == null && endpoint instanceof InetSocketAddress) {
+            host = ((InetSocketAddress)endpoint).getHostString();
+            port = ((InetSocketAddress)endpoint).getPort();
+        }
+    }
+
+    @Override
+    public void bind(SocketAddress bindpoint) throws IOException {
+        sock.bind(bindpoint);
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return sock.getInetAddress();
+    }
+
+    @Override
+    public InetAddress getLocalAddress() {
+        return sock.getLocalAddress();
+    }
+
+    @Override
+    public int getPort() {
+        return sock.getPort();
+    }
+
+    @Override
+    public int getLocalPort() {
+        return sock.getLocalPort();
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        return sock.getRemoteSocketAddress();
+    }
+
+    @Override
+    public SocketAddress getLocalSocketAddress() {
+        return sock.getLocalSocketAddress();
+    }
+
+    @Override
+    public SocketChannel getChannel() {
+        return null;
+    }
+
+    @Override
+    public void setTcpNoDelay(boolean on) throws SocketException {
+        sock.setTcpNoDelay(on);
+    }
+
+    @Override
+    public boolean getTcpNoDelay() throws SocketException {
+        return sock.getTcpNoDelay();
+    }
+
+    @Override
+    public void setSoLinger(boolean on, int linger) throws SocketException {
+        sock.setSoLinger(on, linger);
+    }
+
+    @Override
+    public int getSoLinger() throws SocketException {
+        return sock.getSoLinger();
+    }
+
+    @Override
+    public void setSoTimeout(int timeout) throws SocketException {
+        sock.setSoTimeout(timeout);
+    }
+
+    @Override
+    public int getSoTimeout() throws SocketException {
+        return sock.getSoTimeout();
+    }
+
+    @Override
+    public void setSendBufferSize(int size) throws SocketException {
+        sock.setSendBufferSize(size);
+    }
+
+    @Override
+    public int getSendBufferSize() throws SocketException {
+        return sock.getSendBufferSize();
+    }
+
+    @Override
+    public void setReceiveBufferSize(int size) throws SocketException {
+        sock.setReceiveBufferSize(size);
+    }
+
+    @Override
+    public int getReceiveBufferSize() throws SocketException {
+        return sock.getReceiveBufferSize();
+    }
+
+    @Override
+    public void setKeepAlive(boolean on) throws SocketException {
+        sock.setKeepAlive(on);
+    }
+
+    @Override
+    public boolean getKeepAlive() throws SocketException {
+        return sock.getKeepAlive();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return sock.isConnected();
+    }
+
+    @Override
+    public boolean isBound() {
+        return sock.isBound();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed || sock.isClosed();
+    }
+
+    @Override
+    public void shutdownInput() throws IOException {
+        throw new UnsupportedOperationException(
+                "shutdownInput() is not supported on SSL sockets");
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        throw new UnsupportedOperationException(
+                "shutdownOutput() is not supported on SSL sockets");
+    }
+
+    @Override
+    public boolean isInputShutdown() {
+        return sock.isInputShutdown();
+    }
+
+    @Override
+    public boolean isOutputShutdown() {
+        return sock.isOutputShutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "WolfSSLSocket[" + sock.toString() + "]";
+    }
+}
+
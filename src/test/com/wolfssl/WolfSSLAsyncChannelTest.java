@@ -0,0 +1,129 @@
+/* WolfSSLAsyncChannelTest.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.wolfssl;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import com.wolfssl.WolfSSL;
+
+public class WolfSSLAsyncChannelTest {
+
+    @Test
+    public void testWolfSSLAsyncChannel() throws Exception {
+
+        System.out.println("WolfSSLAsyncChannel Class");
+
+        test_WolfSSLAsyncChannel_echoClose();
+    }
+
+    public void test_WolfSSLAsyncChannel_echoClose() throws Exception {
+
+        System.out.print("\thandshake/echo/close");
+
+        try {
+            checkEchoClose();
+        } catch (Exception e) {
+            System.out.println("\t... failed");
+            fail("async channel round trip failed: " + e);
+        }
+
+        System.out.println("\t... passed");
+    }
+
+    /* async client against a blocking server session, which echoes one
+     * message and then expects close_notify */
+    private void checkEchoClose() throws Exception {
+
+        WolfSSLContext cliCtx = WolfSSLSessionTest.newClientContext();
+        WolfSSLContext srvCtx = WolfSSLSessionTest.newServerContext();
+        final WolfSSLSession srv = new WolfSSLSession(srvCtx);
+        final int[] result = new int[1];
+        ServerSocketChannel listen = ServerSocketChannel.open();
+        AsynchronousSocketChannel asc = AsynchronousSocketChannel.open();
+        WolfSSLAsyncChannel ch;
+        ByteBuffer in = ByteBuffer.allocate(64);
+        Thread server;
+
+        try {
+            listen.socket().bind(new InetSocketAddress(
+                    InetAddress.getByName("127.0.0.1"), 0));
+            asc.connect(listen.socket().getLocalSocketAddress()).get(10,
+                    TimeUnit.SECONDS);
+            srv.setFd(listen.accept());
+        } finally {
+            listen.close();
+        }
+
+        server = new Thread(new Runnable() {
+            public void run() {
+                byte[] buf = new byte[64];
+                int ret = srv.accept();
+
+                if (ret == WolfSSL.SSL_SUCCESS)
+                    ret = srv.read(buf, buf.length);
+                if (ret > 0)
+                    ret = srv.write(buf, ret);
+                if (ret > 0) {
+                    ret = srv.read(buf, buf.length);
+                    ret = (ret <= 0) ? srv.getError(ret) : -1;
+                }
+                result[0] = ret;
+            }
+        });
+        server.start();
+
+        try {
+            ch = new WolfSSLAsyncChannel(cliCtx, asc, true);
+            ch.handshake().get(10, TimeUnit.SECONDS);
+
+            if (ch.write(ByteBuffer.wrap("hello".getBytes())).get(10,
+                    TimeUnit.SECONDS) != 5 ||
+                ch.read(in).get(10, TimeUnit.SECONDS) != 5 ||
+                !new String(in.array(), 0, 5).equals("hello"))
+                throw new Exception("data was not echoed");
+
+            ch.close().get(10, TimeUnit.SECONDS);
+            server.join(10000);
+
+            if (result[0] != WolfSSL.SSL_ERROR_ZERO_RETURN)
+                throw new Exception("server saw " + result[0] +
+                        " instead of close_notify");
+        } finally {
+            /* a failed client leaves the server waiting on the socket */
+            asc.close();
+            server.join(10000);
+            srv.freeSSL();
+            cliCtx.free();
+            srvCtx.free();
+        }
+    }
+}
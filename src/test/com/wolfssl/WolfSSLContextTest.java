@@ -26,6 +26,9 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import static org.junit.Assert.*;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import com.wolfssl.WolfSSL;
 
 public class WolfSSLContextTest {
@@ -49,6 +52,11 @@ public class WolfSSLContextTest {
         test_WolfSSLContext_useCertificateFile();
         test_WolfSSLContext_usePrivateKeyFile();
         test_WolfSSLContext_loadVerifyLocations();
+        test_WolfSSLContext_setVerifyCache();
+        test_WolfSSLContext_setSessionArenaSize();
+        test_WolfSSLContext_byteBufferIO();
+        test_WolfSSLContext_retainedView();
+        test_WolfSSLContext_callbackThreads();
         test_WolfSSLContext_free();
 
     }
@@ -220,6 +228,221 @@ public class WolfSSLContextTest {
         return;
     }
 
+    public void test_WolfSSLContext_setVerifyCache() {
+
+        System.out.print("\tsetVerifyCache()");
+
+        WolfSSLVerifyCallback cb = new WolfSSLVerifyCallback() {
+            public int verifyCallback(int preverify_ok, long x509StorePtr) {
+                return preverify_ok;
+            }
+        };
+
+        if (ctx.setVerifyCache(-1, 0) != WolfSSL.BAD_FUNC_ARG ||
+            ctx.setVerifyCache(16, -1) != WolfSSL.BAD_FUNC_ARG ||
+            ctx.setVerifyCache(16, 60) != WolfSSL.SSL_SUCCESS) {
+            System.out.println("\t... failed");
+            fail("setVerifyCache() failed");
+        }
+
+        /* cache settings carry over to the new callback and can be
+         * changed while one is registered */
+        ctx.setVerify(WolfSSL.SSL_VERIFY_PEER, cb);
+        if (ctx.setVerifyCache(32, 0) != WolfSSL.SSL_SUCCESS ||
+            ctx.setVerifyCache(0, 0) != WolfSSL.SSL_SUCCESS) {
+            System.out.println("\t... failed");
+            fail("setVerifyCache() failed with verify callback set");
+        }
+        ctx.setVerify(WolfSSL.SSL_VERIFY_NONE, null);
+
+        System.out.println("\t... passed");
+    }
+
+    public void test_WolfSSLContext_setSessionArenaSize() {
+
+        System.out.print("\tsetSessionArenaSize()");
+
+        if (ctx.setSessionArenaSize(-1) != WolfSSL.BAD_FUNC_ARG ||
+            ctx.setSessionArenaSize(64 * 1024) != WolfSSL.SSL_SUCCESS ||
+            ctx.getSessionArenaSize() != 64 * 1024) {
+            System.out.println("\t... failed");
+            fail("setSessionArenaSize() failed");
+        }
+
+        /* sessions are counted the same with or without an arena */
+        try (WolfSSLSession ssl = new WolfSSLSession(ctx)) {
+            WolfSSLMemoryStats stats = ssl.getNativeMemoryStats();
+            if (stats == null || stats.getLiveBytes() <= 0) {
+                System.out.println("\t... failed");
+                fail("session created with an arena has no memory charged");
+            }
+        } catch (WolfSSLException we) {
+            System.out.println("\t... failed");
+            fail("failed to create WolfSSLSession with an arena");
+        }
+
+        ctx.setSessionArenaSize(0);
+
+        System.out.println("\t... passed");
+    }
+
+    public void test_WolfSSLContext_byteBufferIO() {
+
+        System.out.print("\tsetIORecv/Send(ByteBuffer)");
+
+        try {
+            checkByteBufferIO();
+        } catch (Exception e) {
+            System.out.println("\t... failed");
+            fail("ByteBuffer I/O callbacks failed: " + e);
+        }
+
+        System.out.println("\t... passed");
+    }
+
+    /* handshake and several records each way, with every byte passing
+     * through the ByteBuffer callbacks of an in-memory transport */
+    private void checkByteBufferIO() throws Exception {
+
+        WolfSSLSession[] pair = WolfSSLSessionTest.memoryPair();
+        byte[] out = new byte[40000];
+        byte[] in = new byte[out.length];
+
+        for (int i = 0; i < out.length; i++)
+            out[i] = (byte)(i * 7);
+
+        try {
+            for (int dir = 0; dir < 2; dir++) {
+                WolfSSLSession from = pair[dir];
+                WolfSSLSession to = pair[1 - dir];
+                int got = 0;
+
+                Arrays.fill(in, (byte)0);
+                if (from.write(out, out.length) != out.length)
+                    throw new Exception("short write");
+
+                while (got < in.length) {
+                    int ret = to.read(in, got, in.length - got);
+                    if (ret <= 0)
+                        throw new Exception("read returned " + ret);
+                    got += ret;
+                }
+                if (!Arrays.equals(in, out))
+                    throw new Exception("data differs, direction " + dir);
+            }
+        } finally {
+            pair[0].freeSSL();
+            pair[1].freeSSL();
+        }
+    }
+
+    public void test_WolfSSLContext_retainedView() {
+
+        System.out.print("\tretained callback view");
+
+        try {
+            checkRetainedView();
+        } catch (Exception e) {
+            System.out.println("\t... failed");
+            fail("callback view usable after the callback: " + e);
+        }
+
+        System.out.println("\t... passed");
+    }
+
+    /* a callback keeping the ByteBuffer it was given must find it empty
+     * afterwards, rather than still pointing at wolfSSL's memory */
+    private void checkRetainedView() throws Exception {
+
+        final ByteBuffer[] kept = new ByteBuffer[2];
+        final int[] seen = new int[2];
+        WolfSSLContext cliCtx = WolfSSLSessionTest.newClientContext();
+        WolfSSLContext srvCtx = WolfSSLSessionTest.newServerContext();
+        WolfSSLSession[] pair;
+
+        for (WolfSSLContext c : new WolfSSLContext[] { cliCtx, srvCtx }) {
+            c.setIORecv(new WolfSSLByteBufferIORecvCallback() {
+                public int receiveCallback(WolfSSLSession ssl,
+                        ByteBuffer buf, Object ctx) {
+                    kept[0] = buf;
+                    seen[0] = Math.max(seen[0], buf.capacity());
+                    return WolfSSLSessionTest.MEMORY_RECV.receiveCallback(
+                            ssl, buf, ctx);
+                }
+            });
+            c.setIOSend(new WolfSSLByteBufferIOSendCallback() {
+                public int sendCallback(WolfSSLSession ssl, ByteBuffer buf,
+                        Object ctx) {
+                    kept[1] = buf;
+                    seen[1] = Math.max(seen[1], buf.capacity());
+                    return WolfSSLSessionTest.MEMORY_SEND.sendCallback(
+                            ssl, buf, ctx);
+                }
+            });
+        }
+
+        pair = WolfSSLSessionTest.memoryPair(new WolfSSLSession(cliCtx),
+                new WolfSSLSession(srvCtx));
+
+        try {
+            for (int i = 0; i < kept.length; i++) {
+                if (kept[i] == null || seen[i] == 0)
+                    throw new Exception("callback " + i + " never ran");
+                if (kept[i].capacity() != 0 || kept[i].hasRemaining())
+                    throw new Exception("view " + i + " still has " +
+                            kept[i].capacity() + " bytes");
+            }
+        } finally {
+            pair[0].freeSSL();
+            pair[1].freeSSL();
+            cliCtx.free();
+            srvCtx.free();
+        }
+    }
+
+    public void test_WolfSSLContext_callbackThreads() {
+
+        System.out.print("\tcallbacks on new threads");
+
+        try {
+            checkCallbackThreads();
+        } catch (Exception e) {
+            System.out.println("\t... failed");
+            fail("callbacks failed on new threads: " + e);
+        }
+
+        System.out.println("\t... passed");
+    }
+
+    /* short-lived threads each run a handshake and exchange over the
+     * ByteBuffer callbacks, all using the method IDs cached at load time
+     * and each getting its JNIEnv on first use */
+    private void checkCallbackThreads() throws Exception {
+
+        final Exception[] errors = new Exception[4];
+        Thread[] threads = new Thread[errors.length];
+
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        checkByteBufferIO();
+                    } catch (Exception e) {
+                        errors[n] = e;
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            if (errors[i] != null)
+                throw errors[i];
+        }
+    }
+
     public void test_WolfSSLContext_free() {
 
         System.out.print("\tfree()");
@@ -0,0 +1,124 @@
+/* WolfSSLEngineTest.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package com.wolfssl;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import com.wolfssl.WolfSSL;
+
+public class WolfSSLEngineTest {
+
+    WolfSSLContext ctx;
+    WolfSSLEngine engine;
+
+    @Test
+    public void testWolfSSLEngine() throws WolfSSLException {
+
+        ctx = new WolfSSLContext(WolfSSL.SSLv23_ClientMethod());
+        ctx.setVerify(WolfSSL.SSL_VERIFY_NONE, null);
+
+        System.out.println("WolfSSLEngine Class");
+
+        test_WolfSSLEngine_new();
+        test_WolfSSLEngine_wrapClientHello();
+        test_WolfSSLEngine_free();
+        test_WolfSSLEngine_collected();
+
+        ctx.free();
+    }
+
+    public void test_WolfSSLEngine_new() {
+
+        try {
+            System.out.print("\tWolfSSLEngine()");
+            engine = new WolfSSLEngine(ctx, true);
+        } catch (WolfSSLException we) {
+            System.out.println("\t... failed");
+            fail("failed to create WolfSSLEngine object");
+        }
+
+        System.out.println("\t... passed");
+    }
+
+    public void test_WolfSSLEngine_wrapClientHello() {
+
+        int ret;
+        ByteBuffer netDst = ByteBuffer.allocateDirect(17 * 1024);
+
+        System.out.print("\twrap(ClientHello)");
+
+        /* first wrap sends ClientHello, then waits for the server */
+        ret = engine.wrap(null, netDst);
+        if (ret >= 0 || engine.getError() != WolfSSL.SSL_ERROR_WANT_READ ||
+            netDst.position() == 0 || engine.isHandshakeComplete()) {
+            System.out.println("\t... failed");
+            fail("wrap() did not produce ClientHello");
+        }
+
+        System.out.println("\t... passed");
+    }
+
+    public void test_WolfSSLEngine_free() {
+
+        System.out.print("\tfree()");
+        engine.free();
+        System.out.println("\t\t\t... passed");
+    }
+
+    public void test_WolfSSLEngine_collected() {
+
+        long leaked = WolfSSL.getLeakedObjectCount();
+        long deadline = System.currentTimeMillis() + 10000;
+
+        System.out.print("\tunreachable engine");
+
+        try {
+            new WolfSSLEngine(ctx, true).wrap(null,
+                    ByteBuffer.allocateDirect(17 * 1024));
+        } catch (WolfSSLException we) {
+            System.out.println("\t... failed");
+            fail("failed to create WolfSSLEngine object");
+        }
+
+        /* the cleaner frees the engine's session and native I/O state */
+        while (WolfSSL.getLeakedObjectCount() == leaked) {
+            if (System.currentTimeMillis() > deadline) {
+                System.out.println("\t... failed");
+                fail("unreachable engine was not freed");
+            }
+            System.gc();
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                /* check again */
+            }
+        }
+
+        System.out.println("\t... passed");
+    }
+}
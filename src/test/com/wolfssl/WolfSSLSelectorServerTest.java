@@ -0,0 +1,228 @@
+/* WolfSSLSelectorServerTest.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.wolfssl;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.wolfssl.WolfSSL;
+
+public class WolfSSLSelectorServerTest {
+
+    WolfSSLSelectorServer server;
+
+    /* echoes everything back, closing the connection after "bye" */
+    static class EchoHandler implements WolfSSLSelectorServer.Handler {
+
+        final CountDownLatch closed = new CountDownLatch(1);
+        volatile int closeError = -1;
+
+        public void connected(WolfSSLSelectorServer.Connection conn) {
+        }
+
+        public void received(WolfSSLSelectorServer.Connection conn,
+                ByteBuffer data) {
+
+            ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+            boolean bye;
+
+            copy.put(data);
+            copy.flip();
+            bye = new String(copy.array()).endsWith("bye");
+
+            if (new String(copy.array()).equals("boom"))
+                throw new IllegalStateException("handler failure");
+
+            conn.write(copy);
+            if (bye)
+                conn.close();
+        }
+
+        public void closed(WolfSSLSelectorServer.Connection conn,
+                int error) {
+            closeError = error;
+            closed.countDown();
+        }
+    }
+
+    @Test
+    public void testWolfSSLSelectorServer() throws Exception {
+
+        WolfSSLContext srvCtx = WolfSSLSessionTest.newServerContext();
+        EchoHandler handler = new EchoHandler();
+
+        System.out.println("WolfSSLSelectorServer Class");
+
+        server = new WolfSSLSelectorServer(srvCtx,
+                new InetSocketAddress("127.0.0.1", 0), 2, handler);
+        server.start();
+
+        try {
+            test_WolfSSLSelectorServer_echoClose(handler);
+        } finally {
+            server.stop();
+        }
+
+        test_WolfSSLSelectorServer_handlerThrows(srvCtx);
+        test_WolfSSLSelectorServer_restart(srvCtx);
+    }
+
+    public void test_WolfSSLSelectorServer_handlerThrows(
+            WolfSSLContext srvCtx) throws Exception {
+
+        EchoHandler handler = new EchoHandler();
+
+        System.out.print("\thandler exception");
+
+        /* one selector, so the failing and the next connection share it */
+        server = new WolfSSLSelectorServer(srvCtx,
+                new InetSocketAddress("127.0.0.1", 0), 1, handler);
+        server.start();
+
+        try {
+            if (echo("boom")) {
+                System.out.println("\t... failed");
+                fail("connection survived a handler exception");
+            }
+            if (!handler.closed.await(10, TimeUnit.SECONDS) ||
+                handler.closeError != WolfSSL.SSL_FATAL_ERROR) {
+                System.out.println("\t... failed");
+                fail("failed connection closed with " + handler.closeError);
+            }
+            if (!echo("hello")) {
+                System.out.println("\t... failed");
+                fail("selector stopped serving after a handler exception");
+            }
+        } finally {
+            server.stop();
+        }
+
+        System.out.println("\t... passed");
+    }
+
+    public void test_WolfSSLSelectorServer_restart(WolfSSLContext srvCtx)
+        throws Exception {
+
+        System.out.print("\tstop()/start()");
+
+        server = new WolfSSLSelectorServer(srvCtx,
+                new InetSocketAddress("127.0.0.1", 0), 2, new EchoHandler());
+
+        try {
+            for (int i = 0; i < 2; i++) {
+                server.start();
+                /* round-robin, so both selectors serve one connection */
+                if (!echo("hello") || !echo("hello")) {
+                    System.out.println("\t... failed");
+                    fail("server did not serve after start " + i);
+                }
+                server.stop();
+            }
+        } finally {
+            server.stop();
+        }
+
+        System.out.println("\t... passed");
+    }
+
+    /* connects to the server and returns whether msg was echoed back */
+    private boolean echo(String msg) throws Exception {
+
+        WolfSSLContext cliCtx = WolfSSLSessionTest.newClientContext();
+        WolfSSLSession ssl = new WolfSSLSession(cliCtx);
+        SocketChannel ch = SocketChannel.open(server.getLocalAddress());
+        byte[] in = new byte[64];
+        int len = msg.length();
+
+        try {
+            return ssl.setFd(ch) == WolfSSL.SSL_SUCCESS &&
+                   ssl.connect() == WolfSSL.SSL_SUCCESS &&
+                   ssl.write(msg.getBytes(), len) == len &&
+                   ssl.read(in, in.length) == len &&
+                   new String(in, 0, len).equals(msg);
+        } finally {
+            ssl.freeSSL();
+            ch.close();
+            cliCtx.free();
+        }
+    }
+
+    public void test_WolfSSLSelectorServer_echoClose(EchoHandler handler)
+        throws Exception {
+
+        WolfSSLContext cliCtx = WolfSSLSessionTest.newClientContext();
+        WolfSSLSession ssl = new WolfSSLSession(cliCtx);
+        SocketChannel ch = SocketChannel.open(server.getLocalAddress());
+        byte[] in = new byte[64];
+        int ret;
+
+        System.out.print("\taccept/echo/close");
+
+        try {
+            if (ssl.setFd(ch) != WolfSSL.SSL_SUCCESS ||
+                ssl.connect() != WolfSSL.SSL_SUCCESS) {
+                System.out.println("\t... failed");
+                fail("handshake with selector server failed");
+            }
+
+            if (ssl.write("hello".getBytes(), 5) != 5 ||
+                ssl.read(in, in.length) != 5 ||
+                !new String(in, 0, 5).equals("hello")) {
+                System.out.println("\t... failed");
+                fail("data was not echoed");
+            }
+
+            /* the server echoes "bye", then sends close_notify */
+            if (ssl.write("bye".getBytes(), 3) != 3 ||
+                ssl.read(in, in.length) != 3) {
+                System.out.println("\t... failed");
+                fail("last message was not echoed");
+            }
+            ret = ssl.read(in, in.length);
+            if (ret > 0 || ssl.getError(ret) != WolfSSL.SSL_ERROR_ZERO_RETURN) {
+                System.out.println("\t... failed");
+                fail("server did not send close_notify");
+            }
+
+            if (!handler.closed.await(10, TimeUnit.SECONDS) ||
+                handler.closeError != WolfSSL.SSL_ERROR_NONE) {
+                System.out.println("\t... failed");
+                fail("connection was not closed in order, error " +
+                     handler.closeError);
+            }
+        } finally {
+            ssl.freeSSL();
+            ch.close();
+            cliCtx.free();
+        }
+
+        System.out.println("\t... passed");
+    }
+}
@@ -26,10 +26,22 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import static org.junit.Assert.*;
 
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
 import com.wolfssl.WolfSSL;
 
 public class WolfSSLSessionTest {
 
+    public final static String caCert = "./examples/certs/ca-cert.pem";
+    public final static String srvCert = "./examples/certs/server-cert.pem";
+    public final static String srvKey = "./examples/certs/server-key.pem";
+
     WolfSSLContext ctx;
     WolfSSLSession ssl;
 
@@ -41,7 +53,20 @@ public class WolfSSLSessionTest {
         System.out.println("WolfSSLSession Class");
 
         test_WolfSSLSession_new();
+        test_WolfSSLSession_byteBufferArgs();
+        test_WolfSSLSession_arrayRegionArgs();
+        test_WolfSSLSession_statusArgs();
+        test_WolfSSLSession_canPinArrays();
+        test_WolfSSLSession_writeBulk();
+        test_WolfSSLSession_writeGather();
+        test_WolfSSLSession_pollerWaiters();
+        test_WolfSSLSession_readScatter();
+        test_WolfSSLSession_ioReadAhead();
+        test_WolfSSLSession_releaseIOBuffers();
+        test_WolfSSLSession_pool();
+        test_WolfSSLSession_memoryStats();
         test_WolfSSLSession_freeSSL();
+        test_WolfSSLSession_close();
 
     }
 
@@ -58,11 +83,799 @@ public class WolfSSLSessionTest {
         System.out.println("\t... passed");
     }
 
+    public void test_WolfSSLSession_byteBufferArgs() {
+
+        System.out.print("\tread/write(ByteBuffer)");
+
+        ByteBuffer nullBuf = null;
+        ByteBuffer roBuf = ByteBuffer.allocate(16).asReadOnlyBuffer();
+
+        if (ssl.read(nullBuf) != WolfSSL.BAD_FUNC_ARG ||
+            ssl.write(nullBuf) != WolfSSL.BAD_FUNC_ARG ||
+            ssl.read(roBuf) != WolfSSL.BAD_FUNC_ARG) {
+            System.out.println("\t... failed");
+            fail("read/write(ByteBuffer) failed to reject bad arguments");
+        }
+
+        System.out.println("\t... passed");
+    }
+
+    public void test_WolfSSLSession_arrayRegionArgs() {
+
+        System.out.print("\tread/write(byte[], off, len)");
+
+        byte[] buf = new byte[16];
+
+        if (ssl.read((byte[])null, 0, 1) != WolfSSL.BAD_FUNC_ARG ||
+            ssl.write((byte[])null, 0, 1) != WolfSSL.BAD_FUNC_ARG ||
+            ssl.read(buf, -1, 4) != WolfSSL.BAD_FUNC_ARG ||
+            ssl.write(buf, 0, -1) != WolfSSL.BAD_FUNC_ARG ||
+            ssl.read(buf, 8, 9) != WolfSSL.BAD_FUNC_ARG ||
+            ssl.write(buf, 16, 1) != WolfSSL.BAD_FUNC_ARG) {
+            System.out.println("\t... failed");
+            fail("read/write(byte[], off, len) failed to reject bad " +
+                 "arguments");
+        }
+
+        System.out.println("\t... passed");
+    }
+
+    public void test_WolfSSLSession_statusArgs() {
+
+        System.out.print("\treadStatus/writeStatus()");
+
+        long[] status = {
+            ssl.readStatus((byte[])null, 0, 1),
+            ssl.writeStatus(new byte[4], 2, 4),
+            ssl.readStatus((ByteBuffer)null),
+            ssl.writeStatus((ByteBuffer)null)
+        };
+
+        for (long st : status) {
+            if (WolfSSLSession.statusReturn(st) != WolfSSL.BAD_FUNC_ARG ||
+                WolfSSLSession.statusError(st) != WolfSSL.BAD_FUNC_ARG) {
+                System.out.println("\t... failed");
+                fail("status methods failed to report bad arguments");
+            }
+        }
+
+        System.out.println("\t... passed");
+    }
+
+    public void test_WolfSSLSession_canPinArrays() {
+
+        System.out.print("\tcanPinArrays()");
+
+        /* blocking sessions copy, only non-blocking ones pin */
+        if (ssl.canPinArrays()) {
+            System.out.println("\t... failed");
+            fail("blocking session allowed pinning");
+        }
+        ssl.setUsingNonblock(1);
+        if (!ssl.canPinArrays()) {
+            System.out.println("\t... failed");
+            fail("non-blocking session without callbacks not pinned");
+        }
+        ssl.setUsingNonblock(0);
+        if (ssl.canPinArrays()) {
+            System.out.println("\t... failed");
+            fail("session allowed pinning after setUsingNonblock(0)");
+        }
+
+        System.out.println("\t... passed");
+    }
+
+    public void test_WolfSSLSession_writeBulk() {
+
+        System.out.print("\twriteBulk()");
+
+        /* blocking sessions stage each record, park mode pins */
+        for (boolean park : new boolean[] { false, true }) {
+            try {
+                checkWriteBulk(park);
+            } catch (Exception e) {
+                System.out.println("\t\t... failed");
+                fail("writeBulk() failed, park = " + park + ": " + e);
+            }
+        }
+
+        System.out.println("\t\t... passed");
+    }
+
+    /* sends a payload of several records plus a partial one, checking the
+     * peer receives it in records of at most 16kB */
+    private void checkWriteBulk(boolean park) throws Exception {
+
+        final byte[] out = new byte[3 * 16384 + 1000];
+        final WolfSSLSession[] pair = connectPair(park);
+        final int[] sent = new int[1];
+        byte[] in = new byte[out.length];
+        Thread writer;
+        int got = 0;
+
+        for (int i = 0; i < out.length; i++)
+            out[i] = (byte)i;
+
+        try {
+            writer = new Thread(new Runnable() {
+                public void run() {
+                    sent[0] = pair[0].writeBulk(out, 0, out.length);
+                }
+            });
+            writer.start();
+
+            while (got < in.length) {
+                int ret = pair[1].read(in, got, in.length - got);
+                if (ret <= 0 || ret > 16384)
+                    throw new Exception("read returned " + ret);
+                got += ret;
+            }
+            writer.join();
+
+            if (sent[0] != out.length || !Arrays.equals(in, out))
+                throw new Exception("sent " + sent[0] + " bytes, " +
+                        "received data differs");
+        } finally {
+            pair[0].freeSSL();
+            pair[1].freeSSL();
+        }
+    }
+
+    public void test_WolfSSLSession_ioReadAhead() {
+
+        System.out.print("\tsetIOReadAhead()");
+
+        /* no receive context registered yet */
+        if (ssl.setIOReadAhead(32768) != WolfSSL.BAD_FUNC_ARG) {
+            System.out.println("\t... failed");
+            fail("setIOReadAhead() succeeded without a receive context");
+        }
+
+        ssl.setIOReadCtx(new Object());
+
+        if (ssl.setIOReadAhead(-1) != WolfSSL.BAD_FUNC_ARG ||
+            ssl.setIOReadAhead(32768) != WolfSSL.SSL_SUCCESS ||
+            ssl.getIOReadAheadPending() != 0 ||
+            ssl.setIOReadAhead(0) != WolfSSL.SSL_SUCCESS) {
+            System.out.println("\t... failed");
+            fail("setIOReadAhead() failed");
+        }
+
+        System.out.println("\t... passed");
+    }
+
+    public void test_WolfSSLSession_releaseIOBuffers() {
+
+        System.out.print("\treleaseIOBuffers()");
+
+        /* empty buffer is released, and set up again on resize */
+        if (ssl.setIOReadAhead(32768) != WolfSSL.SSL_SUCCESS ||
+            ssl.releaseIOBuffers() != WolfSSL.SSL_SUCCESS ||
+            ssl.releaseIOBuffers() != WolfSSL.SSL_SUCCESS ||
+            ssl.setIOReadAhead(16384) != WolfSSL.SSL_SUCCESS ||
+            ssl.setIOReadAhead(0) != WolfSSL.SSL_SUCCESS) {
+            System.out.println("\t... failed");
+            fail("releaseIOBuffers() failed");
+        }
+
+        if (ssl.setIOBufferIdleRelease(-1) != WolfSSL.BAD_FUNC_ARG ||
+            ssl.setIOBufferIdleRelease(1000) != WolfSSL.SSL_SUCCESS ||
+            ssl.setIOBufferIdleRelease(0) != WolfSSL.SSL_SUCCESS) {
+            System.out.println("\t... failed");
+            fail("setIOBufferIdleRelease() failed");
+        }
+
+        try {
+            checkReleaseIOBuffers();
+        } catch (Exception e) {
+            System.out.println("\t... failed");
+            fail("read-ahead buffer was not released and reacquired: " + e);
+        }
+
+        System.out.println("\t... passed");
+    }
+
+    /* the read-ahead buffer of a connected session is freed while idle
+     * and allocated again by the next read */
+    private void checkReleaseIOBuffers() throws Exception {
+
+        WolfSSLSession[] pair = memoryPair();
+        byte[] in = new byte[4];
+
+        try {
+            if (pair[0].setIOReadAhead(32768) != WolfSSL.SSL_SUCCESS)
+                throw new Exception("setIOReadAhead() failed");
+
+            for (int i = 0; i < 2; i++) {
+                if (pair[1].write(new byte[] { 1, 2, 3, (byte)i }, 4) != 4 ||
+                    pair[0].read(in, 4) != 4 || in[3] != (byte)i)
+                    throw new Exception("data lost on read " + i);
+
+                if (!pair[0].hasIOReadAheadBuffer())
+                    throw new Exception("no buffer after read " + i);
+
+                if (pair[0].releaseIOBuffers() != WolfSSL.SSL_SUCCESS ||
+                    pair[0].hasIOReadAheadBuffer())
+                    throw new Exception("buffer kept after release " + i);
+            }
+        } finally {
+            pair[0].freeSSL();
+            pair[1].freeSSL();
+        }
+    }
+
+    public void test_WolfSSLSession_pool() {
+
+        System.out.print("\tWolfSSLSessionPool");
+
+        try (WolfSSLSessionPool pool = new WolfSSLSessionPool(ctx, 1, 0)) {
+            WolfSSLSession s = pool.acquire();
+            pool.release(s);
+
+            if (pool.getIdleCount() != 1 || pool.acquire() != s) {
+                System.out.println("\t... failed");
+                fail("WolfSSLSessionPool failed to reuse released session");
+            }
+
+            pool.release(s);
+            pool.close();
+
+            checkPoolHandshake();
+
+            if (pool.getIdleCount() != 0) {
+                System.out.println("\t... failed");
+                fail("WolfSSLSessionPool failed to free idle sessions");
+            }
+        } catch (WolfSSLException we) {
+            System.out.println("\t... failed");
+            fail("failed to create WolfSSLSession object");
+        } catch (Exception e) {
+            System.out.println("\t... failed");
+            fail("recycled session failed: " + e);
+        }
+
+        System.out.println("\t... passed");
+    }
+
+    /* a session released to the pool completes a second handshake and
+     * carries data over its new connection */
+    private void checkPoolHandshake() throws Exception {
+
+        WolfSSLContext cliCtx = newClientContext();
+        WolfSSLContext srvCtx = newServerContext();
+        byte[] in = new byte[4];
+
+        try (WolfSSLSessionPool pool = new WolfSSLSessionPool(cliCtx, 1, 0)) {
+            WolfSSLSession cli = pool.acquire();
+
+            for (int i = 0; i < 2; i++) {
+                WolfSSLSession[] pair = connectPair(cli,
+                        new WolfSSLSession(srvCtx), false);
+                try {
+                    if (pair[0].write(new byte[] { 1, 2, 3, (byte)i }, 4)
+                            != 4 ||
+                        pair[1].read(in, 4) != 4 || in[3] != (byte)i)
+                        throw new Exception("data lost on connection " + i);
+                } finally {
+                    pair[1].freeSSL();
+                }
+
+                pool.release(cli);
+                if (pool.getIdleCount() != 1 || pool.acquire() != cli)
+                    throw new Exception("session was not reused");
+            }
+            cli.freeSSL();
+        } finally {
+            cliCtx.free();
+            srvCtx.free();
+        }
+    }
+
+    public void test_WolfSSLSession_memoryStats() {
+
+        System.out.print("\tgetNativeMemoryStats()");
+
+        WolfSSLMemoryStats global = WolfSSL.getNativeMemoryStats();
+        WolfSSLMemoryStats stats = ssl.getNativeMemoryStats();
+
+        /* newSSL() allocated the session itself */
+        if (stats == null || stats.getLiveBytes() <= 0 ||
+            stats.getAllocations() <= 0 ||
+            stats.getPeakBytes() < stats.getLiveBytes() ||
+            global.getLiveBytes() < stats.getLiveBytes()) {
+            System.out.println("\t... failed");
+            fail("getNativeMemoryStats() returned bad counters");
+        }
+
+        System.out.println("\t... passed");
+    }
+
     public void test_WolfSSLSession_freeSSL() {
 
         System.out.print("\tfreeSSL()");
         ssl.freeSSL();
         System.out.println("\t\t... passed");
     }
-}
 
+    public void test_WolfSSLSession_close() {
+
+        System.out.print("\tclose()");
+
+        try (WolfSSLSession s = new WolfSSLSession(ctx)) {
+            /* close() must not free it a second time */
+            s.freeSSL();
+        } catch (WolfSSLException we) {
+            System.out.println("\t\t... failed");
+            fail("failed to create WolfSSLSession object");
+        }
+
+        /* already freed by test_WolfSSLSession_freeSSL() */
+        ssl.freeSSL();
+
+        System.out.println("\t\t... passed");
+    }
+
+    public void test_WolfSSLSession_writeGather() {
+
+        ByteBuffer[] bad = { ByteBuffer.allocate(4), null };
+
+        System.out.print("\twrite(ByteBuffer[])");
+
+        if (ssl.write((ByteBuffer[])null, 0, 1) != WolfSSL.BAD_FUNC_ARG ||
+            ssl.write(bad, 0, 2) != WolfSSL.BAD_FUNC_ARG ||
+            ssl.write(bad, 1, 2) != WolfSSL.BAD_FUNC_ARG ||
+            ssl.write(bad, 0, 0) != WolfSSL.BAD_FUNC_ARG) {
+            System.out.println("\t... failed");
+            fail("write(ByteBuffer[]) failed to reject bad arguments");
+        }
+
+        try {
+            checkWriteGather();
+            checkParkedWriteGather();
+        } catch (Exception e) {
+            System.out.println("\t... failed");
+            fail("write(ByteBuffer[]) failed: " + e);
+        }
+
+        System.out.println("\t... passed");
+    }
+
+    /* small buffers are packed into one record, and a large gather of
+     * heap, direct and read-only buffers arrives intact */
+    private void checkWriteGather() throws Exception {
+
+        WolfSSLSession[] pair = connectPair(false);
+        byte[] body = new byte[20000];
+        byte[] in = new byte[body.length + 8];
+        ByteBuffer[] srcs;
+        int got = 0;
+        int ret;
+
+        for (int i = 0; i < body.length; i++)
+            body[i] = (byte)i;
+
+        try {
+            srcs = new ByteBuffer[] {
+                ByteBuffer.wrap(new byte[] { 1, 2, 3 }),
+                ByteBuffer.allocateDirect(4).put(new byte[] { 4, 5, 6, 7 }),
+                ByteBuffer.wrap(new byte[] { 8 }).asReadOnlyBuffer()
+            };
+            srcs[1].flip();
+            if (pair[0].write(srcs, 0, 3) != 8 || srcs[0].hasRemaining() ||
+                srcs[1].hasRemaining() || srcs[2].hasRemaining())
+                throw new Exception("short gathering write");
+
+            /* one record, so one read returns all of it */
+            if (pair[1].read(in, 0, in.length) != 8 ||
+                in[0] != 1 || in[3] != 4 || in[7] != 8)
+                throw new Exception("small buffers were not packed");
+
+            srcs = new ByteBuffer[] {
+                ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 5 }),
+                ByteBuffer.allocateDirect(body.length).put(body),
+                ByteBuffer.wrap(new byte[] { 6, 7, 8 })
+            };
+            srcs[1].flip();
+            ret = pair[0].write(srcs, 0, 3);
+            if (ret != body.length + 8)
+                throw new Exception("wrote " + ret + " bytes");
+
+            while (got < in.length) {
+                ret = pair[1].read(in, got, in.length - got);
+                if (ret <= 0 || ret > 16384)
+                    throw new Exception("read returned " + ret);
+                got += ret;
+            }
+            for (int i = 0; i < body.length; i++) {
+                if (in[5 + i] != body[i])
+                    throw new Exception("data differs at " + i);
+            }
+            if (in[0] != 1 || in[4] != 5 || in[in.length - 1] != 8)
+                throw new Exception("header or trailer differs");
+        } finally {
+            pair[0].freeSSL();
+            pair[1].freeSSL();
+        }
+    }
+
+    /* in park mode a gathering write only returns once every buffer has
+     * been written, however many records that takes */
+    private void checkParkedWriteGather() throws Exception {
+
+        final WolfSSLSession[] pair = connectPair(true);
+        final ByteBuffer[] srcs = {
+            ByteBuffer.allocate(3 * 1024 * 1024),
+            ByteBuffer.allocateDirect(2 * 1024 * 1024 + 7)
+        };
+        final int[] sent = new int[1];
+        int total = srcs[0].remaining() + srcs[1].remaining();
+        byte[] in = new byte[16384];
+        Thread writer;
+        int got = 0;
+
+        try {
+            writer = new Thread(new Runnable() {
+                public void run() {
+                    sent[0] = pair[0].write(srcs, 0, srcs.length);
+                }
+            });
+            writer.start();
+
+            while (got < total) {
+                int ret = pair[1].read(in, 0, in.length);
+                if (ret <= 0)
+                    throw new Exception("read returned " + ret);
+                got += ret;
+            }
+            writer.join();
+
+            if (sent[0] != total || srcs[0].hasRemaining() ||
+                srcs[1].hasRemaining())
+                throw new Exception("parked write returned " + sent[0] +
+                        " of " + total + " bytes");
+        } finally {
+            pair[0].freeSSL();
+            pair[1].freeSSL();
+        }
+    }
+
+    public void test_WolfSSLSession_pollerWaiters() {
+
+        System.out.print("	WolfSSLPoller waiters");
+
+        try {
+            checkPollerWaiters();
+        } catch (Exception e) {
+            System.out.println("	... failed");
+            fail("poller lost a waiter: " + e);
+        }
+
+        System.out.println("	... passed");
+    }
+
+    /* two threads waiting to read the same channel are both woken */
+    private void checkPollerWaiters() throws Exception {
+
+        ServerSocketChannel listen = ServerSocketChannel.open();
+        final SocketChannel ch;
+        SocketChannel peer;
+        final WolfSSLPoller poller = WolfSSLPoller.getInstance();
+        final boolean[] woken = new boolean[2];
+        Thread[] waiters = new Thread[2];
+
+        try {
+            listen.socket().bind(new InetSocketAddress(
+                    InetAddress.getByName("127.0.0.1"), 0));
+            ch = SocketChannel.open(listen.socket().getLocalSocketAddress());
+            peer = listen.accept();
+        } finally {
+            listen.close();
+        }
+
+        try {
+            ch.configureBlocking(false);
+
+            for (int i = 0; i < waiters.length; i++) {
+                final int n = i;
+                waiters[i] = new Thread(new Runnable() {
+                    public void run() {
+                        woken[n] = poller.await(ch, SelectionKey.OP_READ,
+                                5000);
+                    }
+                });
+                waiters[i].start();
+            }
+
+            /* let both waits register before the channel turns readable */
+            Thread.sleep(200);
+            peer.write(ByteBuffer.wrap(new byte[] { 1 }));
+
+            for (Thread t : waiters)
+                t.join();
+
+            if (!woken[0] || !woken[1])
+                throw new Exception("woken: " + woken[0] + ", " + woken[1]);
+        } finally {
+            ch.close();
+            peer.close();
+        }
+    }
+
+    public void test_WolfSSLSession_readScatter() {
+
+        ByteBuffer[] bad = {
+            ByteBuffer.allocate(4), ByteBuffer.allocate(4).asReadOnlyBuffer()
+        };
+
+        System.out.print("\tread(ByteBuffer[])");
+
+        if (ssl.read((ByteBuffer[])null) != WolfSSL.BAD_FUNC_ARG ||
+            ssl.read(bad) != WolfSSL.BAD_FUNC_ARG ||
+            ssl.read(bad, 2, 1) != WolfSSL.BAD_FUNC_ARG ||
+            ssl.read(new ByteBuffer[] { null }) != WolfSSL.BAD_FUNC_ARG) {
+            System.out.println("\t... failed");
+            fail("read(ByteBuffer[]) failed to reject bad arguments");
+        }
+
+        try {
+            checkReadScatter();
+        } catch (Exception e) {
+            System.out.println("\t... failed");
+            fail("read(ByteBuffer[]) failed: " + e);
+        }
+
+        System.out.println("\t... passed");
+    }
+
+    /* a record is spread over heap and direct buffers, with the rest
+     * left pending for the next read */
+    private void checkReadScatter() throws Exception {
+
+        WolfSSLSession[] pair = connectPair(false);
+        byte[] out = new byte[3000];
+        byte[] rest = new byte[out.length];
+        ByteBuffer[] dsts = {
+            ByteBuffer.allocate(1000), ByteBuffer.allocateDirect(1000)
+        };
+
+        for (int i = 0; i < out.length; i++)
+            out[i] = (byte)i;
+
+        try {
+            if (pair[0].write(out, 0, out.length) != out.length)
+                throw new Exception("write failed");
+
+            if (pair[1].pending() != 0)
+                throw new Exception("data pending before any read");
+
+            /* a blocking scatter read stops once the record runs out,
+             * it does not wait for more data to fill the buffers */
+            if (pair[1].read(dsts) != 2000 || dsts[0].hasRemaining() ||
+                dsts[1].hasRemaining())
+                throw new Exception("buffers not filled from one record");
+
+            if (pair[1].pending() != 1000)
+                throw new Exception("pending() = " + pair[1].pending());
+
+            if (pair[1].read(rest, 0, rest.length) != 1000 ||
+                pair[1].pending() != 0)
+                throw new Exception("rest of the record not returned");
+
+            dsts[0].flip();
+            dsts[1].flip();
+            for (int i = 0; i < 1000; i++) {
+                if (dsts[0].get(i) != out[i] ||
+                    dsts[1].get(i) != out[1000 + i] ||
+                    rest[i] != out[2000 + i])
+                    throw new Exception("data differs at " + i);
+            }
+        } finally {
+            pair[0].freeSSL();
+            pair[1].freeSSL();
+        }
+    }
+
+    /* ---------------------------- helpers ----------------------------- */
+
+    /* one direction of an in-memory transport, set as the read context
+     * of one session and the write context of its peer */
+    static class MemoryPipe {
+
+        private final ByteBuffer data = ByteBuffer.allocate(128 * 1024);
+
+        synchronized int read(ByteBuffer dst) {
+
+            int n;
+
+            data.flip();
+            n = Math.min(data.remaining(), dst.remaining());
+            if (n > 0) {
+                ByteBuffer src = data.duplicate();
+                src.limit(src.position() + n);
+                dst.put(src);
+                data.position(data.position() + n);
+            }
+            data.compact();
+
+            return (n > 0) ? n : WolfSSL.CYASSL_CBIO_ERR_WANT_READ;
+        }
+
+        synchronized int write(ByteBuffer src) {
+
+            int n = Math.min(data.remaining(), src.remaining());
+
+            if (n == 0)
+                return WolfSSL.CYASSL_CBIO_ERR_WANT_WRITE;
+
+            src = src.duplicate();
+            src.limit(src.position() + n);
+            data.put(src);
+
+            return n;
+        }
+    }
+
+    static final WolfSSLByteBufferIORecvCallback MEMORY_RECV =
+        new WolfSSLByteBufferIORecvCallback() {
+            public int receiveCallback(WolfSSLSession ssl, ByteBuffer buf,
+                    Object ctx) {
+                return ((MemoryPipe)ctx).read(buf);
+            }
+        };
+
+    static final WolfSSLByteBufferIOSendCallback MEMORY_SEND =
+        new WolfSSLByteBufferIOSendCallback() {
+            public int sendCallback(WolfSSLSession ssl, ByteBuffer buf,
+                    Object ctx) {
+                return ((MemoryPipe)ctx).write(buf);
+            }
+        };
+
+    /* new client and server contexts, connected with memoryPair() */
+    static WolfSSLSession[] memoryPair() throws Exception {
+
+        WolfSSLContext cliCtx = newClientContext();
+        WolfSSLContext srvCtx = newServerContext();
+
+        for (WolfSSLContext c : new WolfSSLContext[] { cliCtx, srvCtx }) {
+            c.setIORecv(MEMORY_RECV);
+            c.setIOSend(MEMORY_SEND);
+        }
+
+        return memoryPair(new WolfSSLSession(cliCtx),
+                new WolfSSLSession(srvCtx));
+    }
+
+    /**
+     * Connects a client and a server session over in-memory pipes, using
+     * the ByteBuffer I/O callbacks of their contexts, and completes the
+     * handshake on the calling thread.
+     *
+     * @return      client session, server session
+     */
+    static WolfSSLSession[] memoryPair(WolfSSLSession cli,
+            WolfSSLSession srv) throws Exception {
+
+        MemoryPipe toClient = new MemoryPipe();
+        MemoryPipe toServer = new MemoryPipe();
+        int cliRet = 0;
+        int srvRet = 0;
+
+        cli.setIOReadCtx(toClient);
+        cli.setIOWriteCtx(toServer);
+        srv.setIOReadCtx(toServer);
+        srv.setIOWriteCtx(toClient);
+
+        /* each call runs until it needs the peer's next flight */
+        for (int i = 0; i < 20; i++) {
+            if (cliRet != WolfSSL.SSL_SUCCESS)
+                cliRet = cli.connect();
+            if (srvRet != WolfSSL.SSL_SUCCESS)
+                srvRet = srv.accept();
+
+            if (cliRet == WolfSSL.SSL_SUCCESS &&
+                srvRet == WolfSSL.SSL_SUCCESS)
+                return new WolfSSLSession[] { cli, srv };
+
+            if ((cliRet != WolfSSL.SSL_SUCCESS &&
+                 cli.getError(cliRet) != WolfSSL.SSL_ERROR_WANT_READ) ||
+                (srvRet != WolfSSL.SSL_SUCCESS &&
+                 srv.getError(srvRet) != WolfSSL.SSL_ERROR_WANT_READ))
+                break;
+        }
+
+        cli.freeSSL();
+        srv.freeSSL();
+        throw new WolfSSLException("memory handshake failed: " + cliRet +
+                ", " + srvRet);
+    }
+
+    static WolfSSLContext newServerContext() throws WolfSSLException {
+
+        WolfSSLContext c = new WolfSSLContext(WolfSSL.SSLv23_ServerMethod());
+
+        if (c.useCertificateFile(srvCert, WolfSSL.SSL_FILETYPE_PEM) !=
+                WolfSSL.SSL_SUCCESS ||
+            c.usePrivateKeyFile(srvKey, WolfSSL.SSL_FILETYPE_PEM) !=
+                WolfSSL.SSL_SUCCESS) {
+            c.free();
+            throw new WolfSSLException("failed to load server key material");
+        }
+
+        return c;
+    }
+
+    static WolfSSLContext newClientContext() throws WolfSSLException {
+
+        WolfSSLContext c = new WolfSSLContext(WolfSSL.SSLv23_ClientMethod());
+
+        if (c.loadVerifyLocations(caCert, null) != WolfSSL.SSL_SUCCESS) {
+            c.free();
+            throw new WolfSSLException("failed to load CA certificate");
+        }
+
+        return c;
+    }
+
+    /* new client and server contexts, connected with connectPair() */
+    static WolfSSLSession[] connectPair(boolean park) throws Exception {
+        return connectPair(newClientContext(), newServerContext(), park);
+    }
+
+    /**
+     * Connects a client and a server session over loopback TCP and
+     * completes the handshake, the server side on a second thread.
+     *
+     * @param park  use park-on-would-block mode, so native I/O is
+     *              non-blocking, rather than blocking channels
+     * @return      client session, server session
+     */
+    static WolfSSLSession[] connectPair(WolfSSLContext cliCtx,
+            WolfSSLContext srvCtx, boolean park) throws Exception {
+        return connectPair(new WolfSSLSession(cliCtx),
+                new WolfSSLSession(srvCtx), park);
+    }
+
+    /* connects existing sessions, freeing both if the handshake fails */
+    static WolfSSLSession[] connectPair(final WolfSSLSession cli,
+            final WolfSSLSession srv, boolean park) throws Exception {
+
+        final int[] accepted = new int[1];
+        ServerSocketChannel listen = ServerSocketChannel.open();
+        Thread server;
+        int ret;
+
+        try {
+            listen.socket().bind(new InetSocketAddress(
+                    InetAddress.getByName("127.0.0.1"), 0));
+            cli.setFd(SocketChannel.open(
+                    listen.socket().getLocalSocketAddress()));
+            srv.setFd(listen.accept());
+        } finally {
+            listen.close();
+        }
+
+        if (park) {
+            cli.setParkOnWouldBlock(true, 10000);
+            srv.setParkOnWouldBlock(true, 10000);
+        }
+
+        server = new Thread(new Runnable() {
+            public void run() {
+                accepted[0] = srv.accept();
+            }
+        });
+        server.start();
+        ret = cli.connect();
+        server.join();
+
+        if (ret != WolfSSL.SSL_SUCCESS || accepted[0] != WolfSSL.SSL_SUCCESS) {
+            cli.freeSSL();
+            srv.freeSSL();
+            throw new WolfSSLException("handshake failed: " + ret + ", " +
+                    accepted[0]);
+        }
+
+        return new WolfSSLSession[] { cli, srv };
+    }
+}
@@ -48,6 +48,7 @@ public class WolfSSLTest {
 
         test_WolfSSL_new(lib);
         test_WolfSSL_Method_Allocators(lib);
+        test_WolfSSL_asyncLogging();
 
     }
 
@@ -84,6 +85,24 @@ public class WolfSSLTest {
         tstMethod(lib.SSLv23_ClientMethod(), "SSLv23_ClientMethod()");
     }
 
+    public void test_WolfSSL_asyncLogging() {
+
+        System.out.print("\tenableAsyncLogging()");
+
+        if (WolfSSL.enableAsyncLogging(0) != WolfSSL.BAD_FUNC_ARG ||
+            WolfSSL.enableAsyncLogging(1024) != WolfSSL.SSL_SUCCESS ||
+            WolfSSL.getDroppedLogCount() < 0) {
+            System.out.println("\t... failed");
+            fail("enableAsyncLogging() failed");
+        }
+
+        WolfSSL.setLoggingLevel(WolfSSL.INFO_LOG);
+        WolfSSL.disableAsyncLogging();
+        WolfSSL.setLoggingLevel(WolfSSL.OTHER_LOG);
+
+        System.out.println("\t... passed");
+    }
+
     public void tstMethod(long method, String name) {
        
         System.out.print("\t" + name);
@@ -29,6 +29,10 @@ import org.junit.runners.Suite;
     WolfSSLTest.class,
     WolfSSLContextTest.class,
     WolfSSLSessionTest.class,
+    WolfSSLEngineTest.class,
+    WolfSSLSelectorServerTest.class,
+    WolfSSLAsyncChannelTest.class,
+    com.wolfssl.provider.WolfSSLProviderTest.class,
     WolfCryptRSATest.class,
     WolfCryptECCTest.class
 })
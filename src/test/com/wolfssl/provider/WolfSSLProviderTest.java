@@ -0,0 +1,467 @@
+/* WolfSSLProviderTest.java
+ *
+ * Copyright (C) 2006-2014 wolfSSL Inc.
+ *
+ * This file is part of CyaSSL.
+ *
+ * CyaSSL is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * CyaSSL is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package com.wolfssl.provider;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.KeyFactory;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+public class WolfSSLProviderTest {
+
+    public final static String caCert = "./examples/certs/ca-cert.pem";
+    public final static String srvCert = "./examples/certs/server-cert.pem";
+    public final static String srvKey = "./examples/certs/server-key.pem";
+    public final static String cliCert = "./examples/certs/client-cert.pem";
+    public final static String cliKey = "./examples/certs/client-key.pem";
+
+    /* AlgorithmIdentifier of rsaEncryption, for wrapping PKCS#1 keys */
+    private static final byte[] RSA_ALG_ID = {
+        0x30, 0x0d, 0x06, 0x09, 0x2a, (byte)0x86, 0x48, (byte)0x86,
+        (byte)0xf7, 0x0d, 0x01, 0x01, 0x01, 0x05, 0x00
+    };
+
+    WolfSSLProvider provider;
+    SSLContext ctx;
+
+    /* accepts any peer, the handshake never completes in this test */
+    private static final TrustManager[] trustAll = new TrustManager[] {
+        new X509TrustManager() {
+            public void checkClientTrusted(X509Certificate[] c, String a) { }
+            public void checkServerTrusted(X509Certificate[] c, String a) { }
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }
+    };
+
+    @Test
+    public void testWolfSSLProvider() throws Exception {
+
+        System.out.println("WolfSSLProvider Class");
+
+        test_WolfSSLProvider_new();
+        test_WolfSSLProvider_getSSLContext();
+        test_WolfSSLProvider_engineClientHello();
+        test_WolfSSLProvider_engineHandshake();
+        test_WolfSSLProvider_engineNeedClientAuth();
+        test_WolfSSLProvider_engineProtocols();
+        test_WolfSSLProvider_engineEndpointIdentification();
+    }
+
+    public void test_WolfSSLProvider_new() {
+
+        System.out.print("\tWolfSSLProvider()");
+        provider = new WolfSSLProvider();
+        if (!provider.getName().equals(WolfSSLProvider.NAME)) {
+            System.out.println("\t... failed");
+            fail("unexpected provider name");
+        }
+        System.out.println("\t... passed");
+    }
+
+    public void test_WolfSSLProvider_getSSLContext() throws Exception {
+
+        System.out.print("\tSSLContext.getInstance()");
+        ctx = SSLContext.getInstance("TLS", provider);
+        ctx.init(null, trustAll, null);
+        if (ctx.getSocketFactory() == null ||
+            ctx.getServerSocketFactory() == null) {
+            System.out.println("\t... failed");
+            fail("SSLContext returned no socket factories");
+        }
+        System.out.println("\t... passed");
+    }
+
+    public void test_WolfSSLProvider_engineClientHello() throws Exception {
+
+        SSLEngine engine;
+        SSLEngineResult res;
+        ByteBuffer app = ByteBuffer.allocate(0);
+        ByteBuffer net;
+
+        System.out.print("\tSSLEngine.wrap()");
+
+        engine = ctx.createSSLEngine("localhost", 11111);
+        engine.setUseClientMode(true);
+        net = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+
+        engine.beginHandshake();
+        res = engine.wrap(app, net);
+        if (res.getStatus() != SSLEngineResult.Status.OK ||
+            res.bytesProduced() == 0 ||
+            engine.getHandshakeStatus() !=
+                SSLEngineResult.HandshakeStatus.NEED_UNWRAP) {
+            System.out.println("\t... failed");
+            fail("wrap() did not produce ClientHello");
+        }
+
+        engine.closeOutbound();
+        System.out.println("\t... passed");
+    }
+
+    public void test_WolfSSLProvider_engineHandshake() throws Exception {
+
+        SSLContext srvCtx = newContext(srvCert, srvKey, caCert);
+        SSLContext cliCtx = newContext(null, null, caCert);
+        SSLEngine srv = srvCtx.createSSLEngine();
+        SSLEngine cli = cliCtx.createSSLEngine("localhost", 11111);
+        java.security.cert.Certificate[] peer;
+
+        System.out.print("\tSSLEngine handshake");
+
+        srv.setUseClientMode(false);
+        cli.setUseClientMode(true);
+        handshake(cli, srv);
+
+        /* the server certificate is read back through x509_getDer() */
+        peer = cli.getSession().getPeerCertificates();
+        if (peer.length == 0 ||
+            !((X509Certificate)peer[0]).getSubjectX500Principal().getName()
+                .contains("O=yaSSL")) {
+            System.out.println("\t... failed");
+            fail("client did not receive the server certificate");
+        }
+
+        System.out.println("\t... passed");
+    }
+
+    public void test_WolfSSLProvider_engineNeedClientAuth()
+        throws Exception {
+
+        /* the server trust manager has no accepted issuers, so wolfSSL
+         * can't verify the client and the trust manager decides */
+        SSLContext srvCtx = newContext(srvCert, srvKey, trustAll);
+        SSLEngine srv;
+        SSLEngine cli;
+
+        System.out.print("\tSSLEngine needClientAuth");
+
+        /* a client without a certificate must be refused */
+        srv = srvCtx.createSSLEngine();
+        srv.setUseClientMode(false);
+        srv.setNeedClientAuth(true);
+        cli = newContext(null, null, caCert).createSSLEngine(
+                "localhost", 11111);
+        cli.setUseClientMode(true);
+        try {
+            handshake(cli, srv);
+            System.out.println("\t... failed");
+            fail("server accepted a client without a certificate");
+        } catch (SSLException e) {
+            /* expected */
+        }
+
+        /* and a client with one accepted, with its certificate visible */
+        srv = srvCtx.createSSLEngine();
+        srv.setUseClientMode(false);
+        srv.setNeedClientAuth(true);
+        cli = newContext(cliCert, cliKey, caCert).createSSLEngine(
+                "localhost", 11111);
+        cli.setUseClientMode(true);
+        handshake(cli, srv);
+        if (srv.getSession().getPeerCertificates().length == 0) {
+            System.out.println("\t... failed");
+            fail("server did not receive the client certificate");
+        }
+
+        System.out.println("\t... passed");
+    }
+
+    public void test_WolfSSLProvider_engineProtocols() throws Exception {
+
+        SSLContext srvCtx = newContext(srvCert, srvKey, caCert);
+        SSLContext cliCtx = newContext(null, null, caCert);
+        SSLEngine srv;
+        SSLEngine cli;
+
+        System.out.print("\tSSLEngine enabled protocols");
+
+        /* a server restricted to TLS 1.1 and 1.2 must refuse TLS 1.0 */
+        srv = srvCtx.createSSLEngine();
+        srv.setUseClientMode(false);
+        srv.setEnabledProtocols(new String[] { "TLSv1.1", "TLSv1.2" });
+        cli = cliCtx.createSSLEngine("localhost", 11111);
+        cli.setUseClientMode(true);
+        cli.setEnabledProtocols(new String[] { "TLSv1" });
+        try {
+            handshake(cli, srv);
+            System.out.println("\t... failed");
+            fail("server negotiated a protocol that is not enabled");
+        } catch (SSLException e) {
+            /* expected */
+        }
+
+        /* but still accept an enabled protocol older than its newest */
+        srv = srvCtx.createSSLEngine();
+        srv.setUseClientMode(false);
+        srv.setEnabledProtocols(new String[] { "TLSv1.1", "TLSv1.2" });
+        cli = cliCtx.createSSLEngine("localhost", 11111);
+        cli.setUseClientMode(true);
+        cli.setEnabledProtocols(new String[] { "TLSv1.1" });
+        handshake(cli, srv);
+        if (!cli.getSession().getProtocol().equals("TLSv1.1") ||
+            !srv.getSession().getProtocol().equals("TLSv1.1")) {
+            System.out.println("\t... failed");
+            fail("unexpected protocol " + cli.getSession().getProtocol());
+        }
+
+        System.out.println("\t... passed");
+    }
+
+    public void test_WolfSSLProvider_engineEndpointIdentification()
+        throws Exception {
+
+        SSLContext srvCtx = newContext(srvCert, srvKey, caCert);
+        SSLContext cliCtx = newContext(null, null, caCert);
+        SSLEngine srv;
+        SSLEngine cli;
+        SSLParameters sp;
+
+        System.out.print("\tSSLEngine endpoint identification");
+
+        /* unsupported algorithms are rejected, not ignored */
+        cli = cliCtx.createSSLEngine("localhost", 11111);
+        sp = cli.getSSLParameters();
+        sp.setEndpointIdentificationAlgorithm("LDAPS");
+        try {
+            cli.setSSLParameters(sp);
+            System.out.println("\t... failed");
+            fail("setSSLParameters accepted LDAPS");
+        } catch (IllegalArgumentException e) {
+            /* expected */
+        }
+
+        /* the server certificate is issued to www.yassl.com */
+        for (String host : new String[] { "localhost", "www.yassl.com" }) {
+            srv = srvCtx.createSSLEngine();
+            srv.setUseClientMode(false);
+            cli = cliCtx.createSSLEngine(host, 11111);
+            cli.setUseClientMode(true);
+            sp = cli.getSSLParameters();
+            sp.setEndpointIdentificationAlgorithm("HTTPS");
+            cli.setSSLParameters(sp);
+            sp = cli.getSSLParameters();
+            if (!"HTTPS".equals(sp.getEndpointIdentificationAlgorithm())) {
+                System.out.println("\t... failed");
+                fail("endpoint identification algorithm not kept");
+            }
+
+            try {
+                handshake(cli, srv);
+                if (host.equals("localhost")) {
+                    System.out.println("\t... failed");
+                    fail("server certificate accepted for localhost");
+                }
+            } catch (SSLException e) {
+                if (!host.equals("localhost")) {
+                    System.out.println("\t... failed");
+                    fail("server certificate rejected for " + host);
+                }
+            }
+        }
+
+        System.out.println("\t... passed");
+    }
+
+    /* ---------------------------- helpers ----------------------------- */
+
+    /* SSLContext with the given key material, null for none, trusting
+     * only the CA certificate in caFile */
+    static SSLContext newContext(String certFile, String keyFile,
+            String caFile) throws Exception {
+
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance("PKIX");
+        KeyStore trust = KeyStore.getInstance(KeyStore.getDefaultType());
+
+        trust.load(null, null);
+        trust.setCertificateEntry("ca", readCerts(caFile)[0]);
+        tmf.init(trust);
+
+        return newContext(certFile, keyFile, tmf.getTrustManagers());
+    }
+
+    static SSLContext newContext(String certFile, String keyFile,
+            TrustManager[] tms) throws Exception {
+
+        SSLContext c = SSLContext.getInstance("TLS", new WolfSSLProvider());
+        KeyManager[] kms = null;
+
+        if (certFile != null)
+            kms = newKeyManagers(certFile, keyFile);
+
+        c.init(kms, tms, null);
+
+        return c;
+    }
+
+    static KeyManager[] newKeyManagers(String certFile, String keyFile)
+        throws Exception {
+
+        char[] pass = "wolfSSL".toCharArray();
+        KeyStore ks = KeyStore.getInstance(KeyStore.getDefaultType());
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(
+                KeyManagerFactory.getDefaultAlgorithm());
+
+        ks.load(null, null);
+        ks.setKeyEntry("key", readRsaKey(keyFile), pass, readCerts(certFile));
+        kmf.init(ks, pass);
+
+        return kmf.getKeyManagers();
+    }
+
+    static Certificate[] readCerts(String file) throws Exception {
+
+        FileInputStream in = new FileInputStream(file);
+
+        try {
+            return CertificateFactory.getInstance("X.509")
+                .generateCertificates(in).toArray(new Certificate[0]);
+        } finally {
+            in.close();
+        }
+    }
+
+    /* reads a PEM "RSA PRIVATE KEY", wrapping it as PKCS#8 for Java */
+    static PrivateKey readRsaKey(String file) throws Exception {
+
+        String pem = new String(Files.readAllBytes(Paths.get(file)),
+                Charset.forName("US-ASCII"));
+        byte[] pkcs1 = base64(pem.replaceAll("-----[^-]*-----", ""));
+        byte[] pkcs8 = der(0x30, new byte[] { 0x02, 0x01, 0x00 },
+                RSA_ALG_ID, der(0x04, pkcs1));
+
+        return KeyFactory.getInstance("RSA").generatePrivate(
+                new PKCS8EncodedKeySpec(pkcs8));
+    }
+
+    private static byte[] der(int tag, byte[]... parts) {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int len = 0;
+
+        for (byte[] p : parts)
+            len += p.length;
+
+        out.write(tag);
+        if (len < 0x80) {
+            out.write(len);
+        } else if (len < 0x100) {
+            out.write(0x81);
+            out.write(len);
+        } else {
+            out.write(0x82);
+            out.write(len >> 8);
+            out.write(len & 0xff);
+        }
+        for (byte[] p : parts)
+            out.write(p, 0, p.length);
+
+        return out.toByteArray();
+    }
+
+    private static byte[] base64(String s) {
+
+        String alphabet =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int bits = 0;
+        int n = 0;
+
+        for (char c : s.toCharArray()) {
+            int v = alphabet.indexOf(c);
+            if (v < 0)
+                continue;
+            bits = (bits << 6) | v;
+            n += 6;
+            if (n >= 8) {
+                n -= 8;
+                out.write((bits >> n) & 0xff);
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    /* Drives two engines against each other through memory until neither
+     * has handshake work left. Throws the first engine error. */
+    static void handshake(SSLEngine cli, SSLEngine srv) throws SSLException {
+
+        ByteBuffer empty = ByteBuffer.allocate(0);
+        ByteBuffer app = ByteBuffer.allocate(32 * 1024);
+        ByteBuffer toSrv = ByteBuffer.allocate(64 * 1024);
+        ByteBuffer toCli = ByteBuffer.allocate(64 * 1024);
+
+        cli.beginHandshake();
+        srv.beginHandshake();
+
+        for (int i = 0; i < 100; i++) {
+            boolean busy = step(cli, empty, toSrv, toCli, app);
+            busy |= step(srv, empty, toCli, toSrv, app);
+            if (!busy && toSrv.position() == 0 && toCli.position() == 0)
+                return;
+        }
+
+        throw new SSLException("handshake did not complete");
+    }
+
+    /* one wrap() and one unwrap(), true while handshaking */
+    private static boolean step(SSLEngine e, ByteBuffer empty,
+            ByteBuffer out, ByteBuffer in, ByteBuffer app)
+        throws SSLException {
+
+        e.wrap(empty, out);
+
+        in.flip();
+        app.clear();
+        e.unwrap(in, app);
+        in.compact();
+
+        return e.getHandshakeStatus() !=
+            SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING;
+    }
+}